@@ -24,7 +24,16 @@ import path from 'path'
 const __filename = fileURLToPath(import.meta.url)
 const __dirname = dirname(__filename)
 
-const peerIdPath = path.resolve(__dirname, 'data/peer-id.pb')
+// 1台のマシンで複数のリレーを動かす場合は、ポートと PeerID の保存先を環境変数で変える
+const wsPort = Number(process.env.RELAY_WS_PORT ?? 9001)
+const tcpPort = Number(process.env.RELAY_TCP_PORT ?? 9002)
+const maxReservations = Number(process.env.RELAY_MAX_RESERVATIONS ?? 512)
+const peerIdPath = path.resolve(__dirname, process.env.RELAY_PEER_ID_PATH ?? 'data/peer-id.pb')
+
+// 負荷の報告先（例: http://localhost:8080）と共有トークン（サーバーの relay.report-token）
+const reportUrl = process.env.P2PCHAT_URL
+const reportToken = process.env.RELAY_REPORT_TOKEN
+const reportIntervalMs = Number(process.env.RELAY_REPORT_INTERVAL_MS ?? 15_000)
 
 async function loadOrCreatePeerId() {
   try {
@@ -45,8 +54,8 @@ async function main() {
     peerId,
     addresses: {
       listen: [
-        '/ip4/0.0.0.0/tcp/9001/ws',
-        '/ip4/0.0.0.0/tcp/9002'
+        `/ip4/0.0.0.0/tcp/${wsPort}/ws`,
+        `/ip4/0.0.0.0/tcp/${tcpPort}`
       ]
     },
     transports: [webSockets(), tcp()],
@@ -61,7 +70,7 @@ async function main() {
       relay: circuitRelayServer({
         // allow up to 128 reservations, max 4 per peer, 2‑minute TTL
         reservations: {
-          maxReservations: 512,
+          maxReservations,
           maxReservationsPerPeer: 4,
           defaultDuration: 2 * 60_000  // 2 minutes
         }
@@ -72,6 +81,33 @@ async function main() {
 
   console.log('PeerID: ', libp2p.peerId.toString())
   console.log('Multiaddrs: ', libp2p.getMultiaddrs())
+
+  if (reportUrl && reportToken) {
+    setInterval(() => reportLoad(libp2p), reportIntervalMs)
+    reportLoad(libp2p)
+  }
+}
+
+// 現在の予約数をサーバーへ報告する（RelayRegistry が負荷の低いリレーを割り当てるのに使う）
+async function reportLoad(libp2p) {
+  // @ts-ignore 予約の一覧は circuit-relay-v2 の公開 API に無いため内部の reservationStore を参照する
+  const reservations = libp2p.services.relay.reservationStore?.reservations?.size ?? 0
+  try {
+    const res = await fetch(`${reportUrl}/api/relays/load`, {
+      method: 'POST',
+      headers: { 'Content-Type': 'application/json', 'X-Relay-Token': reportToken },
+      body: JSON.stringify({
+        peerId: libp2p.peerId.toString(),
+        reservations,
+        maxReservations
+      })
+    })
+    if (!res.ok) {
+      console.warn('負荷の報告に失敗しました: ', res.status)
+    }
+  } catch (err) {
+    console.warn('負荷の報告に失敗しました: ', err)
+  }
 }
 
 main()
@@ -0,0 +1,89 @@
+package com.example.p2pchat.benchmark;
+
+import com.example.p2pchat.util.SuggestionGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 友達候補のグラフ（SuggestionGraph）で、1ユーザー分と多数のユーザー分（fork/join）の候補の計算時間を計測します。
+ * アプリケーションは起動せず、紹介の木と友達関係を模した辺数 edges のグラフを直接作ります。
+ * 友達は半分を近い番号のユーザー（同じコミュニティ）、半分を番号の小さいユーザーに偏らせて選び、つながりの多いユーザーを作ります。
+ * 目安は 100 万辺で1ユーザーあたり 5 ms 未満です（suggestOne の平均時間）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class FriendSuggestionBenchmarks {
+
+    private static final int LIMIT = 10;
+    private static final int MAX_HUB_DEGREE = 10_000;
+    private static final int COMMUNITY_SIZE = 500;
+
+    // suggestBatch で1回に計算するユーザー数
+    private static final int BATCH = 1024;
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"1000000"})
+    private int edges;
+
+    private SuggestionGraph graph;
+    private ForkJoinPool pool;
+    private int[] batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        SuggestionGraph.Builder builder = SuggestionGraph.builder();
+        // 紹介の木: 各ユーザーは先に登録したユーザーのだれかに紹介される
+        for (int user = 2; user <= users; user++) {
+            builder.accept(1 + random.nextInt(user - 1), user);
+        }
+        for (int i = users - 1; i < edges; i++) {
+            int user = 1 + random.nextInt(users);
+            int friend;
+            if (random.nextBoolean()) {
+                friend = Math.floorMod(user + random.nextInt(-COMMUNITY_SIZE, COMMUNITY_SIZE), users) + 1;
+            } else {
+                double r = random.nextDouble();
+                friend = 1 + (int) (users * r * r * r);
+            }
+            builder.accept(user, friend);
+        }
+        graph = new SuggestionGraph(MAX_HUB_DEGREE, Runtime.getRuntime().availableProcessors());
+        graph.replaceAll(builder);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        batch = new int[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            batch[i] = 1 + random.nextInt(users);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    // ランダムなユーザー1人の候補を計算する（GET /api/friends/suggestions のうちグラフの計算）
+    @Benchmark
+    public List<SuggestionGraph.Candidate> suggestOne() {
+        return graph.suggest(1 + ThreadLocalRandom.current().nextInt(users), LIMIT, (node, candidate) -> false);
+    }
+
+    // BATCH 人分の候補を fork/join で並列に計算する。時間はユーザー1人あたり
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public SuggestionGraph.Candidate[][] suggestBatch() {
+        return graph.suggestAll(batch, LIMIT, (node, candidate) -> false, pool);
+    }
+}
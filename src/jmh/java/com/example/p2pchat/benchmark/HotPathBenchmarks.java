@@ -0,0 +1,99 @@
+package com.example.p2pchat.benchmark;
+
+import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.OnlinePeerDto;
+import com.example.p2pchat.service.FriendService;
+import com.example.p2pchat.service.OnlinePeerService;
+import com.example.p2pchat.service.UserDetailsServiceImpl;
+import com.example.p2pchat.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * サービス・リポジトリの主要な処理を、投入済みユーザー数（users）ごとに計測します。
+ * ./gradlew jmh で実行し、結果は build/reports/jmh/ に JSON で保存されます（gc プロファイラーの割り当て量を含む）。
+ * 対象ユーザーは毎回ランダムに選ぶため、キャッシュに載っている状態と載っていない状態が混ざります。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class HotPathBenchmarks {
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    private SeededApplication application;
+    private FriendService friendService;
+    private OnlinePeerService onlinePeerService;
+    private UserService userService;
+    private UserDetailsServiceImpl userDetailsService;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        application = new SeededApplication(users);
+        friendService = application.bean(FriendService.class);
+        onlinePeerService = application.bean(OnlinePeerService.class);
+        userService = application.bean(UserService.class);
+        userDetailsService = application.bean(UserDetailsServiceImpl.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        application.close();
+    }
+
+    // 友達同士（隣のユーザー）でチャットできるかを判定する
+    @Benchmark
+    public boolean canChat() {
+        int index = randomIndex();
+        return friendService.canChat(userOf(index), userOf((index + 1) % users));
+    }
+
+    // ログイン中ユーザーのオンラインの友達一覧を取得する（GET /api/online で ETag が一致しなかった場合の処理）
+    @Benchmark
+    public List<OnlinePeerDto> getFriendsOnline() {
+        Long userId = application.userId(randomIndex());
+        onlinePeerService.onlineFriendsTag(userId);
+        return onlinePeerService.findOnlineFriendsOf(userId);
+    }
+
+    // 紹介コードで新規ユーザーを登録する（毎回新しいユーザーが増える）
+    @Benchmark
+    public void register() {
+        userService.register(SeededApplication.REFERRAL_CODE, "password", "jmh" + sequence.incrementAndGet());
+    }
+
+    // 友達ではないユーザー（反対側のユーザー）にフレンド申請を送る
+    @Benchmark
+    public void sendFriendRequest() {
+        int index = randomIndex();
+        userService.sendFriendRequest(SeededApplication.nickName(index), SeededApplication.nickName((index + users / 2) % users));
+    }
+
+    // ログイン時のユーザー情報の読み込み
+    @Benchmark
+    public UserDetails loadUserByUsername() {
+        return userDetailsService.loadUserByUsername(SeededApplication.nickName(randomIndex()));
+    }
+
+    private int randomIndex() {
+        return ThreadLocalRandom.current().nextInt(users);
+    }
+
+    // ID だけを持つ User（canChat は ID しか参照しない）
+    private User userOf(int index) {
+        User user = new User();
+        user.setId(application.userId(index));
+        return user;
+    }
+}
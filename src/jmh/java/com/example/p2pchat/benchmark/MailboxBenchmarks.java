@@ -0,0 +1,107 @@
+package com.example.p2pchat.benchmark;
+
+import com.example.p2pchat.util.MailboxLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * オフラインメッセージ用の追記専用ログ（MailboxLog）の追記と読み出しのスループットを、本文の大きさごとに計測します。
+ * アプリケーションは起動せず、一時ディレクトリ上のログを直接操作します。
+ * append は計測のたびにログが伸びるため、イテレーションごとに全件を確認して compact し、ディスク使用量を抑えます。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class MailboxBenchmarks {
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int RECIPIENTS = 10_000;
+
+    // drain で読み出す受信者の未確認メッセージの件数
+    private static final int BACKLOG = 1000;
+    private static final long DRAIN_RECIPIENT = 0;
+
+    @Param({"64", "1024", "8192"})
+    private int payloadBytes;
+
+    private Path directory;
+    private MailboxLog mailboxLog;
+    private byte[] payload;
+    private byte[] readBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mailbox-bench");
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+        payload = new byte[payloadBytes];
+        ThreadLocalRandom.current().nextBytes(payload);
+        readBuffer = new byte[payloadBytes];
+
+        // drain の対象の受信者のメッセージは、他の受信者のメッセージの間に散らばっている
+        for (int i = 0; i < BACKLOG; i++) {
+            mailboxLog.append(DRAIN_RECIPIENT, 1, i, payload);
+            for (int j = 0; j < 9; j++) {
+                mailboxLog.append(randomRecipient(), 1, i, payload);
+            }
+        }
+    }
+
+    // append で追記した分を確認済みにして、セグメントを削除・書き直す（drain の対象は残す）
+    @TearDown(Level.Iteration)
+    public void compact() throws IOException {
+        for (long recipientId = 1; recipientId <= RECIPIENTS; recipientId++) {
+            mailboxLog.acknowledge(recipientId, Long.MAX_VALUE);
+        }
+        mailboxLog.compact(0.5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mailboxLog.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // ランダムな受信者宛てに1件追記する（POST /api/mailbox/{id} のうちログへの書き込み）
+    @Benchmark
+    public long append() throws IOException {
+        return mailboxLog.append(randomRecipient(), 1, System.currentTimeMillis(), payload);
+    }
+
+    // 1受信者の未確認メッセージを先頭から全件読み出す（GET /api/mailbox のうちログからの読み出し）
+    // 確認はしないので、毎回同じ件数を読む。スループットはメッセージ件数あたり
+    @Benchmark
+    @OperationsPerInvocation(BACKLOG)
+    public long drain(Blackhole blackhole) throws IOException {
+        long cursor = 0;
+        while (true) {
+            long last = mailboxLog.read(DRAIN_RECIPIENT, cursor, 256, (offset, senderId, createdAtMillis, body) -> {
+                int length = body.remaining();
+                body.get(readBuffer, 0, length);
+                blackhole.consume(readBuffer);
+            });
+            if (last == cursor) {
+                return last;
+            }
+            cursor = last;
+        }
+    }
+
+    private static long randomRecipient() {
+        return 1 + ThreadLocalRandom.current().nextInt(RECIPIENTS);
+    }
+}
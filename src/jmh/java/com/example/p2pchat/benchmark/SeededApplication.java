@@ -0,0 +1,105 @@
+package com.example.p2pchat.benchmark;
+
+import com.example.p2pchat.P2pchatApplication;
+import com.example.p2pchat.service.OnlinePeerService;
+import com.example.p2pchat.service.ReferralAnalyticsService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ベンチマーク用にアプリケーションを組み込みの H2 で起動し、指定した人数のユーザーを投入します。
+ * ユーザー "bench0" 〜 "bench{users-1}" は前後 FRIENDS_EACH_SIDE 人ずつと相互に友達で、
+ * ONLINE_RATIO の割合のユーザーがオンラインになっています。
+ * "benchref" は紹介枠を十分に持つ紹介者で、紹介コード "benchref" を持ちます。
+ */
+class SeededApplication implements AutoCloseable {
+
+    static final int FRIENDS_EACH_SIDE = 5;
+    static final int ONLINE_RATIO = 5; // 5人に1人
+    static final String REFERRAL_CODE = "benchref";
+
+    final ConfigurableApplicationContext context;
+    final int users;
+    final long firstUserId;
+
+    SeededApplication(int users) {
+        this.users = users;
+        this.context = new SpringApplicationBuilder(P2pchatApplication.class)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:jmh" + users + ";DB_CLOSE_DELAY=-1",
+                        "spring.jpa.show-sql=false",
+                        "server.port=0",
+                        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+                        // 計測中にオンライン状態が期限切れにならないようにする
+                        "presence.ttl-seconds=86400",
+                        // BCrypt の CPU 時間ではなくアプリケーション側の処理を比べるため、最小コストにする
+                        "password.hash.cost=4",
+                        "logging.level.root=warn")
+                .run();
+        this.firstUserId = seed();
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    long userId(int index) {
+        return firstUserId + index;
+    }
+
+    static String nickName(int index) {
+        return "bench" + index;
+    }
+
+    // ユーザー・友達関係・紹介者を JDBC のバッチで投入し、オンライン状態はメモリ上に登録する
+    private long seed() {
+        JdbcTemplate jdbcTemplate = bean(JdbcTemplate.class);
+        String password = bean(PasswordEncoder.class).encode("password");
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        List<Object[]> rows = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            rows.add(new Object[]{nickName(i), "benchcode" + i, password, "ROLE_USER", true, "none", 3, false, now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (nick_name, friend_request_code, password, authority, verified, "
+                + "used_referral_code, remaining_referral_slots, trial, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+        long firstId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE nick_name = ?", Long.class, nickName(0));
+
+        List<Object[]> friends = new ArrayList<>(users * FRIENDS_EACH_SIDE * 2);
+        for (int i = 0; i < users; i++) {
+            for (int k = 1; k <= FRIENDS_EACH_SIDE; k++) {
+                long other = firstId + (i + k) % users;
+                friends.add(new Object[]{firstId + i, other, now});
+                friends.add(new Object[]{other, firstId + i, now});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO friend (user_id, friend_id, created_at, active) VALUES (?, ?, ?, true)", friends);
+
+        jdbcTemplate.update("INSERT INTO users (nick_name, friend_request_code, password, authority, verified, "
+                        + "used_referral_code, remaining_referral_slots, trial, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                REFERRAL_CODE, REFERRAL_CODE, password, "ROLE_USER", true, "none", Integer.MAX_VALUE, false, now);
+        long referrerId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE nick_name = ?", Long.class, REFERRAL_CODE);
+        jdbcTemplate.update("INSERT INTO referral_code (code, user_id, used, created_at) VALUES (?, ?, true, ?)",
+                REFERRAL_CODE, referrerId, now);
+        // JDBC で投入したユーザーの紹介ツリーの集計を作る（登録のベンチマークで紹介者の経路を更新できるように）
+        bean(ReferralAnalyticsService.class).recomputeAll();
+
+        OnlinePeerService onlinePeerService = bean(OnlinePeerService.class);
+        for (int i = 0; i < users; i += ONLINE_RATIO) {
+            onlinePeerService.goOnline(firstId + i, nickName(i), "/ip4/127.0.0.1/tcp/9001/ws/p2p/bench" + i);
+        }
+        return firstId;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.p2pchat.loadgen;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ローカルで起動したアプリケーション（H2）に、本番と同じ形のブラウザの負荷をかける負荷生成ツールです。
+ * 1. admin の紹介コードから始めて、通常の登録フォーム（/register）で users 人のユーザーを紹介ツリー状に登録する
+ * 2. 全員がフォームからログインする
+ * 3. 各ユーザーが仮想スレッド1本で、/api/online の取得（poll-ms ごと）、オンライン状態の登録とハートビート（heartbeat-ms ごと）、
+ *    /dashboard の表示（平均 dashboard-ms ごと、ランダム）を duration-seconds 秒間繰り返す
+ * 4. エンドポイントごとに p50/p99/p999 の応答時間とエラー率を表示する
+ *
+ * 実行例: ./gradlew bootRun のあと
+ *   ./gradlew loadgen --args="--users=2000 --duration-seconds=120 --poll-ms=1000"
+ */
+public final class LoadGenerator {
+
+    private static final String PASSWORD = "loadgen-password";
+
+    private final Map<String, String> options;
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.baseUri = URI.create(option("base-url", "http://localhost:8080"));
+        this.httpClient = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        for (String endpoint : List.of("GET /api/online", "POST /api/online", "POST /api/online/heartbeat", "GET /dashboard")) {
+            stats.put(endpoint, new EndpointStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("引数は --名前=値 の形式で指定してください: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws Exception {
+        int users = Integer.parseInt(option("users", "1000"));
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        long start = System.nanoTime();
+        List<SyntheticClient> clients = registerUsers(users, runId);
+        System.out.printf("登録: %,d 人（%.1f 秒）%n", clients.size(), seconds(start));
+
+        start = System.nanoTime();
+        int loggedIn = loginAll(clients);
+        System.out.printf("ログイン: %,d / %,d 人（%.1f 秒）%n", loggedIn, clients.size(), seconds(start));
+
+        drive(clients);
+        report();
+    }
+
+    // admin から始めて、各ユーザーの紹介コードで次の世代を登録していく（1人あたりの紹介枠は3）
+    private List<SyntheticClient> registerUsers(int users, String runId) throws Exception {
+        SyntheticClient admin = new SyntheticClient(httpClient, baseUri,
+                option("admin-user", "admin"), option("admin-password", "adminpass"));
+        List<SyntheticClient> registered = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger sequence = new AtomicInteger();
+
+        List<SyntheticClient> referrers = List.of(admin);
+        while (registered.size() < users && !referrers.isEmpty()) {
+            List<SyntheticClient> nextReferrers = Collections.synchronizedList(new ArrayList<>());
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                Semaphore concurrency = new Semaphore(Integer.parseInt(option("register-concurrency", "16")));
+                for (SyntheticClient referrer : referrers) {
+                    executor.submit(() -> {
+                        concurrency.acquire();
+                        try {
+                            if (!withRetry(referrer::login)) {
+                                return null;
+                            }
+                            for (String code : referrer.referralCodes()) {
+                                int n = sequence.incrementAndGet();
+                                if (n > users) {
+                                    break;
+                                }
+                                SyntheticClient client = new SyntheticClient(httpClient, baseUri, "lg-" + runId + "-" + n, PASSWORD);
+                                if (!withRetry(() -> client.register(code))) {
+                                    // 紹介枠を使い切った
+                                    sequence.decrementAndGet();
+                                    break;
+                                }
+                                registered.add(client);
+                                nextReferrers.add(client);
+                            }
+                        } finally {
+                            concurrency.release();
+                        }
+                        return null;
+                    });
+                }
+            }
+            referrers = new ArrayList<>(nextReferrers);
+        }
+        return new ArrayList<>(registered);
+    }
+
+    private int loginAll(List<SyntheticClient> clients) {
+        AtomicInteger loggedIn = new AtomicInteger();
+        Semaphore concurrency = new Semaphore(Integer.parseInt(option("login-concurrency", "32")));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SyntheticClient client : clients) {
+                executor.submit(() -> {
+                    concurrency.acquire();
+                    try {
+                        if (withRetry(client::login)) {
+                            loggedIn.incrementAndGet();
+                        }
+                    } finally {
+                        concurrency.release();
+                    }
+                    return null;
+                });
+            }
+        }
+        return loggedIn.get();
+    }
+
+    // 各ユーザーを仮想スレッド1本で動かし、duration-seconds 秒間リクエストを送り続ける
+    private void drive(List<SyntheticClient> clients) throws InterruptedException {
+        long pollMillis = Long.parseLong(option("poll-ms", "1000"));
+        long heartbeatMillis = Long.parseLong(option("heartbeat-ms", "30000"));
+        long dashboardMillis = Long.parseLong(option("dashboard-ms", "60000"));
+        long durationMillis = Long.parseLong(option("duration-seconds", "60")) * 1000;
+        long deadline = System.currentTimeMillis() + durationMillis;
+
+        Thread progress = Thread.ofVirtual().start(() -> printProgress(deadline));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SyntheticClient client : clients) {
+                executor.submit(() -> {
+                    driveClient(client, deadline, pollMillis, heartbeatMillis, dashboardMillis);
+                    return null;
+                });
+            }
+        }
+        progress.interrupt();
+    }
+
+    private void driveClient(SyntheticClient client, long deadline, long pollMillis, long heartbeatMillis,
+                             long dashboardMillis) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String multiaddr = "/ip4/127.0.0.1/tcp/9001/ws/p2p-circuit/p2p/" + client.nickName;
+
+        // 全員が同時に動き出さないよう、最初のポーリングを poll-ms の範囲でずらす
+        Thread.sleep(random.nextLong(Math.max(1, pollMillis)));
+        timed("POST /api/online", () -> client.post("/api/online", multiaddr));
+
+        long now = System.currentTimeMillis();
+        long nextPoll = now;
+        long nextHeartbeat = now + heartbeatMillis;
+        long nextDashboard = now + nextExponential(random, dashboardMillis);
+        while (true) {
+            long next = Math.min(nextPoll, Math.min(nextHeartbeat, nextDashboard));
+            if (next >= deadline) {
+                break;
+            }
+            Thread.sleep(Math.max(0, next - System.currentTimeMillis()));
+
+            if (next == nextPoll) {
+                timed("GET /api/online", () -> client.get("/api/online"));
+                nextPoll += pollMillis;
+            } else if (next == nextHeartbeat) {
+                HttpResponse<String> response = timed("POST /api/online/heartbeat", () -> client.post("/api/online/heartbeat", ""));
+                if (response != null && response.statusCode() == 404) {
+                    // 期限切れ（サーバー再起動など）の場合は登録し直す
+                    timed("POST /api/online", () -> client.post("/api/online", multiaddr));
+                }
+                nextHeartbeat += heartbeatMillis;
+            } else {
+                timed("GET /dashboard", () -> client.get("/dashboard"));
+                nextDashboard += nextExponential(random, dashboardMillis);
+            }
+        }
+    }
+
+    // リクエストの応答時間を記録する。例外や 4xx/5xx（ハートビートの 404 を除く）はエラーとして数える
+    private HttpResponse<String> timed(String endpoint, Request request) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = request.send();
+            endpointStats.histogram.record((System.nanoTime() - start) / 1000);
+            boolean expectedNotFound = endpoint.endsWith("/heartbeat") && response.statusCode() == 404;
+            if (response.statusCode() >= 400 && !expectedNotFound) {
+                endpointStats.errors.increment();
+            }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            endpointStats.histogram.record((System.nanoTime() - start) / 1000);
+            endpointStats.errors.increment();
+            return null;
+        }
+    }
+
+    private void printProgress(long deadline) {
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(10_000);
+                long requests = stats.values().stream().mapToLong(s -> s.histogram.count()).sum();
+                long errors = stats.values().stream().mapToLong(s -> s.errors.sum()).sum();
+                System.out.printf("... リクエスト %,d 件、エラー %,d 件%n", requests, errors);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void report() {
+        System.out.printf("%n%-28s %10s %8s %7s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "error%", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        stats.forEach((endpoint, s) -> {
+            long count = s.histogram.count();
+            long errors = s.errors.sum();
+            System.out.printf("%-28s %,10d %,8d %6.2f%% %9.2f %9.2f %9.2f %9.2f%n",
+                    endpoint, count, errors, count == 0 ? 0.0 : errors * 100.0 / count,
+                    s.histogram.percentile(0.50) / 1000.0, s.histogram.percentile(0.99) / 1000.0,
+                    s.histogram.percentile(0.999) / 1000.0, s.histogram.max() / 1000.0);
+        });
+    }
+
+    // 登録・ログインは 503（パスワードのハッシュ化が混雑）などで失敗することがあるため、間隔を空けて数回試す
+    private static boolean withRetry(Attempt attempt) throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            try {
+                if (attempt.run()) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // 通信エラーは再試行する
+            }
+            Thread.sleep(200L << i);
+        }
+        return false;
+    }
+
+    private static long nextExponential(ThreadLocalRandom random, long mean) {
+        return (long) (-Math.log(1 - random.nextDouble()) * mean);
+    }
+
+    private static double seconds(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000_000.0;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        HttpResponse<String> send() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Attempt {
+        boolean run() throws Exception;
+    }
+
+    private static final class EndpointStats {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+}
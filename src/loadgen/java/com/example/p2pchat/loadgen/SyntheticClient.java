@@ -0,0 +1,123 @@
+package com.example.p2pchat.loadgen;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 1人のブラウザを模したクライアントです。
+ * HttpClient は全クライアントで共有し、セッション Cookie（JSESSIONID）はクライアントごとに自分で保持します
+ * （クライアントごとに HttpClient を作るとセレクタースレッドが人数分必要になるため）。
+ */
+final class SyntheticClient {
+
+    private static final Pattern SESSION_COOKIE = Pattern.compile("JSESSIONID=([^;]+)");
+    private static final Pattern CSRF_TOKEN = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+    private static final Pattern REFERRAL_CODE = Pattern.compile(
+            "<span>([^<]+)</span>\\s*<button onclick=\"copyTextToClipboard");
+
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    final String nickName;
+    final String password;
+
+    private volatile String sessionId;
+
+    SyntheticClient(HttpClient httpClient, URI baseUri, String nickName, String password) {
+        this.httpClient = httpClient;
+        this.baseUri = baseUri;
+        this.nickName = nickName;
+        this.password = password;
+    }
+
+    // ログインする。成功すると true（失敗時はログイン画面の ?error にリダイレクトされる）
+    boolean login() throws IOException, InterruptedException {
+        sessionId = null;
+        String csrf = csrfTokenOf("/login");
+        HttpResponse<String> response = postForm("/login", Map.of(
+                "username", nickName, "password", password, "_csrf", csrf));
+        return isRedirectNotTo(response, "error");
+    }
+
+    // このクライアントのニックネームで、紹介コードを使ってユーザー登録する（登録後はログイン画面へリダイレクトされる）
+    boolean register(String referralCode) throws IOException, InterruptedException {
+        sessionId = null;
+        String csrf = csrfTokenOf("/register");
+        HttpResponse<String> response = postForm("/register", Map.of(
+                "nickName", nickName, "usedReferralCode", referralCode, "password", password, "_csrf", csrf));
+        return isRedirectNotTo(response, "error") && location(response).endsWith("/login");
+    }
+
+    // ダッシュボードに表示されている未使用の紹介コード
+    List<String> referralCodes() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/dashboard");
+        List<String> codes = new ArrayList<>();
+        Matcher matcher = REFERRAL_CODE.matcher(response.body());
+        while (matcher.find()) {
+            codes.add(matcher.group(1).trim());
+        }
+        return codes;
+    }
+
+    HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(baseUri.resolve(path)).GET());
+    }
+
+    HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(baseUri.resolve(path))
+                .header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+    }
+
+    private HttpResponse<String> postForm(String path, Map<String, String> fields) throws IOException, InterruptedException {
+        String body = fields.entrySet().stream()
+                .map(e -> URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8) + "="
+                        + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+        return send(HttpRequest.newBuilder(baseUri.resolve(path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        String session = sessionId;
+        if (session != null) {
+            builder.header("Cookie", "JSESSIONID=" + session);
+        }
+        HttpResponse<String> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        for (String cookie : response.headers().allValues("Set-Cookie")) {
+            Matcher matcher = SESSION_COOKIE.matcher(cookie);
+            if (matcher.find()) {
+                sessionId = matcher.group(1);
+            }
+        }
+        return response;
+    }
+
+    private String csrfTokenOf(String path) throws IOException, InterruptedException {
+        HttpResponse<String> page = get(path);
+        Matcher matcher = CSRF_TOKEN.matcher(page.body());
+        if (!matcher.find()) {
+            throw new IOException(path + " に CSRF トークンがありません（HTTP " + page.statusCode() + "）");
+        }
+        return matcher.group(1);
+    }
+
+    private static boolean isRedirectNotTo(HttpResponse<String> response, String marker) {
+        return response.statusCode() == 302 && !location(response).contains(marker);
+    }
+
+    private static String location(HttpResponse<String> response) {
+        return response.headers().firstValue("Location").orElse("");
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.p2pchat.Entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 紹介コード・フレンド申請コードの採番に使う連番と、コード化に使う秘密鍵を保持するエンティティです。
+ * 各アプリケーションは nextValue をブロック単位で予約し、予約した範囲の番号をメモリ上で払い出します。
+ */
+@Entity
+@Getter
+@Setter
+public class CodeSequence {
+
+    // 連番の名前（主キー）
+    @Id
+    private String name;
+
+    // 次に予約できる番号
+    @Column(nullable = false)
+    private long nextValue;
+
+    // 番号をコードに変換する際の鍵（16進数）。作成時にランダムに生成し、以後変更しない
+    @Column(nullable = false, length = 64)
+    private String secret;
+}
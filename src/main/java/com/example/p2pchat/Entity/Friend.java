@@ -12,6 +12,12 @@ import java.time.LocalDateTime;
  * active フィールドで現在の状態（有効/無効）を管理します。
  */
 @Entity
+@Table(indexes = {
+        // 自分のアクティブな友達の検索（/api/online の結合クエリ）用
+        @Index(name = "idx_friend_user_active_friend", columnList = "user_id, active, friend_id"),
+        // 相手側からの逆引き（友達グラフのキャッシュ構築）用
+        @Index(name = "idx_friend_friend_active", columnList = "friend_id, active")
+})
 @Getter
 @Setter
 public class Friend {
@@ -15,8 +15,9 @@ public class OnlinePeer {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // ユーザーごとに1行（一意制約の索引で user_id から引く。PostgreSQL の ON CONFLICT (user_id) はこの制約を使う）
     @ManyToOne
-    @JoinColumn(name = "user_id", nullable = false)
+    @JoinColumn(name = "user_id", nullable = false, unique = true)
     private User user;
 
     @Column(nullable = false)
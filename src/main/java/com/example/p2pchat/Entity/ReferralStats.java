@@ -0,0 +1,41 @@
+package com.example.p2pchat.Entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 紹介ツリー（紹介者 → 紹介コードで登録したユーザー）でのユーザーごとの集計を保持するエンティティです。
+ * 登録や紹介コードの使用のたびに、そのユーザーの行と祖先の行を差分で更新するため、
+ * 管理画面ではツリーをたどらずに深さ・紹介した人数・子孫の人数を読めます。
+ */
+@Entity
+@Getter
+@Setter
+@Table(indexes = {
+        @Index(name = "idx_referral_stats_parent", columnList = "parent_id"),
+        @Index(name = "idx_referral_stats_descendants", columnList = "descendant_count"),
+        @Index(name = "idx_referral_stats_direct", columnList = "direct_count"),
+        @Index(name = "idx_referral_stats_depth", columnList = "depth")
+})
+public class ReferralStats {
+
+    // ユーザーID（users.id と同じ値）
+    @Id
+    private Long userId;
+
+    // 紹介者のユーザーID（紹介されずに登録したユーザーは null）
+    private Long parentId;
+
+    // 根（紹介者のいないユーザー）からの深さ。根は0
+    @Column(nullable = false)
+    private int depth;
+
+    // 直接紹介した人数
+    @Column(nullable = false)
+    private int directCount;
+
+    // 紹介した人・その人が紹介した人…の合計人数（自分は含まない）
+    @Column(nullable = false)
+    private long descendantCount;
+}
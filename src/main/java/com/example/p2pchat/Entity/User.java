@@ -79,6 +79,11 @@ public class User {
         this.referralCodes.add(referralCode);
     }
 
+    // エンドツーエンド暗号化の公開鍵（ブラウザで作った ECDH P-256 の公開鍵を Base64 にしたもの。未登録なら null）
+    // 秘密鍵はブラウザの外に出さないため、サーバーは預かったメッセージやファイルを復号できない
+    @Column(length = 128)
+    private String encryptionPublicKey;
+
     @Column(nullable = false)
     private boolean trial = true; // 初期状態では体験モードとする
 
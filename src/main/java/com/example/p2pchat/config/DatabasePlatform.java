@@ -0,0 +1,37 @@
+package com.example.p2pchat.config;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+
+/**
+ * 接続先のデータベースの種類です（起動時に1回だけ DatabaseMetaData.getDatabaseProductName で判定します）。
+ * 接続 URL の文字列ではなく実際の接続で判定するため、プロキシ経由のドライバーや別名の URL でも正しく判定できます。
+ * SQL の方言が違う処理（online_peer の UPSERT）と PostgreSQL 専用の機能（LISTEN/NOTIFY）の判定で共有します。
+ */
+@Component
+public class DatabasePlatform {
+
+    private static final String POSTGRESQL = "PostgreSQL";
+
+    private final String productName;
+
+    public DatabasePlatform(DataSource dataSource) {
+        try {
+            this.productName = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("データベースの種類を判定できませんでした", e);
+        }
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public boolean isPostgreSql() {
+        return POSTGRESQL.equals(productName);
+    }
+}
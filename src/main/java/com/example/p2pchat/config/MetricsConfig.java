@@ -0,0 +1,58 @@
+package com.example.p2pchat.config;
+
+import com.example.p2pchat.service.FriendGraphCache;
+import com.example.p2pchat.service.OnlinePeerService;
+import com.example.p2pchat.service.PresenceStreamService;
+import com.example.p2pchat.service.UserLookupCache;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Micrometer の設定クラスです。
+ * サービスの @Timed を有効にし、オンライン状態やキャッシュの値をメトリクスとして登録します。
+ * コントローラーの各エンドポイントは Spring Boot が http.server.requests として計測します。
+ */
+@Configuration
+public class MetricsConfig {
+
+    // @Timed を付けたクラス・メソッドの所要時間を計測する
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    // オンライン中のユーザー数と、オンライン通知（SSE）の接続数
+    @Bean
+    public MeterBinder presenceMetrics(OnlinePeerService onlinePeerService, PresenceStreamService presenceStreamService) {
+        return registry -> {
+            Gauge.builder("presence.online", onlinePeerService, OnlinePeerService::countOnline)
+                    .description("オンライン中のユーザー数")
+                    .register(registry);
+            Gauge.builder("presence.subscriptions", presenceStreamService, PresenceStreamService::countSubscriptions)
+                    .description("オンライン通知（SSE）の接続数")
+                    .register(registry);
+        };
+    }
+
+    // 友達グラフ・ユーザー検索キャッシュのヒット数とミス数
+    @Bean
+    public MeterBinder cacheMetrics(FriendGraphCache friendGraphCache, UserLookupCache userLookupCache) {
+        return registry -> {
+            FunctionCounter.builder("app.cache.requests", friendGraphCache, FriendGraphCache::getHitCount)
+                    .tags("cache", "friend-graph", "result", "hit").register(registry);
+            FunctionCounter.builder("app.cache.requests", friendGraphCache, FriendGraphCache::getMissCount)
+                    .tags("cache", "friend-graph", "result", "miss").register(registry);
+            Gauge.builder("app.cache.size", friendGraphCache, FriendGraphCache::size)
+                    .tags("cache", "friend-graph").register(registry);
+            FunctionCounter.builder("app.cache.requests", userLookupCache, UserLookupCache::getHitCount)
+                    .tags("cache", "user-lookup", "result", "hit").register(registry);
+            FunctionCounter.builder("app.cache.requests", userLookupCache, UserLookupCache::getMissCount)
+                    .tags("cache", "user-lookup", "result", "miss").register(registry);
+        };
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.p2pchat.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * リレーの一覧（relay.*）を RelayRegistry に渡すための設定クラスです。
+ */
+@Configuration
+@EnableConfigurationProperties(RelayProperties.class)
+public class RelayConfig {
+}
@@ -0,0 +1,48 @@
+package com.example.p2pchat.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * チャット画面に渡すリレー（relay.js）の設定（relay.*）です。
+ * relay.pool に複数のマルチアドレスを指定すると、RelayRegistry が負荷の低い正常なリレーを選びます。
+ * relay.pool が空の場合は従来どおり relay.multiaddr の1台だけを使います。
+ */
+@ConfigurationProperties(prefix = "relay")
+@Getter
+@Setter
+public class RelayProperties {
+
+    // リレーが1台だけの場合のマルチアドレス（relay.pool が空の場合に使う）
+    private String multiaddr;
+
+    // リレーのマルチアドレスの一覧（/ip4/10.0.0.1/tcp/9001/ws/p2p/12D3KooW... など）
+    private List<String> pool = new ArrayList<>();
+
+    // 疎通確認（TCP 接続）のタイムアウト（ミリ秒）
+    private int probeTimeoutMs = 1000;
+
+    // この回数続けて疎通確認に失敗したリレーを割り当てから外す
+    private int unhealthyAfterFailures = 2;
+
+    // 負荷報告が無いリレーの予約数の上限（relay.js の maxReservations）
+    private int defaultMaxReservations = 512;
+
+    // 負荷報告の有効期間（秒）。これより古い報告は使わず、サーバーが割り当てた数から負荷を見積もる
+    private int reportTtlSeconds = 120;
+
+    // relay.js が負荷を報告するときの共有トークン（X-Relay-Token）。空の場合は報告を受け付けない
+    private String reportToken = "";
+
+    // relay.pool、無ければ relay.multiaddr
+    public List<String> multiaddrs() {
+        if (!pool.isEmpty()) {
+            return pool;
+        }
+        return multiaddr == null || multiaddr.isBlank() ? List.of() : List.of(multiaddr);
+    }
+}
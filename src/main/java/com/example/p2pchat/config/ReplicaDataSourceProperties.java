@@ -0,0 +1,30 @@
+package com.example.p2pchat.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 読み取り専用トランザクションの振り分け先のレプリカ（replica.datasources[n].*）です。
+ * 1台も指定しない場合は振り分けを行わず、すべて spring.datasource（primary）を使います。
+ */
+@ConfigurationProperties(prefix = "replica")
+@Getter
+@Setter
+public class ReplicaDataSourceProperties {
+
+    private List<Replica> datasources = new ArrayList<>();
+
+    @Getter
+    @Setter
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+        // 接続プールの最大接続数
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.p2pchat.config;
+
+import com.example.p2pchat.service.ReadYourWritesTracker;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * @Transactional(readOnly = true) の処理をレプリカへ振り分ける設定クラスです（replica.datasources を指定した場合のみ有効）。
+ *
+ * アプリケーションが使う DataSource は primary を包んだ LazyConnectionDataSourceProxy で、
+ * 接続の取得を最初の SQL まで遅らせ、その時点で読み取り専用に設定されていれば ReplicaRoutingDataSource から取得します。
+ * 書き込みと、トランザクション外の読み取り（Open Session in View の遅延読み込みなど）は常に primary です。
+ *
+ * Hibernate は既定ではセッションの間（Open Session in View ではリクエストの間）接続を保持し続けるため、
+ * レプリカの接続で書き込みを行わないよう、トランザクションの終了ごとに接続を返すように設定します。
+ */
+@Configuration
+@EnableConfigurationProperties(ReplicaDataSourceProperties.class)
+public class ReplicaRoutingConfig {
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(prefix = "replica.datasources[0]", name = "url")
+    static class RoutingDataSourceConfiguration {
+
+        // spring.datasource.* の primary（自前で DataSource を定義すると Spring Boot の自動構成は使われない）
+        @Bean
+        @ConfigurationProperties("spring.datasource.hikari")
+        public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+            return dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        }
+
+        @Bean
+        public ReplicaRoutingDataSource replicaDataSource(HikariDataSource primaryDataSource,
+                                                          ReplicaDataSourceProperties properties,
+                                                          ReadYourWritesTracker readYourWritesTracker,
+                                                          MeterRegistry meterRegistry) {
+            List<ReplicaDataSourceProperties.Replica> configured = properties.getDatasources();
+            List<HikariDataSource> replicas = IntStream.range(0, configured.size())
+                    .mapToObj(i -> createReplica(i, configured.get(i)))
+                    .toList();
+            return new ReplicaRoutingDataSource(primaryDataSource, replicas, readYourWritesTracker, meterRegistry);
+        }
+
+        @Bean
+        @Primary
+        public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicaDataSource) {
+            LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+            dataSource.setReadOnlyDataSource(replicaDataSource);
+            return dataSource;
+        }
+
+        @Bean
+        public HibernatePropertiesCustomizer releaseConnectionAfterTransaction() {
+            return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                    PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+        }
+    }
+
+    static HikariDataSource createReplica(int index, ReplicaDataSourceProperties.Replica replica) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replica.getUrl())
+                .username(replica.getUsername())
+                .password(replica.getPassword())
+                .build();
+        dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+        // 誤って書き込んだ場合に DB 側で拒否されるよう、接続を読み取り専用にする
+        dataSource.setReadOnly(true);
+        dataSource.setPoolName("replica-" + index);
+        return dataSource;
+    }
+}
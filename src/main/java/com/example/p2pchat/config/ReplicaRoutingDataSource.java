@@ -0,0 +1,68 @@
+package com.example.p2pchat.config;
+
+import com.example.p2pchat.service.ReadYourWritesTracker;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 読み取り専用の接続の取得先を、レプリカ（順番に1台ずつ）か primary に振り分ける DataSource です。
+ * LazyConnectionDataSourceProxy の readOnlyDataSource として使うため、ここに来るのは読み取り専用トランザクションの接続だけです。
+ * ReadYourWritesTracker が primary を要求する場合（最近書き込んだユーザー・キャッシュの読み込み）は primary を返します。
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    static final String PRIMARY = "primary";
+
+    private final List<HikariDataSource> replicas;
+    private final List<String> replicaKeys = new ArrayList<>();
+    private final ReadYourWritesTracker readYourWritesTracker;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, Counter> routedCounters = new HashMap<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas,
+                                    ReadYourWritesTracker readYourWritesTracker, MeterRegistry meterRegistry) {
+        this.replicas = List.copyOf(replicas);
+        this.readYourWritesTracker = readYourWritesTracker;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            String key = "replica-" + i;
+            replicaKeys.add(key);
+            targets.put(key, replicas.get(i));
+        }
+        for (Object key : targets.keySet()) {
+            routedCounters.put((String) key, Counter.builder("datasource.read.connections")
+                    .tag("target", (String) key).register(meterRegistry));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String key = readYourWritesTracker.requiresPrimary() || replicaKeys.isEmpty()
+                ? PRIMARY
+                : replicaKeys.get(Math.floorMod(next.getAndIncrement(), replicaKeys.size()));
+        routedCounters.get(key).increment();
+        return key;
+    }
+
+    // レプリカの接続プールを閉じる（primary は Spring が閉じる）
+    @Override
+    public void close() {
+        replicas.forEach(HikariDataSource::close);
+    }
+}
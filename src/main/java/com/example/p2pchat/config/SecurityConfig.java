@@ -1,22 +1,27 @@
 package com.example.p2pchat.config;
 
+import com.example.p2pchat.service.PasswordHashingBusyException;
 import com.example.p2pchat.service.UserDetailsServiceImpl;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.annotation.web.configurers.HeadersConfigurer;
 import org.springframework.security.web.SecurityFilterChain;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
 /**
  * Spring Security の設定クラスです。
  * ログイン、ログアウト、認可、CSRF対策などのセキュリティ設定を構成します。
+ * パスワードのエンコーダーは PasswordHashingService（専用スレッドで BCrypt を実行）を使います。
  */
 @RequiredArgsConstructor
 @Configuration
@@ -24,19 +29,44 @@ import static org.springframework.security.config.Customizer.withDefaults;
 public class SecurityConfig {
     private final UserDetailsServiceImpl userDetailsService;
 
+    /**
+     * メトリクス（/actuator/**）専用のセキュリティフィルタチェーンを構成します。
+     * Prometheus などフォームでログインできないクライアントが取得できるよう、このチェーンだけ Basic 認証を受け付けます。
+     * ログイン済みの管理者のセッションでも参照できます。
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain actuatorSecurityFilterChain(HttpSecurity http) throws Exception {
+        http
+                .securityMatcher("/actuator/**")
+                .userDetailsService(userDetailsService)
+                .authorizeHttpRequests(auth -> auth
+                        .anyRequest().hasRole("ADMIN") // 管理者専用
+                )
+                .httpBasic(withDefaults());
+
+        return http.build();
+    }
+
     /**
      * アプリケーションのセキュリティフィルタチェーンを構成します。
      * 認証のルールやログインページ、CSRF、H2コンソールなどの設定を行います。
      */
     @Bean
+    @Order(2)
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+        AuthenticationFailureHandler loginFailureHandler = new SimpleUrlAuthenticationFailureHandler("/login?error");
         http
                 .userDetailsService(userDetailsService)
                 .authorizeHttpRequests(auth -> auth
+                        // SSE（/api/online/stream）の非同期ディスパッチは元のリクエストで認可済み
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/", "/login", "/trial/register", "/register", "/css/**", "/js/**", "/h2-console/**").permitAll()
                         .requestMatchers("/admin/**").hasRole("ADMIN") // 管理者専用
                         .requestMatchers("/dashboard", "/chat").hasAnyRole("USER", "ADMIN")
                         .requestMatchers("/api/online").permitAll()
+                        // relay.js からの負荷報告（X-Relay-Token で認証する）
+                        .requestMatchers("/api/relays/load").permitAll()
                         .anyRequest().authenticated()
                 )
                 .formLogin(form -> form
@@ -50,6 +80,15 @@ public class SecurityConfig {
                                 response.sendRedirect("/dashboard");
                             }
                         })
+                        .failureHandler((request, response, exception) -> {
+                            // パスワードのハッシュ化が混み合っている場合は、ログイン失敗ではなく 503 を返す
+                            if (exception instanceof PasswordHashingBusyException) {
+                                response.setHeader("Retry-After", "1");
+                                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                            } else {
+                                loginFailureHandler.onAuthenticationFailure(request, response, exception);
+                            }
+                        })
                         .permitAll()
                 )
                 .logout(logout -> logout
@@ -58,7 +97,7 @@ public class SecurityConfig {
                         .permitAll()
                 )
                 .csrf(csrf -> csrf
-                        .ignoringRequestMatchers("/h2-console/**", "/api/online")
+                        .ignoringRequestMatchers("/h2-console/**", "/api/online", "/api/online/heartbeat", "/api/relays/load")
                 )
                 .headers(headers -> headers
                         .frameOptions(HeadersConfigurer.FrameOptionsConfig::sameOrigin)
@@ -67,12 +106,4 @@ public class SecurityConfig {
         return http.build();
     }
 
-    /**
-     * パスワードをハッシュ化するためのエンコーダー（BCrypt）を提供します。
-     */
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.example.p2pchat.config;
+
+import com.example.p2pchat.web.SignalingWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * WebRTC のシグナリング用 WebSocket（/ws/signaling）を登録する設定クラスです。
+ * 許可するオリジンは指定せず、同一オリジンからの接続のみを受け付けます（他サイトからの接続の乗っ取りを防ぐ）。
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class SignalingConfig implements WebSocketConfigurer {
+
+    private final SignalingWebSocketHandler signalingWebSocketHandler;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(signalingWebSocketHandler, "/ws/signaling");
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.p2pchat.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HTTP リクエスト1回あたりの SQL 発行数の上限（sql-budget.*）です。
+ * 上限はエンドポイントのパスのパターンごとに指定でき（sql-budget.endpoints.[/dashboard]=5）、
+ * 指定が無いエンドポイントには default-budget を使います。
+ */
+@ConfigurationProperties(prefix = "sql-budget")
+@Getter
+@Setter
+public class SqlBudgetProperties {
+
+    // エンドポイントごとの指定が無い場合の上限
+    private int defaultBudget = 20;
+
+    // 同じ形の SQL がこの回数以上発行されたら N+1 の疑いとして警告する
+    private int repeatThreshold = 3;
+
+    // パスのパターン -> 上限
+    private Map<String, Integer> endpoints = new HashMap<>();
+
+    public int budgetFor(String pathPattern) {
+        return endpoints.getOrDefault(pathPattern, defaultBudget);
+    }
+}
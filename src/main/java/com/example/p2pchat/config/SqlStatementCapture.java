@@ -0,0 +1,53 @@
+package com.example.p2pchat.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SqlStatementCounter.start() から close() までの間に、同じスレッドで Hibernate が発行した SQL の記録です。
+ * SQL は「形」（空白を詰め、IN 句のパラメーター数をまとめたもの）ごとに回数を数えるため、
+ * 同じ形が何度も発行されていれば N+1 の疑いがあります。
+ * JdbcTemplate で直接発行した SQL（バッチ INSERT など）は含みません。スレッドセーフではありません。
+ */
+public class SqlStatementCapture implements AutoCloseable {
+
+    private final SqlStatementCounter counter;
+    private final Map<String, Integer> shapes = new LinkedHashMap<>();
+    private int statementCount;
+
+    SqlStatementCapture(SqlStatementCounter counter) {
+        this.counter = counter;
+    }
+
+    void record(String shape) {
+        statementCount++;
+        shapes.merge(shape, 1, Integer::sum);
+    }
+
+    // 発行された SQL の数
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    // SQL の形ごとの発行回数（発行順）
+    public Map<String, Integer> getShapeCounts() {
+        return Collections.unmodifiableMap(shapes);
+    }
+
+    // threshold 回以上発行された SQL の形と回数（N+1 の疑い）
+    public Map<String, Integer> getRepeatedShapes(int threshold) {
+        Map<String, Integer> repeated = new LinkedHashMap<>();
+        shapes.forEach((shape, count) -> {
+            if (count >= threshold) {
+                repeated.put(shape, count);
+            }
+        });
+        return repeated;
+    }
+
+    @Override
+    public void close() {
+        counter.stop(this);
+    }
+}
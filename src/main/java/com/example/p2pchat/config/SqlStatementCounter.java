@@ -0,0 +1,71 @@
+package com.example.p2pchat.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
+/**
+ * Hibernate が発行する SQL を、スレッドごとに開始した SqlStatementCapture に記録する StatementInspector です。
+ * SqlStatementCountingFilter が HTTP リクエストごとに記録を開始します。
+ * 記録は入れ子にでき（テストで MockMvc のリクエスト全体を記録する場合など）、開いている全ての記録に数えます。
+ *
+ * テストでの使い方:
+ * <pre>
+ * try (SqlStatementCapture capture = sqlStatementCounter.start()) {
+ *     mockMvc.perform(get("/dashboard"));
+ *     assertThat(capture.getStatementCount()).isEqualTo(5);
+ * }
+ * </pre>
+ */
+@Component
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+
+    private final ThreadLocal<Deque<SqlStatementCapture>> captures = new ThreadLocal<>();
+
+    // 現在のスレッドで SQL の記録を開始する（close() で終了する）
+    public SqlStatementCapture start() {
+        Deque<SqlStatementCapture> active = captures.get();
+        if (active == null) {
+            active = new ArrayDeque<>();
+            captures.set(active);
+        }
+        SqlStatementCapture capture = new SqlStatementCapture(this);
+        active.push(capture);
+        return capture;
+    }
+
+    void stop(SqlStatementCapture capture) {
+        Deque<SqlStatementCapture> active = captures.get();
+        if (active == null) {
+            return;
+        }
+        active.remove(capture);
+        if (active.isEmpty()) {
+            captures.remove();
+        }
+    }
+
+    @Override
+    public String inspect(String sql) {
+        Deque<SqlStatementCapture> active = captures.get();
+        if (active != null) {
+            String shape = shapeOf(sql);
+            for (SqlStatementCapture capture : active) {
+                capture.record(shape);
+            }
+        }
+        return sql;
+    }
+
+    // 空白を詰め、IN (?, ?, ?) のようなパラメーターの並びを (?...) にまとめる
+    static String shapeOf(String sql) {
+        String normalized = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        return PARAMETER_LIST.matcher(normalized).replaceAll("(?...)");
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.p2pchat.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * HTTP リクエストごとに発行された SQL を数えるフィルターです。
+ * エンドポイントの上限（SqlBudgetProperties）を超えた場合と、同じ形の SQL が繰り返された場合（N+1 の疑い）に警告を出し、
+ * 発行数を http.server.requests.sql としてメトリクスに記録します。
+ * ログイン時のユーザー読み込みも数えるため、Spring Security のフィルターより外側で動きます。
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@RequiredArgsConstructor
+public class SqlStatementCountingFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(SqlStatementCountingFilter.class);
+
+    private final SqlStatementCounter sqlStatementCounter;
+    private final SqlBudgetProperties sqlBudgetProperties;
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        SqlStatementCapture capture = sqlStatementCounter.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            capture.close();
+            report(request, capture);
+        }
+    }
+
+    private void report(HttpServletRequest request, SqlStatementCapture capture) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String pathPattern = pattern != null ? pattern.toString() : request.getRequestURI();
+        String endpoint = request.getMethod() + " " + pathPattern;
+        int count = capture.getStatementCount();
+
+        if (pattern != null) {
+            DistributionSummary.builder("http.server.requests.sql")
+                    .description("HTTP リクエスト1回あたりの SQL 発行数")
+                    .tags("method", request.getMethod(), "uri", pathPattern)
+                    .register(meterRegistry)
+                    .record(count);
+        }
+
+        int budget = sqlBudgetProperties.budgetFor(pathPattern);
+        if (count > budget) {
+            log.warn("SQL の発行数が上限を超えました: {} {} 件（上限 {} 件）", endpoint, count, budget);
+        }
+        capture.getRepeatedShapes(sqlBudgetProperties.getRepeatThreshold()).forEach((shape, times) ->
+                log.warn("N+1 の疑い: {} で同じ形の SQL が {} 回発行されました: {}", endpoint, times, shape));
+    }
+}
@@ -2,6 +2,8 @@ package com.example.p2pchat.config;
 
 import com.example.p2pchat.Entity.User;
 import com.example.p2pchat.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -16,6 +18,8 @@ import java.util.UUID;
 @Configuration
 public class StartupConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(StartupConfig.class);
+
     /**
      * 管理者ユーザー（ニックネーム: admin）が存在しない場合、自動的に作成する初期化ロジック。
      */
@@ -43,7 +47,7 @@ public class StartupConfig {
                 admin.setTrial(false);
                 // ユーザー情報を保存
                 userRepository.save(admin);
-                System.out.println("✅ 初期管理者ユーザー admin を作成しました");
+                log.info("初期管理者ユーザー admin を作成しました");
             }
         };
     }
@@ -0,0 +1,26 @@
+package com.example.p2pchat.dto;
+
+import java.util.List;
+
+/**
+ * 管理画面のリアルタイム指標（/admin/metrics）です。
+ * 件数は起動時からの累計、キャッシュのヒット率は 0〜1 です。
+ */
+public record AdminMetricsDto(
+        long onlinePeers,
+        long presenceSubscriptions,
+        long activeSessions,
+        long preparedStatements,
+        long queryExecutions,
+        long entityLoads,
+        long secondLevelCacheHits,
+        long secondLevelCacheMisses,
+        long slowestQueryMillis,
+        String slowestQuery,
+        double friendGraphCacheHitRatio,
+        double userLookupCacheHitRatio,
+        long passwordHashQueue,
+        List<TimerSummaryDto> endpoints,
+        List<TimerSummaryDto> serviceMethods
+) {
+}
@@ -0,0 +1,15 @@
+package com.example.p2pchat.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * ダッシュボードに表示するログインユーザーの情報です。
+ * referrerNickName は紹介者のニックネーム（紹介なしで登録した場合は null）。
+ */
+public record DashboardUserDto(Long id,
+                               String nickName,
+                               String friendRequestCode,
+                               boolean trial,
+                               LocalDateTime createdAt,
+                               String referrerNickName) {
+}
@@ -0,0 +1,22 @@
+package com.example.p2pchat.dto;
+
+import java.util.List;
+
+/**
+ * ダッシュボード画面の表示に必要な情報をまとめた読み取り専用のモデルです。
+ * DashboardQueryService が DTO 射影のクエリだけで組み立てます（エンティティは読み込みません）。
+ * pendingRequests は受信して承認も拒否もしていない申請、incomingRequests は受信して未承認でキャンセルされていない申請
+ * （/friends/dashboard 用。UserService.findIncomingVisibleRequests と同じ条件）です。
+ */
+public record DashboardView(DashboardUserDto user,
+                            boolean trialExpired,
+                            List<String> availableReferralCodes,
+                            List<String> referredUsers,
+                            List<String> referredFriends,
+                            List<FriendSummaryDto> friends,
+                            List<FriendSummaryDto> inactiveFriends,
+                            List<FriendRequestSummaryDto> pendingRequests,
+                            List<FriendRequestSummaryDto> incomingRequests,
+                            List<FriendRequestSummaryDto> rejectedRequests,
+                            List<FriendRequestSummaryDto> sentRequests) {
+}
@@ -0,0 +1,14 @@
+package com.example.p2pchat.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * サーバー経由で中継するファイル1件の状態です。
+ * 送信側は missingChunks のチャンクを chunkSize ごとに送り、complete になると受信側がダウンロードできます。
+ * 受信側は encryptedKey を自分の秘密鍵で復号し、ダウンロードした本文をブラウザで復号します。
+ */
+public record FileTransferDto(String id, Long senderId, Long recipientId, String fileName, long size,
+                              int chunkSize, int chunkCount, List<Integer> missingChunks, boolean complete,
+                              String encryptedKey, LocalDateTime createdAt) {
+}
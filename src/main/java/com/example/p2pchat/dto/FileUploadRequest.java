@@ -0,0 +1,9 @@
+package com.example.p2pchat.dto;
+
+/**
+ * サーバー経由のファイル送信を始めるときの要求です（宛先のユーザーID、ファイル名、バイト数、暗号化されたファイルの鍵）。
+ * 本文はクライアント側で暗号化済みのものを送るため、size は暗号化後の大きさです。
+ * encryptedKey はファイルの鍵を受信者の公開鍵で暗号化したもの（Base64）で、サーバーは復号できません。
+ */
+public record FileUploadRequest(Long recipientId, String fileName, long size, String encryptedKey) {
+}
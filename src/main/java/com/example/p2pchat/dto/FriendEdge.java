@@ -0,0 +1,8 @@
+package com.example.p2pchat.dto;
+
+/**
+ * Friend テーブルの1行を、ユーザーIDと有効フラグだけに絞った射影です。
+ * 友達グラフのキャッシュ構築に使い、User エンティティを読み込まないようにします。
+ */
+public record FriendEdge(Long userId, Long friendId, boolean active) {
+}
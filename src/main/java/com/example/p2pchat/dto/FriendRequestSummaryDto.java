@@ -0,0 +1,14 @@
+package com.example.p2pchat.dto;
+
+/**
+ * フレンド申請1件を、送信者・受信者のIDとニックネーム、状態フラグだけに絞った射影です。
+ */
+public record FriendRequestSummaryDto(Long id,
+                                      Long senderId,
+                                      String senderNickName,
+                                      Long receiverId,
+                                      String receiverNickName,
+                                      boolean accepted,
+                                      boolean rejected,
+                                      boolean cancelled) {
+}
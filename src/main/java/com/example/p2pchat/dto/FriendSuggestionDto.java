@@ -0,0 +1,7 @@
+package com.example.p2pchat.dto;
+
+/**
+ * 友達候補1件です（共通のつながり＝双方の友達・紹介者・紹介したユーザーに共通する人の数の多い順に並べます）。
+ */
+public record FriendSuggestionDto(Long userId, String nickName, int mutualCount) {
+}
@@ -0,0 +1,7 @@
+package com.example.p2pchat.dto;
+
+/**
+ * 自分から見た友達関係1件（相手のIDとニックネーム、有効かどうか）です。
+ */
+public record FriendSummaryDto(Long friendId, String nickName, boolean active) {
+}
@@ -0,0 +1,7 @@
+package com.example.p2pchat.dto;
+
+/**
+ * メールボックスに預けたメッセージの受付結果です。offset は受信者の確認（ack）に使う通し番号です。
+ */
+public record MailboxReceiptDto(long offset) {
+}
@@ -0,0 +1,8 @@
+package com.example.p2pchat.dto;
+
+/**
+ * オンライン中の友達を画面（/api/online）に返すための DTO です。
+ * name はニックネーム、multiaddr は接続先アドレス（オフライン通知では null）。
+ */
+public record OnlinePeerDto(String name, String multiaddr) {
+}
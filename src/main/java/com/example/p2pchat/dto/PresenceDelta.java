@@ -0,0 +1,24 @@
+package com.example.p2pchat.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 他のノードへ通知するオンライン状態の変化1件です（ClusterPresenceBus が PostgreSQL の NOTIFY で送ります）。
+ * multiaddr そのものは送らず、CRC32 のハッシュだけを送ります。受信側は手元の multiaddr とハッシュが一致しない場合のみ
+ * OnlinePeer テーブルから読み直します。
+ */
+public record PresenceDelta(Long userId, boolean online, int multiaddrHash) {
+
+    public static PresenceDelta of(PresenceWrite write) {
+        return write.isDelete()
+                ? new PresenceDelta(write.userId(), false, 0)
+                : new PresenceDelta(write.userId(), true, hash(write.multiaddr()));
+    }
+
+    public static int hash(String multiaddr) {
+        CRC32 crc = new CRC32();
+        crc.update(multiaddr.getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+}
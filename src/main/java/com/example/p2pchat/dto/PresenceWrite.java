@@ -0,0 +1,22 @@
+package com.example.p2pchat.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * OnlinePeer テーブルへの書き込み1件です（PresenceWriteBuffer がユーザーごとに最後の1件だけを保持します）。
+ * multiaddr が null の場合はオフライン（行の削除）を表します。
+ */
+public record PresenceWrite(Long userId, String multiaddr, LocalDateTime lastSeenAt) {
+
+    public static PresenceWrite online(Long userId, String multiaddr, LocalDateTime lastSeenAt) {
+        return new PresenceWrite(userId, multiaddr, lastSeenAt);
+    }
+
+    public static PresenceWrite offline(Long userId) {
+        return new PresenceWrite(userId, null, null);
+    }
+
+    public boolean isDelete() {
+        return multiaddr == null;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.p2pchat.dto;
+
+/**
+ * 自分の紹介コード1件と、そのコードで登録したユーザーのニックネーム（いなければ null）です。
+ */
+public record ReferralCodeUsageDto(String code, boolean used, String usedByNickName) {
+}
@@ -0,0 +1,11 @@
+package com.example.p2pchat.dto;
+
+import java.util.List;
+
+/**
+ * 管理画面に表示する紹介ツリー全体の概要です。
+ * maxDepth はツリーの最大の深さ、topByDescendants・topByDirect は子孫の人数・直接紹介した人数の多いユーザーです。
+ */
+public record ReferralOverviewDto(int maxDepth, List<ReferralStatsDto> topByDescendants,
+                                  List<ReferralStatsDto> topByDirect) {
+}
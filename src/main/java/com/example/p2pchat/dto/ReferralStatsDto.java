@@ -0,0 +1,8 @@
+package com.example.p2pchat.dto;
+
+/**
+ * 紹介ツリーでのユーザー1人分の集計（深さ・直接紹介した人数・子孫の人数）です。
+ */
+public record ReferralStatsDto(Long userId, String nickName, Long parentId, int depth, int directCount,
+                               long descendantCount) {
+}
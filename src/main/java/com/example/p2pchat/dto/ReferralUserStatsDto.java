@@ -0,0 +1,9 @@
+package com.example.p2pchat.dto;
+
+import java.util.List;
+
+/**
+ * 指定ユーザーの紹介ツリーでの集計と、根から紹介者までの経路（根が先頭）です。
+ */
+public record ReferralUserStatsDto(ReferralStatsDto user, List<ReferralStatsDto> path) {
+}
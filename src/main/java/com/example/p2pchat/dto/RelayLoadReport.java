@@ -0,0 +1,8 @@
+package com.example.p2pchat.dto;
+
+/**
+ * relay.js から定期的に送られる負荷の報告です（現在の予約数と予約数の上限）。
+ * リレーは peerId で識別し、relay.pool のマルチアドレスに /p2p/ が無い場合は multiaddr で識別します。
+ */
+public record RelayLoadReport(String peerId, String multiaddr, int reservations, int maxReservations) {
+}
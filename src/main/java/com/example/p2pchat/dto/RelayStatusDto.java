@@ -0,0 +1,12 @@
+package com.example.p2pchat.dto;
+
+import java.time.Instant;
+
+/**
+ * リレー1台の状態です（管理者向け）。
+ * load は見積もった予約数を上限で割った値で、割り当て時はこれが最も小さい正常なリレーを選びます。
+ */
+public record RelayStatusDto(String multiaddr, String peerId, boolean healthy, int consecutiveFailures,
+                             Double latencyMillis, int estimatedReservations, int maxReservations, double load,
+                             long assignments, Instant lastProbedAt, Instant lastReportedAt) {
+}
@@ -0,0 +1,21 @@
+package com.example.p2pchat.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * シグナリング（/ws/signaling）でやり取りするメッセージです。
+ * type は offer・answer・candidate・bye・error のいずれかで、callId は発信側が決める通話の識別子です。
+ * data（SDP や ICE candidate）はサーバーでは解釈せずにそのまま相手へ転送します。
+ * from はサーバーが送信者のユーザーIDで上書きするため、クライアントが指定した値は使いません。
+ */
+public record SignalingMessage(String type, String callId, Long from, Long to, JsonNode data) {
+
+    public SignalingMessage withFrom(Long from) {
+        return new SignalingMessage(type, callId, from, to, data);
+    }
+
+    public static SignalingMessage error(String callId, Long to, String reason) {
+        return new SignalingMessage("error", callId, null, to, TextNode.valueOf(reason));
+    }
+}
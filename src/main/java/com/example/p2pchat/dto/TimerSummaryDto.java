@@ -0,0 +1,13 @@
+package com.example.p2pchat.dto;
+
+/**
+ * 管理画面に表示する、1つのタイマー（エンドポイント・サービスメソッド）の集計値です。
+ */
+public record TimerSummaryDto(
+        String name,
+        long count,
+        double meanMillis,
+        double maxMillis,
+        double totalSeconds
+) {
+}
@@ -0,0 +1,21 @@
+package com.example.p2pchat.dto;
+
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+/**
+ * 管理画面のユーザー一覧・エクスポートの絞り込み条件です。null の項目は条件にしません。
+ * 登録日は createdFrom の0時から createdTo の翌日0時まで（どちらも含む日付）です。
+ */
+public record UserFilter(
+        Boolean trial,
+        String authority,
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate createdFrom,
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate createdTo
+) {
+    // 空文字の権限は「指定なし」として扱う
+    public String authorityOrNull() {
+        return authority == null || authority.isBlank() ? null : authority;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.p2pchat.dto;
+
+import java.util.List;
+
+/**
+ * ユーザー一覧の1ページ分です。nextCursor は次のページの after に渡す ID で、最後のページでは null です。
+ */
+public record UserPage(List<UserSummaryDto> users, Long nextCursor) {
+}
@@ -0,0 +1,9 @@
+package com.example.p2pchat.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * 画面表示や権限判定に使う、ユーザーの最小限の情報です（パスワードや関連は含みません）。
+ */
+public record UserSummaryDto(Long id, String nickName, String authority, boolean trial, LocalDateTime createdAt) {
+}
@@ -0,0 +1,17 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.Entity.CodeSequence;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface CodeSequenceRepository extends JpaRepository<CodeSequence, String> {
+    // 連番の行を排他ロック付きで取得（ブロック予約用）
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM CodeSequence s WHERE s.name = :name")
+    Optional<CodeSequence> findForUpdate(@Param("name") String name);
+}
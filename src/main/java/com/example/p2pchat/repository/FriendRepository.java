@@ -2,7 +2,11 @@ package com.example.p2pchat.repository;
 
 import com.example.p2pchat.Entity.Friend;
 import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.FriendEdge;
+import com.example.p2pchat.dto.FriendSummaryDto;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,7 +16,7 @@ import java.util.List;
  * ユーザーごとの友達一覧や、アクティブな友達関係の取得に使用されます。
  */
 @Repository
-public interface FriendRepository extends JpaRepository<Friend, Long> {
+public interface FriendRepository extends JpaRepository<Friend, Long>, FriendRepositoryCustom {
     // 指定ユーザーが持つ全ての友達関係（アクティブ・非アクティブを含む）を取得
     List<Friend> findAllByUser(User user);
     // 指定ユーザーが持つアクティブな友達関係のみを取得
@@ -20,4 +24,14 @@ public interface FriendRepository extends JpaRepository<Friend, Long> {
 
     // 指定ユーザーと指定フレンドとの関係を1件取得（存在しない場合は null）
     Friend findByUserAndFriend(User user, User friend);
+
+    // 指定ユーザーが片側にいる全ての友達関係を、ID と有効フラグだけで取得（友達グラフのキャッシュ用）
+    @Query("SELECT new com.example.p2pchat.dto.FriendEdge(f.user.id, f.friend.id, f.active) FROM Friend f "
+            + "WHERE f.user.id = :userId OR f.friend.id = :userId")
+    List<FriendEdge> findEdgesOf(@Param("userId") Long userId);
+
+    // 指定ユーザーから見た全ての友達関係（有効・解除済み）を、相手のニックネーム付きで取得
+    @Query("SELECT new com.example.p2pchat.dto.FriendSummaryDto(fu.id, fu.nickName, f.active) "
+            + "FROM Friend f JOIN f.friend fu WHERE f.user.id = :userId ORDER BY f.id")
+    List<FriendSummaryDto> findSummariesByUserId(@Param("userId") Long userId);
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.util.SuggestionGraph;
+
+import java.util.List;
+
+/**
+ * FriendRepository に追加する、Spring Data の派生クエリでは表現できない操作です。
+ */
+public interface FriendRepositoryCustom {
+    // 2人のユーザー間の双方向の友達関係（2行）をまとめて登録する（1回の JDBC バッチ）
+    void insertMutual(Long userId, Long friendId);
+
+    // 有効な友達関係をすべて（user_id, friend_id）の組で順に渡す（友達候補のグラフの構築用。エンティティは作らない）
+    void forEachActiveEdge(SuggestionGraph.EdgeConsumer consumer);
+
+    // 指定ユーザーが片側にいる有効な友達関係を順に渡す（友達候補のグラフの差分更新用）
+    void forEachActiveEdgeOf(List<Long> userIds, SuggestionGraph.EdgeConsumer consumer);
+}
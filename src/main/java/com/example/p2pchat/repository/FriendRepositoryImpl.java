@@ -0,0 +1,54 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.util.SuggestionGraph;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FriendRepositoryCustom の実装です。
+ * Friend も IDENTITY 採番のため、{@link ReferralCodeRepositoryImpl} と同じく JdbcTemplate で直接バッチ INSERT します。
+ * 友達候補のグラフ用の読み込みも、行数が多いためエンティティを介さずに ID の組だけを読みます。
+ */
+@RequiredArgsConstructor
+public class FriendRepositoryImpl implements FriendRepositoryCustom {
+
+    // IN に渡す ID の1回あたりの上限
+    private static final int IN_CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertMutual(Long userId, Long friendId) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO friend (user_id, friend_id, created_at, active) VALUES (?, ?, ?, true)",
+                List.of(new Object[]{userId, friendId, now}, new Object[]{friendId, userId, now}));
+    }
+
+    @Override
+    public void forEachActiveEdge(SuggestionGraph.EdgeConsumer consumer) {
+        jdbcTemplate.query("SELECT user_id, friend_id FROM friend WHERE active = true",
+                rs -> consumer.accept(rs.getLong(1), rs.getLong(2)));
+    }
+
+    @Override
+    public void forEachActiveEdgeOf(List<Long> userIds, SuggestionGraph.EdgeConsumer consumer) {
+        for (int from = 0; from < userIds.size(); from += IN_CHUNK) {
+            List<Long> chunk = userIds.subList(from, Math.min(from + IN_CHUNK, userIds.size()));
+            String in = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            Object[] args = new Object[chunk.size() * 2];
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i] = chunk.get(i);
+                args[chunk.size() + i] = chunk.get(i);
+            }
+            jdbcTemplate.query("SELECT user_id, friend_id FROM friend WHERE active = true "
+                            + "AND (user_id IN (" + in + ") OR friend_id IN (" + in + "))",
+                    rs -> consumer.accept(rs.getLong(1), rs.getLong(2)), args);
+        }
+    }
+}
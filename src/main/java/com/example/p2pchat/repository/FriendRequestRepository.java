@@ -2,7 +2,10 @@ package com.example.p2pchat.repository;
 
 import com.example.p2pchat.Entity.FriendRequest;
 import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.FriendRequestSummaryDto;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -41,4 +44,11 @@ public interface FriendRequestRepository extends JpaRepository<FriendRequest, Lo
     List<FriendRequest> findBySender(User sender);
     // 指定された送信者と受信者間の全ての申請を取得
     List<FriendRequest> findBySenderAndReceiver(User sender, User receiver);
+
+    // 指定ユーザーが送信または受信した申請のうち、未承認または拒否済みのものを射影で取得（ダッシュボード用）
+    @Query("SELECT new com.example.p2pchat.dto.FriendRequestSummaryDto(r.id, s.id, s.nickName, rv.id, rv.nickName, "
+            + "r.accepted, r.rejected, r.cancelled) "
+            + "FROM FriendRequest r JOIN r.sender s JOIN r.receiver rv "
+            + "WHERE (s.id = :userId OR rv.id = :userId) AND (r.accepted = false OR r.rejected = true) ORDER BY r.id")
+    List<FriendRequestSummaryDto> findOpenSummariesByUserId(@Param("userId") Long userId);
 }
@@ -2,11 +2,37 @@ package com.example.p2pchat.repository;
 
 import com.example.p2pchat.Entity.OnlinePeer;
 import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.OnlinePeerDto;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
-public interface OnlinePeerRepository extends JpaRepository<OnlinePeer, Long> {
+public interface OnlinePeerRepository extends JpaRepository<OnlinePeer, Long>, OnlinePeerRepositoryCustom {
     void deleteByUser(User user);
     List<OnlinePeer> findAll();
-}
\ No newline at end of file
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM OnlinePeer p WHERE p.user.id = :userId")
+    void deleteByUserId(@Param("userId") Long userId);
+
+    // 指定ユーザーのアクティブな友達のうちオンライン中のものを、1回のクエリで DTO として取得
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.example.p2pchat.dto.OnlinePeerDto(u.nickName, p.multiaddr) "
+            + "FROM Friend f JOIN OnlinePeer p ON p.user.id = f.friend.id JOIN p.user u "
+            + "WHERE f.user.id = :userId AND f.active = true AND u.id <> :userId")
+    List<OnlinePeerDto> findOnlineFriends(@Param("userId") Long userId);
+
+    // 指定ユーザーの行をユーザーと一緒に1回のクエリで取得（他ノードの変化を反映する ClusterPresenceListener 用）
+    @Query("SELECT p FROM OnlinePeer p JOIN FETCH p.user u WHERE u.id IN :userIds")
+    List<OnlinePeer> findAllWithUserByUserIds(@Param("userIds") Collection<Long> userIds);
+
+    // 全件をユーザーと一緒に1回のクエリで取得（再同期用）
+    @Query("SELECT p FROM OnlinePeer p JOIN FETCH p.user")
+    List<OnlinePeer> findAllWithUser();
+}
@@ -0,0 +1,16 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.dto.PresenceWrite;
+
+import java.util.List;
+
+/**
+ * OnlinePeerRepository に追加する、Spring Data の派生クエリでは表現できない操作です。
+ */
+public interface OnlinePeerRepositoryCustom {
+    // ユーザーごとの行を multiaddr と最終確認時刻で更新し、無ければ追加する（1回の JDBC バッチ）
+    void upsertAll(List<PresenceWrite> writes);
+
+    // 指定ユーザーの行をまとめて削除する（1回の JDBC バッチ）
+    void deleteAllByUserIds(List<Long> userIds);
+}
@@ -0,0 +1,54 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.config.DatabasePlatform;
+import com.example.p2pchat.dto.PresenceWrite;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * OnlinePeerRepositoryCustom の実装です。
+ * これまでの「DELETE してから INSERT」の2文を、UPSERT 1文にまとめてバッチで発行します。
+ * user_id には一意制約があり（OnlinePeer.user）、同じユーザーの行は1つだけです。
+ * 制約の導入前のデータに重複行が残っていると ddl-auto で制約を追加できず ON CONFLICT が失敗するため、
+ * その場合は online_peer を空にしてから起動してください（行は次のハートビートで書き直されます）。
+ * PostgreSQL（DatabasePlatform で判定）では INSERT ... ON CONFLICT (user_id) を使います。MERGE は同時に実行されると両方が
+ * 「一致する行なし」と判定して INSERT しうるため、複数のノードから同じユーザーを書き込む構成では使えません。
+ * H2 は ON CONFLICT ... DO UPDATE に対応していないため、標準 SQL の MERGE を使います（1ノードでのみ使う）。
+ * パラメーターは PostgreSQL で型を推論できるよう CAST します。
+ */
+public class OnlinePeerRepositoryImpl implements OnlinePeerRepositoryCustom {
+
+    private static final String POSTGRES_UPSERT = "INSERT INTO online_peer (user_id, multiaddr, last_seen_at) "
+            + "VALUES (CAST(? AS BIGINT), CAST(? AS VARCHAR(255)), CAST(? AS TIMESTAMP)) "
+            + "ON CONFLICT (user_id) DO UPDATE SET multiaddr = EXCLUDED.multiaddr, last_seen_at = EXCLUDED.last_seen_at";
+
+    private static final String MERGE_UPSERT = "MERGE INTO online_peer p "
+            + "USING (VALUES (CAST(? AS BIGINT), CAST(? AS VARCHAR(255)), CAST(? AS TIMESTAMP))) "
+            + "AS s (user_id, multiaddr, last_seen_at) ON p.user_id = s.user_id "
+            + "WHEN MATCHED THEN UPDATE SET multiaddr = s.multiaddr, last_seen_at = s.last_seen_at "
+            + "WHEN NOT MATCHED THEN INSERT (user_id, multiaddr, last_seen_at) "
+            + "VALUES (s.user_id, s.multiaddr, s.last_seen_at)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String upsert;
+
+    public OnlinePeerRepositoryImpl(JdbcTemplate jdbcTemplate, DatabasePlatform databasePlatform) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.upsert = databasePlatform.isPostgreSql() ? POSTGRES_UPSERT : MERGE_UPSERT;
+    }
+
+    @Override
+    public void upsertAll(List<PresenceWrite> writes) {
+        jdbcTemplate.batchUpdate(upsert, writes.stream()
+                .map(w -> new Object[]{w.userId(), w.multiaddr(), Timestamp.valueOf(w.lastSeenAt())})
+                .toList());
+    }
+
+    @Override
+    public void deleteAllByUserIds(List<Long> userIds) {
+        jdbcTemplate.batchUpdate("DELETE FROM online_peer WHERE user_id = ?",
+                userIds.stream().map(id -> new Object[]{id}).toList());
+    }
+}
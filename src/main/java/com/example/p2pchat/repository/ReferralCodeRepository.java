@@ -2,6 +2,7 @@ package com.example.p2pchat.repository;
 
 import com.example.p2pchat.Entity.ReferralCode;
 import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.ReferralCodeUsageDto;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,7 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.util.List;
 import java.util.Optional;
 
-public interface ReferralCodeRepository extends JpaRepository<ReferralCode, Long> {
+public interface ReferralCodeRepository extends JpaRepository<ReferralCode, Long>, ReferralCodeRepositoryCustom {
     List<ReferralCode> findAllByOwner(User user); // 指定ユーザーが所有している紹介コード一覧
 
     Optional<ReferralCode> findByCode(String code); // 紹介コードの値で検索
@@ -26,4 +27,15 @@ public interface ReferralCodeRepository extends JpaRepository<ReferralCode, Long
     @Modifying
     @Query("UPDATE ReferralCode r SET r.used = true, r.usedByUser = :user WHERE r.code = :code")
     void markAsUsed(@Param("code") String code, @Param("user") User user);
+
+    // 未使用の場合だけ使用済みにする（更新件数が0なら、他の登録処理がすでに使用している）
+    @Modifying
+    @Query("UPDATE ReferralCode r SET r.used = true, r.usedByUser = :user WHERE r.code = :code AND r.used = false")
+    int markAsUsedIfUnused(@Param("code") String code, @Param("user") User user);
+
+    // 指定ユーザーの紹介コードと、それぞれのコードで登録したユーザーのニックネームを1回のクエリで取得
+    @Query("SELECT new com.example.p2pchat.dto.ReferralCodeUsageDto(rc.code, rc.used, u.nickName) "
+            + "FROM ReferralCode rc LEFT JOIN User u ON u.usedReferralCode = rc.code "
+            + "WHERE rc.owner.id = :ownerId ORDER BY rc.id")
+    List<ReferralCodeUsageDto> findUsagesByOwnerId(@Param("ownerId") Long ownerId);
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.util.SuggestionGraph;
+
+import java.util.List;
+
+/**
+ * ReferralCodeRepository に追加する、Spring Data の派生クエリでは表現できない操作です。
+ */
+public interface ReferralCodeRepositoryCustom {
+    // 指定ユーザーの紹介コードをまとめて登録する（1回の JDBC バッチ）
+    void insertAll(Long ownerId, List<String> codes);
+
+    // 紹介関係をすべて（紹介者, 紹介で登録したユーザー）の組で順に渡す（友達候補のグラフの構築用）
+    void forEachReferralEdge(SuggestionGraph.EdgeConsumer consumer);
+
+    // 指定ユーザーが紹介者または紹介されたユーザーである紹介関係を順に渡す（友達候補のグラフの差分更新用）
+    void forEachReferralEdgeOf(List<Long> userIds, SuggestionGraph.EdgeConsumer consumer);
+}
@@ -0,0 +1,60 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.util.SuggestionGraph;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ReferralCodeRepositoryCustom の実装です。
+ * ReferralCode の ID は IDENTITY 採番のため Hibernate では INSERT をバッチ化できず、
+ * ここでは JdbcTemplate で直接バッチ INSERT します（現在のトランザクションの接続を共有します）。
+ * 紹介関係は users.used_referral_code と紹介コードの結合で、紹介者と紹介されたユーザーの ID の組として読みます。
+ */
+@RequiredArgsConstructor
+public class ReferralCodeRepositoryImpl implements ReferralCodeRepositoryCustom {
+
+    private static final String REFERRAL_EDGES = "SELECT rc.user_id, u.id FROM referral_code rc "
+            + "JOIN users u ON u.used_referral_code = rc.code";
+
+    // IN に渡す ID の1回あたりの上限
+    private static final int IN_CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAll(Long ownerId, List<String> codes) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO referral_code (code, user_id, used, created_at) VALUES (?, ?, false, ?)",
+                codes, codes.size(), (ps, code) -> {
+                    ps.setString(1, code);
+                    ps.setLong(2, ownerId);
+                    ps.setTimestamp(3, now);
+                });
+    }
+
+    @Override
+    public void forEachReferralEdge(SuggestionGraph.EdgeConsumer consumer) {
+        jdbcTemplate.query(REFERRAL_EDGES, rs -> consumer.accept(rs.getLong(1), rs.getLong(2)));
+    }
+
+    @Override
+    public void forEachReferralEdgeOf(List<Long> userIds, SuggestionGraph.EdgeConsumer consumer) {
+        for (int from = 0; from < userIds.size(); from += IN_CHUNK) {
+            List<Long> chunk = userIds.subList(from, Math.min(from + IN_CHUNK, userIds.size()));
+            String in = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            Object[] args = new Object[chunk.size() * 2];
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i] = chunk.get(i);
+                args[chunk.size() + i] = chunk.get(i);
+            }
+            jdbcTemplate.query(REFERRAL_EDGES + " WHERE rc.user_id IN (" + in + ") OR u.id IN (" + in + ")",
+                    rs -> consumer.accept(rs.getLong(1), rs.getLong(2)), args);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.Entity.ReferralStats;
+import com.example.p2pchat.dto.ReferralStatsDto;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface ReferralStatsRepository extends JpaRepository<ReferralStats, Long>, ReferralStatsRepositoryCustom {
+
+    // 指定ユーザーの集計をニックネーム付きで取得
+    @Query("SELECT new com.example.p2pchat.dto.ReferralStatsDto(s.userId, u.nickName, s.parentId, s.depth, s.directCount, s.descendantCount) "
+            + "FROM ReferralStats s JOIN User u ON u.id = s.userId WHERE s.userId = :userId")
+    Optional<ReferralStatsDto> findStatsByUserId(@Param("userId") Long userId);
+
+    // 指定ユーザーの集計をまとめて取得（根からの経路の表示用）
+    @Query("SELECT new com.example.p2pchat.dto.ReferralStatsDto(s.userId, u.nickName, s.parentId, s.depth, s.directCount, s.descendantCount) "
+            + "FROM ReferralStats s JOIN User u ON u.id = s.userId WHERE s.userId IN :userIds ORDER BY s.depth")
+    List<ReferralStatsDto> findStatsByUserIds(@Param("userIds") Collection<Long> userIds);
+
+    // 子孫の人数が多い順に limit 件（descendant_count の索引を先頭から読むだけで、ユーザー数に依存しない）
+    @Query("SELECT new com.example.p2pchat.dto.ReferralStatsDto(s.userId, u.nickName, s.parentId, s.depth, s.directCount, s.descendantCount) "
+            + "FROM ReferralStats s JOIN User u ON u.id = s.userId ORDER BY s.descendantCount DESC, s.userId")
+    List<ReferralStatsDto> findTopByDescendantCount(Limit limit);
+
+    // 直接紹介した人数が多い順に limit 件
+    @Query("SELECT new com.example.p2pchat.dto.ReferralStatsDto(s.userId, u.nickName, s.parentId, s.depth, s.directCount, s.descendantCount) "
+            + "FROM ReferralStats s JOIN User u ON u.id = s.userId ORDER BY s.directCount DESC, s.userId")
+    List<ReferralStatsDto> findTopByDirectCount(Limit limit);
+
+    // ツリーの最大の深さ（depth の索引の末尾を読む）
+    @Query("SELECT COALESCE(MAX(s.depth), 0) FROM ReferralStats s")
+    int findMaxDepth();
+}
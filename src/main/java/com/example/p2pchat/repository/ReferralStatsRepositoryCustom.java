@@ -0,0 +1,32 @@
+package com.example.p2pchat.repository;
+
+import java.util.List;
+
+/**
+ * ReferralStatsRepository に追加する、再帰 CTE と JDBC バッチによる操作です。
+ */
+public interface ReferralStatsRepositoryCustom {
+    // 集計を変更する処理どうしを直列にするロックを取る（トランザクションの終了まで保持する。トランザクションの中で呼ぶ）
+    void lock();
+
+    // 根から指定ユーザーまでのユーザーID（根が先頭、指定ユーザーが末尾）。集計の行が無ければ空
+    List<Long> findPathFromRoot(Long userId);
+
+    // 指定ユーザーと、その子孫のユーザーID
+    List<Long> findSubtreeIds(Long userId);
+
+    // 子孫のいないユーザーの行を追加する
+    void insert(Long userId, Long parentId, int depth);
+
+    // 経路上の全員の子孫の人数に descendants を加え、末尾（紹介者）の直接紹介した人数に direct を加える（1回の JDBC バッチ）
+    void addToPath(List<Long> path, long descendants, int direct);
+
+    // 紹介者を付け替える
+    void updateParent(Long userId, Long parentId);
+
+    // 指定ユーザーの深さに delta を加える（1回の JDBC バッチ）
+    void shiftDepths(List<Long> userIds, int delta);
+
+    // 紹介コードと users.used_referral_code から全員の集計を計算し直し、行をすべて置き換える。置き換えた行数を返す
+    int recomputeAll();
+}
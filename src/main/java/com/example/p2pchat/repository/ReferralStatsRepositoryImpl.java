@@ -0,0 +1,190 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.config.DatabasePlatform;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ReferralStatsRepositoryCustom の実装です。
+ * 祖先・子孫は referral_stats の parent_id を再帰 CTE でたどります（1文で、深さぶん・子孫の数ぶんの行だけを読みます）。
+ * 再帰の条件に深さの大小を加えているため、行が壊れて循環していても問い合わせは終わります。
+ * 全件の再計算は users.used_referral_code と紹介コードの結合を根から再帰 CTE でたどり、子孫の人数は深い順に足し上げます。
+ * いずれも H2 と PostgreSQL の両方で動く標準 SQL の WITH RECURSIVE だけを使います。
+ *
+ * 全件の再計算（DELETE と INSERT）と差分の更新が同時に動くと、再計算が読んだ後の差分が消えたり、
+ * 再計算が入れた行に差分が二重に足されたりするため、集計を変更する処理は lock() で直列にします。
+ * PostgreSQL ではトランザクション単位の advisory lock を使い、複数台のサーバーの間でも直列にします。
+ * それ以外（組み込みの H2 など、1台で使うデータベース）では、このサーバー内のロックをトランザクションの終了まで保持します。
+ */
+@RequiredArgsConstructor
+public class ReferralStatsRepositoryImpl implements ReferralStatsRepositoryCustom {
+
+    private static final String PATH_FROM_ROOT = "WITH RECURSIVE ancestors (user_id, parent_id, depth) AS ("
+            + "SELECT user_id, parent_id, depth FROM referral_stats WHERE user_id = ? "
+            + "UNION ALL "
+            + "SELECT s.user_id, s.parent_id, s.depth FROM referral_stats s "
+            + "JOIN ancestors a ON s.user_id = a.parent_id AND s.depth < a.depth) "
+            + "SELECT user_id FROM ancestors ORDER BY depth";
+
+    private static final String SUBTREE = "WITH RECURSIVE subtree (user_id, depth) AS ("
+            + "SELECT user_id, depth FROM referral_stats WHERE user_id = ? "
+            + "UNION ALL "
+            + "SELECT s.user_id, s.depth FROM referral_stats s "
+            + "JOIN subtree t ON s.parent_id = t.user_id AND s.depth > t.depth) "
+            + "SELECT user_id FROM subtree";
+
+    // 紹介者のいないユーザー（紹介コードが "none" など）を根として、紹介コード経由で子をたどる。深い順に返す
+    private static final String TREE = "WITH RECURSIVE tree (user_id, parent_id, depth) AS ("
+            + "SELECT u.id, CAST(NULL AS BIGINT), 0 FROM users u "
+            + "WHERE NOT EXISTS (SELECT 1 FROM referral_code rc WHERE rc.code = u.used_referral_code) "
+            + "UNION ALL "
+            + "SELECT c.id, t.user_id, t.depth + 1 FROM tree t "
+            + "JOIN referral_code rc ON rc.user_id = t.user_id "
+            + "JOIN users c ON c.used_referral_code = rc.code) "
+            + "SELECT user_id, parent_id, depth FROM tree ORDER BY depth DESC";
+
+    private static final String INSERT = "INSERT INTO referral_stats "
+            + "(user_id, parent_id, depth, direct_count, descendant_count) VALUES (?, ?, ?, ?, ?)";
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    // referral_stats の変更用の advisory lock のキー（他の用途のキーと重ならない固定の値）
+    private static final long ADVISORY_LOCK_KEY = 0x7265665f73746174L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+
+    // advisory lock の無いデータベース用のロック（同じスレッドで取り直してもよい）
+    private final ReentrantLock localLock = new ReentrantLock();
+
+    @Override
+    public void lock() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("紹介ツリーの集計のロックはトランザクションの中で取ってください");
+        }
+        if (databasePlatform.isPostgreSql()) {
+            // トランザクションの終了時に PostgreSQL が解放する
+            jdbcTemplate.query("SELECT pg_advisory_xact_lock(?)", (ResultSetExtractor<Void>) rs -> null, ADVISORY_LOCK_KEY);
+            return;
+        }
+        if (localLock.isHeldByCurrentThread()) {
+            return;
+        }
+        localLock.lock();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                localLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Long> findPathFromRoot(Long userId) {
+        return jdbcTemplate.queryForList(PATH_FROM_ROOT, Long.class, userId);
+    }
+
+    @Override
+    public List<Long> findSubtreeIds(Long userId) {
+        return jdbcTemplate.queryForList(SUBTREE, Long.class, userId);
+    }
+
+    @Override
+    public void insert(Long userId, Long parentId, int depth) {
+        jdbcTemplate.update(INSERT, ps -> {
+            ps.setLong(1, userId);
+            if (parentId == null) {
+                ps.setNull(2, Types.BIGINT);
+            } else {
+                ps.setLong(2, parentId);
+            }
+            ps.setInt(3, depth);
+            ps.setInt(4, 0);
+            ps.setLong(5, 0);
+        });
+    }
+
+    @Override
+    public void addToPath(List<Long> path, long descendants, int direct) {
+        // 経路は根から順に更新する。同時に登録されても共通の祖先は常に同じ順でロックされ、デッドロックしない
+        Long parentId = path.get(path.size() - 1);
+        jdbcTemplate.batchUpdate("UPDATE referral_stats SET descendant_count = descendant_count + ?, "
+                        + "direct_count = direct_count + ? WHERE user_id = ?",
+                path, path.size(), (ps, userId) -> {
+                    ps.setLong(1, descendants);
+                    ps.setInt(2, userId.equals(parentId) ? direct : 0);
+                    ps.setLong(3, userId);
+                });
+    }
+
+    @Override
+    public void updateParent(Long userId, Long parentId) {
+        jdbcTemplate.update("UPDATE referral_stats SET parent_id = ? WHERE user_id = ?", parentId, userId);
+    }
+
+    @Override
+    public void shiftDepths(List<Long> userIds, int delta) {
+        jdbcTemplate.batchUpdate("UPDATE referral_stats SET depth = depth + ? WHERE user_id = ?",
+                userIds, userIds.size(), (ps, userId) -> {
+                    ps.setInt(1, delta);
+                    ps.setLong(2, userId);
+                });
+    }
+
+    @Override
+    public int recomputeAll() {
+        List<Long> userIds = new ArrayList<>();
+        List<Long> parentIds = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        jdbcTemplate.query(TREE, rs -> {
+            userIds.add(rs.getLong(1));
+            long parentId = rs.getLong(2);
+            parentIds.add(rs.wasNull() ? null : parentId);
+            depths.add(rs.getInt(3));
+        });
+
+        Map<Long, Integer> indexOf = new HashMap<>(userIds.size() * 2);
+        for (int i = 0; i < userIds.size(); i++) {
+            indexOf.put(userIds.get(i), i);
+        }
+        int[] directCounts = new int[userIds.size()];
+        long[] descendantCounts = new long[userIds.size()];
+        // 深い順に並んでいるので、子は必ず親より先に確定している
+        for (int i = 0; i < userIds.size(); i++) {
+            Long parentId = parentIds.get(i);
+            if (parentId != null) {
+                int parent = indexOf.get(parentId);
+                directCounts[parent]++;
+                descendantCounts[parent] += descendantCounts[i] + 1;
+            }
+        }
+
+        jdbcTemplate.update("DELETE FROM referral_stats");
+        List<Integer> rows = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            rows.add(i);
+        }
+        jdbcTemplate.batchUpdate(INSERT, rows, INSERT_BATCH_SIZE, (ps, i) -> {
+            ps.setLong(1, userIds.get(i));
+            if (parentIds.get(i) == null) {
+                ps.setNull(2, Types.BIGINT);
+            } else {
+                ps.setLong(2, parentIds.get(i));
+            }
+            ps.setInt(3, depths.get(i));
+            ps.setInt(4, directCounts[i]);
+            ps.setLong(5, descendantCounts[i]);
+        });
+        return userIds.size();
+    }
+}
@@ -1,8 +1,17 @@
 package com.example.p2pchat.repository;
 
 import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.DashboardUserDto;
+import com.example.p2pchat.dto.UserSummaryDto;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,4 +35,65 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByFriendRequestCode(String friendRequestCode);
 
     List<User> findAllByUsedReferralCodeIn(List<String> codes);
-}
\ No newline at end of file
+
+    // ニックネームからユーザーIDのみを取得
+    @Query("SELECT u.id FROM User u WHERE u.nickName = :nickName")
+    Optional<Long> findIdByNickName(@Param("nickName") String nickName);
+
+    // ユーザーIDから概要（パスワード・関連を除く）を取得
+    @Query("SELECT new com.example.p2pchat.dto.UserSummaryDto(u.id, u.nickName, u.authority, u.trial, u.createdAt) "
+            + "FROM User u WHERE u.id = :id")
+    Optional<UserSummaryDto> findSummaryById(@Param("id") Long id);
+
+    // 指定IDのユーザーの概要をまとめて取得（友達候補の表示用）
+    @Query("SELECT new com.example.p2pchat.dto.UserSummaryDto(u.id, u.nickName, u.authority, u.trial, u.createdAt) "
+            + "FROM User u WHERE u.id IN :ids")
+    List<UserSummaryDto> findSummariesByIds(@Param("ids") Collection<Long> ids);
+
+    // ダッシュボード用：ユーザー情報と紹介者のニックネームを1回のクエリで取得
+    @Query("SELECT new com.example.p2pchat.dto.DashboardUserDto(u.id, u.nickName, u.friendRequestCode, u.trial, u.createdAt, o.nickName) "
+            + "FROM User u LEFT JOIN ReferralCode rc ON rc.code = u.usedReferralCode LEFT JOIN rc.owner o "
+            + "WHERE u.nickName = :nickName")
+    Optional<DashboardUserDto> findDashboardUser(@Param("nickName") String nickName);
+
+    // 指定された紹介コード（= 紹介者のフレンド申請コード）で登録したユーザーのニックネームのみを取得
+    @Query("SELECT u.nickName FROM User u WHERE u.usedReferralCode = :code")
+    List<String> findNickNamesByUsedReferralCode(@Param("code") String code);
+
+    // 紹介枠が残っている場合だけ1つ減らす（残数の確認と減算を1文で行う。更新件数が0なら枠切れ）
+    @Modifying
+    @Query("UPDATE User u SET u.remainingReferralSlots = u.remainingReferralSlots - 1 "
+            + "WHERE u.id = :id AND u.remainingReferralSlots > 0")
+    int decrementRemainingReferralSlots(@Param("id") Long id);
+
+    // パスワードのハッシュのみを更新（ログイン時の再ハッシュ用）
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.password = :password WHERE u.id = :id")
+    void updatePassword(@Param("id") Long id, @Param("password") String password);
+
+    // エンドツーエンド暗号化の公開鍵だけを更新
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.encryptionPublicKey = :publicKey WHERE u.id = :id")
+    void updateEncryptionPublicKey(@Param("id") Long id, @Param("publicKey") String publicKey);
+
+    // エンドツーエンド暗号化の公開鍵（未登録のユーザーは空）
+    @Query("SELECT u.encryptionPublicKey FROM User u WHERE u.id = :id AND u.encryptionPublicKey IS NOT NULL")
+    Optional<String> findEncryptionPublicKeyById(@Param("id") Long id);
+
+    // 管理画面のユーザー一覧：ID が afterId より大きいユーザーを ID 順に limit 件（キーセット方式のページング）
+    @Query("SELECT new com.example.p2pchat.dto.UserSummaryDto(u.id, u.nickName, u.authority, u.trial, u.createdAt) "
+            + "FROM User u WHERE u.id > :afterId "
+            + "AND (:trial IS NULL OR u.trial = :trial) "
+            + "AND (:authority IS NULL OR u.authority = :authority) "
+            + "AND (:createdFrom IS NULL OR u.createdAt >= :createdFrom) "
+            + "AND (:createdBefore IS NULL OR u.createdAt < :createdBefore) "
+            + "ORDER BY u.id")
+    List<UserSummaryDto> findSummariesAfter(@Param("afterId") Long afterId,
+                                            @Param("trial") Boolean trial,
+                                            @Param("authority") String authority,
+                                            @Param("createdFrom") LocalDateTime createdFrom,
+                                            @Param("createdBefore") LocalDateTime createdBefore,
+                                            Limit limit);
+}
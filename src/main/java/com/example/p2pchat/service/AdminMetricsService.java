@@ -0,0 +1,97 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.AdminMetricsDto;
+import com.example.p2pchat.dto.TimerSummaryDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 管理画面に表示する指標を MeterRegistry と Hibernate の統計情報から集めるサービスです。
+ * 所要時間の合計が大きいエンドポイント・サービスメソッドを上位から返すので、どこが重いかをすぐに確認できます。
+ */
+@Service
+@RequiredArgsConstructor
+public class AdminMetricsService {
+
+    private static final int TOP_TIMERS = 10;
+
+    private final MeterRegistry meterRegistry;
+    private final EntityManagerFactory entityManagerFactory;
+    private final FriendGraphCache friendGraphCache;
+    private final UserLookupCache userLookupCache;
+    private final PasswordHashingService passwordHashingService;
+
+    public AdminMetricsDto snapshot() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        List<TimerSummaryDto> endpoints = topTimers("http.server.requests",
+                timer -> timer.getId().getTag("method") + " " + timer.getId().getTag("uri"));
+        List<TimerSummaryDto> serviceMethods = topTimers("app.service",
+                timer -> timer.getId().getTag("class").replaceFirst(".*\\.", "") + "." + timer.getId().getTag("method"));
+
+        return new AdminMetricsDto(
+                (long) gauge("presence.online"),
+                (long) gauge("presence.subscriptions"),
+                (long) gauge("tomcat.sessions.active.current"),
+                statistics.getPrepareStatementCount(),
+                statistics.getQueryExecutionCount(),
+                statistics.getEntityLoadCount(),
+                statistics.getSecondLevelCacheHitCount(),
+                statistics.getSecondLevelCacheMissCount(),
+                statistics.getQueryExecutionMaxTime(),
+                statistics.getQueryExecutionMaxTimeQueryString(),
+                hitRatio(friendGraphCache.getHitCount(), friendGraphCache.getMissCount()),
+                hitRatio(userLookupCache.getHitCount(), userLookupCache.getMissCount()),
+                passwordHashingService.getQueueDepth(),
+                endpoints,
+                serviceMethods
+        );
+    }
+
+    // 所要時間の合計が大きい順に、上位 TOP_TIMERS 件（ステータスなどのタグ違いは label ごとにまとめる）
+    private List<TimerSummaryDto> topTimers(String name, Function<Timer, String> label) {
+        Map<String, List<Timer>> byLabel = meterRegistry.find(name).timers().stream()
+                .filter(timer -> timer.count() > 0)
+                .collect(Collectors.groupingBy(label));
+        return byLabel.entrySet().stream()
+                .map(entry -> summarize(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparingDouble(TimerSummaryDto::totalSeconds).reversed())
+                .limit(TOP_TIMERS)
+                .toList();
+    }
+
+    private static TimerSummaryDto summarize(String name, List<Timer> timers) {
+        long count = 0;
+        double totalMillis = 0;
+        double maxMillis = 0;
+        for (Timer timer : timers) {
+            count += timer.count();
+            totalMillis += timer.totalTime(TimeUnit.MILLISECONDS);
+            maxMillis = Math.max(maxMillis, timer.max(TimeUnit.MILLISECONDS));
+        }
+        return new TimerSummaryDto(name, count, totalMillis / count, maxMillis, totalMillis / 1000);
+    }
+
+    private double gauge(String name) {
+        Gauge gauge = meterRegistry.find(name).gauge();
+        return gauge == null ? 0 : gauge.value();
+    }
+
+    private static double hitRatio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
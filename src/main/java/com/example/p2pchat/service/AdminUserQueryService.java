@@ -0,0 +1,172 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.UserFilter;
+import com.example.p2pchat.dto.UserPage;
+import com.example.p2pchat.dto.UserSummaryDto;
+import com.example.p2pchat.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 管理画面のユーザー一覧（キーセット方式のページング）とエクスポートを扱うサービスです。
+ * 一覧は ID をカーソルにして「前のページの最後の ID より大きいもの」を取得するため、何ページ目でも同じ速さで表示できます。
+ * エクスポートは前方向のみの JDBC カーソルで1行ずつ書き出すため、件数に関わらずメモリ使用量は一定です
+ * （PostgreSQL でカーソルを使うため、読み取り専用のトランザクション内で fetch size を指定して実行します）。
+ */
+@Service
+@RequiredArgsConstructor
+public class AdminUserQueryService {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int EXPORT_FETCH_SIZE = 500;
+    private static final int FLUSH_EVERY_ROWS = 1000;
+    private static final String FORMULA_PREFIXES = "=+-@\t\r";
+
+    public enum ExportFormat { CSV, NDJSON }
+
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
+
+    // afterId より後のユーザーを size 件取得する（1件多く読んで次のページの有無を判定する）
+    @Transactional(readOnly = true)
+    public UserPage page(UserFilter filter, Long afterId, int size) {
+        int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+        List<UserSummaryDto> users = userRepository.findSummariesAfter(
+                afterId == null ? 0L : afterId,
+                filter.trial(),
+                filter.authorityOrNull(),
+                startOf(filter.createdFrom()),
+                startOf(filter.createdTo() == null ? null : filter.createdTo().plusDays(1)),
+                Limit.of(pageSize + 1));
+
+        if (users.size() <= pageSize) {
+            return new UserPage(users, null);
+        }
+        List<UserSummaryDto> current = users.subList(0, pageSize);
+        return new UserPage(List.copyOf(current), current.get(pageSize - 1).id());
+    }
+
+    // 条件に合う全ユーザーを ID 順に書き出す
+    public void export(UserFilter filter, ExportFormat format, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        if (format == ExportFormat.CSV) {
+            writer.write("id,nickName,authority,trial,createdAt\n");
+        }
+
+        List<Object> args = new ArrayList<>();
+        String sql = exportQuery(filter, args);
+        PreparedStatementCreator statement = connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(EXPORT_FETCH_SIZE);
+            for (int i = 0; i < args.size(); i++) {
+                ps.setObject(i + 1, args.get(i));
+            }
+            return ps;
+        };
+        RowCallbackHandler rowWriter = rs -> {
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            UserSummaryDto user = new UserSummaryDto(rs.getLong("id"), rs.getString("nick_name"),
+                    rs.getString("authority"), rs.getBoolean("trial"),
+                    createdAt == null ? null : createdAt.toLocalDateTime());
+            try {
+                writeRow(writer, format, user);
+                if (rs.getRow() % FLUSH_EVERY_ROWS == 0) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        try {
+            transaction.executeWithoutResult(status -> jdbcTemplate.query(statement, rowWriter));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    private void writeRow(Writer writer, ExportFormat format, UserSummaryDto user) throws IOException {
+        if (format == ExportFormat.NDJSON) {
+            writer.write(objectMapper.writeValueAsString(user));
+        } else {
+            writer.write(user.id().toString());
+            writer.write(',');
+            writer.write(csv(user.nickName()));
+            writer.write(',');
+            writer.write(csv(user.authority()));
+            writer.write(',');
+            writer.write(Boolean.toString(user.trial()));
+            writer.write(',');
+            writer.write(user.createdAt() == null ? "" : user.createdAt().toString());
+        }
+        writer.write('\n');
+    }
+
+    private static String exportQuery(UserFilter filter, List<Object> args) {
+        StringBuilder sql = new StringBuilder("SELECT id, nick_name, authority, trial, created_at FROM users WHERE 1 = 1");
+        if (filter.trial() != null) {
+            sql.append(" AND trial = ?");
+            args.add(filter.trial());
+        }
+        if (filter.authorityOrNull() != null) {
+            sql.append(" AND authority = ?");
+            args.add(filter.authorityOrNull());
+        }
+        if (filter.createdFrom() != null) {
+            sql.append(" AND created_at >= ?");
+            args.add(Timestamp.valueOf(startOf(filter.createdFrom())));
+        }
+        if (filter.createdTo() != null) {
+            sql.append(" AND created_at < ?");
+            args.add(Timestamp.valueOf(startOf(filter.createdTo().plusDays(1))));
+        }
+        return sql.append(" ORDER BY id").toString();
+    }
+
+    // 区切り文字・引用符・改行を含む値はダブルクォートで囲む
+    // 表計算ソフトが数式として実行する文字（= + - @ タブ CR）で始まる値は、先頭に ' を付けて文字列として扱わせる
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        boolean formula = !value.isEmpty() && FORMULA_PREFIXES.indexOf(value.charAt(0)) >= 0;
+        if (!formula && value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + (formula ? "'" : "") + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static LocalDateTime startOf(LocalDate date) {
+        return date == null ? null : date.atStartOfDay();
+    }
+}
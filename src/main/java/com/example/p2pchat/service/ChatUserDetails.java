@@ -0,0 +1,65 @@
+package com.example.p2pchat.service;
+
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ログイン中のユーザーを表す UserDetails です。
+ * ニックネームに加えてユーザーID・体験モードかどうか・権限を保持するため、
+ * コントローラーはリクエストごとに findByNickName を実行せずにユーザーを特定できます。
+ * trial はログイン時点の値です（最新の値が必要な場合は UserLookupCache を参照してください）。
+ */
+public class ChatUserDetails implements UserDetails, CredentialsContainer {
+
+    private final Long id;
+    private final String nickName;
+    private String password;
+    private final boolean trial;
+    private final String authority;
+
+    public ChatUserDetails(Long id, String nickName, String password, boolean trial, String authority) {
+        this.id = id;
+        this.nickName = nickName;
+        this.password = password;
+        this.trial = trial;
+        this.authority = authority;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public boolean isTrial() {
+        return trial;
+    }
+
+    public String getAuthority() {
+        return authority;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return List.of(new SimpleGrantedAuthority(authority));
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String getUsername() {
+        return nickName;
+    }
+
+    // 認証後はパスワードのハッシュをセッションに残さない
+    @Override
+    public void eraseCredentials() {
+        this.password = null;
+    }
+}
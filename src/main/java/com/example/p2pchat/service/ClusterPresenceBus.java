@@ -0,0 +1,168 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.PresenceDelta;
+import com.example.p2pchat.dto.PresenceWrite;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 複数台構成で、オンライン状態の変化を PostgreSQL の NOTIFY で他のノードへ送るクラスです（presence.cluster.enabled=true の場合のみ）。
+ * ブローカーは使わず、PresenceWriteBuffer が OnlinePeer テーブルへ反映するトランザクションの中で pg_notify を発行します。
+ * NOTIFY はコミット時に配信されるため、受信側が OnlinePeer テーブルを読むときには変化が必ず反映済みです。
+ * 受信と適用は ClusterPresenceListener が行います。
+ *
+ * 通知の形式は「ノードID 番号 直前の番号|変化,変化,...」で、変化は "+ユーザーID:multiaddr のハッシュ" または "-ユーザーID" です。
+ * 番号はノードごとの連番で、受信側は「直前の番号」が最後に受け取った番号と一致しなければ取りこぼしとみなして再同期します。
+ * ロールバックしたトランザクションの番号は「直前の番号」に含めないため、取りこぼしと誤認しません。
+ */
+@Service
+@RequiredArgsConstructor
+public class ClusterPresenceBus {
+
+    // NOTIFY の本文の上限（8000 バイト）に収まるよう、1通知あたりの文字数をこれ以下にする
+    static final int MAX_PAYLOAD_CHARS = 7900;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${presence.cluster.enabled:false}")
+    private boolean enabled;
+
+    // LISTEN / NOTIFY のチャンネル名（SQL の識別子としてそのまま使うため英小文字・数字・_ のみ）
+    @Value("${presence.cluster.channel:presence_deltas}")
+    private String channel;
+
+    // 起動ごとに変わるノードID（自分が送った通知を受信時に読み飛ばすために使う）
+    private final String nodeId = HexFormat.of().toHexDigits(new SecureRandom().nextLong());
+
+    // 次に使う番号と、コミット済みの最後の番号
+    private long nextSeq = 1;
+    private long committedSeq;
+
+    private Counter sentNotificationsCounter;
+    private Counter sentDeltasCounter;
+
+    @PostConstruct
+    public void init() {
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("presence.cluster.channel は英小文字・数字・_ で指定してください: " + channel);
+        }
+        sentNotificationsCounter = Counter.builder("presence.cluster.notifications")
+                .tag("direction", "sent").register(meterRegistry);
+        sentDeltasCounter = Counter.builder("presence.cluster.deltas")
+                .tag("direction", "sent").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    // 反映中のトランザクションで、バッチ内の変化を NOTIFY する（コミットされた場合のみ配信される）
+    public void publish(List<PresenceWrite> batch) {
+        if (!enabled || batch.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("オンライン状態の変化はトランザクションの中で通知してください");
+        }
+        List<PresenceDelta> deltas = batch.stream().map(PresenceDelta::of).toList();
+        List<String> payloads;
+        long lastSeq;
+        synchronized (this) {
+            payloads = encode(nodeId, nextSeq, committedSeq, deltas);
+            nextSeq += payloads.size();
+            lastSeq = nextSeq - 1;
+        }
+        for (String payload : payloads) {
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", (ResultSetExtractor<Void>) rs -> null, channel, payload);
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                synchronized (ClusterPresenceBus.this) {
+                    committedSeq = Math.max(committedSeq, lastSeq);
+                }
+                sentNotificationsCounter.increment(payloads.size());
+                sentDeltasCounter.increment(deltas.size());
+            }
+        });
+    }
+
+    // 変化を MAX_PAYLOAD_CHARS 以下の通知に分け、firstSeq からの連番を振る
+    static List<String> encode(String nodeId, long firstSeq, long previousSeq, List<PresenceDelta> deltas) {
+        List<String> payloads = new ArrayList<>();
+        long seq = firstSeq;
+        long prev = previousSeq;
+        StringBuilder entries = new StringBuilder();
+        for (PresenceDelta delta : deltas) {
+            String entry = delta.online()
+                    ? "+" + delta.userId() + ":" + Integer.toHexString(delta.multiaddrHash())
+                    : "-" + delta.userId();
+            String header = nodeId + " " + seq + " " + prev + "|";
+            if (!entries.isEmpty() && header.length() + entries.length() + 1 + entry.length() > MAX_PAYLOAD_CHARS) {
+                payloads.add(header + entries);
+                prev = seq++;
+                entries.setLength(0);
+            }
+            if (!entries.isEmpty()) {
+                entries.append(',');
+            }
+            entries.append(entry);
+        }
+        if (!entries.isEmpty()) {
+            payloads.add(nodeId + " " + seq + " " + prev + "|" + entries);
+        }
+        return payloads;
+    }
+
+    // 通知の本文を読み取る。形式が不正な場合は IllegalArgumentException
+    static Notification decode(String payload) {
+        int bar = payload.indexOf('|');
+        String[] header = bar < 0 ? new String[0] : payload.substring(0, bar).split(" ");
+        if (header.length != 3) {
+            throw new IllegalArgumentException("オンライン状態の通知の形式が不正です: " + payload);
+        }
+        try {
+            List<PresenceDelta> deltas = new ArrayList<>();
+            for (String entry : payload.substring(bar + 1).split(",")) {
+                if (entry.startsWith("+")) {
+                    int colon = entry.indexOf(':');
+                    deltas.add(new PresenceDelta(Long.parseLong(entry.substring(1, colon)), true,
+                            Integer.parseUnsignedInt(entry.substring(colon + 1), 16)));
+                } else if (entry.startsWith("-")) {
+                    deltas.add(new PresenceDelta(Long.parseLong(entry.substring(1)), false, 0));
+                } else {
+                    throw new IllegalArgumentException("オンライン状態の通知の形式が不正です: " + payload);
+                }
+            }
+            return new Notification(header[0], Long.parseLong(header[1]), Long.parseLong(header[2]), deltas);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("オンライン状態の通知の形式が不正です: " + payload, e);
+        }
+    }
+
+    // 受け取った通知1件（送信元のノードID、番号、送信元が直前にコミットした番号、変化）
+    record Notification(String nodeId, long seq, long previousSeq, List<PresenceDelta> deltas) {
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.Entity.OnlinePeer;
+import com.example.p2pchat.config.DatabasePlatform;
+import com.example.p2pchat.dto.PresenceDelta;
+import com.example.p2pchat.repository.OnlinePeerRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 他のノードが ClusterPresenceBus で送ったオンライン状態の変化を LISTEN で受け取り、OnlinePeerService のマップへ反映するクラスです。
+ * これにより、どのノードでも /api/online をメモリ上のマップだけで返せます（presence.cluster.enabled=true の場合のみ動きます）。
+ *
+ * 受信にはコネクションプールとは別の専用の接続を1本使い、専用スレッドで getNotifications を待ちます。
+ * オンラインの変化は multiaddr のハッシュだけを受け取り、手元の multiaddr と一致すればハートビートとして期限だけを延ばし、
+ * 一致しないユーザーは通知1件ごとにまとめて OnlinePeer テーブルから読みます。
+ * 接続し直したときと、送信元の番号が飛んだ（通知を取りこぼした）ときは、テーブルの全件で再同期します。
+ */
+@Service
+@RequiredArgsConstructor
+public class ClusterPresenceListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterPresenceListener.class);
+
+    private final ClusterPresenceBus clusterPresenceBus;
+    private final OnlinePeerService onlinePeerService;
+    private final OnlinePeerRepository onlinePeerRepository;
+    private final ReadYourWritesTracker readYourWritesTracker;
+    private final DataSourceProperties dataSourceProperties;
+    private final DatabasePlatform databasePlatform;
+    private final MeterRegistry meterRegistry;
+
+    // 通知を待つ1回あたりの時間（ミリ秒。停止の確認間隔を兼ねる）
+    @Value("${presence.cluster.poll-timeout-ms:500}")
+    private int pollTimeoutMillis;
+
+    // 接続が切れた後に接続し直すまでの時間（ミリ秒）
+    @Value("${presence.cluster.reconnect-delay-ms:5000}")
+    private long reconnectDelayMillis;
+
+    // 再同期でテーブルに無いユーザーをオフラインにするのは、これより前に確認されたものだけ（反映待ちの書き込みとの競合を避ける）
+    @Value("${presence.cluster.resync-grace-ms:2000}")
+    private long resyncGraceMillis;
+
+    // 送信元のノードID -> 最後に受け取った番号（受信スレッドからのみ触る）
+    private final Map<String, Long> lastSeqByNode = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    private Counter receivedNotificationsCounter;
+    private Counter receivedDeltasCounter;
+    private Counter fetchedRowsCounter;
+    private Counter malformedCounter;
+
+    @PostConstruct
+    public void init() {
+        if (clusterPresenceBus.isEnabled() && !databasePlatform.isPostgreSql()) {
+            throw new IllegalStateException("presence.cluster.enabled=true には PostgreSQL が必要です（接続先: "
+                    + databasePlatform.getProductName() + "）");
+        }
+        receivedNotificationsCounter = Counter.builder("presence.cluster.notifications")
+                .tag("direction", "received").register(meterRegistry);
+        receivedDeltasCounter = Counter.builder("presence.cluster.deltas")
+                .tag("direction", "received").register(meterRegistry);
+        fetchedRowsCounter = Counter.builder("presence.cluster.fetched.rows").register(meterRegistry);
+        malformedCounter = Counter.builder("presence.cluster.malformed").register(meterRegistry);
+    }
+
+    // スナップショットからの復元が終わってから受信を始める
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!clusterPresenceBus.isEnabled()) {
+            return;
+        }
+        running = true;
+        listenerThread = new Thread(this::listen, "presence-cluster-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        log.info("オンライン状態の共有を開始しました: ノード {}、チャンネル {}",
+                clusterPresenceBus.getNodeId(), clusterPresenceBus.getChannel());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+            listenerThread.join(reconnectDelayMillis);
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + clusterPresenceBus.getChannel());
+                }
+                // LISTEN より前の変化は受け取れないため、接続するたびに全件で合わせる
+                lastSeqByNode.clear();
+                resync("connect");
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMillis);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            handle(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("オンライン状態の通知の受信が切断されました。{} ミリ秒後に接続し直します", reconnectDelayMillis, e);
+                try {
+                    Thread.sleep(reconnectDelayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // 通知1件を反映する。自分が送った通知は読み飛ばす
+    void handle(String payload) {
+        ClusterPresenceBus.Notification notification;
+        try {
+            notification = ClusterPresenceBus.decode(payload);
+        } catch (IllegalArgumentException e) {
+            malformedCounter.increment();
+            log.warn(e.getMessage());
+            return;
+        }
+        if (notification.nodeId().equals(clusterPresenceBus.getNodeId())) {
+            return;
+        }
+        receivedNotificationsCounter.increment();
+        receivedDeltasCounter.increment(notification.deltas().size());
+
+        // 初めて見るノード（起動・接続し直した後）は、その時点の状態を再同期で取り込んでいるので続きから受け取る
+        Long lastSeq = lastSeqByNode.put(notification.nodeId(), notification.seq());
+        if (lastSeq != null && lastSeq != notification.previousSeq()) {
+            log.warn("ノード {} からの通知を取りこぼしました（{} の次が {}）。再同期します",
+                    notification.nodeId(), lastSeq, notification.seq());
+            // この通知の変化もコミット済みなので、再同期の結果に含まれる
+            resync("gap");
+            return;
+        }
+        apply(notification.deltas());
+    }
+
+    private void apply(List<PresenceDelta> deltas) {
+        List<Long> changedUserIds = new ArrayList<>();
+        for (PresenceDelta delta : deltas) {
+            if (!delta.online()) {
+                onlinePeerService.applyRemoteOffline(delta.userId());
+                continue;
+            }
+            Optional<OnlinePresence> current = onlinePeerService.find(delta.userId());
+            boolean unchanged = current.isPresent()
+                    && PresenceDelta.hash(current.get().multiaddr()) == delta.multiaddrHash();
+            // multiaddr が変わっていなければハートビートとして扱い、テーブルは読まない
+            if (!unchanged || !onlinePeerService.applyRemoteHeartbeat(delta.userId())) {
+                changedUserIds.add(delta.userId());
+            }
+        }
+        if (changedUserIds.isEmpty()) {
+            return;
+        }
+        // 反映済みの行を読むため、レプリカではなく primary から読む（読むまでに削除されたユーザーは後続の通知で消える）
+        List<OnlinePeer> rows = readYourWritesTracker.onPrimary(
+                () -> onlinePeerRepository.findAllWithUserByUserIds(changedUserIds));
+        fetchedRowsCounter.increment(rows.size());
+        for (OnlinePeer row : rows) {
+            onlinePeerService.applyRemoteOnline(new OnlinePresence(row.getUser().getId(),
+                    row.getUser().getNickName(), row.getMultiaddr(), row.getLastSeenAt()));
+        }
+    }
+
+    private void resync(String reason) {
+        LocalDateTime staleBefore = LocalDateTime.now().minusNanos(resyncGraceMillis * 1_000_000);
+        List<OnlinePeer> snapshot = readYourWritesTracker.onPrimary(onlinePeerRepository::findAllWithUser);
+        onlinePeerService.resyncRemote(snapshot, staleBefore);
+        meterRegistry.counter("presence.cluster.resyncs", "reason", reason).increment();
+        log.info("オンライン状態をテーブルの {} 件で再同期しました（{}）", snapshot.size(), reason);
+    }
+}
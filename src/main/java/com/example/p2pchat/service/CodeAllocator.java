@@ -0,0 +1,105 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.Entity.CodeSequence;
+import com.example.p2pchat.repository.CodeSequenceRepository;
+import com.example.p2pchat.util.CodeCodec;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 紹介コード・フレンド申請コードを払い出すサービスです。
+ * CodeSequence テーブルから連番を code-allocator.block-size 件ずつ予約し、予約した範囲をメモリ上で払い出します。
+ * 連番は CodeCodec で推測しにくいコードに1対1で変換するため、コードごとの重複確認（existsByCode）は不要です。
+ * 複数台で動かしても、予約は行ロックで直列化されるため範囲が重なりません。
+ */
+@Service
+@RequiredArgsConstructor
+public class CodeAllocator {
+
+    private static final String SEQUENCE_NAME = "codes";
+
+    private final CodeSequenceRepository codeSequenceRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${code-allocator.block-size:1000}")
+    private int blockSize;
+
+    private CodeCodec codec;
+    private long next;
+    private long limit;
+
+    // コードを1つ払い出す
+    public synchronized String nextCode() {
+        if (next >= limit) {
+            reserveBlock();
+        }
+        return codec.encode(next++);
+    }
+
+    // コードを count 個払い出す
+    public synchronized List<String> nextCodes(int count) {
+        List<String> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            codes.add(nextCode());
+        }
+        return codes;
+    }
+
+    // 次のブロックを予約する（呼び出し元のトランザクションとは独立してすぐにコミットする）
+    private void reserveBlock() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Block block;
+        try {
+            block = transaction.execute(status -> reserveBlockInTransaction());
+        } catch (DataIntegrityViolationException e) {
+            // 初回の行作成が他のサーバーと競合した場合は、作成済みの行から予約し直す
+            block = transaction.execute(status -> reserveBlockInTransaction());
+        }
+
+        // コミットが成功してから予約範囲を使い始める
+        if (codec == null) {
+            codec = new CodeCodec(HexFormat.of().parseHex(block.secret()));
+        }
+        next = block.start();
+        limit = block.end();
+    }
+
+    private Block reserveBlockInTransaction() {
+        CodeSequence sequence = codeSequenceRepository.findForUpdate(SEQUENCE_NAME)
+                .orElseGet(this::createSequence);
+        long start = sequence.getNextValue();
+        long end = start + blockSize;
+        if (end - 1 > CodeCodec.MAX_VALUE) {
+            throw new IllegalStateException("コードの連番を使い切りました");
+        }
+        sequence.setNextValue(end);
+        codeSequenceRepository.saveAndFlush(sequence);
+        return new Block(start, end, sequence.getSecret());
+    }
+
+    private CodeSequence createSequence() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+
+        CodeSequence sequence = new CodeSequence();
+        sequence.setName(SEQUENCE_NAME);
+        sequence.setNextValue(0);
+        sequence.setSecret(HexFormat.of().formatHex(secret));
+        return sequence;
+    }
+
+    // 予約した連番の範囲 [start, end) と、コード化に使う鍵
+    private record Block(long start, long end, String secret) {
+    }
+}
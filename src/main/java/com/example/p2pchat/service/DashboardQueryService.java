@@ -0,0 +1,104 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.DashboardUserDto;
+import com.example.p2pchat.dto.DashboardView;
+import com.example.p2pchat.dto.FriendRequestSummaryDto;
+import com.example.p2pchat.dto.FriendSummaryDto;
+import com.example.p2pchat.dto.ReferralCodeUsageDto;
+import com.example.p2pchat.repository.FriendRepository;
+import com.example.p2pchat.repository.FriendRequestRepository;
+import com.example.p2pchat.repository.ReferralCodeRepository;
+import com.example.p2pchat.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ダッシュボード画面の表示内容を組み立てる読み取り専用のサービスクラスです。
+ * DTO 射影のクエリ5本（ユーザー・友達・申請・紹介コード・紹介で友達になったユーザー）だけで画面全体を作り、
+ * 同じ結果を複数の一覧で使い回します。エンティティの読み込みや遅延ロードは発生しません。
+ */
+@Service
+@RequiredArgsConstructor
+public class DashboardQueryService {
+
+    private final UserRepository userRepository;
+    private final FriendRepository friendRepository;
+    private final FriendRequestRepository friendRequestRepository;
+    private final ReferralCodeRepository referralCodeRepository;
+
+    // ニックネームのユーザーのダッシュボード表示内容を取得する
+    @Transactional(readOnly = true)
+    public DashboardView load(String nickName) {
+        DashboardUserDto user = userRepository.findDashboardUser(nickName)
+                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
+        Long userId = user.id();
+
+        // 紹介コード：未使用のコードと、コードを使って登録したユーザーを1回の結果から分ける
+        Set<String> availableCodes = new LinkedHashSet<>();
+        Set<String> referredUsers = new LinkedHashSet<>();
+        for (ReferralCodeUsageDto usage : referralCodeRepository.findUsagesByOwnerId(userId)) {
+            if (!usage.used()) {
+                availableCodes.add(usage.code());
+            }
+            if (usage.usedByNickName() != null) {
+                referredUsers.add(usage.usedByNickName());
+            }
+        }
+
+        // 友達：有効なものと解除済みのものを1回の結果から分ける
+        List<FriendSummaryDto> friends = new ArrayList<>();
+        List<FriendSummaryDto> inactiveFriends = new ArrayList<>();
+        for (FriendSummaryDto friend : friendRepository.findSummariesByUserId(userId)) {
+            (friend.active() ? friends : inactiveFriends).add(friend);
+        }
+
+        // 申請：受信した保留中・受信してキャンセルされていない・受信して拒否した・送信した未承認の申請を1回の結果から分ける
+        List<FriendRequestSummaryDto> pending = new ArrayList<>();
+        List<FriendRequestSummaryDto> incoming = new ArrayList<>();
+        List<FriendRequestSummaryDto> rejected = new ArrayList<>();
+        List<FriendRequestSummaryDto> sent = new ArrayList<>();
+        for (FriendRequestSummaryDto request : friendRequestRepository.findOpenSummariesByUserId(userId)) {
+            if (request.receiverId().equals(userId)) {
+                if (request.rejected()) {
+                    rejected.add(request);
+                } else if (!request.accepted()) {
+                    pending.add(request);
+                }
+                if (!request.accepted() && !request.cancelled()) {
+                    incoming.add(request);
+                }
+            }
+            if (request.senderId().equals(userId) && !request.accepted()) {
+                sent.add(request);
+            }
+        }
+
+        return new DashboardView(
+                user,
+                isTrialExpired(user),
+                List.copyOf(availableCodes),
+                List.copyOf(referredUsers),
+                userRepository.findNickNamesByUsedReferralCode(user.friendRequestCode()),
+                friends,
+                inactiveFriends,
+                pending,
+                incoming,
+                rejected,
+                sent);
+    }
+
+    // 体験モードの期限（登録から7日）が過ぎているか
+    private boolean isTrialExpired(DashboardUserDto user) {
+        return user.trial()
+                && user.createdAt() != null
+                && user.createdAt().plusDays(7).isBefore(LocalDateTime.now());
+    }
+}
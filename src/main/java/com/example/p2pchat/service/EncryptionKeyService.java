@@ -0,0 +1,47 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * エンドツーエンド暗号化の公開鍵を登録・配布するサービスクラスです。
+ * 鍵の組はブラウザ（WebCrypto）で作り、秘密鍵はブラウザの外に出しません。サーバーは公開鍵だけを預かり、友達に渡します。
+ * 送信側は相手の公開鍵で暗号化してからメールボックスやファイル中継に預けるため、サーバーが持つのは復号できないバイト列だけです。
+ */
+@Service
+@RequiredArgsConstructor
+public class EncryptionKeyService {
+
+    // ECDH P-256 の公開鍵（非圧縮形式: 0x04 + X(32) + Y(32)）
+    private static final int PUBLIC_KEY_BYTES = 65;
+
+    private final UserRepository userRepository;
+    private final FriendService friendService;
+
+    // 自分の公開鍵を登録する（ブラウザで鍵を作り直した場合は置き換える）
+    public void register(Long userId, String publicKey) {
+        byte[] raw;
+        try {
+            raw = Base64.getDecoder().decode(publicKey == null ? "" : publicKey.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("公開鍵は Base64 で指定してください", e);
+        }
+        if (raw.length != PUBLIC_KEY_BYTES || raw[0] != 0x04) {
+            throw new IllegalArgumentException("公開鍵は ECDH P-256 の非圧縮形式（65バイト）で指定してください");
+        }
+        userRepository.updateEncryptionPublicKey(userId, Base64.getEncoder().encodeToString(raw));
+    }
+
+    // 友達の公開鍵（双方がアクティブな友達の場合のみ。未登録なら空）
+    public Optional<String> findFriendKey(Long userId, Long friendId) {
+        if (!friendService.canChat(userId, friendId)) {
+            throw new AccessDeniedException("友達ではないユーザーの公開鍵は取得できません");
+        }
+        return userRepository.findEncryptionPublicKeyById(friendId);
+    }
+}
@@ -0,0 +1,448 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.FileTransferDto;
+import com.example.p2pchat.dto.FileUploadRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * P2P の接続（WebRTC・サーキットリレー）ができない友達同士のファイルを、サーバー経由で中継するサービスクラスです。
+ * ファイルはクライアント側で暗号化済みの不透明なバイト列として扱い、チャンクごとに SHA-256 を確認しながら受け取ります。
+ * ファイルの鍵は受信者の公開鍵で暗号化したもの（encryptedKey）だけを預かり、受信者に渡します。
+ * チャンクは任意の順序で送れ、受け取り済みでないチャンクは何度でも送り直せるため、切断されても足りないチャンクだけを送れば再開できます。
+ * 受け取り済みのチャンクの再送は 409 で拒否し、完了したファイルやダウンロード中のファイルの中身が書き換わらないようにします。
+ *
+ * 受け取ったチャンクはリクエストのストリームから FileChannel.transferFrom でファイルの該当位置へ直接書き込み、
+ * ダウンロードは FileChannel.transferTo で送ります。ファイル全体やチャンク全体をヒープに載せることはありません。
+ * アップロード・ダウンロードはユーザーごとに同時に実行できる数を制限します（超えると 429）。
+ * 送信者ごとに、受け取り途中（.part）の中継の数と、保持しているファイル（.part と受け取り済みの .blob）の合計バイト数も制限します
+ * （中継を始めた時点でファイル全体の大きさを確保したものとして数えます。超えると 429）。
+ * 中継の状態はメモリ上にのみ持ち、file-relay.ttl-hours を過ぎたファイルは削除します。
+ */
+@Service
+@RequiredArgsConstructor
+public class FileRelayService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileRelayService.class);
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String BLOB_SUFFIX = ".blob";
+
+    // 暗号化されたファイルの鍵（Base64）の最大の長さ
+    private static final int MAX_ENCRYPTED_KEY_LENGTH = 512;
+
+    /**
+     * ダウンロードできるファイルです（受け取り済みのファイルのパス、元のファイル名、バイト数）。
+     */
+    public record RelayedFile(String id, Path path, String fileName, long size) {
+    }
+
+    /**
+     * 同時転送数の枠1つ分です。転送が終わったら close で返却します。
+     */
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final FriendService friendService;
+    private final MeterRegistry meterRegistry;
+
+    // 保存先のディレクトリ（空の場合は起動ごとに一時ディレクトリを作る）
+    @Value("${file-relay.dir:}")
+    private String directory;
+
+    @Value("${file-relay.chunk-bytes:4194304}")
+    private int chunkBytes;
+
+    @Value("${file-relay.max-file-bytes:1073741824}")
+    private long maxFileBytes;
+
+    @Value("${file-relay.max-concurrent-uploads:2}")
+    private int maxConcurrentUploads;
+
+    @Value("${file-relay.max-concurrent-downloads:2}")
+    private int maxConcurrentDownloads;
+
+    @Value("${file-relay.max-open-transfers-per-sender:4}")
+    private int maxOpenTransfersPerSender;
+
+    @Value("${file-relay.max-reserved-bytes-per-sender:2147483648}")
+    private long maxReservedBytesPerSender;
+
+    @Value("${file-relay.ttl-hours:24}")
+    private long ttlHours;
+
+    private final ConcurrentHashMap<String, FileTransfer> transfers = new ConcurrentHashMap<>();
+
+    // 送信者ごとの上限の確認と中継の登録を1つにするためのロック（中継の開始だけが取る）
+    private final Object startLock = new Object();
+
+    // ユーザーID -> 同時転送数の残り
+    private final ConcurrentHashMap<Long, Semaphore> uploadSlots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Semaphore> downloadSlots = new ConcurrentHashMap<>();
+
+    private final SecureRandom random = new SecureRandom();
+
+    private Path root;
+
+    private Counter uploadedBytes;
+    private Counter downloadedBytes;
+    private Counter acceptedChunks;
+    private Counter rejectedChunks;
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = directory.isBlank() ? Files.createTempDirectory("p2pchat-files") : Files.createDirectories(Path.of(directory));
+        // 中継の状態はメモリ上にしかないため、前回起動時のファイルは再開できない
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "*{" + PART_SUFFIX + "," + BLOB_SUFFIX + "}")) {
+            for (Path file : files) {
+                Files.delete(file);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("前回起動時の中継ファイルを {} 件削除しました", removed);
+        }
+
+        uploadedBytes = Counter.builder("file.relay.bytes").tag("direction", "upload").baseUnit("bytes").register(meterRegistry);
+        downloadedBytes = Counter.builder("file.relay.bytes").tag("direction", "download").baseUnit("bytes").register(meterRegistry);
+        acceptedChunks = Counter.builder("file.relay.chunks").tag("result", "accepted").register(meterRegistry);
+        rejectedChunks = Counter.builder("file.relay.chunks").tag("result", "rejected").register(meterRegistry);
+        Gauge.builder("file.relay.transfers", transfers, ConcurrentHashMap::size).register(meterRegistry);
+    }
+
+    // 友達宛てのファイルの中継を始める
+    public FileTransferDto start(Long senderId, FileUploadRequest request) throws IOException {
+        if (request.recipientId() == null) {
+            throw new IllegalArgumentException("宛先を指定してください");
+        }
+        if (request.size() <= 0 || request.size() > maxFileBytes) {
+            throw new IllegalArgumentException("ファイルは1〜" + maxFileBytes + "バイトにしてください");
+        }
+        if (request.fileName() == null || request.fileName().isBlank() || request.fileName().length() > 255) {
+            throw new IllegalArgumentException("ファイル名は1〜255文字にしてください");
+        }
+        if (request.encryptedKey() == null || request.encryptedKey().isBlank()
+                || request.encryptedKey().length() > MAX_ENCRYPTED_KEY_LENGTH) {
+            throw new IllegalArgumentException("暗号化したファイルの鍵を指定してください");
+        }
+        try {
+            Base64.getDecoder().decode(request.encryptedKey());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("暗号化したファイルの鍵は Base64 で指定してください", e);
+        }
+        if (!friendService.canChat(senderId, request.recipientId())) {
+            throw new AccessDeniedException("友達ではないユーザーにはファイルを送れません");
+        }
+
+        byte[] token = new byte[16];
+        random.nextBytes(token);
+        String id = HEX.formatHex(token);
+        Path path = root.resolve(id + PART_SUFFIX);
+        FileTransfer transfer = new FileTransfer(id, senderId, request.recipientId(), request.fileName(),
+                request.size(), chunkBytes, request.encryptedKey(), path, LocalDateTime.now());
+        synchronized (startLock) {
+            checkSenderLimits(senderId, request.size());
+            Files.createFile(path);
+            transfers.put(id, transfer);
+        }
+        return toDto(transfer);
+    }
+
+    // 送信者・受信者が中継の状態を確認する（足りないチャンクの確認に使う）
+    public Optional<FileTransferDto> find(String id, Long userId) {
+        return participantOf(id, userId).map(this::toDto);
+    }
+
+    // 自分宛てで、すべてのチャンクを受け取り済みのファイル
+    public List<FileTransferDto> incoming(Long userId) {
+        return transfers.values().stream()
+                .filter(transfer -> transfer.getRecipientId().equals(userId) && transfer.isComplete())
+                .sorted(Comparator.comparing(FileTransfer::getCreatedAt))
+                .map(this::toDto)
+                .toList();
+    }
+
+    // チャンクを受け取り、SHA-256 が一致すれば受け取り済みにする（送信者のみ。中継がなければ空を返す）
+    // 本文はリクエストのストリームからファイルの該当位置へ直接書き込む
+    public Optional<FileTransferDto> writeChunk(String id, Long senderId, int index, String sha256,
+                                                long contentLength, InputStream body) throws IOException {
+        FileTransfer transfer = transfers.get(id);
+        if (transfer == null || !transfer.getSenderId().equals(senderId)) {
+            return Optional.empty();
+        }
+        if (index < 0 || index >= transfer.getChunkCount()) {
+            throw new IllegalArgumentException("チャンクの番号が不正です: " + index);
+        }
+        byte[] expected = parseSha256(sha256);
+        long length = transfer.lengthOf(index);
+        if (contentLength >= 0 && contentLength != length) {
+            throw new IllegalArgumentException("チャンク " + index + " の長さは " + length + " バイトです");
+        }
+        if (transfer.isComplete()) {
+            throw new IllegalStateException("このファイルはすでに受け取り済みです");
+        }
+
+        try (Permit ignored = acquire(uploadSlots, senderId, maxConcurrentUploads, "アップロード")) {
+            // 書き込み中・受け取り済みのチャンクは IllegalStateException（409）
+            transfer.beginChunk(index);
+            boolean succeeded = false;
+            try (FileChannel channel = FileChannel.open(transfer.getPath(), WRITE)) {
+                DigestingChannel source = new DigestingChannel(Channels.newChannel(body), sha256Digest());
+                long written = 0;
+                while (written < length) {
+                    long transferred = channel.transferFrom(source, transfer.offsetOf(index) + written, length - written);
+                    if (transferred == 0) {
+                        break;
+                    }
+                    written += transferred;
+                }
+                if (written != length || source.read(ByteBuffer.allocate(1)) != -1) {
+                    throw new IllegalArgumentException("チャンク " + index + " の長さは " + length + " バイトです");
+                }
+                if (!MessageDigest.isEqual(source.digest(), expected)) {
+                    throw new IllegalArgumentException("チャンク " + index + " のチェックサムが一致しません");
+                }
+                succeeded = true;
+                uploadedBytes.increment(length);
+            } finally {
+                (succeeded ? acceptedChunks : rejectedChunks).increment();
+                // 書き込みの間に中継が削除された場合は、最後に書き込みを終えたチャンクがファイルを削除する
+                synchronized (transfer) {
+                    boolean allReceived = transfer.endChunk(index, succeeded);
+                    if (transfer.isRemoved()) {
+                        deleteIfIdle(transfer);
+                    } else if (allReceived) {
+                        finish(transfer);
+                    }
+                }
+            }
+        }
+        return Optional.of(toDto(transfer));
+    }
+
+    // 受信者（または送信者）がダウンロードできるファイル。すべてのチャンクを受け取るまでは空を返す
+    public Optional<RelayedFile> findDownload(String id, Long userId) {
+        return participantOf(id, userId)
+                .filter(FileTransfer::isComplete)
+                .map(transfer -> new RelayedFile(transfer.getId(), transfer.getPath(), transfer.getFileName(),
+                        transfer.getSize()));
+    }
+
+    // ダウンロードの枠を1つ確保する。上限に達している場合は FileTransferLimitException を投げる
+    public Permit acquireDownload(Long userId) {
+        return acquire(downloadSlots, userId, maxConcurrentDownloads, "ダウンロード");
+    }
+
+    // ファイルの start から length バイトを FileChannel.transferTo で送る
+    public void transfer(RelayedFile file, long start, long length, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.path(), READ)) {
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("ファイルの送信が途中で終わりました: " + file.id());
+                }
+                position += transferred;
+                downloadedBytes.increment(transferred);
+            }
+        }
+    }
+
+    // 送信者・受信者が中継を取り消す（受信者は受け取った後の削除に使う）
+    public boolean delete(String id, Long userId) throws IOException {
+        Optional<FileTransfer> transfer = participantOf(id, userId);
+        if (transfer.isEmpty() || !transfers.remove(id, transfer.get())) {
+            return false;
+        }
+        discard(transfer.get());
+        return true;
+    }
+
+    // 期限を過ぎた中継を削除する
+    @Scheduled(fixedDelayString = "${file-relay.cleanup-interval-ms:600000}")
+    public void removeExpired() {
+        LocalDateTime threshold = LocalDateTime.now().minusHours(ttlHours);
+        for (FileTransfer transfer : transfers.values()) {
+            if (transfer.getCreatedAt().isBefore(threshold) && transfers.remove(transfer.getId(), transfer)) {
+                try {
+                    discard(transfer);
+                } catch (IOException e) {
+                    log.warn("期限切れの中継ファイルを削除できませんでした: {}", transfer.getPath(), e);
+                }
+            }
+        }
+    }
+
+    private Optional<FileTransfer> participantOf(String id, Long userId) {
+        return Optional.ofNullable(transfers.get(id)).filter(transfer -> transfer.isParticipant(userId));
+    }
+
+    // すべてのチャンクを受け取ったファイルを受け取り済みの名前に変える（複数回呼ばれても1回だけ行う）
+    // 名前を変え終えるまでは isComplete が false のため、ダウンロードが変更前のパスを読むことはない
+    private void finish(FileTransfer transfer) throws IOException {
+        synchronized (transfer) {
+            if (transfer.isWriting()) {
+                throw new IllegalStateException("書き込み中のチャンクがあるため、ファイルを完了できません");
+            }
+            if (transfer.isComplete()) {
+                return;
+            }
+            Path blob = root.resolve(transfer.getId() + BLOB_SUFFIX);
+            Files.move(transfer.getPath(), blob, ATOMIC_MOVE);
+            transfer.setPath(blob);
+            transfer.markFinished();
+        }
+    }
+
+    // 一覧から外した中継のファイルを削除する（チャンクの書き込み中であれば、書き込みが終わったときに削除する）
+    private void discard(FileTransfer transfer) throws IOException {
+        synchronized (transfer) {
+            transfer.markRemoved();
+            deleteIfIdle(transfer);
+        }
+    }
+
+    private void deleteIfIdle(FileTransfer transfer) throws IOException {
+        synchronized (transfer) {
+            if (!transfer.isWriting()) {
+                Files.deleteIfExists(transfer.getPath());
+            }
+        }
+    }
+
+    // 受け取り途中の中継の数と、保持しているファイルの合計バイト数が送信者ごとの上限を超える場合は FileTransferLimitException を投げる
+    private void checkSenderLimits(Long senderId, long size) {
+        int open = 0;
+        long reserved = size;
+        for (FileTransfer transfer : transfers.values()) {
+            if (transfer.getSenderId().equals(senderId)) {
+                reserved += transfer.getSize();
+                if (!transfer.isComplete()) {
+                    open++;
+                }
+            }
+        }
+        if (open >= maxOpenTransfersPerSender) {
+            throw new FileTransferLimitException("受け取り途中の中継は " + maxOpenTransfersPerSender + " 件までです");
+        }
+        if (reserved > maxReservedBytesPerSender) {
+            throw new FileTransferLimitException("中継に預けられるファイルは合計 " + maxReservedBytesPerSender + " バイトまでです");
+        }
+    }
+
+    private Permit acquire(ConcurrentHashMap<Long, Semaphore> slots, Long userId, int limit, String operation) {
+        Semaphore semaphore = slots.computeIfAbsent(userId, id -> new Semaphore(limit));
+        if (!semaphore.tryAcquire()) {
+            throw new FileTransferLimitException("同時に実行できる" + operation + "は " + limit + " 件までです");
+        }
+        return semaphore::release;
+    }
+
+    private FileTransferDto toDto(FileTransfer transfer) {
+        List<Integer> missing = transfer.missingChunks();
+        return new FileTransferDto(transfer.getId(), transfer.getSenderId(), transfer.getRecipientId(),
+                transfer.getFileName(), transfer.getSize(), transfer.getChunkSize(), transfer.getChunkCount(),
+                missing, transfer.isComplete(), transfer.getEncryptedKey(), transfer.getCreatedAt());
+    }
+
+    private static byte[] parseSha256(String hex) {
+        if (hex == null || hex.length() != 64) {
+            throw new IllegalArgumentException("チャンクの SHA-256（16進数64文字）を指定してください");
+        }
+        try {
+            return HEX.parseHex(hex.toLowerCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("チャンクの SHA-256（16進数64文字）を指定してください", e);
+        }
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 が利用できません", e);
+        }
+    }
+
+    /**
+     * 読み出したバイト列の SHA-256 を計算しながら読む ReadableByteChannel です。
+     * transferFrom が使う一時バッファ（ダイレクトバッファ）をそのままダイジェストに渡すため、追加のコピーはありません。
+     */
+    private static final class DigestingChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel source;
+        private final MessageDigest digest;
+
+        DigestingChannel(ReadableByteChannel source, MessageDigest digest) {
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            int start = destination.position();
+            int read = source.read(destination);
+            if (read > 0) {
+                ByteBuffer view = destination.duplicate();
+                view.flip().position(start);
+                digest.update(view);
+            }
+            return read;
+        }
+
+        byte[] digest() {
+            return digest.digest();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
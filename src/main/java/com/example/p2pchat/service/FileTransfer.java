@@ -0,0 +1,164 @@
+package com.example.p2pchat.service;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * サーバー経由で中継するファイル1件分のアップロード状態です。
+ * ファイルは chunkSize ごとのチャンクに分けて任意の順序で受け取り、受け取り済みのチャンクを記録します。
+ * 同じチャンクの並行した書き込みと、受け取り済みのチャンクの書き直しは受け付けません（書き込み中のチャンクも記録します）。
+ * 受け取り済みのチャンクはファイル上で二度と書き換わらないため、完了したファイルは検証済みのバイト列のままです。
+ * ファイルの削除・受け取り済みの名前への変更は、書き込み中のチャンクと食い違わないよう this で同期して行います（FileRelayService）。
+ */
+class FileTransfer {
+
+    private final String id;
+    private final Long senderId;
+    private final Long recipientId;
+    private final String fileName;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final String encryptedKey;
+    private final LocalDateTime createdAt;
+
+    // 以下は this で同期する
+    private Path path;
+    private final BitSet received;
+    private final BitSet writing;
+    // 受け取り済みの名前（.blob）に変えた
+    private boolean finished;
+    // 中継が削除された（書き込み中のチャンクがあれば、最後の書き込みが終わったときにファイルを削除する）
+    private boolean removed;
+
+    FileTransfer(String id, Long senderId, Long recipientId, String fileName, long size, int chunkSize,
+                 String encryptedKey, Path path, LocalDateTime createdAt) {
+        this.id = id;
+        this.senderId = senderId;
+        this.recipientId = recipientId;
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.encryptedKey = encryptedKey;
+        this.path = path;
+        this.createdAt = createdAt;
+        this.received = new BitSet(chunkCount);
+        this.writing = new BitSet(chunkCount);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Long getSenderId() {
+        return senderId;
+    }
+
+    Long getRecipientId() {
+        return recipientId;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    String getEncryptedKey() {
+        return encryptedKey;
+    }
+
+    LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    synchronized Path getPath() {
+        return path;
+    }
+
+    synchronized void setPath(Path path) {
+        this.path = path;
+    }
+
+    boolean isParticipant(Long userId) {
+        return senderId.equals(userId) || recipientId.equals(userId);
+    }
+
+    // チャンクの開始位置
+    long offsetOf(int index) {
+        return (long) index * chunkSize;
+    }
+
+    // チャンクの長さ（最後のチャンクだけ短い場合がある）
+    long lengthOf(int index) {
+        return Math.min(chunkSize, size - offsetOf(index));
+    }
+
+    // チャンクの書き込みを始める。中継が削除済み、または書き込み中・受け取り済みのチャンクであれば IllegalStateException を投げる
+    synchronized void beginChunk(int index) {
+        if (removed) {
+            throw new IllegalStateException("この中継は削除されました");
+        }
+        if (received.get(index)) {
+            throw new IllegalStateException("チャンク " + index + " は受け取り済みです");
+        }
+        if (writing.get(index)) {
+            throw new IllegalStateException("チャンク " + index + " は書き込み中です");
+        }
+        writing.set(index);
+    }
+
+    // チャンクの書き込みを終える。全チャンクを受け取った場合は true を返す
+    synchronized boolean endChunk(int index, boolean succeeded) {
+        writing.clear(index);
+        if (succeeded) {
+            received.set(index);
+        }
+        return received.cardinality() == chunkCount;
+    }
+
+    // 書き込み中のチャンクがある
+    synchronized boolean isWriting() {
+        return !writing.isEmpty();
+    }
+
+    // すべてのチャンクを受け取り、受け取り済みの名前に変えた（ダウンロードできる）
+    synchronized boolean isComplete() {
+        return finished;
+    }
+
+    synchronized void markFinished() {
+        finished = true;
+    }
+
+    synchronized boolean isRemoved() {
+        return removed;
+    }
+
+    synchronized void markRemoved() {
+        removed = true;
+    }
+
+    // まだ受け取っていないチャンクの番号
+    synchronized List<Integer> missingChunks() {
+        List<Integer> missing = new ArrayList<>();
+        for (int index = received.nextClearBit(0); index < chunkCount; index = received.nextClearBit(index + 1)) {
+            missing.add(index);
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.p2pchat.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * ユーザーごとの同時アップロード数・ダウンロード数（file-relay.max-concurrent-*）や、
+ * 送信者ごとの中継の数・合計バイト数（file-relay.max-*-per-sender）を超えたことを表す例外です。
+ * 実行中の転送が終わる、または中継が削除されると、再び受け付けるようになります。
+ */
+@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS, reason = "同時に転送できるファイルの数を超えています")
+public class FileTransferLimitException extends RuntimeException {
+
+    public FileTransferLimitException(String message) {
+        super(message);
+    }
+}
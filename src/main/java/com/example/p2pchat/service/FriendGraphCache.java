@@ -0,0 +1,147 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.FriendEdge;
+import com.example.p2pchat.repository.FriendRepository;
+import com.example.p2pchat.util.LongHashSet;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 友達関係（Friend テーブル）をユーザーIDごとの隣接集合としてメモリに保持するキャッシュです。
+ * 隣接集合は long のまま LongHashSet に格納し、Friend エンティティや User の結合は読み込みません。
+ * 友達関係を変更する処理（申請承認・解除・復元・登録）は invalidate を呼び出して該当ユーザーの集合を破棄します。
+ * 破棄したユーザーは「オンライン中の友達一覧」も変わり得るため、PresenceVersionTracker のバージョンも進めます。
+ * 友達候補のグラフにも反映するため、コミット後に FriendshipChangedEvent を発行します。
+ */
+@Service
+@RequiredArgsConstructor
+public class FriendGraphCache {
+
+    /**
+     * 1ユーザー分の隣接集合です。
+     * active: 自分→相手の有効な関係、inactive: 自分→相手の解除済みの関係、
+     * activeFollowers: 相手→自分の有効な関係（自分のオンライン通知を受け取る人）
+     */
+    public record Adjacency(LongHashSet active, LongHashSet inactive, LongHashSet activeFollowers) {
+    }
+
+    private final FriendRepository friendRepository;
+    private final PresenceVersionTracker presenceVersionTracker;
+    private final ReadYourWritesTracker readYourWritesTracker;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final ConcurrentHashMap<Long, Adjacency> cache = new ConcurrentHashMap<>();
+
+    // 読み込み中に invalidate が起きたかを判定するための世代番号
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // 双方が相手をアクティブな友達として登録しているか（キャッシュ済みならDBアクセス・オブジェクト生成なし）
+    public boolean areMutualFriends(long userId, long otherId) {
+        return adjacency(userId).active().contains(otherId)
+                && adjacency(otherId).active().contains(userId);
+    }
+
+    // 自分→相手の友達関係が（有効・解除済みを問わず）存在するか
+    public boolean hasRelation(long userId, long otherId) {
+        Adjacency adjacency = adjacency(userId);
+        return adjacency.active().contains(otherId) || adjacency.inactive().contains(otherId);
+    }
+
+    // 自分がアクティブな友達として登録している相手のID
+    public LongHashSet activeFriendsOf(long userId) {
+        return adjacency(userId).active();
+    }
+
+    // 自分をアクティブな友達として登録している相手のID
+    public LongHashSet activeFollowersOf(long userId) {
+        return adjacency(userId).activeFollowers();
+    }
+
+    // 指定ユーザーの隣接集合を破棄する。トランザクション中ならコミット後にもう一度破棄する
+    public void invalidate(long... userIds) {
+        evict(userIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(userIds);
+                    eventPublisher.publishEvent(new FriendshipChangedEvent(userIds));
+                }
+            });
+        } else {
+            eventPublisher.publishEvent(new FriendshipChangedEvent(userIds));
+        }
+    }
+
+    // 全件破棄する
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.clear();
+        presenceVersionTracker.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private void evict(long... userIds) {
+        generation.incrementAndGet();
+        for (long userId : userIds) {
+            cache.remove(userId);
+        }
+        presenceVersionTracker.bump(userIds);
+    }
+
+    private Adjacency adjacency(long userId) {
+        Adjacency cached = cache.get(userId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        long before = generation.get();
+        Adjacency loaded = load(userId);
+        // 読み込み中に invalidate された場合は古い可能性があるのでキャッシュしない
+        if (generation.get() == before) {
+            cache.putIfAbsent(userId, loaded);
+        }
+        return loaded;
+    }
+
+    private Adjacency load(long userId) {
+        // 破棄するまで保持するため、レプリカの遅れた内容を読み込まないよう primary から読む
+        List<FriendEdge> edges = readYourWritesTracker.onPrimary(() -> friendRepository.findEdgesOf(userId));
+        LongHashSet active = new LongHashSet(edges.size());
+        LongHashSet inactive = new LongHashSet(4);
+        LongHashSet followers = new LongHashSet(edges.size());
+        for (FriendEdge edge : edges) {
+            if (edge.userId() == userId) {
+                (edge.active() ? active : inactive).add(edge.friendId());
+            }
+            if (edge.friendId() == userId && edge.active()) {
+                followers.add(edge.userId());
+            }
+        }
+        return new Adjacency(active, inactive, followers);
+    }
+}
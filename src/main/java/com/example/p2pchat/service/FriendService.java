@@ -2,11 +2,11 @@ package com.example.p2pchat.service;
 
 import com.example.p2pchat.Entity.User;
 import com.example.p2pchat.Entity.FriendRequest;
-import com.example.p2pchat.Entity.Friend;
 import com.example.p2pchat.repository.FriendRequestRepository;
-import com.example.p2pchat.repository.FriendRepository;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -16,17 +16,20 @@ import java.util.List;
  * フレンド申請および友達関係に関するビジネスロジックを扱うサービスクラスです。
  * 申請の承認・拒否、チャット可否の判定などを提供します。
  */
+@Timed("app.service")
 public class FriendService {
 
     private final FriendRequestRepository friendRequestRepository;
-    private final FriendRepository friendRepository;
+    private final FriendGraphCache friendGraphCache;
 
     // 指定ユーザー宛ての拒否されたフレンド申請を取得する
+    @Transactional(readOnly = true)
     public List<FriendRequest> findRejectedRequests(User receiver) {
         return friendRequestRepository.findAllByReceiverAndRejectedTrue(receiver);
     }
 
     // 指定ユーザー宛ての保留中（未承認・未拒否）のフレンド申請を取得する
+    @Transactional(readOnly = true)
     public List<FriendRequest> findPendingRequests(User receiver) {
         return friendRequestRepository.findAllByReceiverAndAcceptedFalseAndRejectedFalse(receiver);
     }
@@ -44,9 +47,13 @@ public class FriendService {
     }
 
     // 双方が友達かつアクティブな状態であるかを判定し、チャット可能かを返す
+    // 友達グラフのキャッシュで判定するため、キャッシュ済みなら DB にはアクセスしない
     public boolean canChat(User from, User to) {
-        Friend fromTo = friendRepository.findByUserAndFriend(from, to);
-        Friend toFrom = friendRepository.findByUserAndFriend(to, from);
-        return fromTo != null && toFrom != null && fromTo.isActive() && toFrom.isActive();
+        return canChat(from.getId(), to.getId());
+    }
+
+    // ユーザーIDで判定する（エンティティを読み込まずに判定したい API 向け）
+    public boolean canChat(long fromId, long toId) {
+        return friendGraphCache.areMutualFriends(fromId, toId);
     }
 }
\ No newline at end of file
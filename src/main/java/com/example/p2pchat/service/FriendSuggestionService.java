@@ -0,0 +1,211 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.FriendSuggestionDto;
+import com.example.p2pchat.dto.UserSummaryDto;
+import com.example.p2pchat.repository.FriendRepository;
+import com.example.p2pchat.repository.ReferralCodeRepository;
+import com.example.p2pchat.repository.UserRepository;
+import com.example.p2pchat.util.LongHashSet;
+import com.example.p2pchat.util.SuggestionGraph;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 友達の友達と、同じ紹介者から紹介されたユーザーを、共通のつながりの多い順に友達候補として返すサービスクラスです。
+ * 有効な友達関係と紹介関係（紹介者と紹介で登録したユーザー）を1つの無向グラフとして SuggestionGraph（CSR）に保持し、
+ * 候補の計算では DB を読みません（表示用のニックネームの取得に1クエリだけ使います）。
+ *
+ * グラフは起動時に全件から作り、以降は FriendshipChangedEvent で受け取ったユーザーの行だけを
+ * suggestion.update-interval-ms ごとにまとめて読み直します。置き換えた行が suggestion.compact-threshold を超えたら CSR を作り直します。
+ * 多数のユーザーの候補をまとめて計算する場合は suggestAll が fork/join で並列に計算します。
+ */
+@Service
+@RequiredArgsConstructor
+public class FriendSuggestionService {
+
+    private static final Logger log = LoggerFactory.getLogger(FriendSuggestionService.class);
+
+    private final FriendRepository friendRepository;
+    private final ReferralCodeRepository referralCodeRepository;
+    private final UserRepository userRepository;
+    private final FriendGraphCache friendGraphCache;
+    private final ReadYourWritesTracker readYourWritesTracker;
+    private final MeterRegistry meterRegistry;
+
+    // つながりがこれより多いユーザー（全員を紹介した管理者など）は、経由しても共通のつながりとして数えない
+    @Value("${suggestion.max-hub-degree:10000}")
+    private int maxHubDegree;
+
+    // suggestAll の並列数と、同時に計算できる件数（作業領域の数。0 は CPU コア数）
+    @Value("${suggestion.parallelism:0}")
+    private int parallelism;
+
+    // 差分で置き換えた行がこれを超えたら CSR を作り直す
+    @Value("${suggestion.compact-threshold:10000}")
+    private int compactThreshold;
+
+    private SuggestionGraph graph;
+    private ForkJoinPool pool;
+    private Timer suggestTimer;
+
+    // 友達関係が変わり、グラフの行を読み直す必要があるユーザー
+    private final Set<Long> changedUserIds = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded;
+
+    @PostConstruct
+    public void init() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        graph = new SuggestionGraph(maxHubDegree, threads);
+        pool = new ForkJoinPool(threads);
+        suggestTimer = Timer.builder("suggestion.compute")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("suggestion.graph.edges", graph, SuggestionGraph::edgeCount).register(meterRegistry);
+        Gauge.builder("suggestion.graph.overlay", graph, SuggestionGraph::overlaySize).register(meterRegistry);
+        Gauge.builder("suggestion.pending.updates", changedUserIds, Set::size).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // 起動時に全件からグラフを作る。作っている間に変わったユーザーは、その後の applyChanges で反映する
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long started = System.nanoTime();
+        SuggestionGraph.Builder builder = SuggestionGraph.builder();
+        readYourWritesTracker.onPrimary(() -> {
+            friendRepository.forEachActiveEdge(builder);
+            referralCodeRepository.forEachReferralEdge(builder);
+            return null;
+        });
+        graph.replaceAll(builder);
+        loaded = true;
+        log.info("友達候補のグラフを作りました: {} 辺、{} ミリ秒",
+                graph.edgeCount(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @EventListener
+    public void onFriendshipChanged(FriendshipChangedEvent event) {
+        for (long userId : event.userIds()) {
+            changedUserIds.add(userId);
+        }
+    }
+
+    // 紹介関係が変わったユーザーを記録する（友達関係の変更は FriendGraphCache 経由で届く）
+    public void markChanged(long... userIds) {
+        onFriendshipChanged(new FriendshipChangedEvent(userIds));
+    }
+
+    // 変わったユーザーの行を DB から読み直してグラフに反映する
+    @Scheduled(fixedDelayString = "${suggestion.update-interval-ms:1000}")
+    public synchronized void applyChanges() {
+        if (!loaded || changedUserIds.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = new ArrayList<>(changedUserIds);
+        userIds.forEach(changedUserIds::remove);
+
+        Map<Long, LongHashSet> rows = new HashMap<>();
+        for (Long userId : userIds) {
+            rows.put(userId, new LongHashSet(8));
+        }
+        SuggestionGraph.EdgeConsumer collect = (from, to) -> {
+            LongHashSet fromRow = rows.get(from);
+            if (fromRow != null) {
+                fromRow.add(to);
+            }
+            LongHashSet toRow = rows.get(to);
+            if (toRow != null) {
+                toRow.add(from);
+            }
+        };
+        readYourWritesTracker.onPrimary(() -> {
+            friendRepository.forEachActiveEdgeOf(userIds, collect);
+            referralCodeRepository.forEachReferralEdgeOf(userIds, collect);
+            return null;
+        });
+        rows.forEach((userId, neighbors) -> graph.replaceRow(toNode(userId), toNodes(neighbors)));
+
+        if (graph.overlaySize() > compactThreshold) {
+            graph.compact();
+        }
+    }
+
+    // 指定ユーザーの友達候補を、共通のつながりの多い順に最大 limit 件返す（既存の友達関係・解除した相手は除く）
+    public List<FriendSuggestionDto> suggest(Long userId, int limit) {
+        List<SuggestionGraph.Candidate> candidates = suggestTimer.record(
+                () -> graph.suggest(toNode(userId), limit, this::hasRelation));
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        List<Long> candidateIds = candidates.stream().map(c -> (long) c.node()).toList();
+        Map<Long, UserSummaryDto> summaries = readYourWritesTracker.onPrimary(
+                        () -> userRepository.findSummariesByIds(candidateIds)).stream()
+                .collect(Collectors.toMap(UserSummaryDto::id, Function.identity()));
+        List<FriendSuggestionDto> result = new ArrayList<>(candidates.size());
+        for (SuggestionGraph.Candidate candidate : candidates) {
+            UserSummaryDto summary = summaries.get((long) candidate.node());
+            // グラフへの反映前に削除されたユーザーは表示しない
+            if (summary != null) {
+                result.add(new FriendSuggestionDto(summary.id(), summary.nickName(), candidate.mutualCount()));
+            }
+        }
+        return result;
+    }
+
+    // 複数ユーザーの友達候補（ユーザーID と共通のつながりの数）を fork/join で並列に計算する
+    public Map<Long, List<SuggestionGraph.Candidate>> suggestAll(List<Long> userIds, int limit) {
+        int[] nodes = userIds.stream().mapToInt(FriendSuggestionService::toNode).toArray();
+        SuggestionGraph.Candidate[][] results = graph.suggestAll(nodes, limit, this::hasRelation, pool);
+        Map<Long, List<SuggestionGraph.Candidate>> byUserId = new HashMap<>(userIds.size() * 2);
+        for (int i = 0; i < nodes.length; i++) {
+            byUserId.put(userIds.get(i), List.of(results[i]));
+        }
+        return byUserId;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // 自分から相手への友達関係（有効・解除済み）があるか。グラフには有効な関係しか無いため、解除した相手もここで除く
+    private boolean hasRelation(int node, int candidate) {
+        return friendGraphCache.hasRelation(node, candidate);
+    }
+
+    private static int toNode(long userId) {
+        return Math.toIntExact(userId);
+    }
+
+    private static int[] toNodes(LongHashSet userIds) {
+        long[] ids = userIds.toArray();
+        int[] nodes = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            nodes[i] = toNode(ids[i]);
+        }
+        return nodes;
+    }
+}
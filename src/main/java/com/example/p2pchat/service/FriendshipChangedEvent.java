@@ -0,0 +1,8 @@
+package com.example.p2pchat.service;
+
+/**
+ * 友達関係・紹介関係が変わったユーザーを表すアプリケーションイベントです。
+ * FriendGraphCache の invalidate がコミット後に発行し、友達候補のグラフ（FriendSuggestionService）が受け取ります。
+ */
+public record FriendshipChangedEvent(long[] userIds) {
+}
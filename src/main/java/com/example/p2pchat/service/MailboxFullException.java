@@ -0,0 +1,16 @@
+package com.example.p2pchat.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 受信者の未確認メッセージが mailbox.max-pending-per-recipient に達し、これ以上預かれないことを表す例外です。
+ * 受信者がメッセージを受け取って確認すると、再び預けられるようになります。
+ */
+@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS, reason = "相手の受信箱がいっぱいです")
+public class MailboxFullException extends RuntimeException {
+
+    public MailboxFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.util.MailboxLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * オフラインの友達宛てのメッセージを預かり、受信者の再接続時にまとめて配信するサービスクラスです（蓄積型配信）。
+ * メッセージはクライアント側で暗号化済みの不透明なバイト列として扱い、サーバーは中身を解釈しません。
+ * 保存先は DB ではなく mailbox.dir 配下の追記専用ログ（MailboxLog）で、メッセージ1件ごとに行を作りません。
+ *
+ * 配信は「未確認のメッセージを順に送る → クライアントが受け取った最後のオフセットを確認する」の2段階です。
+ * 確認前に切断された場合は次回の接続で同じメッセージを再送します（少なくとも1回の配信）。
+ * 確認済みのメッセージだけになったセグメントは、バックグラウンドの compact で削除・書き直します。
+ */
+@Service
+@RequiredArgsConstructor
+public class MailboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(MailboxService.class);
+
+    // 配信時のフレームの形式: オフセット(8) 送信者(8) 作成時刻(8) 本文の長さ(4) 本文
+    public static final int FRAME_HEADER_BYTES = 28;
+
+    // 1回の読み出しで索引から取り出す件数（この単位で受信者の索引のロックを取る）
+    private static final int READ_BATCH = 256;
+
+    private final FriendGraphCache friendGraphCache;
+    private final MeterRegistry meterRegistry;
+
+    // 保存先のディレクトリ（空の場合は起動ごとに一時ディレクトリを作る。ユーザーが H2 のメモリ上にある開発環境向け）
+    @Value("${mailbox.dir:}")
+    private String directory;
+
+    // セグメント1つの大きさ（バイト）。これを超えると新しいセグメントに切り替える
+    @Value("${mailbox.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${mailbox.max-message-bytes:65536}")
+    private int maxMessageBytes;
+
+    // 受信者1人あたりの未確認メッセージの上限（超えると受け付けない）
+    @Value("${mailbox.max-pending-per-recipient:1000}")
+    private int maxPendingPerRecipient;
+
+    // 未確認のメッセージの割合がこれ未満のセグメントを書き直す
+    @Value("${mailbox.compaction.min-live-ratio:0.5}")
+    private double minLiveRatio;
+
+    private MailboxLog mailboxLog;
+
+    private Counter depositedCounter;
+    private Counter depositedBytesCounter;
+    private Counter deliveredCounter;
+    private Counter acknowledgedCounter;
+    private Timer compactionTimer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = directory.isBlank() ? Files.createTempDirectory("p2pchat-mailbox") : Path.of(directory);
+        mailboxLog = new MailboxLog(path, segmentBytes);
+        if (mailboxLog.getCorruptedSegments() > 0) {
+            log.warn("メールボックスのセグメント {} 件に途中で途切れたレコードがあり、以降を読み捨てました",
+                    mailboxLog.getCorruptedSegments());
+        }
+
+        depositedCounter = Counter.builder("mailbox.messages").tag("operation", "deposit").register(meterRegistry);
+        deliveredCounter = Counter.builder("mailbox.messages").tag("operation", "deliver").register(meterRegistry);
+        acknowledgedCounter = Counter.builder("mailbox.messages").tag("operation", "acknowledge").register(meterRegistry);
+        depositedBytesCounter = Counter.builder("mailbox.deposited.bytes").baseUnit("bytes").register(meterRegistry);
+        compactionTimer = Timer.builder("mailbox.compaction").register(meterRegistry);
+        Gauge.builder("mailbox.pending", mailboxLog, MailboxLog::pendingCount).register(meterRegistry);
+        Gauge.builder("mailbox.segments", mailboxLog, MailboxLog::segmentCount).register(meterRegistry);
+        Gauge.builder("mailbox.size", mailboxLog, MailboxLog::sizeBytes).baseUnit("bytes").register(meterRegistry);
+
+        log.info("メールボックス: {}、未確認 {} 件、セグメント {} 個",
+                path.toAbsolutePath(), mailboxLog.pendingCount(), mailboxLog.segmentCount());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        mailboxLog.close();
+    }
+
+    // 送信者から受信者宛てのメッセージを預かり、オフセットを返す（双方がアクティブな友達の場合のみ）
+    public long deposit(Long senderId, Long recipientId, byte[] payload) {
+        if (payload.length == 0 || payload.length > maxMessageBytes) {
+            throw new IllegalArgumentException("メッセージは1〜" + maxMessageBytes + "バイトにしてください");
+        }
+        if (!friendGraphCache.areMutualFriends(senderId, recipientId)) {
+            throw new AccessDeniedException("友達ではないユーザーにはメッセージを送れません");
+        }
+        try {
+            // 件数の確認と追記は MailboxLog の中で1つの操作として行う（並行に預けても上限を超えない）
+            long offset = mailboxLog.append(recipientId, senderId, System.currentTimeMillis(), payload,
+                    maxPendingPerRecipient);
+            if (offset == MailboxLog.FULL) {
+                throw new MailboxFullException("受信箱の未確認メッセージが上限に達しています: " + recipientId);
+            }
+            depositedCounter.increment();
+            depositedBytesCounter.increment(payload.length);
+            return offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 受信者の未確認メッセージのうち afterOffset より後のものを、オフセット順にフレームとして書き出す
+    public void deliver(Long recipientId, long afterOffset, OutputStream out) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        long cursor = afterOffset;
+        while (true) {
+            long last = mailboxLog.read(recipientId, cursor, READ_BATCH, (offset, senderId, createdAtMillis, payload) -> {
+                header.clear();
+                header.putLong(offset).putLong(senderId).putLong(createdAtMillis).putInt(payload.remaining()).flip();
+                writeFully(channel, header);
+                // マップ上の本文をコピーせずにそのまま書き出す
+                writeFully(channel, payload);
+                deliveredCounter.increment();
+            });
+            if (last == cursor) {
+                break;
+            }
+            cursor = last;
+        }
+        out.flush();
+    }
+
+    // 受信者が uptoOffset までのメッセージを受け取ったことを記録する
+    public int acknowledge(Long recipientId, long uptoOffset) {
+        int acknowledged = mailboxLog.acknowledge(recipientId, uptoOffset);
+        acknowledgedCounter.increment(acknowledged);
+        return acknowledged;
+    }
+
+    // 受信者の未確認メッセージの件数
+    public int pendingCount(Long recipientId) {
+        return mailboxLog.pendingCount(recipientId);
+    }
+
+    // 書き込み中のセグメントを定期的にディスクへ書き出す（それまではページキャッシュ上にある）
+    @Scheduled(fixedDelayString = "${mailbox.flush-interval-ms:1000}")
+    public void flush() {
+        mailboxLog.flush();
+    }
+
+    // 確認済みのメッセージだけになったセグメントを削除し、確認済みの多いセグメントを書き直す
+    @Scheduled(fixedDelayString = "${mailbox.compaction.interval-ms:60000}")
+    public void compact() {
+        try {
+            MailboxLog.CompactionResult result = compactionTimer.recordCallable(() -> mailboxLog.compact(minLiveRatio));
+            if (result.deletedSegments() > 0 || result.rewrittenSegments() > 0) {
+                log.info("メールボックスを整理しました: 削除 {} 個、書き直し {} 個、{} バイト減",
+                        result.deletedSegments(), result.rewrittenSegments(), result.reclaimedBytes());
+            }
+        } catch (Exception e) {
+            log.error("メールボックスの整理に失敗しました", e);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,4 +1,315 @@
 package com.example.p2pchat.service;
 
+import com.example.p2pchat.Entity.OnlinePeer;
+import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.OnlinePeerDto;
+import com.example.p2pchat.repository.OnlinePeerRepository;
+import com.example.p2pchat.util.HashedTimingWheel;
+import com.example.p2pchat.util.LongHashSet;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * オンライン中のピア（ユーザーと multiaddr）をメモリ上で管理するサービスクラスです。
+ * ユーザーIDをキーにした ConcurrentHashMap を正とし、「オンライン中の友達」の問い合わせは
+ * 友達の数だけマップを引くことで答えます（OnlinePeer テーブルの全件走査は行いません）。
+ * OnlinePeer テーブルは presence.snapshot.enabled=true の場合のみ、再起動時の復元用スナップショットとして書き込みます。
+ * 書き込みは PresenceWriteBuffer に溜めてユーザーごとに最後の状態だけをまとめて反映するため、リクエストの処理中には SQL を発行しません。
+ * 複数台構成では presence.cluster.enabled=true とし、ClusterPresenceListener が他のノードの変化をこのマップへ反映します
+ * （ハートビートも他のノードへ伝えるため、この場合はハートビートもテーブルへ書き込みます）。
+ * テーブルを正とする場合は presence.read-from-database=true とし、友達とオンライン状態を1クエリで結合して読みます
+ * （テーブルへの反映は presence.write-behind.flush-interval-ms だけ遅れます）。
+ * ハートビートが presence.ttl-seconds 以上途絶えたピアは、タイミングホイールにより自動でオフラインになります。
+ * 状態が変わるたびに、そのユーザーを友達にしている閲覧者の一覧バージョン（PresenceVersionTracker）を進めます。
+ */
+@Service
+@RequiredArgsConstructor
 public class OnlinePeerService {
+
+    private static final Logger log = LoggerFactory.getLogger(OnlinePeerService.class);
+
+    private final OnlinePeerRepository onlinePeerRepository;
+    private final PresenceWriteBuffer presenceWriteBuffer;
+    private final FriendGraphCache friendGraphCache;
+    private final PresenceVersionTracker presenceVersionTracker;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // ユーザーID -> オンライン情報
+    private final ConcurrentHashMap<Long, OnlinePresence> onlinePeers = new ConcurrentHashMap<>();
+
+    // OnlinePeer テーブルへスナップショットを書き込むかどうか
+    @Value("${presence.snapshot.enabled:false}")
+    private boolean snapshotEnabled;
+
+    // オンライン中の友達を OnlinePeer テーブルから読むかどうか（true の場合はスナップショットも常に書き込む）
+    @Value("${presence.read-from-database:false}")
+    private boolean readFromDatabase;
+
+    // 複数台構成で他のノードとオンライン状態を共有するかどうか（true の場合はスナップショットも常に書き込む）
+    @Value("${presence.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    // 最後のハートビートからオフライン扱いにするまでの秒数
+    @Value("${presence.ttl-seconds:90}")
+    private long ttlSeconds;
+
+    // 期限切れを確認する間隔（ミリ秒）
+    @Value("${presence.sweep.tick-ms:1000}")
+    private long tickMillis;
+
+    // ユーザーIDごとの期限切れ予定
+    private HashedTimingWheel expiryWheel;
+
+    // 最終確認時刻と期限切れの判定に使う時計（テストでは進め方を制御できる時計に差し替える）
+    private Clock clock = Clock.systemDefaultZone();
+
+    @PostConstruct
+    public void initExpiryWheel() {
+        snapshotEnabled = snapshotEnabled || readFromDatabase || clusterEnabled;
+        expiryWheel = new HashedTimingWheel(tickMillis, ttlMillis(), clock.millis());
+    }
+
+    // 起動時にスナップショットからオンライン状態を復元する
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void restoreSnapshot() {
+        if (!snapshotEnabled) {
+            return;
+        }
+        for (OnlinePeer peer : onlinePeerRepository.findAllWithUser()) {
+            OnlinePresence presence = notAfterNow(toPresence(peer));
+            onlinePeers.put(presence.userId(), presence);
+            // 停止中に経過した時間を差し引いた残り時間で期限切れを予約する
+            scheduleExpiry(presence);
+        }
+        log.info("オンライン状態をスナップショットから {} 件復元しました", onlinePeers.size());
+    }
+
+    // 指定ユーザーをオンラインとして登録する（既存の登録は上書き）
+    public OnlinePresence goOnline(Long userId, String nickName, String multiaddr) {
+        OnlinePresence presence = new OnlinePresence(userId, nickName, multiaddr, LocalDateTime.now(clock));
+        OnlinePresence previous = onlinePeers.put(userId, presence);
+        expiryWheel.schedule(userId, ttlMillis(), clock.millis());
+
+        if (snapshotEnabled) {
+            presenceWriteBuffer.online(userId, multiaddr, presence.lastSeenAt());
+        }
+
+        // 状態が変わった場合のみ変化を通知する（multiaddr が同じ再登録は通知しない）
+        if (previous == null) {
+            publish(PresenceChangedEvent.Type.ONLINE, presence);
+        } else if (!previous.multiaddr().equals(multiaddr)) {
+            publish(PresenceChangedEvent.Type.UPDATED, presence);
+        }
+        return presence;
+    }
+
+    // 指定ユーザーをオフラインにする
+    public Optional<OnlinePresence> goOffline(Long userId) {
+        OnlinePresence removed = onlinePeers.remove(userId);
+        expiryWheel.cancel(userId);
+        if (snapshotEnabled) {
+            presenceWriteBuffer.offline(userId);
+        }
+        if (removed != null) {
+            publish(PresenceChangedEvent.Type.OFFLINE, removed);
+        }
+        return Optional.ofNullable(removed);
+    }
+
+    // ハートビートを受け取り、オンライン状態の期限を延長する（複数台構成の場合を除き DB には書き込まない）
+    // すでに期限切れ・未登録の場合は false を返すので、クライアントは goOnline で登録し直す
+    public boolean heartbeat(Long userId) {
+        OnlinePresence refreshed = refresh(userId);
+        if (refreshed == null) {
+            return false;
+        }
+        // 他のノードの期限も延長されるよう、テーブルへの書き込みとして通知する（反映までの書き込みは1件にまとまる）
+        if (clusterEnabled) {
+            presenceWriteBuffer.online(userId, refreshed.multiaddr(), refreshed.lastSeenAt());
+        }
+        return true;
+    }
+
+    // 他のノードでオンラインになった・multiaddr が変わったユーザーを反映する（テーブルへの書き込みと他ノードへの通知はしない）
+    // 他のノードの時計が進んでいても期限が延びないよう、最終確認時刻はこのノードの現在時刻までに切り詰める
+    public void applyRemoteOnline(OnlinePresence remote) {
+        OnlinePresence presence = notAfterNow(remote);
+        OnlinePresence previous = onlinePeers.put(presence.userId(), presence);
+        scheduleExpiry(presence);
+        if (previous == null) {
+            publish(PresenceChangedEvent.Type.ONLINE, presence);
+        } else if (!previous.multiaddr().equals(presence.multiaddr())) {
+            publish(PresenceChangedEvent.Type.UPDATED, presence);
+        }
+    }
+
+    // 他のノードが受けたハートビートを反映する。未登録の場合は false を返す
+    public boolean applyRemoteHeartbeat(Long userId) {
+        return refresh(userId) != null;
+    }
+
+    // 他のノードでオフラインになったユーザーを反映する
+    public void applyRemoteOffline(Long userId) {
+        OnlinePresence removed = onlinePeers.remove(userId);
+        expiryWheel.cancel(userId);
+        if (removed != null) {
+            publish(PresenceChangedEvent.Type.OFFLINE, removed);
+        }
+    }
+
+    // 通知の取りこぼし後に、テーブルの全件でマップを合わせる
+    // テーブルに無いユーザーは、staleBefore より前に確認され、このノードに未反映の書き込みも無い場合のみオフラインにする
+    public void resyncRemote(List<OnlinePeer> snapshot, LocalDateTime staleBefore) {
+        LongHashSet snapshotIds = new LongHashSet(snapshot.size());
+        for (OnlinePeer peer : snapshot) {
+            OnlinePresence presence = toPresence(peer);
+            snapshotIds.add(presence.userId());
+            OnlinePresence current = onlinePeers.get(presence.userId());
+            // 同じ multiaddr でこのノードの方が新しく確認している場合はそのままにする
+            if (current == null || !current.multiaddr().equals(presence.multiaddr())
+                    || current.lastSeenAt().isBefore(presence.lastSeenAt())) {
+                applyRemoteOnline(presence);
+            }
+        }
+        for (OnlinePresence presence : onlinePeers.values()) {
+            if (!snapshotIds.contains(presence.userId()) && presence.lastSeenAt().isBefore(staleBefore)
+                    && !presenceWriteBuffer.isPending(presence.userId())
+                    && onlinePeers.remove(presence.userId(), presence)) {
+                expiryWheel.cancel(presence.userId());
+                publish(PresenceChangedEvent.Type.OFFLINE, presence);
+            }
+        }
+    }
+
+    // 期限切れになったピアをオフラインにし、オフラインとして通知する（処理量は期限切れの件数に比例）
+    @Scheduled(fixedRateString = "${presence.sweep.tick-ms:1000}")
+    public void sweepExpired() {
+        LocalDateTime threshold = LocalDateTime.now(clock).minusSeconds(ttlSeconds);
+        for (Long userId : expiryWheel.advance(clock.millis())) {
+            OnlinePresence presence = onlinePeers.get(userId);
+            if (presence == null) {
+                continue;
+            }
+            // 予約より後に確認された（ホイールから取り出した直後にハートビートが届いた等）場合は、残り時間で予約し直す
+            if (presence.lastSeenAt().isAfter(threshold)) {
+                expiryWheel.schedule(userId, Duration.between(threshold, presence.lastSeenAt()).toMillis(),
+                        clock.millis());
+                continue;
+            }
+            if (!onlinePeers.remove(userId, presence)) {
+                continue;
+            }
+            if (snapshotEnabled) {
+                presenceWriteBuffer.offline(userId);
+            }
+            publish(PresenceChangedEvent.Type.OFFLINE, presence);
+        }
+    }
+
+    // 指定ユーザーのオンライン情報を取得する
+    public Optional<OnlinePresence> find(Long userId) {
+        return Optional.ofNullable(onlinePeers.get(userId));
+    }
+
+    // 指定ユーザーがオンラインかどうか
+    public boolean isOnline(Long userId) {
+        return onlinePeers.containsKey(userId);
+    }
+
+    // 指定ユーザーのアクティブな友達のうち、オンライン中のものを返す
+    public List<OnlinePeerDto> findOnlineFriendsOf(Long userId) {
+        if (readFromDatabase) {
+            return onlinePeerRepository.findOnlineFriends(userId);
+        }
+        return findOnlineFriends(friendGraphCache.activeFriendsOf(userId)).stream()
+                .filter(peer -> !peer.userId().equals(userId))
+                .map(peer -> new OnlinePeerDto(peer.nickName(), peer.multiaddr()))
+                .toList();
+    }
+
+    // オンライン中の友達一覧の ETag を返す。一覧を読むより前に呼び出すこと
+    // DB を正とする構成では他ノードでの変化を検知できないため、条件付きレスポンスは使わない（空を返す）
+    public Optional<String> onlineFriendsTag(Long userId) {
+        if (readFromDatabase) {
+            return Optional.empty();
+        }
+        return Optional.of(presenceVersionTracker.currentTag(userId));
+    }
+
+    // 友達IDの一覧のうち、オンライン中のものだけを返す（友達の数に比例するコスト）
+    public List<OnlinePresence> findOnlineFriends(LongHashSet friendIds) {
+        List<OnlinePresence> result = new ArrayList<>();
+        friendIds.forEach(friendId -> {
+            OnlinePresence presence = onlinePeers.get(friendId);
+            if (presence != null) {
+                result.add(presence);
+            }
+        });
+        return result;
+    }
+
+    // 現在オンライン中のユーザー数
+    public int countOnline() {
+        return onlinePeers.size();
+    }
+
+    private long ttlMillis() {
+        return ttlSeconds * 1000;
+    }
+
+    private OnlinePresence refresh(Long userId) {
+        OnlinePresence refreshed = onlinePeers.computeIfPresent(userId, (id, presence) ->
+                new OnlinePresence(id, presence.nickName(), presence.multiaddr(), LocalDateTime.now(clock)));
+        if (refreshed != null) {
+            expiryWheel.schedule(userId, ttlMillis(), clock.millis());
+        }
+        return refreshed;
+    }
+
+    // 最終確認時刻から経過した時間を差し引いた残り時間で期限切れを予約する
+    private void scheduleExpiry(OnlinePresence presence) {
+        long idleMillis = Duration.between(presence.lastSeenAt(), LocalDateTime.now(clock)).toMillis();
+        expiryWheel.schedule(presence.userId(), ttlMillis() - idleMillis, clock.millis());
+    }
+
+    // 最終確認時刻が未来（他のノードの時計が進んでいる等）の場合は現在時刻にする
+    private OnlinePresence notAfterNow(OnlinePresence presence) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        if (!presence.lastSeenAt().isAfter(now)) {
+            return presence;
+        }
+        return new OnlinePresence(presence.userId(), presence.nickName(), presence.multiaddr(), now);
+    }
+
+    private static OnlinePresence toPresence(OnlinePeer peer) {
+        User user = peer.getUser();
+        return new OnlinePresence(user.getId(), user.getNickName(), peer.getMultiaddr(), peer.getLastSeenAt());
+    }
+
+    private void publish(PresenceChangedEvent.Type type, OnlinePresence presence) {
+        // マップを更新した後に進めるので、新しいバージョンで読んだ一覧には必ずこの変化が含まれる
+        if (presenceVersionTracker.size() > 0) {
+            presenceVersionTracker.bumpAll(friendGraphCache.activeFollowersOf(presence.userId()));
+        }
+        String multiaddr = type == PresenceChangedEvent.Type.OFFLINE ? null : presence.multiaddr();
+        eventPublisher.publishEvent(new PresenceChangedEvent(type, presence.userId(), presence.nickName(), multiaddr));
+    }
 }
@@ -0,0 +1,10 @@
+package com.example.p2pchat.service;
+
+import java.time.LocalDateTime;
+
+/**
+ * メモリ上で管理するオンライン状態の1件分を表す不変オブジェクトです。
+ * OnlinePeer エンティティと異なり User への関連を持たず、ID とニックネームのみを保持します。
+ */
+public record OnlinePresence(Long userId, String nickName, String multiaddr, LocalDateTime lastSeenAt) {
+}
@@ -0,0 +1,19 @@
+package com.example.p2pchat.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * パスワードのハッシュ化の待ち行列が上限に達し、要求を受け付けられないことを表す例外です。
+ * 画面からの登録では 503 を返し、ログインでは SecurityConfig の失敗ハンドラーが 503 を返します。
+ * ログインの認証処理を別の AuthenticationProvider で再試行させないよう、
+ * InternalAuthenticationServiceException を継承しています。
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "混み合っています。しばらくしてから再度お試しください")
+public class PasswordHashingBusyException extends InternalAuthenticationServiceException {
+
+    public PasswordHashingBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.p2pchat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * パスワードのハッシュ化（BCrypt）を専用のスレッドプールで実行する PasswordEncoder です。
+ * ハッシュ化に使う CPU を password.hash.threads 本に制限し、ログインが集中しても他の API の処理が止まらないようにします。
+ * 待ち行列（password.hash.queue-capacity）が埋まっている場合は待たずに PasswordHashingBusyException を投げます（503）。
+ * コストは起動時に1回のハッシュ化が password.hash.target-ms 程度になるよう調整し、
+ * 保存済みのハッシュのコストが異なる場合はログイン成功時に再ハッシュします（upgradeEncoding）。
+ */
+@Service
+@RequiredArgsConstructor
+public class PasswordHashingService implements PasswordEncoder {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashingService.class);
+    private static final Pattern BCRYPT_COST = Pattern.compile("\\A\\$2[abxy]?\\$(\\d\\d)\\$");
+
+    private final MeterRegistry meterRegistry;
+
+    // ハッシュ化に使うスレッド数（0 の場合は CPU コア数の半分）
+    @Value("${password.hash.threads:0}")
+    private int threads;
+
+    @Value("${password.hash.queue-capacity:64}")
+    private int queueCapacity;
+
+    // 固定のコスト（0 の場合は起動時に調整する）
+    @Value("${password.hash.cost:0}")
+    private int fixedCost;
+
+    @Value("${password.hash.target-ms:100}")
+    private long targetMillis;
+
+    @Value("${password.hash.min-cost:10}")
+    private int minCost;
+
+    @Value("${password.hash.max-cost:14}")
+    private int maxCost;
+
+    private ThreadPoolExecutor executor;
+    private BCryptPasswordEncoder delegate;
+    private int cost;
+
+    private Timer encodeTimer;
+    private Timer matchesTimer;
+    private Timer waitTimer;
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    public void init() {
+        cost = fixedCost > 0 ? fixedCost : calibrate();
+        delegate = new BCryptPasswordEncoder(cost);
+
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("password-hash-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        encodeTimer = Timer.builder("password.hash").tag("operation", "encode").register(meterRegistry);
+        matchesTimer = Timer.builder("password.hash").tag("operation", "matches").register(meterRegistry);
+        waitTimer = Timer.builder("password.hash.wait").register(meterRegistry);
+        rejectedCounter = Counter.builder("password.hash.rejected").register(meterRegistry);
+        Gauge.builder("password.hash.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("password.hash.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        Gauge.builder("password.hash.cost", this, PasswordHashingService::getCost).register(meterRegistry);
+
+        log.info("パスワードのハッシュ化: BCrypt コスト {}、スレッド {} 本、待ち行列 {} 件", cost, poolSize, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> delegate.encode(rawPassword), encodeTimer);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> delegate.matches(rawPassword, encodedPassword), matchesTimer);
+    }
+
+    // 保存済みのハッシュのコストが現在のコストと異なる場合は再ハッシュする（上げる場合も下げる場合も）
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        if (encodedPassword == null) {
+            return false;
+        }
+        Matcher matcher = BCRYPT_COST.matcher(encodedPassword);
+        return matcher.find() && Integer.parseInt(matcher.group(1)) != cost;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    // 専用スレッドで実行し、結果を待つ。待ち行列が埋まっていれば待たずに失敗させる
+    private <T> T execute(Callable<T> task, Timer timer) {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                return timer.recordCallable(task);
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new PasswordHashingBusyException("パスワードのハッシュ化の待ち行列が上限に達しています");
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("パスワードのハッシュ化が中断されました");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // 最小コストでの所要時間を測り、目標時間を超えない範囲でコストを上げる（コストが1増えるごとに約2倍）
+    private int calibrate() {
+        BCryptPasswordEncoder probe = new BCryptPasswordEncoder(minCost);
+        probe.encode("calibration");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            probe.encode("calibration");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double millis = best / 1_000_000.0;
+        int calibrated = minCost;
+        while (calibrated < maxCost && millis * 2 <= targetMillis) {
+            calibrated++;
+            millis *= 2;
+        }
+        log.info("BCrypt のコストを {} に調整しました（コスト {} で {} ms、目標 {} ms）",
+                calibrated, minCost, String.format("%.1f", best / 1_000_000.0), targetMillis);
+        return calibrated;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.p2pchat.service;
+
+/**
+ * あるユーザーのオンライン状態が変化したことを表すアプリケーションイベントです。
+ * OnlinePeerService が発行し、プッシュ配信などの購読側が受け取ります。
+ */
+public record PresenceChangedEvent(Type type, Long userId, String nickName, String multiaddr) {
+
+    public enum Type {
+        // オフラインからオンラインになった
+        ONLINE,
+        // オンラインのまま multiaddr が変わった
+        UPDATED,
+        // オフラインになった
+        OFFLINE
+    }
+}
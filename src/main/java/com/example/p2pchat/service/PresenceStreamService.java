@@ -0,0 +1,109 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.OnlinePeerDto;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * オンライン中の友達一覧を Server-Sent Events でプッシュ配信するサービスクラスです。
+ * 接続直後に現在のスナップショットを1回送り、その後は友達のオンライン状態が変化したときだけ差分を送ります。
+ * これによりクライアントが毎秒 /api/online をポーリングする必要がなくなります。
+ */
+@Service
+@RequiredArgsConstructor
+public class PresenceStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceStreamService.class);
+
+    private final FriendGraphCache friendGraphCache;
+    private final OnlinePeerService onlinePeerService;
+
+    // 閲覧者のユーザーID -> その閲覧者が開いている接続（複数タブ対応）
+    private final ConcurrentHashMap<Long, Set<PresenceSubscription>> subscriptions = new ConcurrentHashMap<>();
+
+    // 送信処理は接続ごとに仮想スレッドで行い、Tomcat のワーカースレッドを塞がない
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 1接続あたりの送信待ちイベント数の上限
+    @Value("${presence.stream.buffer-size:64}")
+    private int bufferSize;
+
+    // 接続のタイムアウト（ミリ秒）。切断後はクライアントが自動で再接続する
+    @Value("${presence.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    // 閲覧者の接続を登録し、最初にオンライン中の友達のスナップショットを送る
+    public SseEmitter subscribe(Long viewerId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        PresenceSubscription subscription =
+                new PresenceSubscription(viewerId, emitter, bufferSize, sender, this::unsubscribe);
+
+        emitter.onCompletion(() -> subscription.close(null));
+        emitter.onTimeout(() -> subscription.close(null));
+        emitter.onError(subscription::close);
+
+        subscriptions.computeIfAbsent(viewerId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+
+        // 購読登録後にスナップショットを作ることで、その間の変化を取りこぼさない
+        synchronized (subscription) {
+            List<OnlinePeerDto> snapshot = onlinePeerService.findOnlineFriendsOf(viewerId);
+            subscription.offer("snapshot", snapshot);
+        }
+        return emitter;
+    }
+
+    // 友達のオンライン状態の変化を、その人を友達にしている閲覧者へ配信する
+    @EventListener
+    public void onPresenceChanged(PresenceChangedEvent event) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        String name = switch (event.type()) {
+            case ONLINE -> "online";
+            case UPDATED -> "updated";
+            case OFFLINE -> "offline";
+        };
+        OnlinePeerDto data = new OnlinePeerDto(event.nickName(), event.multiaddr());
+
+        friendGraphCache.activeFollowersOf(event.userId()).forEach(viewerId -> {
+            Set<PresenceSubscription> targets = subscriptions.get(viewerId);
+            if (targets == null) {
+                return;
+            }
+            for (PresenceSubscription subscription : targets) {
+                if (!subscription.offer(name, data)) {
+                    log.debug("送信バッファが溢れたため接続を閉じました: viewer={}", viewerId);
+                }
+            }
+        });
+    }
+
+    // 現在の接続数
+    public int countSubscriptions() {
+        return subscriptions.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void unsubscribe(PresenceSubscription subscription) {
+        subscriptions.computeIfPresent(subscription.getViewerId(), (id, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+    }
+}
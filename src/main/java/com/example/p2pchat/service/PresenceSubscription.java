@@ -0,0 +1,94 @@
+package com.example.p2pchat.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 1本の SSE 接続に対応する購読です。
+ * 送信待ちのイベントを固定長のバッファに溜め、送信は別スレッドで順番に行います。
+ * バッファが溢れた（受信側が遅い）場合は接続を閉じ、クライアントの再接続時にスナップショットから再同期させます。
+ */
+class PresenceSubscription {
+
+    // 送信待ちの1件（イベント名と JSON にするデータ）
+    record Message(String name, Object data) {
+    }
+
+    private final Long viewerId;
+    private final SseEmitter emitter;
+    private final ArrayBlockingQueue<Message> buffer;
+    private final Executor executor;
+    private final Consumer<PresenceSubscription> onClose;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed;
+
+    PresenceSubscription(Long viewerId, SseEmitter emitter, int bufferSize, Executor executor,
+                         Consumer<PresenceSubscription> onClose) {
+        this.viewerId = viewerId;
+        this.emitter = emitter;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.executor = executor;
+        this.onClose = onClose;
+    }
+
+    Long getViewerId() {
+        return viewerId;
+    }
+
+    // イベントをバッファに追加する。溢れた場合は接続を閉じて false を返す
+    synchronized boolean offer(String name, Object data) {
+        if (closed) {
+            return false;
+        }
+        if (!buffer.offer(new Message(name, data))) {
+            close(null);
+            return false;
+        }
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+        return true;
+    }
+
+    // バッファの中身を順番に送信する（同時に1スレッドのみ）
+    private void drain() {
+        try {
+            Message message;
+            while (!closed && (message = buffer.poll()) != null) {
+                emitter.send(SseEmitter.event().name(message.name()).data(message.data()));
+            }
+        } catch (IOException | IllegalStateException e) {
+            close(e);
+        } finally {
+            draining.set(false);
+        }
+        // 送信中に追加されたイベントが残っていれば再度送信する
+        if (!closed && !buffer.isEmpty() && draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // 接続を閉じ、未送信のイベントを破棄する
+    void close(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.clear();
+        onClose.accept(this);
+        if (cause == null) {
+            emitter.complete();
+        } else {
+            emitter.completeWithError(cause);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.util.LongHashSet;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 閲覧者ごとの「オンライン中の友達一覧」のバージョン番号を管理するクラスです。
+ * 友達のオンライン状態や友達関係が変わったときだけ、その一覧を見る閲覧者のバージョンを進めます。
+ * GET /api/online はこの番号を ETag にし、If-None-Match が一致すれば一覧を組み立てずに 304 を返します。
+ *
+ * バージョンは全閲覧者で共有する単調増加カウンタから払い出すため、エントリを破棄しても
+ * 以前に発行した ETag と同じ値が再び使われることはありません（破棄は常に安全です）。
+ * また起動時刻を ETag に含めるので、再起動前に発行した ETag とも一致しません。
+ */
+@Service
+public class PresenceVersionTracker {
+
+    private final long epoch = System.currentTimeMillis();
+
+    private final AtomicLong counter = new AtomicLong();
+
+    // 閲覧者のユーザーID -> 一覧のバージョン（ETag を発行した閲覧者のみ保持する）
+    private final ConcurrentHashMap<Long, Long> versions = new ConcurrentHashMap<>();
+
+    // 閲覧者の現在のバージョンを ETag の形式で返す。一覧を読むより前に呼び出すこと
+    public String currentTag(long viewerId) {
+        long version = versions.computeIfAbsent(viewerId, id -> counter.incrementAndGet());
+        return "\"" + Long.toString(epoch, 36) + "-" + Long.toString(version, 36) + "\"";
+    }
+
+    // 閲覧者の一覧が変わったことを記録する（ETag を発行していない閲覧者は何もしない）
+    public void bump(long viewerId) {
+        versions.computeIfPresent(viewerId, (id, version) -> counter.incrementAndGet());
+    }
+
+    public void bump(long... viewerIds) {
+        for (long viewerId : viewerIds) {
+            bump(viewerId);
+        }
+    }
+
+    public void bumpAll(LongHashSet viewerIds) {
+        viewerIds.forEach(this::bump);
+    }
+
+    // 全閲覧者の一覧が変わったものとして扱う
+    public void invalidateAll() {
+        versions.clear();
+    }
+
+    public int size() {
+        return versions.size();
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.PresenceWrite;
+import com.example.p2pchat.repository.OnlinePeerRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OnlinePeer テーブルへの書き込みを溜めてまとめて反映する、ライトビハインドのバッファです。
+ * 書き込みはユーザーIDをキーにしたマップに入れ、同じユーザーへの未反映の書き込みは最後の1件で上書きします。
+ * リレーの再起動後の再接続が集中しても、1ユーザーあたり反映時点の状態1行分の書き込みになります。
+ *
+ * presence.write-behind.flush-interval-ms ごと、または未反映の件数が batch-size に達したときに、
+ * バックグラウンドで MERGE と DELETE をそれぞれ1回の JDBC バッチとして1トランザクションで発行します。
+ * オンライン状態の読み取りは OnlinePeerService のメモリ上のマップで行うため、反映の遅れの影響を受けません。
+ * 複数台構成（presence.cluster.enabled=true）では、同じトランザクションで ClusterPresenceBus が変化を他のノードへ通知します。
+ */
+@Service
+@RequiredArgsConstructor
+public class PresenceWriteBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceWriteBuffer.class);
+
+    private final OnlinePeerRepository onlinePeerRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final ClusterPresenceBus clusterPresenceBus;
+    private final MeterRegistry meterRegistry;
+
+    // 1回のバッチで反映する件数。未反映の件数がこれに達したら、定期実行を待たずに反映する
+    @Value("${presence.write-behind.batch-size:500}")
+    private int batchSize;
+
+    // ユーザーID -> 未反映の最後の書き込み
+    private final ConcurrentHashMap<Long, PresenceWrite> pending = new ConcurrentHashMap<>();
+
+    // 反映は常に1つずつ行い、同じユーザーの古い書き込みが新しい書き込みより後に反映されないようにする
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "presence-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private TransactionTemplate transactionTemplate;
+    private Counter acceptedCounter;
+    private Counter upsertedCounter;
+    private Counter deletedCounter;
+    private Counter droppedCounter;
+    private Timer flushTimer;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        acceptedCounter = Counter.builder("presence.write.accepted").register(meterRegistry);
+        upsertedCounter = Counter.builder("presence.write.rows").tag("operation", "upsert").register(meterRegistry);
+        deletedCounter = Counter.builder("presence.write.rows").tag("operation", "delete").register(meterRegistry);
+        droppedCounter = Counter.builder("presence.write.dropped").register(meterRegistry);
+        flushTimer = Timer.builder("presence.write.flush")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("presence.write.pending", pending, ConcurrentHashMap::size).register(meterRegistry);
+        // 受け付けた書き込みのうち、上書きにより DB へ書かずに済んだ割合（起動からの累計）
+        Gauge.builder("presence.write.coalescing.ratio", this, PresenceWriteBuffer::coalescingRatio)
+                .register(meterRegistry);
+    }
+
+    // 停止時は未反映の書き込みをすべて反映する（DataSource はこのビーンより後に閉じられる）
+    @PreDestroy
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    // オンライン（multiaddr の登録・変更）を書き込む
+    public void online(Long userId, String multiaddr, LocalDateTime lastSeenAt) {
+        enqueue(PresenceWrite.online(userId, multiaddr, lastSeenAt));
+    }
+
+    // オフライン（行の削除）を書き込む
+    public void offline(Long userId) {
+        enqueue(PresenceWrite.offline(userId));
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    // 指定ユーザーの書き込みが未反映かどうか
+    public boolean isPending(Long userId) {
+        return pending.containsKey(userId);
+    }
+
+    // 未反映の書き込みを batch-size ずつ反映する。DB に接続できない場合は戻し、次回に再試行する
+    @Scheduled(fixedDelayString = "${presence.write-behind.flush-interval-ms:500}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                List<PresenceWrite> batch = drain();
+                if (batch.isEmpty() || !write(batch)) {
+                    break;
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void enqueue(PresenceWrite write) {
+        pending.put(write.userId(), write);
+        acceptedCounter.increment();
+        if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+        }
+    }
+
+    // マップから最大 batch-size 件を取り出す（取り出した後の書き込みは次のバッチになる）
+    private List<PresenceWrite> drain() {
+        List<PresenceWrite> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+        Iterator<Long> userIds = pending.keySet().iterator();
+        while (batch.size() < batchSize && userIds.hasNext()) {
+            PresenceWrite write = pending.remove(userIds.next());
+            if (write != null) {
+                batch.add(write);
+            }
+        }
+        return batch;
+    }
+
+    private boolean write(List<PresenceWrite> batch) {
+        try {
+            flushTimer.record(() -> writeInTransaction(batch));
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("オンライン状態の {} 件のバッチ反映に失敗しました。1件ずつ反映し直します", batch.size(), e);
+        }
+        // 削除済みのユーザーなど一部の行だけが失敗する場合は、その行だけを捨てる
+        List<PresenceWrite> failed = new ArrayList<>();
+        for (PresenceWrite write : batch) {
+            try {
+                writeInTransaction(List.of(write));
+            } catch (RuntimeException e) {
+                failed.add(write);
+            }
+        }
+        if (failed.size() < batch.size()) {
+            if (!failed.isEmpty()) {
+                droppedCounter.increment(failed.size());
+                log.warn("オンライン状態の {} 件を反映できないため破棄しました: ユーザーID {}", failed.size(),
+                        failed.stream().map(PresenceWrite::userId).toList());
+            }
+            return true;
+        }
+        // すべて失敗した場合は DB に接続できないとみなし、戻して次回に再試行する
+        // その間に届いた同じユーザーの新しい書き込みがあればそちらを残す
+        for (PresenceWrite write : batch) {
+            pending.putIfAbsent(write.userId(), write);
+        }
+        return false;
+    }
+
+    private void writeInTransaction(List<PresenceWrite> batch) {
+        List<PresenceWrite> upserts = new ArrayList<>(batch.size());
+        List<Long> deletes = new ArrayList<>();
+        for (PresenceWrite write : batch) {
+            if (write.isDelete()) {
+                deletes.add(write.userId());
+            } else {
+                upserts.add(write);
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!upserts.isEmpty()) {
+                onlinePeerRepository.upsertAll(upserts);
+            }
+            if (!deletes.isEmpty()) {
+                onlinePeerRepository.deleteAllByUserIds(deletes);
+            }
+            clusterPresenceBus.publish(batch);
+        });
+        upsertedCounter.increment(upserts.size());
+        deletedCounter.increment(deletes.size());
+    }
+
+    private double coalescingRatio() {
+        double accepted = acceptedCounter.count();
+        if (accepted == 0) {
+            return 0;
+        }
+        double written = upsertedCounter.count() + deletedCounter.count() + droppedCounter.count() + pending.size();
+        return Math.max(0, 1 - written / accepted);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.p2pchat.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 読み取り専用トランザクションをレプリカへ振り分ける際に、直前に書き込んだユーザーの読み取りを primary へ戻すための記録です。
+ * 書き込みトランザクションのコミット時（TransactionExecutionListener として Spring Boot がトランザクションマネージャーに登録します）に、
+ * ログイン中のユーザーを replica.read-your-writes-ms の間だけ「最近書き込んだユーザー」として記録します。
+ * フレンド申請の承認のように相手側の表示も変わる書き込みでは、markWritten で相手も記録します。
+ *
+ * 無期限に保持するキャッシュ（FriendGraphCache など）の読み込みは、レプリカの遅れた内容を保持し続けないよう onPrimary で行います。
+ */
+@Service
+public class ReadYourWritesTracker implements TransactionExecutionListener {
+
+    // ユーザーID -> primary から読む期限（System.nanoTime）
+    private final ConcurrentHashMap<Long, Long> recentWriters = new ConcurrentHashMap<>();
+
+    // onPrimary の中で DB 接続を取得する場合は primary を使う
+    private final ThreadLocal<Boolean> primaryScope = ThreadLocal.withInitial(() -> false);
+
+    private final long windowNanos;
+
+    public ReadYourWritesTracker(@Value("${replica.read-your-writes-ms:5000}") long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    @Override
+    public void afterCommit(TransactionExecution transaction, @Nullable Throwable commitFailure) {
+        if (commitFailure == null && !transaction.isReadOnly()) {
+            Long userId = currentUserId();
+            if (userId != null) {
+                markWritten(userId);
+            }
+        }
+    }
+
+    // 指定ユーザーの読み取りを、これから replica.read-your-writes-ms の間 primary へ向ける
+    public void markWritten(Long userId) {
+        recentWriters.put(userId, System.nanoTime() + windowNanos);
+    }
+
+    // 現在のスレッドの読み取りを primary へ向けるべきか（onPrimary の中か、ログイン中のユーザーが最近書き込んだ場合）
+    public boolean requiresPrimary() {
+        if (primaryScope.get()) {
+            return true;
+        }
+        Long userId = currentUserId();
+        if (userId == null) {
+            return false;
+        }
+        Long until = recentWriters.get(userId);
+        return until != null && until - System.nanoTime() > 0;
+    }
+
+    // 処理中に取得する DB 接続を primary に固定する（既に取得済みのトランザクションの接続には影響しない）
+    public <T> T onPrimary(Supplier<T> action) {
+        if (primaryScope.get()) {
+            return action.get();
+        }
+        primaryScope.set(true);
+        try {
+            return action.get();
+        } finally {
+            primaryScope.remove();
+        }
+    }
+
+    public int size() {
+        return recentWriters.size();
+    }
+
+    // 期限の過ぎた記録を削除する
+    @Scheduled(fixedDelayString = "${replica.read-your-writes-purge-interval-ms:60000}")
+    public void purgeExpired() {
+        long now = System.nanoTime();
+        recentWriters.values().removeIf(until -> until - now <= 0);
+    }
+
+    @Nullable
+    private static Long currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof ChatUserDetails userDetails) {
+            return userDetails.getId();
+        }
+        return null;
+    }
+}
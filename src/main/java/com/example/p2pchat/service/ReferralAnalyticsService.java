@@ -0,0 +1,152 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.ReferralOverviewDto;
+import com.example.p2pchat.dto.ReferralStatsDto;
+import com.example.p2pchat.dto.ReferralUserStatsDto;
+import com.example.p2pchat.repository.ReferralStatsRepository;
+import com.example.p2pchat.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 紹介ツリー（紹介者 → 紹介コードで登録したユーザー）の集計を管理するサービスクラスです。
+ * ユーザーごとの深さ・直接紹介した人数・子孫の人数を referral_stats に保持し、
+ * 登録（register）と紹介コードの使用（markReferralCodeAsUsed）のたびに、根からの経路の行だけを差分で更新します。
+ * 経路と子孫は再帰 CTE の1文で取得するため、段ごとに紹介されたユーザーを読み直す必要はありません。
+ *
+ * 集計を変更する処理（差分の更新と全件の再計算）は、最初に referral_stats のロックを取って直列に実行します。
+ * 差分の更新で紹介者の行が無い場合は、同じトランザクションの中で全件を計算し直してから反映します。
+ *
+ * 管理画面の問い合わせは、主キーと索引の先頭を読むだけなのでツリーの大きさに依存しません。
+ * 起動時に行数がユーザー数と合わない場合（この機能の導入前のデータなど）は、全件を計算し直します。
+ */
+@Service
+@RequiredArgsConstructor
+public class ReferralAnalyticsService {
+
+    public static final int DEFAULT_TOP_LIMIT = 20;
+    private static final int MAX_TOP_LIMIT = 100;
+
+    private static final Logger log = LoggerFactory.getLogger(ReferralAnalyticsService.class);
+
+    private final ReferralStatsRepository referralStatsRepository;
+    private final UserRepository userRepository;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void recomputeIfOutOfSync() {
+        long users = userRepository.count();
+        long rows = referralStatsRepository.count();
+        if (users != rows) {
+            log.info("紹介ツリーの集計（{} 行）がユーザー数（{} 人）と一致しないため、計算し直します", rows, users);
+            recomputeAll();
+        }
+    }
+
+    // 全員の集計を計算し直す（起動時と管理画面からの修復用。ユーザー数に比例して時間がかかる）
+    @Transactional
+    public int recomputeAll() {
+        referralStatsRepository.lock();
+        long started = System.nanoTime();
+        int rows = referralStatsRepository.recomputeAll();
+        log.info("紹介ツリーの集計を計算し直しました: {} 人、{} ミリ秒", rows, (System.nanoTime() - started) / 1_000_000);
+        return rows;
+    }
+
+    // 紹介者のいないユーザー（体験登録など）を根として追加する
+    @Transactional
+    public void onRootRegistered(Long userId) {
+        referralStatsRepository.lock();
+        // ユーザーの保存の後、ロックを待つ間に全件の再計算が済んでいれば、行はすでにある
+        if (referralStatsRepository.findStatsByUserId(userId).isEmpty()) {
+            referralStatsRepository.insert(userId, null, 0);
+        }
+    }
+
+    // 紹介コードで登録したユーザーを紹介者の子として追加し、根から紹介者までの全員の集計に1人加える
+    @Transactional
+    public void onRegistered(Long userId, Long referrerId) {
+        referralStatsRepository.lock();
+        List<Long> path = referralStatsRepository.findPathFromRoot(referrerId);
+        if (path.isEmpty()) {
+            // 紹介者の行が無い（起動時の再計算の前に登録された等）。保存済みの新しいユーザーも含めて計算し直す
+            log.warn("紹介者 {} の紹介ツリーの集計が無いため、ユーザー {} の登録で全件を計算し直します", referrerId, userId);
+            recomputeAll();
+            return;
+        }
+        referralStatsRepository.insert(userId, referrerId, path.size());
+        referralStatsRepository.addToPath(path, 1, 1);
+    }
+
+    // ユーザーの紹介者を付け替える（体験ユーザーが紹介コードで本登録した場合）。
+    // 子孫ごと新しい紹介者の下へ移し、古い経路から引いて新しい経路に足す。自分の子孫の下には移せない
+    @Transactional
+    public void onReferrerChanged(Long userId, Long referrerId) {
+        referralStatsRepository.lock();
+        List<Long> newPath = referralStatsRepository.findPathFromRoot(referrerId);
+        Optional<ReferralStatsDto> current = referralStatsRepository.findStatsByUserId(userId);
+        if (newPath.isEmpty() || current.isEmpty()) {
+            // 行が無ければ全件を計算し直してから付け替える
+            // （付け替えが users に書き込まれる前でも後でも、読み直した現在の紹介者から差分を求める）
+            log.warn("ユーザー {} または紹介者 {} の紹介ツリーの集計が無いため、全件を計算し直してから付け替えます", userId, referrerId);
+            recomputeAll();
+            newPath = referralStatsRepository.findPathFromRoot(referrerId);
+            current = referralStatsRepository.findStatsByUserId(userId);
+        }
+        if (newPath.contains(userId)) {
+            throw new IllegalArgumentException("自分または自分が紹介したユーザーの紹介コードは使えません");
+        }
+        ReferralStatsDto stats = current.orElseThrow();
+        if (referrerId.equals(stats.parentId())) {
+            return;
+        }
+        long moved = stats.descendantCount() + 1;
+        if (stats.parentId() != null) {
+            referralStatsRepository.addToPath(referralStatsRepository.findPathFromRoot(stats.parentId()), -moved, -1);
+        }
+        referralStatsRepository.addToPath(newPath, moved, 1);
+
+        int delta = newPath.size() - stats.depth();
+        if (delta != 0) {
+            referralStatsRepository.shiftDepths(referralStatsRepository.findSubtreeIds(userId), delta);
+        }
+        referralStatsRepository.updateParent(userId, referrerId);
+    }
+
+    // ツリー全体の概要（最大の深さと、子孫・直接紹介の多いユーザー上位 limit 人）
+    @Transactional(readOnly = true)
+    public ReferralOverviewDto overview(int limit) {
+        Limit top = Limit.of(Math.min(Math.max(limit, 1), MAX_TOP_LIMIT));
+        return new ReferralOverviewDto(
+                referralStatsRepository.findMaxDepth(),
+                referralStatsRepository.findTopByDescendantCount(top),
+                referralStatsRepository.findTopByDirectCount(top));
+    }
+
+    // 指定ユーザーの集計と、根から紹介者までの経路（深さぶんの行だけを読む）
+    @Transactional(readOnly = true)
+    public Optional<ReferralUserStatsDto> findUserStats(Long userId) {
+        return referralStatsRepository.findStatsByUserId(userId).map(stats -> {
+            List<Long> path = referralStatsRepository.findPathFromRoot(userId);
+            List<ReferralStatsDto> ancestors = path.size() <= 1
+                    ? List.of()
+                    : referralStatsRepository.findStatsByUserIds(path.subList(0, path.size() - 1));
+            return new ReferralUserStatsDto(stats, ancestors);
+        });
+    }
+
+    // ニックネームで指定したユーザーの集計（管理画面の検索用）
+    @Transactional(readOnly = true)
+    public Optional<ReferralUserStatsDto> findUserStatsByNickName(String nickName) {
+        return userRepository.findIdByNickName(nickName).flatMap(this::findUserStats);
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.RelayStatusDto;
+
+import java.time.Instant;
+
+/**
+ * RelayRegistry が管理するリレー1台の状態です。
+ * 疎通確認の結果（スケジューラーのスレッド）と負荷報告・割り当て（リクエストのスレッド）が
+ * 同時に更新するため、状態の読み書きはすべてこのオブジェクトのロックの中で行います。
+ */
+class RelayNode {
+
+    // 遅延の指数移動平均の重み（新しい測定値の割合）
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final String multiaddr;
+    private final String peerId;
+    private final String host;
+    private final int port;
+
+    private boolean healthy = true;
+    private int consecutiveFailures;
+    private double latencyMillis = Double.NaN;
+    private Instant lastProbedAt;
+
+    // 最後の負荷報告の予約数と上限
+    private int reportedReservations;
+    private int maxReservations;
+    private Instant lastReportedAt;
+
+    // 最後の負荷報告（報告が無い・古い場合は見積もりを始めた時刻）以降に割り当てたセッション数
+    private int assignedSinceReport;
+    private Instant assignedSince;
+
+    private long assignments;
+
+    RelayNode(String multiaddr, int defaultMaxReservations, Instant now) {
+        this.multiaddr = multiaddr;
+        String peerId = null;
+        String host = null;
+        int port = -1;
+        String[] parts = multiaddr.split("/");
+        // 先頭は空文字列。プロトコル名と値が交互に並ぶ
+        for (int i = 1; i + 1 < parts.length; i += 2) {
+            switch (parts[i]) {
+                case "ip4", "ip6", "dns", "dns4", "dns6" -> host = parts[i + 1];
+                case "tcp" -> port = Integer.parseInt(parts[i + 1]);
+                case "p2p", "ipfs" -> peerId = parts[i + 1];
+                // ws・wss などの値を持たないプロトコルは1つだけ進める
+                default -> i--;
+            }
+        }
+        if (host == null || port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("リレーのマルチアドレスからホストと TCP ポートを読み取れません: " + multiaddr);
+        }
+        this.peerId = peerId;
+        this.host = host;
+        this.port = port;
+        this.maxReservations = defaultMaxReservations;
+        this.assignedSince = now;
+    }
+
+    String multiaddr() {
+        return multiaddr;
+    }
+
+    String host() {
+        return host;
+    }
+
+    int port() {
+        return port;
+    }
+
+    // 負荷報告の送り主がこのリレーかどうか
+    boolean matches(String reportedPeerId, String reportedMultiaddr) {
+        if (peerId != null) {
+            return peerId.equals(reportedPeerId);
+        }
+        return multiaddr.equals(reportedMultiaddr);
+    }
+
+    synchronized void probeSucceeded(double millis, Instant now) {
+        latencyMillis = Double.isNaN(latencyMillis) ? millis : latencyMillis + LATENCY_WEIGHT * (millis - latencyMillis);
+        consecutiveFailures = 0;
+        healthy = true;
+        lastProbedAt = now;
+    }
+
+    synchronized void probeFailed(int unhealthyAfterFailures, Instant now) {
+        consecutiveFailures++;
+        if (consecutiveFailures >= unhealthyAfterFailures) {
+            healthy = false;
+        }
+        lastProbedAt = now;
+    }
+
+    synchronized void reported(int reservations, int maxReservations, Instant now) {
+        this.reportedReservations = reservations;
+        if (maxReservations > 0) {
+            this.maxReservations = maxReservations;
+        }
+        this.lastReportedAt = now;
+        this.assignedSinceReport = 0;
+        this.assignedSince = now;
+    }
+
+    // 報告が期限切れの場合は、割り当て数の見積もりを reportTtl ごとにやり直す（relay.js の予約も期限付きのため）
+    synchronized void expireEstimate(Instant now, long reportTtlSeconds) {
+        if (!hasFreshReport(now, reportTtlSeconds) && assignedSince.plusSeconds(reportTtlSeconds).isBefore(now)) {
+            assignedSinceReport = 0;
+            assignedSince = now;
+        }
+    }
+
+    synchronized boolean isHealthy() {
+        return healthy;
+    }
+
+    // 見積もった予約数（最新の報告の予約数 + 報告以降に割り当てた数）
+    synchronized int estimatedReservations(Instant now, long reportTtlSeconds) {
+        return (hasFreshReport(now, reportTtlSeconds) ? reportedReservations : 0) + assignedSinceReport;
+    }
+
+    synchronized double load(Instant now, long reportTtlSeconds) {
+        return (double) estimatedReservations(now, reportTtlSeconds) / maxReservations;
+    }
+
+    synchronized double latencyOrMax() {
+        return Double.isNaN(latencyMillis) ? Double.MAX_VALUE : latencyMillis;
+    }
+
+    synchronized void assigned() {
+        assignedSinceReport++;
+        assignments++;
+    }
+
+    synchronized RelayStatusDto toDto(Instant now, long reportTtlSeconds) {
+        return new RelayStatusDto(multiaddr, peerId, healthy, consecutiveFailures,
+                Double.isNaN(latencyMillis) ? null : latencyMillis,
+                estimatedReservations(now, reportTtlSeconds), maxReservations, load(now, reportTtlSeconds),
+                assignments, lastProbedAt, lastReportedAt);
+    }
+
+    private boolean hasFreshReport(Instant now, long reportTtlSeconds) {
+        return lastReportedAt != null && lastReportedAt.plusSeconds(reportTtlSeconds).isAfter(now);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.config.RelayProperties;
+import com.example.p2pchat.dto.RelayLoadReport;
+import com.example.p2pchat.dto.RelayStatusDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * チャット画面に渡すリレー（relay.js）を複数台から選ぶサービスクラスです。
+ * relay.pool の各リレーに定期的に TCP で接続して疎通と遅延を確認し、relay.js からの負荷報告（予約数）を受け取ります。
+ * チャット画面を開くたびに、正常なリレーのうち負荷（予約数 / 上限）が最も低いものを割り当てます。
+ * 負荷報告の無いリレーは、サーバーが割り当てたセッション数を予約数の見積もりとして使います。
+ */
+@Service
+@RequiredArgsConstructor
+public class RelayRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(RelayRegistry.class);
+
+    private final RelayProperties relayProperties;
+    private final MeterRegistry meterRegistry;
+
+    // 疎通確認は1台ずつ仮想スレッドで並行して行い、応答の無いリレーで他の確認を待たせない
+    // スケジューラーのスレッドは確認の完了を待たない（他の @Scheduled の処理を止めない）
+    private final ExecutorService prober = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 疎通確認の実行中のリレー（前回の確認が終わっていないリレーは、次の周期では確認しない）
+    private final Set<RelayNode> probing = ConcurrentHashMap.newKeySet();
+
+    private List<RelayNode> nodes;
+    private final Map<RelayNode, Counter> assignmentCounters = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        List<String> multiaddrs = relayProperties.multiaddrs();
+        if (multiaddrs.isEmpty()) {
+            throw new IllegalStateException("relay.pool または relay.multiaddr にリレーを指定してください");
+        }
+        Instant now = Instant.now();
+        List<RelayNode> created = new ArrayList<>();
+        for (String multiaddr : multiaddrs) {
+            RelayNode node = new RelayNode(multiaddr.trim(), relayProperties.getDefaultMaxReservations(), now);
+            created.add(node);
+            Gauge.builder("relay.healthy", node, n -> n.isHealthy() ? 1 : 0)
+                    .tag("relay", node.multiaddr()).register(meterRegistry);
+            Gauge.builder("relay.load", node, n -> n.load(Instant.now(), relayProperties.getReportTtlSeconds()))
+                    .tag("relay", node.multiaddr()).register(meterRegistry);
+            Gauge.builder("relay.latency", node, RelayNode::latencyOrMax)
+                    .tag("relay", node.multiaddr()).baseUnit("milliseconds").register(meterRegistry);
+            assignmentCounters.put(node, Counter.builder("relay.assignments")
+                    .tag("relay", node.multiaddr()).register(meterRegistry));
+        }
+        nodes = List.copyOf(created);
+        log.info("リレー {} 台: {}", nodes.size(), multiaddrs);
+    }
+
+    @PreDestroy
+    public void close() {
+        prober.shutdownNow();
+    }
+
+    /**
+     * チャットのセッションにリレーを1台割り当てます。
+     * 疎通確認に失敗しておらず予約数に空きがあるリレーのうち負荷が最も低いもの（同じなら遅延の小さいもの）を選びます。
+     * 該当するリレーが無い場合も、画面を開けるように全リレーのうち負荷が最も低いものを返します。
+     */
+    public synchronized String assign() {
+        Instant now = Instant.now();
+        long ttl = relayProperties.getReportTtlSeconds();
+        Comparator<RelayNode> byLoad = Comparator.<RelayNode>comparingDouble(n -> n.load(now, ttl))
+                .thenComparingDouble(RelayNode::latencyOrMax);
+        RelayNode chosen = nodes.stream()
+                .filter(RelayNode::isHealthy)
+                .filter(n -> n.load(now, ttl) < 1.0)
+                .min(byLoad)
+                .orElse(null);
+        if (chosen == null) {
+            chosen = nodes.stream().min(byLoad).orElseThrow();
+            log.warn("正常で空きのあるリレーがありません。{} を割り当てます", chosen.multiaddr());
+        }
+        chosen.assigned();
+        assignmentCounters.get(chosen).increment();
+        return chosen.multiaddr();
+    }
+
+    // relay.js からの負荷報告を記録する（該当するリレーが relay.pool に無ければ false）
+    public boolean report(RelayLoadReport report) {
+        if (report.reservations() < 0) {
+            throw new IllegalArgumentException("予約数が不正です: " + report.reservations());
+        }
+        Instant now = Instant.now();
+        boolean matched = false;
+        for (RelayNode node : nodes) {
+            if (node.matches(report.peerId(), report.multiaddr())) {
+                node.reported(report.reservations(), report.maxReservations(), now);
+                matched = true;
+            }
+        }
+        return matched;
+    }
+
+    // 負荷報告のトークンが正しいかどうか（トークンが未設定の場合は常に false）
+    public boolean acceptsReportToken(String token) {
+        String expected = relayProperties.getReportToken();
+        if (expected == null || expected.isEmpty() || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 全リレーに TCP で接続し、疎通と遅延を記録する（結果は各確認の完了時に記録し、ここでは待たない）
+    @Scheduled(fixedDelayString = "${relay.probe-interval-ms:10000}")
+    public void probeAll() {
+        startProbes();
+    }
+
+    // 疎通確認を始め、今回始めたすべての確認が終わると完了する CompletableFuture を返す
+    CompletableFuture<Void> startProbes() {
+        Instant now = Instant.now();
+        List<CompletableFuture<Void>> probes = new ArrayList<>(nodes.size());
+        for (RelayNode node : nodes) {
+            node.expireEstimate(now, relayProperties.getReportTtlSeconds());
+            if (probing.add(node)) {
+                probes.add(CompletableFuture.runAsync(() -> probe(node), prober)
+                        .whenComplete((result, error) -> probing.remove(node)));
+            }
+        }
+        return CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new));
+    }
+
+    public List<RelayStatusDto> statuses() {
+        Instant now = Instant.now();
+        return nodes.stream()
+                .map(n -> n.toDto(now, relayProperties.getReportTtlSeconds()))
+                .toList();
+    }
+
+    private void probe(RelayNode node) {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(node.host(), node.port()), relayProperties.getProbeTimeoutMs());
+            node.probeSucceeded((System.nanoTime() - start) / 1_000_000.0, Instant.now());
+        } catch (IOException e) {
+            boolean wasHealthy = node.isHealthy();
+            node.probeFailed(relayProperties.getUnhealthyAfterFailures(), Instant.now());
+            if (wasHealthy && !node.isHealthy()) {
+                log.warn("リレー {} に接続できないため割り当てから外します: {}", node.multiaddr(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.SignalingMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 友達同士の WebRTC 接続のための SDP（offer / answer）と ICE candidate を中継するサービスクラスです。
+ * これまでは /api/online で相手の multiaddr を取得し、circuit relay 経由で接続してから WebRTC に切り替えていましたが、
+ * シグナリングをサーバーの WebSocket で直接行うことで、リレーを経由する往復を省きます。
+ *
+ * 転送できるのはアクティブな友達同士（FriendGraphCache）のみで、相手が接続していない場合は error を返します。
+ * offer を転送してから同じ callId の answer が返ってくるまでの時間を signaling.offer.answer として記録します。
+ */
+@Service
+@RequiredArgsConstructor
+public class SignalingService {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalingService.class);
+
+    private static final Set<String> FORWARDED_TYPES = Set.of("offer", "answer", "candidate", "bye");
+    private static final int MAX_CALL_ID_LENGTH = 64;
+
+    private final FriendGraphCache friendGraphCache;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    // 1メッセージの送信に掛けられる時間と、送信待ちにできるバイト数（超えた接続は切断する）
+    @Value("${signaling.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    @Value("${signaling.send-buffer-bytes:65536}")
+    private int sendBufferBytes;
+
+    // answer が返ってこない offer を計測対象から外すまでの時間（ミリ秒）
+    @Value("${signaling.offer-timeout-ms:30000}")
+    private long offerTimeoutMs;
+
+    // 計測中の offer の上限（超えた分は転送のみ行い、計測しない）
+    @Value("${signaling.max-pending-offers:10000}")
+    private int maxPendingOffers;
+
+    // ユーザーID -> 接続中のセッション（複数タブ対応）
+    private final ConcurrentHashMap<Long, Set<WebSocketSession>> sessions = new ConcurrentHashMap<>();
+
+    // 「発信者のユーザーID:callId」 -> answer 待ちの offer
+    private final ConcurrentHashMap<String, PendingOffer> pendingOffers = new ConcurrentHashMap<>();
+
+    private Timer offerAnswerTimer;
+    private Counter unansweredCounter;
+    private final Map<String, Counter> forwardedCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejectedCounters = new ConcurrentHashMap<>();
+
+    private record PendingOffer(long callerId, long calleeId, long startedNanos) {
+    }
+
+    @PostConstruct
+    public void init() {
+        offerAnswerTimer = Timer.builder("signaling.offer.answer")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        unansweredCounter = Counter.builder("signaling.offers.unanswered").register(meterRegistry);
+        Gauge.builder("signaling.sessions", sessions, s -> s.values().stream().mapToInt(Set::size).sum())
+                .register(meterRegistry);
+        Gauge.builder("signaling.pending.offers", pendingOffers, Map::size).register(meterRegistry);
+    }
+
+    // 接続を登録する。送信はスレッドセーフになるようにデコレーターで包む
+    public WebSocketSession register(Long userId, WebSocketSession session) {
+        WebSocketSession concurrent = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, sendBufferBytes);
+        sessions.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(concurrent);
+        return concurrent;
+    }
+
+    public void unregister(Long userId, WebSocketSession session) {
+        sessions.computeIfPresent(userId, (id, set) -> {
+            set.remove(session);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    public boolean isConnected(Long userId) {
+        return sessions.containsKey(userId);
+    }
+
+    /**
+     * 送信者からのメッセージを相手の全セッションへ転送します。
+     * 転送できない場合（不正な形式・友達ではない・相手が未接続）は、送信者のセッションに error を返します。
+     */
+    public void handle(Long senderId, WebSocketSession senderSession, SignalingMessage message) {
+        String reason = validate(senderId, message);
+        if (reason != null) {
+            reject(senderSession, message, reason);
+            return;
+        }
+        Set<WebSocketSession> targets = sessions.get(message.to());
+        if (targets == null || targets.isEmpty()) {
+            reject(senderSession, message, "offline");
+            return;
+        }
+
+        long now = System.nanoTime();
+        switch (message.type()) {
+            case "offer" -> {
+                if (pendingOffers.size() < maxPendingOffers) {
+                    pendingOffers.put(senderId + ":" + message.callId(), new PendingOffer(senderId, message.to(), now));
+                }
+            }
+            case "answer" -> {
+                // 相手が送った offer への応答である場合のみ計測する
+                String key = message.to() + ":" + message.callId();
+                PendingOffer offer = pendingOffers.get(key);
+                if (offer != null && offer.calleeId() == senderId && pendingOffers.remove(key, offer)) {
+                    offerAnswerTimer.record(now - offer.startedNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+            case "bye" -> pendingOffers.remove(senderId + ":" + message.callId());
+            default -> {
+            }
+        }
+
+        TextMessage forwarded = toTextMessage(message.withFrom(senderId));
+        for (WebSocketSession target : targets) {
+            send(target, forwarded);
+        }
+        forwardedCounters.computeIfAbsent(message.type(),
+                type -> Counter.builder("signaling.messages").tag("type", type).register(meterRegistry)).increment();
+    }
+
+    // answer が返ってこないまま期限を過ぎた offer を計測対象から外す
+    @Scheduled(fixedDelayString = "${signaling.offer-timeout-ms:30000}")
+    public void expireOffers() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+        pendingOffers.entrySet().removeIf(entry -> {
+            if (entry.getValue().startedNanos() - deadline < 0) {
+                unansweredCounter.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private String validate(Long senderId, SignalingMessage message) {
+        if (message.type() == null || !FORWARDED_TYPES.contains(message.type())) {
+            return "unsupported-type";
+        }
+        if (message.to() == null || message.callId() == null || message.callId().isBlank()
+                || message.callId().length() > MAX_CALL_ID_LENGTH) {
+            return "invalid-message";
+        }
+        if (!friendGraphCache.areMutualFriends(senderId, message.to())) {
+            return "not-friends";
+        }
+        return null;
+    }
+
+    private void reject(WebSocketSession session, SignalingMessage message, String reason) {
+        rejectedCounters.computeIfAbsent(reason,
+                r -> Counter.builder("signaling.rejected").tag("reason", r).register(meterRegistry)).increment();
+        send(session, toTextMessage(SignalingMessage.error(message.callId(), message.to(), reason)));
+    }
+
+    private TextMessage toTextMessage(SignalingMessage message) {
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(message));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 送信に失敗した接続（送信待ちが溢れた・切断済み）は閉じ、切断時の処理で登録を外す
+    private void send(WebSocketSession session, TextMessage message) {
+        try {
+            session.sendMessage(message);
+        } catch (IOException | SessionLimitExceededException | IllegalStateException e) {
+            log.debug("シグナリングの送信に失敗しました: {}", e.getMessage());
+            try {
+                session.close();
+            } catch (IOException ignored) {
+                // 既に閉じている
+            }
+        }
+    }
+}
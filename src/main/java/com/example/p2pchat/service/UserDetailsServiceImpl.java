@@ -6,22 +6,21 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.AccountExpiredException;
 import org.springframework.security.core.userdetails.*;
 import org.springframework.stereotype.Service;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 /**
  * Spring Security におけるユーザー認証処理を担うサービスクラス。
  * ニックネームを使ってユーザー情報をロードし、認証に使用される UserDetails を返す。
+ * ログイン成功時、保存済みのハッシュのコストが現在の設定と異なる場合は updatePassword で再ハッシュしたものを保存する。
  */
 @Service
 @RequiredArgsConstructor
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
 
     private final UserRepository userRepository;
 
-    // ニックネームからユーザー情報を取得し、Spring Security 用の UserDetails を構築して返す
+    // ニックネームからユーザー情報を取得し、ユーザーIDを含む UserDetails を構築して返す
     @Override
     public UserDetails loadUserByUsername(String nickname) throws UsernameNotFoundException {
         User user = userRepository.findByNickName(nickname)
@@ -31,12 +30,23 @@ public class UserDetailsServiceImpl implements UserDetailsService {
             throw new AccountExpiredException("体験期間が終了しました。紹介コードを入力して解除してください。");
         }
 
-        return new org.springframework.security.core.userdetails.User(
+        return new ChatUserDetails(
+                user.getId(),
                 user.getNickName(),
                 user.getPassword(),
-                List.of(new SimpleGrantedAuthority(user.getAuthority()))
+                user.isTrial(),
+                user.getAuthority()
         );
     }
+
+    // 再ハッシュしたパスワードを保存し、新しいハッシュを持つ UserDetails を返す
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        ChatUserDetails details = (ChatUserDetails) user;
+        userRepository.updatePassword(details.getId(), newPassword);
+        return new ChatUserDetails(details.getId(), details.getUsername(), newPassword, details.isTrial(), details.getAuthority());
+    }
+
     public boolean isTrialExpired(User user) {
         return user.isTrial()
                 && user.getCreatedAt() != null
@@ -0,0 +1,68 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.UserSummaryDto;
+import com.example.p2pchat.repository.UserRepository;
+import com.example.p2pchat.util.BoundedTtlCache;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * ニックネーム→ユーザーID、ユーザーID→ユーザー概要の検索結果を保持するキャッシュです。
+ * 件数の上限（user-cache.max-size）と有効期限（user-cache.ttl-seconds）を持ち、
+ * 体験モードの解除などユーザー情報が変わる処理では invalidate を呼び出します。
+ */
+@Service
+@RequiredArgsConstructor
+public class UserLookupCache {
+
+    private final UserRepository userRepository;
+    private final ReadYourWritesTracker readYourWritesTracker;
+
+    @Value("${user-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${user-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private BoundedTtlCache<String, Long> idsByNickName;
+    private BoundedTtlCache<Long, UserSummaryDto> summariesById;
+
+    @PostConstruct
+    public void init() {
+        idsByNickName = new BoundedTtlCache<>(maxSize, ttlSeconds * 1000);
+        summariesById = new BoundedTtlCache<>(maxSize, ttlSeconds * 1000);
+    }
+
+    // ニックネームからユーザーIDを取得する
+    public Optional<Long> findIdByNickName(String nickName) {
+        return Optional.ofNullable(idsByNickName.computeIfAbsent(nickName,
+                name -> readYourWritesTracker.onPrimary(() -> userRepository.findIdByNickName(name).orElse(null))));
+    }
+
+    // ユーザーIDからユーザーの概要を取得する
+    public Optional<UserSummaryDto> findSummary(Long userId) {
+        return Optional.ofNullable(summariesById.computeIfAbsent(userId,
+                id -> readYourWritesTracker.onPrimary(() -> userRepository.findSummaryById(id).orElse(null))));
+    }
+
+    // 指定ユーザーのキャッシュを破棄する（体験モード解除・権限変更などの後に呼び出す）
+    public void invalidate(Long userId) {
+        UserSummaryDto summary = summariesById.get(userId);
+        if (summary != null) {
+            idsByNickName.remove(summary.nickName());
+        }
+        summariesById.remove(userId);
+    }
+
+    public long getHitCount() {
+        return idsByNickName.getHitCount() + summariesById.getHitCount();
+    }
+
+    public long getMissCount() {
+        return idsByNickName.getMissCount() + summariesById.getMissCount();
+    }
+}
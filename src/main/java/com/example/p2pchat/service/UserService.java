@@ -11,14 +11,15 @@ import com.example.p2pchat.Entity.Friend;
 
 import com.example.p2pchat.Entity.User;
 import com.example.p2pchat.Entity.FriendRequest;
-import jakarta.transaction.Transactional;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
-import java.util.UUID;
 import java.util.Optional;
 
 /**
@@ -27,6 +28,7 @@ import java.util.Optional;
  */
 @Service
 @RequiredArgsConstructor
+@Timed("app.service")
 public class UserService {
 
     private final FriendRepository friendRepository;
@@ -34,9 +36,16 @@ public class UserService {
     private final PasswordEncoder passwordEncoder;
     private final FriendRequestRepository friendRequestRepository;
     private final ReferralCodeRepository referralCodeRepository;
+    private final OnlinePeerService onlinePeerService;
+    private final FriendGraphCache friendGraphCache;
+    private final UserLookupCache userLookupCache;
+    private final CodeAllocator codeAllocator;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadYourWritesTracker readYourWritesTracker;
+    private final FriendSuggestionService friendSuggestionService;
+    private final ReferralAnalyticsService referralAnalyticsService;
 
     private static final Logger log = LoggerFactory.getLogger(UserService.class);
-    private OnlinePeerRepository onlinePeerRepository;
 
     // 指定された紹介コードが存在し、利用可能かチェックする
     public boolean existsByReferralCode(String referralCode) {
@@ -45,74 +54,53 @@ public class UserService {
     }
 
     // 紹介コードを使って新規ユーザーを登録し、紹介者と友達関係を構築する
+    // パスワードのハッシュ化はトランザクションの外で行い、DB 接続を保持する時間を短くする。
+    // トランザクション内の SQL は、紹介コード検索・紹介枠の減算・ユーザー INSERT・紹介コードの使用済み化・
+    // 紹介コードのバッチ INSERT・友達関係のバッチ INSERT の6回と、紹介ツリーの集計（根からの経路の検索・行の追加・
+    // 経路の集計のバッチ UPDATE）の3回だけ
     public void register(String usedReferralCode, String rawPassword, String nickName) {
-        if (referralCodeRepository.findByCode(usedReferralCode).isEmpty()) {
-            throw new IllegalArgumentException("紹介コードが無効です");
-        }
-        User referrer = referralCodeRepository.findByCode(usedReferralCode)
-                .map(ReferralCode::getOwner)
+        String encodedPassword = passwordEncoder.encode(rawPassword);
+        transactionTemplate.executeWithoutResult(status -> registerInTransaction(usedReferralCode, encodedPassword, nickName));
+    }
+
+    private void registerInTransaction(String usedReferralCode, String encodedPassword, String nickName) {
+        ReferralCode usedCode = referralCodeRepository.findByCode(usedReferralCode)
                 .orElseThrow(() -> new IllegalArgumentException("紹介コードが無効です"));
+        Long referrerId = usedCode.getOwner().getId();
 
-// 1. 枠の残数をチェック
-        if (referrer.getRemainingReferralSlots() <= 0) {
+        // 紹介枠を1つ減らす（同時に登録されても上限を超えない）
+        if (userRepository.decrementRemainingReferralSlots(referrerId) == 0) {
             throw new IllegalArgumentException("紹介コードの使用上限に達しています");
         }
 
-// 2. 紹介枠を1つ減らす
-        referrer.setRemainingReferralSlots(referrer.getRemainingReferralSlots() - 1);
-
-// 3. 紹介者を保存
-        userRepository.save(referrer);
-
-        String newReferralCode;
-        do {
-            newReferralCode = UUID.randomUUID().toString().substring(0, 8);
-        } while (referralCodeRepository.existsByCode(newReferralCode));
-
-        String encodedPassword = passwordEncoder.encode(rawPassword);
+        // 未使用の紹介コードで登録した場合は体験モードを解除し、紹介コードを追加で3つ発行する
+        boolean upgrade = !usedCode.isUsed();
         User user = new User();
         user.setNickName(nickName);
         user.setUsedReferralCode(usedReferralCode); // 誰から紹介されたか
         user.setUsedReferralCodeCreatedAt(LocalDateTime.now());
-        user.setRemainingReferralSlots(5);
-        user.setFriendRequestCode(UUID.randomUUID().toString().substring(0, 8));
+        user.setRemainingReferralSlots(upgrade ? 3 : 5);
+        user.setTrial(!upgrade);
+        user.setFriendRequestCode(codeAllocator.nextCode());
         user.setPassword(encodedPassword);
         user.setAuthority("ROLE_USER");
-        user.setCreatedAt(LocalDateTime.now());
-
-        String baseUrl = "https://example.com/register?code=";
-
         userRepository.save(user);
-        markReferralCodeAsUsed(usedReferralCode, user);
-
-        for (int i = 0; i < 3; i++) {
-            String code;
-            do {
-                code = UUID.randomUUID().toString().substring(0, 8);
-            } while (referralCodeRepository.existsByCode(code));
-
-            ReferralCode referralCode = new ReferralCode();
-            referralCode.setCode(code);
-            referralCode.setOwner(user);
-            referralCodeRepository.save(referralCode);
-        }
 
-        for (ReferralCode code : referralCodeRepository.findAllByOwner(user)) {
-            String inviteLink = baseUrl + code.getCode();
-            System.out.println("招待リンク: " + inviteLink);
+        if (upgrade && referralCodeRepository.markAsUsedIfUnused(usedReferralCode, user) == 0) {
+            // 検索後に他の登録処理が先に使用した場合は、使用済みコードでの登録として扱う
+            log.warn("紹介コード {} はすでに使用されています", usedReferralCode);
+            upgrade = false;
+            user.setTrial(true);
+            user.setRemainingReferralSlots(5);
+        } else if (!upgrade) {
+            log.warn("紹介コード {} はすでに使用されています", usedReferralCode);
         }
 
-        Friend friendship = new Friend();
-        friendship.setUser(referrer);       // 紹介者
-        friendship.setFriend(user);         // 紹介されたユーザー
-        friendship.setCreatedAt(LocalDateTime.now());
-        friendRepository.save(friendship);
+        referralCodeRepository.insertAll(user.getId(), codeAllocator.nextCodes(upgrade ? 6 : 3));
+        friendRepository.insertMutual(referrerId, user.getId());
+        referralAnalyticsService.onRegistered(user.getId(), referrerId);
 
-        Friend reverse = new Friend();
-        reverse.setUser(user);           // 被紹介者（今ログインしてる人）
-        reverse.setFriend(referrer);     // 紹介者
-        reverse.setCreatedAt(LocalDateTime.now());
-        friendRepository.save(reverse);
+        friendGraphCache.invalidate(referrerId, user.getId());
     }
 
     // 紹介コードが存在するか確認する
@@ -128,21 +116,25 @@ public class UserService {
     }
 
     // ニックネームからユーザーを検索する
+    @Transactional(readOnly = true)
     public Optional<User> findByNickName(String nickName) {
         return userRepository.findByNickName(nickName);
     }
 
     // 指定された紹介コードを使って登録されたユーザー一覧を取得
+    @Transactional(readOnly = true)
     public List<User> findAllByUsedReferralCode(String referralCode) {
         return userRepository.findAllByUsedReferralCode(referralCode);
     }
 
     // 現在のユーザーを紹介したユーザーを取得する
+    @Transactional(readOnly = true)
     public Optional<User> findReferrer(User user) {
         return referralCodeRepository.findByCode(user.getUsedReferralCode())
                 .map(ReferralCode::getOwner);
     }
 
+    @Transactional(readOnly = true)
     public List<User> findAllByUsedReferralCodes(User user) {
         List<ReferralCode> codes = referralCodeRepository.findAllByOwner(user);
         return userRepository.findAllByUsedReferralCodeIn(
@@ -151,6 +143,7 @@ public class UserService {
     }
 
     // 自分が解除した（非アクティブな）友達を取得する
+    @Transactional(readOnly = true)
     public List<Friend> findInactiveFriends(User user) {
         return friendRepository.findAllByUser(user).stream()
                 .filter(f -> !f.isActive()) // 非アクティブ
@@ -159,6 +152,8 @@ public class UserService {
     }
 
     // ニックネームを使ってフレンド申請を送る
+    // 書き込む前の確認の読み取りがレプリカ（遅れている可能性がある）に振り分けられないよう、読み書きのトランザクションで行う
+    @Transactional
     public void sendFriendRequest(String fromNickName, String toNickName) {
         User sender = userRepository.findByNickName(fromNickName)
                 .orElseThrow(() -> new IllegalArgumentException("送信者が見つかりません"));
@@ -169,8 +164,7 @@ public class UserService {
             throw new IllegalArgumentException("自分自身には申請できません");
         }
 
-        if (friendRepository.findAllByUser(sender).stream()
-                .anyMatch(f -> f.getFriend().equals(receiver))) {
+        if (friendGraphCache.hasRelation(sender.getId(), receiver.getId())) {
             throw new IllegalArgumentException("すでに友達です");
         }
 
@@ -188,7 +182,8 @@ public class UserService {
         friendRequestRepository.save(request);
     }
 
-    // フレンド申請コードを使ってフレンド申請を送る
+    // フレンド申請コードを使ってフレンド申請を送る（読み書きのトランザクションで行う理由は sendFriendRequest と同じ）
+    @Transactional
     public void sendFriendRequestByFriendRequestCode(String fromNickName, String toFriendRequestCode) {
         User sender = userRepository.findByNickName(fromNickName)
                 .orElseThrow(() -> new IllegalArgumentException("送信者が見つかりません"));
@@ -199,8 +194,7 @@ public class UserService {
             throw new IllegalArgumentException("自分自身には申請できません");
         }
 
-        if (friendRepository.findAllByUser(sender).stream()
-                .anyMatch(f -> f.getFriend().equals(receiver))) {
+        if (friendGraphCache.hasRelation(sender.getId(), receiver.getId())) {
             throw new IllegalArgumentException("すでに友達です");
         }
 
@@ -222,7 +216,8 @@ public class UserService {
         friendRequestRepository.save(request);
     }
 
-    // フレンド申請を承認し、双方向の友達関係を作成する
+    // フレンド申請を承認し、双方向の友達関係を作成する（申請の読み込みも primary で行う）
+    @Transactional
     public void acceptFriendRequest(Long requestId) {
         FriendRequest request = friendRequestRepository.findById(requestId)
                 .orElseThrow(() -> new IllegalArgumentException("申請が見つかりません"));
@@ -246,14 +241,20 @@ public class UserService {
         f2.setFriend(request.getSender());
         f2.setCreatedAt(LocalDateTime.now());
         friendRepository.save(f2);
+
+        friendGraphCache.invalidate(request.getSender().getId(), request.getReceiver().getId());
+        // 申請した側の画面にも、レプリカの遅れに関わらず新しい友達がすぐに表示されるようにする
+        readYourWritesTracker.markWritten(request.getSender().getId());
     }
 
     // 自分への保留中のフレンド申請を取得する
+    @Transactional(readOnly = true)
     public List<FriendRequest> findPendingFriendRequests(User user) {
         return friendRequestRepository.findAllByReceiverAndAcceptedFalseAndRejectedFalse(user);
     }
 
     // 自分が送った保留中のフレンド申請を取得する
+    @Transactional(readOnly = true)
     public List<FriendRequest> findSentPendingRequests(User user) {
         return friendRequestRepository.findAllBySenderAndAcceptedFalseAndRejectedFalse(user);
     }
@@ -276,11 +277,13 @@ public class UserService {
     }
 
     // 拒否されたフレンド申請一覧を取得する
+    @Transactional(readOnly = true)
     public List<FriendRequest> findRejectedFriendRequests(User user) {
         return friendRequestRepository.findAllByReceiverAndRejectedTrue(user);
     }
 
     // 申請済み（承認前）の送信済みフレンド申請を取得する
+    @Transactional(readOnly = true)
     public List<FriendRequest> findSentVisibleRequests(User user) {
         return friendRequestRepository.findBySender(user).stream()
                 .filter(req -> !req.isAccepted())
@@ -288,6 +291,7 @@ public class UserService {
     }
 
     // 自分宛ての保留中のフレンド申請を取得する（キャンセル済みを除く）
+    @Transactional(readOnly = true)
     public List<FriendRequest> findIncomingVisibleRequests(User user) {
         return friendRequestRepository.findByReceiverAndAcceptedFalseAndCancelledFalse(user);
     }
@@ -305,6 +309,7 @@ public class UserService {
                     f.setDeletedAt(LocalDateTime.now());
                     friendRepository.save(f);
                 });
+        friendGraphCache.invalidate(user.getId(), target.getId());
     }
 
     // 解除した友達関係を復元（アクティブに戻す）する
@@ -320,18 +325,17 @@ public class UserService {
                     f.setDeletedAt(null);
                     friendRepository.save(f);
                 });
-
+        friendGraphCache.invalidate(user.getId(), target.getId());
     }
 
     // 自分から追加した現在のアクティブな友達を取得する
+    @Transactional(readOnly = true)
     public List<Friend> findFriends(User user) {
-        return friendRepository.findAllByUser(user).stream()
-                .filter(Friend::isActive)
-                .filter(f -> f.getUser().equals(user)) // 自分が追加したフレンドのみ
-                .toList();
+        return friendRepository.findAllByUserAndActiveTrue(user);
     }
 
     // 指定ユーザーに紐づく紹介コード一覧を取得する
+    @Transactional(readOnly = true)
     public List<ReferralCode> getAvailableReferralCodes(User user) {
         return referralCodeRepository.findAllByOwnerAndUsedFalse(user);
     }
@@ -339,6 +343,8 @@ public class UserService {
     public void markReferralCodeAsUsed(String code, User usedByUser) {
         referralCodeRepository.findByCode(code).ifPresent(referralCode -> {
             if (!referralCode.isUsed()) {
+                // 紹介ツリーの集計を紹介者の下へ付け替える（自分の子孫のコードなら、何も変更せずに例外になる）
+                referralAnalyticsService.onReferrerChanged(usedByUser.getId(), referralCode.getOwner().getId());
                 referralCode.setUsed(true);
                 referralCode.setUsedByUser(usedByUser);
                 referralCodeRepository.save(referralCode);
@@ -347,19 +353,10 @@ public class UserService {
                 usedByUser.setRemainingReferralSlots(3);
 
             // 新しい紹介コード3つを発行
-                for (int i = 0; i < 3; i++) {
-                    String newCode;
-                    do {
-                        newCode = UUID.randomUUID().toString().substring(0, 8);
-                    } while (referralCodeRepository.existsByCode(newCode));
-
-                    ReferralCode newReferralCode = new ReferralCode();
-                    newReferralCode.setCode(newCode);
-                    newReferralCode.setOwner(usedByUser);
-                    referralCodeRepository.save(newReferralCode);
-                }
+                referralCodeRepository.insertAll(usedByUser.getId(), codeAllocator.nextCodes(3));
 
                 userRepository.save(usedByUser);
+                userLookupCache.invalidate(usedByUser.getId());
             } else {
                 if (log != null) {
                     log.warn("紹介コード {} はすでに使用されています", code);
@@ -368,7 +365,18 @@ public class UserService {
         });
     }
 
+    // 体験ユーザーが紹介コードで本登録する
+    // 紹介コードの使用済み化・紹介ツリーの付け替え・ユーザーの更新・紹介コードの発行は1つのトランザクションで行い、
+    // 途中で失敗した場合は紹介ツリーの集計も含めてすべて元に戻す
     public void verifyReferralCodeAndUpgrade(String username, String referralCode) {
+        // 本登録したユーザーと紹介者の ID
+        long[] changed = transactionTemplate.execute(status -> upgradeInTransaction(username, referralCode));
+        userLookupCache.invalidate(changed[0]);
+        // 紹介者とのつながりが増えるので、友達候補のグラフの両者の行を読み直す
+        friendSuggestionService.markChanged(changed);
+    }
+
+    private long[] upgradeInTransaction(String username, String referralCode) {
         User user = userRepository.findByNickName(username)
                 .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
 
@@ -378,8 +386,9 @@ public class UserService {
         user.setTrial(false);
         user.setUsedReferralCode(referralCode);
         user.setUsedReferralCodeCreatedAt(LocalDateTime.now());
-        this.markReferralCodeAsUsed(referralCode, user);
+        markReferralCodeAsUsed(referralCode, user);
         userRepository.save(user);
+        return new long[]{user.getId(), code.getOwner().getId()};
     }
     public boolean isTrialExpired(User user) {
         if (!user.isTrial()) {
@@ -395,6 +404,7 @@ public class UserService {
     }
 
     // 全ユーザーを取得する
+    @Transactional(readOnly = true)
     public List<User> findAll() {
         return userRepository.findAll();
     }
@@ -409,13 +419,19 @@ public class UserService {
         user.setTrial(true); // ← 体験モードフラグ
         user.setUsedReferralCode("none");
         user.setAuthority("ROLE_USER");
-        user.setFriendRequestCode(UUID.randomUUID().toString().substring(0, 8));
+        user.setFriendRequestCode(codeAllocator.nextCode());
         user.setRemainingReferralSlots(0); // ← 体験ユーザーは紹介できない
         userRepository.save(user);
+        referralAnalyticsService.onRootRegistered(user.getId());
     }
     public void unregisterOnline(String nickname) {
-        User user = userRepository.findByNickName(nickname)
+        Long userId = userLookupCache.findIdByNickName(nickname)
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
-        onlinePeerRepository.deleteByUser(user);
+        onlinePeerService.goOffline(userId);
+    }
+
+    // ログイン中ユーザーの User を、SELECT を発行しない参照として取得する（外部キーや検索条件に使う）
+    public User getReference(Long userId) {
+        return userRepository.getReferenceById(userId);
     }
 }
\ No newline at end of file
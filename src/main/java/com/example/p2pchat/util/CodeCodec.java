@@ -0,0 +1,70 @@
+package com.example.p2pchat.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * 連番を、推測しにくい10文字のコードに1対1で変換します。
+ * 50bit の連番を鍵付きの Feistel 構造（ラウンド関数は HMAC-SHA256）で並べ替えてから、
+ * 紛らわしい文字（0, 1, I, O）を除いた32文字で表記します。
+ * Feistel 構造は鍵に関わらず全単射なので、同じ鍵で異なる連番を変換したコードは必ず異なります。
+ * 既存の UUID 由来のコード（8文字・英小文字）とは長さも文字種も異なるため、重複しません。
+ * スレッドセーフではありません（呼び出し側で排他してください）。
+ */
+public class CodeCodec {
+
+    public static final int CODE_LENGTH = 10;
+    public static final long MAX_VALUE = (1L << 50) - 1;
+
+    private static final char[] ALPHABET = "23456789ABCDEFGHJKLMNPQRSTUVWXYZ".toCharArray();
+    private static final int HALF_BITS = 25;
+    private static final long HALF_MASK = (1L << HALF_BITS) - 1;
+    private static final int ROUNDS = 4;
+
+    private final Mac mac;
+    private final byte[] input = new byte[5];
+
+    public CodeCodec(byte[] key) {
+        try {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 が利用できません", e);
+        }
+    }
+
+    // 連番（0 〜 MAX_VALUE）をコードに変換する
+    public String encode(long value) {
+        if (value < 0 || value > MAX_VALUE) {
+            throw new IllegalArgumentException("コードに変換できる範囲を超えています: " + value);
+        }
+        long left = value >>> HALF_BITS;
+        long right = value & HALF_MASK;
+        for (int round = 0; round < ROUNDS; round++) {
+            long next = left ^ roundFunction(round, right);
+            left = right;
+            right = next;
+        }
+
+        long permuted = (left << HALF_BITS) | right;
+        char[] code = new char[CODE_LENGTH];
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            code[i] = ALPHABET[(int) (permuted & 31)];
+            permuted >>>= 5;
+        }
+        return new String(code);
+    }
+
+    private long roundFunction(int round, long half) {
+        input[0] = (byte) round;
+        input[1] = (byte) (half >>> 24);
+        input[2] = (byte) (half >>> 16);
+        input[3] = (byte) (half >>> 8);
+        input[4] = (byte) half;
+        byte[] digest = mac.doFinal(input);
+        long result = ((digest[0] & 0xffL) << 24) | ((digest[1] & 0xffL) << 16)
+                | ((digest[2] & 0xffL) << 8) | (digest[3] & 0xffL);
+        return result & HALF_MASK;
+    }
+}
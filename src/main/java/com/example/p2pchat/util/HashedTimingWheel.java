@@ -0,0 +1,97 @@
+package com.example.p2pchat.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * キー（ユーザーIDなど）の有効期限を管理するハッシュ化タイミングホイールです。
+ * ホイール1周の長さを最大遅延以上にしているため、各スロットには原則「その tick で期限切れになるキー」だけが入ります。
+ * そのため advance の処理量は期限切れになったキーの数に比例し、登録済みの全キーを走査することはありません。
+ * schedule（期限の延長）と cancel は O(1) です。スレッドセーフです。
+ */
+public class HashedTimingWheel {
+
+    private final long tickMillis;
+    private final long maxDelayMillis;
+    private final long startMillis;
+    private final List<Set<Long>> slots;
+
+    // キー -> 期限切れになる tick 番号
+    private final Map<Long, Long> deadlines = new HashMap<>();
+
+    // 次に処理する tick 番号
+    private long currentTick;
+
+    public HashedTimingWheel(long tickMillis, long maxDelayMillis, long startMillis) {
+        if (tickMillis <= 0 || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis と maxDelayMillis は正の値を指定してください");
+        }
+        this.tickMillis = tickMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.startMillis = startMillis;
+
+        int size = (int) ((maxDelayMillis + tickMillis - 1) / tickMillis) + 1;
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new HashSet<>());
+        }
+    }
+
+    // キーを now から delayMillis 後に期限切れになるよう登録する（登録済みなら期限を置き換える）
+    public synchronized void schedule(long key, long delayMillis, long nowMillis) {
+        cancel(key);
+        long delay = Math.min(Math.max(delayMillis, 0), maxDelayMillis);
+        long elapsed = nowMillis + delay - startMillis;
+        long deadline = Math.max((elapsed + tickMillis - 1) / tickMillis, currentTick);
+        deadlines.put(key, deadline);
+        slotOf(deadline).add(key);
+    }
+
+    // キーの登録を取り消す
+    public synchronized boolean cancel(long key) {
+        Long deadline = deadlines.remove(key);
+        if (deadline == null) {
+            return false;
+        }
+        slotOf(deadline).remove(key);
+        return true;
+    }
+
+    // now までに経過した tick を処理し、期限切れになったキーを返す
+    public synchronized List<Long> advance(long nowMillis) {
+        List<Long> expired = new ArrayList<>();
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        while (currentTick <= targetTick) {
+            int index = (int) (currentTick % slots.size());
+            Set<Long> bucket = slots.get(index);
+            if (!bucket.isEmpty()) {
+                slots.set(index, new HashSet<>());
+                for (Long key : bucket) {
+                    long deadline = deadlines.get(key);
+                    if (deadline <= currentTick) {
+                        deadlines.remove(key);
+                        expired.add(key);
+                    } else {
+                        // 処理が遅れて1周以上先の期限が同じスロットに入った場合のみ、入れ直す
+                        slotOf(deadline).add(key);
+                    }
+                }
+            }
+            currentTick++;
+        }
+        return expired;
+    }
+
+    // 登録中のキーの数
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    private Set<Long> slotOf(long tick) {
+        return slots.get((int) (tick % slots.size()));
+    }
+}
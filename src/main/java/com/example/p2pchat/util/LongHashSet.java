@@ -0,0 +1,146 @@
+package com.example.p2pchat.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * long 値をボクシングせずに保持するオープンアドレス法のハッシュセットです。
+ * contains はオブジェクトを生成せずに O(1) で判定します。
+ * スレッドセーフではありません。構築後に変更せず共有する（読み取り専用で公開する）用途を想定しています。
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // 共有する空のセット（add は UnsupportedOperationException）
+    public static final LongHashSet EMPTY_SET = new Empty();
+
+    private long[] table;
+    private int size;
+    // 0 は空きスロットの印に使うため、別に管理する
+    private boolean containsZero;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.table = new long[capacity];
+    }
+
+    public static LongHashSet of(long... values) {
+        LongHashSet set = new LongHashSet(values.length);
+        for (long value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = value;
+        size++;
+        if (size > table.length * LOAD_FACTOR) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        long[] t = table;
+        int mask = t.length - 1;
+        int index = mix(value) & mask;
+        long current;
+        while ((current = t[index]) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongConsumer action) {
+        if (containsZero) {
+            action.accept(EMPTY);
+        }
+        for (long value : table) {
+            if (value != EMPTY) {
+                action.accept(value);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        if (containsZero) {
+            result[i++] = EMPTY;
+        }
+        for (long value : table) {
+            if (value != EMPTY) {
+                result[i++] = value;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] old = table;
+        table = new long[newCapacity];
+        size = containsZero ? 1 : 0;
+        for (long value : old) {
+            if (value != EMPTY) {
+                add(value);
+            }
+        }
+    }
+
+    // 連番のIDが隣接スロットに偏らないようにビットを混ぜる
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    // 変更できない空のセット（共有されるため、要素を追加できないようにする）
+    private static final class Empty extends LongHashSet {
+
+        private Empty() {
+            super(0);
+        }
+
+        @Override
+        public boolean add(long value) {
+            throw new UnsupportedOperationException("空のセットには追加できません");
+        }
+    }
+}
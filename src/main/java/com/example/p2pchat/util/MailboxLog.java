@@ -0,0 +1,619 @@
+package com.example.p2pchat.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * 受信者（ユーザーID）宛ての不透明なメッセージを保存する、セグメント分割された追記専用ログです。
+ * メッセージには全体で単調増加するオフセットを振り、ファイル名が先頭オフセットのセグメントファイルへ順に追記します。
+ * 書き込み中のセグメントは segmentBytes の大きさで（疎ファイルとして）メモリマップし、読み出しもマップから直接行います。
+ *
+ * 受信者ごとに未確認のオフセットをメモリ上の索引に持つため、受信者のメッセージだけをオフセット順（＝ファイル上の順）に読めます。
+ * 索引は起動時にセグメントを先頭から走査して作り直します。CRC が一致しないレコード以降は、途中で停止した書き込みとして捨てます。
+ * 受信者が確認（acknowledge）したオフセットはメモリ上で即座に反映し、compact のたびにチェックポイントファイルへ書き出します。
+ * チェックポイント前に停止した場合は確認済みのメッセージを再度配信するため、受信側はオフセットで重複を除いてください。
+ *
+ * compact は書き込み中以外のセグメントを対象に、未確認のメッセージがなくなったものを削除し、
+ * 未確認の割合が低いものは未確認のレコードだけを新しいファイルへ書き直して置き換えます（オフセットは変わりません）。
+ * スレッドセーフです。追記は1本ずつ、読み出しは並行に行えます。
+ */
+public class MailboxLog implements Closeable {
+
+    // レコードの形式: 本文の長さ(4) CRC32C(4) オフセット(8) 受信者(8) 送信者(8) 作成時刻(8) 本文
+    // 本文の長さが 0 の位置をセグメントの終端とする
+    public static final int HEADER_BYTES = 40;
+
+    // 受信者の未確認メッセージが上限に達していて追記しなかったことを表す（オフセットは1から振るので重ならない）
+    public static final long FULL = -1;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String CHECKPOINT_FILE = "acks.checkpoint";
+    private static final String LOCK_FILE = "mailbox.lock";
+    private static final int CHECKPOINT_MAGIC = 0x4d424f58;
+
+    /**
+     * 読み出したメッセージ1件を受け取るコールバックです。
+     * payload はマップ上の読み取り専用の領域で、呼び出し中のみ有効です。
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void accept(long offset, long senderId, long createdAtMillis, ByteBuffer payload) throws IOException;
+    }
+
+    /**
+     * compact の結果です（削除したセグメント数、書き直したセグメント数、減ったバイト数）。
+     */
+    public record CompactionResult(int deletedSegments, int rewrittenSegments, long reclaimedBytes) {
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+
+    // 同じディレクトリを複数のインスタンスで開かないためのロック
+    private final FileChannel lockChannel;
+
+    // 先頭オフセット -> セグメント
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // 受信者ID -> 未確認のオフセット
+    private final ConcurrentHashMap<Long, Recipient> recipients = new ConcurrentHashMap<>();
+
+    private final Object appendLock = new Object();
+    private final Object compactionLock = new Object();
+
+    // 以下は appendLock で保護する
+    private Segment active;
+    private long nextOffset = 1;
+    private boolean closed;
+
+    // 起動時の走査で捨てた（壊れていた）レコードがあったセグメントの数
+    private int corruptedSegments;
+
+    public MailboxLog(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes < HEADER_BYTES * 2) {
+            throw new IllegalArgumentException("segmentBytes が小さすぎます: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), CREATE, WRITE);
+        try {
+            if (lockChannel.tryLock() == null) {
+                throw new IOException("メールボックスのディレクトリは別のプロセスが使用中です: " + directory);
+            }
+            recover();
+        } catch (OverlappingFileLockException e) {
+            lockChannel.close();
+            throw new IOException("メールボックスのディレクトリはすでに開かれています: " + directory, e);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    // 受信者宛てのメッセージを追記し、振ったオフセットを返す
+    public long append(long recipientId, long senderId, long createdAtMillis, byte[] payload) throws IOException {
+        return append(recipientId, senderId, createdAtMillis, payload, Integer.MAX_VALUE);
+    }
+
+    // 受信者の未確認メッセージが maxPending 件未満の場合だけ追記し、振ったオフセットを返す（上限に達していれば FULL）
+    // 件数の確認と追記を同じロックの中で行うため、並行に追記しても上限を超えない（確認で件数が減るのは構わない）
+    public long append(long recipientId, long senderId, long createdAtMillis, byte[] payload, int maxPending)
+            throws IOException {
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (payload.length == 0 || recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("メッセージの長さが不正です: " + payload.length);
+        }
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IllegalStateException("メールボックスのログは閉じられています");
+            }
+            if (pendingCount(recipientId) >= maxPending) {
+                return FULL;
+            }
+            if (active.remaining() < recordBytes) {
+                roll();
+            }
+            long offset = nextOffset++;
+            write(active, offset, recipientId, senderId, createdAtMillis, payload);
+            // 受信者ごとの索引がオフセット順になるよう、索引への追加も追記と同じロックの中で行う
+            recipients.computeIfAbsent(recipientId, id -> new Recipient(0)).add(offset);
+            return offset;
+        }
+    }
+
+    // 受信者の未確認メッセージのうち afterOffset より後のものを、最大 maxMessages 件オフセット順に読む
+    // 最後に読んだオフセット（1件もなければ afterOffset）を返す
+    public long read(long recipientId, long afterOffset, int maxMessages, Visitor visitor) throws IOException {
+        Recipient recipient = recipients.get(recipientId);
+        if (recipient == null) {
+            return afterOffset;
+        }
+        long last = afterOffset;
+        for (long offset : recipient.pendingAfter(afterOffset, maxMessages)) {
+            last = offset;
+            Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+            int position = entry == null ? -1 : entry.getValue().positionOf(offset);
+            // 読み出しの途中で確認され、compact で取り除かれた場合
+            if (position < 0) {
+                continue;
+            }
+            MappedByteBuffer buffer = entry.getValue().buffer;
+            int length = buffer.getInt(position);
+            visitor.accept(offset, buffer.getLong(position + 24), buffer.getLong(position + 32),
+                    buffer.slice(position + HEADER_BYTES, length).asReadOnlyBuffer());
+        }
+        return last;
+    }
+
+    // 受信者が uptoOffset までのメッセージを受け取ったことを記録し、確認済みになった件数を返す
+    public int acknowledge(long recipientId, long uptoOffset) {
+        Recipient recipient = recipients.get(recipientId);
+        return recipient == null ? 0 : recipient.acknowledge(uptoOffset);
+    }
+
+    // 受信者の未確認メッセージの件数
+    public int pendingCount(long recipientId) {
+        Recipient recipient = recipients.get(recipientId);
+        return recipient == null ? 0 : recipient.size();
+    }
+
+    // 全受信者の未確認メッセージの件数
+    public long pendingCount() {
+        long total = 0;
+        for (Recipient recipient : recipients.values()) {
+            total += recipient.size();
+        }
+        return total;
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    // セグメントに書き込み済みのバイト数の合計
+    public long sizeBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.size;
+        }
+        return total;
+    }
+
+    public int getCorruptedSegments() {
+        return corruptedSegments;
+    }
+
+    // 書き込み中のセグメントをディスクへ書き出す（書き出し中も追記は止めない）
+    public void flush() {
+        Segment current;
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            current = active;
+        }
+        current.buffer.force();
+    }
+
+    // 確認済みの位置をチェックポイントに書き出し、書き込み中以外のセグメントを削除・書き直す
+    // 未確認のレコードの割合が minLiveRatio 未満のセグメントを書き直す
+    public CompactionResult compact(double minLiveRatio) throws IOException {
+        synchronized (compactionLock) {
+            writeCheckpoint();
+            long activeBase;
+            synchronized (appendLock) {
+                activeBase = active.baseOffset;
+            }
+
+            int deleted = 0;
+            int rewritten = 0;
+            long reclaimed = 0;
+            for (Segment segment : segments.headMap(activeBase).values()) {
+                long[] offsets = segment.offsets();
+                int[] positions = segment.positions();
+                int[] liveIndexes = new int[offsets.length];
+                int live = 0;
+                long liveBytes = 0;
+                for (int i = 0; i < offsets.length; i++) {
+                    int position = positions[i];
+                    Recipient recipient = recipients.get(segment.buffer.getLong(position + 16));
+                    // 確認済みの位置は後退しないので、ここで確認済みと判定したレコードが再び必要になることはない
+                    if (recipient != null && offsets[i] > recipient.acked()) {
+                        liveIndexes[live++] = i;
+                        liveBytes += HEADER_BYTES + segment.buffer.getInt(position);
+                    }
+                }
+
+                if (live == 0) {
+                    segments.remove(segment.baseOffset, segment);
+                    Files.deleteIfExists(segment.path);
+                    deleted++;
+                    reclaimed += segment.size;
+                } else if (liveBytes < segment.size * minLiveRatio) {
+                    Segment replacement = rewrite(segment, offsets, positions, Arrays.copyOf(liveIndexes, live));
+                    segments.put(segment.baseOffset, replacement);
+                    rewritten++;
+                    reclaimed += segment.size - replacement.size;
+                }
+            }
+            return new CompactionResult(deleted, rewritten, reclaimed);
+        }
+    }
+
+    // 書き込み中のセグメントとチェックポイントを書き出して閉じる
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.buffer.force();
+        }
+        synchronized (compactionLock) {
+            writeCheckpoint();
+        }
+        lockChannel.close();
+    }
+
+    // 書き込み中のセグメントを閉じ、次のオフセットから始まる新しいセグメントに切り替える（appendLock 内で呼ぶ）
+    private void roll() throws IOException {
+        active.buffer.force();
+        active = createSegment(nextOffset);
+        segments.put(active.baseOffset, active);
+    }
+
+    private void write(Segment segment, long offset, long recipientId, long senderId, long createdAtMillis,
+                       byte[] payload) {
+        int position = segment.size;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putLong(position + 8, offset);
+        buffer.putLong(position + 16, recipientId);
+        buffer.putLong(position + 24, senderId);
+        buffer.putLong(position + 32, createdAtMillis);
+        buffer.put(position + HEADER_BYTES, payload);
+        buffer.putInt(position + 4, checksum(buffer, position, payload.length));
+        // 長さは最後に書く（長さが書かれる前に停止した場合、その位置がセグメントの終端になる）
+        buffer.putInt(position, payload.length);
+        segment.index(offset, position);
+        segment.size = position + HEADER_BYTES + payload.length;
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+        Path path = segmentPath(baseOffset);
+        try (FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+            // ファイルは segmentBytes まで拡張される（疎ファイルなので書き込んだ分だけディスクを使う）
+            return new Segment(baseOffset, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    // 未確認のレコードだけを一時ファイルへ順に書き出し、元のセグメントと置き換える
+    private Segment rewrite(Segment segment, long[] offsets, int[] positions, int[] liveIndexes) throws IOException {
+        Path temporary = segment.path.resolveSibling(segment.path.getFileName() + COMPACTING_SUFFIX);
+        Segment replacement;
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            int size = 0;
+            long[] newOffsets = new long[liveIndexes.length];
+            int[] newPositions = new int[liveIndexes.length];
+            for (int i = 0; i < liveIndexes.length; i++) {
+                int position = positions[liveIndexes[i]];
+                ByteBuffer record = segment.buffer.slice(position, HEADER_BYTES + segment.buffer.getInt(position));
+                newOffsets[i] = offsets[liveIndexes[i]];
+                newPositions[i] = size;
+                size += record.remaining();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+            replacement = new Segment(segment.baseOffset, segment.path,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size, newOffsets, newPositions);
+        }
+        // 読み出し中のスレッドは置き換え前のマップを引き続き読める
+        Files.move(temporary, segment.path, ATOMIC_MOVE, REPLACE_EXISTING);
+        return replacement;
+    }
+
+    // チェックポイントとセグメントを読み込み、受信者ごとの索引を作り直す
+    private void recover() throws IOException {
+        for (Map.Entry<Long, Long> entry : readCheckpoint().entrySet()) {
+            recipients.put(entry.getKey(), new Recipient(entry.getValue()));
+        }
+
+        List<Long> baseOffsets = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(COMPACTING_SUFFIX)) {
+                    // 書き直しの途中で停止した一時ファイル（元のセグメントはそのまま残っている）
+                    Files.delete(file);
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    baseOffsets.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+        baseOffsets.sort(null);
+
+        Segment last = null;
+        boolean lastIsClean = false;
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            long baseOffset = baseOffsets.get(i);
+            Path path = segmentPath(baseOffset);
+            boolean isLast = i == baseOffsets.size() - 1;
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+                // 最後のセグメントは続きを書き込めるよう書き込み可能でマップする
+                segment = isLast
+                        ? new Segment(baseOffset, path,
+                                channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentBytes)))
+                        : new Segment(baseOffset, path,
+                                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            nextOffset = Math.max(nextOffset, baseOffset);
+            boolean clean = scan(segment);
+            if (!clean) {
+                corruptedSegments++;
+            }
+            if (isLast && segment.offsets().length == 0) {
+                // レコードのない最後のセグメントは作り直す
+                Files.delete(path);
+                continue;
+            }
+            segments.put(baseOffset, segment);
+            last = segment;
+            lastIsClean = clean;
+        }
+
+        // 壊れたレコードの後ろには追記しない（新しいセグメントから書き始める）
+        if (last != null && lastIsClean && !last.buffer.isReadOnly() && last.remaining() > HEADER_BYTES) {
+            active = last;
+        } else {
+            active = createSegment(nextOffset);
+            segments.put(active.baseOffset, active);
+        }
+    }
+
+    // セグメントを先頭から走査して索引を作る。壊れたレコードが見つかった場合は false を返す
+    private boolean scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int limit = buffer.capacity();
+        int position = 0;
+        boolean clean = true;
+        while (position + HEADER_BYTES <= limit) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            long offset = buffer.getLong(position + 8);
+            if (length < 0 || length > limit - position - HEADER_BYTES
+                    || buffer.getInt(position + 4) != checksum(buffer, position, length)
+                    || offset < nextOffset) {
+                clean = false;
+                break;
+            }
+            segment.index(offset, position);
+            long recipientId = buffer.getLong(position + 16);
+            Recipient recipient = recipients.computeIfAbsent(recipientId, id -> new Recipient(0));
+            if (offset > recipient.acked()) {
+                recipient.add(offset);
+            }
+            nextOffset = offset + 1;
+            position += HEADER_BYTES + length;
+        }
+        segment.size = position;
+        return clean;
+    }
+
+    // 受信者ごとの確認済みの位置を一時ファイルに書いてから置き換える
+    private void writeCheckpoint() throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        recipients.forEach((recipientId, recipient) -> {
+            long acked = recipient.acked();
+            if (acked > 0) {
+                entries.add(new long[]{recipientId, acked});
+            }
+        });
+        ByteBuffer data = ByteBuffer.allocate(8 + entries.size() * 16);
+        data.putInt(CHECKPOINT_MAGIC).putInt(entries.size());
+        for (long[] entry : entries) {
+            data.putLong(entry[0]).putLong(entry[1]);
+        }
+        data.flip();
+
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        Path temporary = directory.resolve(CHECKPOINT_FILE + COMPACTING_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, checkpoint, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private Map<Long, Long> readCheckpoint() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        Map<Long, Long> acked = new HashMap<>();
+        if (!Files.exists(checkpoint)) {
+            return acked;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+        if (data.remaining() < 8 || data.getInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("チェックポイントファイルの形式が不正です: " + checkpoint);
+        }
+        int count = data.getInt();
+        if (data.remaining() != count * 16L) {
+            throw new IOException("チェックポイントファイルの長さが不正です: " + checkpoint);
+        }
+        for (int i = 0; i < count; i++) {
+            acked.put(data.getLong(), data.getLong());
+        }
+        return acked;
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return directory.resolve(String.format("%020d", baseOffset) + SEGMENT_SUFFIX);
+    }
+
+    // オフセット以降のヘッダーと本文の CRC32C
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + 8, HEADER_BYTES - 8 + length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * セグメントファイル1つ分です。オフセットからファイル内の位置を引く索引を持ちます。
+     * 書き込み中のセグメントの索引は追記と並行して読まれるため、索引の操作は同期します。
+     */
+    private static final class Segment {
+
+        final long baseOffset;
+        final Path path;
+        final MappedByteBuffer buffer;
+
+        // 書き込み済みのバイト数（書き込み中のセグメントのみ変化する）
+        volatile int size;
+
+        private long[] offsets;
+        private int[] positions;
+        private int count;
+
+        // 空のセグメント（索引は走査・追記で作る）
+        Segment(long baseOffset, Path path, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.buffer = buffer;
+            this.offsets = new long[64];
+            this.positions = new int[64];
+        }
+
+        // 書き直したセグメント（索引は作成済み）
+        Segment(long baseOffset, Path path, MappedByteBuffer buffer, int size, long[] offsets, int[] positions) {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.buffer = buffer;
+            this.size = size;
+            this.offsets = offsets;
+            this.positions = positions;
+            this.count = offsets.length;
+        }
+
+        int remaining() {
+            return buffer.capacity() - size;
+        }
+
+        synchronized void index(long offset, int position) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            offsets[count] = offset;
+            positions[count] = position;
+            count++;
+        }
+
+        // オフセットのレコードの位置（索引になければ -1）
+        synchronized int positionOf(long offset) {
+            int index = Arrays.binarySearch(offsets, 0, count, offset);
+            return index < 0 ? -1 : positions[index];
+        }
+
+        synchronized long[] offsets() {
+            return Arrays.copyOf(offsets, count);
+        }
+
+        synchronized int[] positions() {
+            return Arrays.copyOf(positions, count);
+        }
+    }
+
+    /**
+     * 1受信者分の未確認のオフセット（昇順）と確認済みの位置です。
+     */
+    private static final class Recipient {
+
+        private long[] pending = new long[4];
+        private int head;
+        private int tail;
+        private long acked;
+        private long lastOffset;
+
+        Recipient(long acked) {
+            this.acked = acked;
+            this.lastOffset = acked;
+        }
+
+        synchronized void add(long offset) {
+            if (tail == pending.length) {
+                if (head > 0) {
+                    System.arraycopy(pending, head, pending, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                } else {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                }
+            }
+            pending[tail++] = offset;
+            lastOffset = offset;
+        }
+
+        synchronized long[] pendingAfter(long afterOffset, int maxMessages) {
+            int index = Arrays.binarySearch(pending, head, tail, afterOffset + 1);
+            int from = index < 0 ? -index - 1 : index;
+            return Arrays.copyOfRange(pending, from, Math.min(tail, from + Math.max(maxMessages, 0)));
+        }
+
+        // これまでに追記されたオフセットより先は確認済みにしない（今後追記されるメッセージを失わないため）
+        synchronized int acknowledge(long uptoOffset) {
+            long upto = Math.min(uptoOffset, lastOffset);
+            int before = head;
+            while (head < tail && pending[head] <= upto) {
+                head++;
+            }
+            int removed = head - before;
+            if (head == tail) {
+                head = 0;
+                tail = 0;
+                if (pending.length > 64) {
+                    pending = new long[4];
+                }
+            }
+            acked = Math.max(acked, upto);
+            return removed;
+        }
+
+        synchronized int size() {
+            return tail - head;
+        }
+
+        synchronized long acked() {
+            return acked;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.example.p2pchat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 友達候補の計算に使う、ユーザー同士のつながり（無向グラフ）を CSR（compressed sparse row）形式で保持するクラスです。
+ * ノード番号はユーザーIDそのもの（IDENTITY 採番で密なため）で、ノード v の隣接ノードは
+ * targets[offsets[v] .. offsets[v + 1]) に昇順で並びます。int 配列2本だけなので、100万辺でも十数 MB に収まります。
+ *
+ * 変更はノード単位の行の置き換え（replaceRow）として受け付け、CSR とは別のオーバーレイに保持します。読み取りはオーバーレイを優先します。
+ * オーバーレイが増えたら compact で CSR を作り直します（作り直しの間も読み取りは止めません）。
+ *
+ * 友達候補は「隣接ノードの隣接ノード」を数え上げ、共通のつながりの数の多い順に返します。
+ * 隣接ノードが maxHubDegree を超えるノード（全員を紹介した管理者など）は、経由しても手掛かりにならないため数えません。
+ * 数え上げの作業領域はノード数分の int 配列を持つため、スレッドごとには持たず、maxConcurrency 個だけを使い回します
+ * （同時に計算できるのは maxConcurrency 件までで、それを超えた呼び出しは作業領域が空くまで待ちます）。
+ */
+public class SuggestionGraph {
+
+    // 友達候補1件（ノード番号と、共通のつながりの数）
+    public record Candidate(int node, int mutualCount) {
+    }
+
+    // 候補から除外するかどうか（既存の友達関係など、グラフに現れない条件に使う）
+    @FunctionalInterface
+    public interface Exclusion {
+        boolean test(int node, int candidate);
+    }
+
+    // 辺を1本ずつ受け取る（DB から読みながら Builder に渡す）
+    @FunctionalInterface
+    public interface EdgeConsumer {
+        void accept(long from, long to);
+    }
+
+    private record Csr(int[] offsets, int[] targets) {
+        int nodeCount() {
+            return offsets.length - 1;
+        }
+    }
+
+    // 自分自身と隣接ノードの印（数え上げの対象外）
+    private static final int EXCLUDED = Integer.MIN_VALUE;
+
+    // fork/join でこれ以下の件数になったら分割せずに計算する
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    // 良い順（共通のつながりが多い順、同数なら古いユーザー＝番号の小さい順）
+    private static final Comparator<Candidate> BEST_FIRST = Comparator.comparingInt(Candidate::mutualCount).reversed()
+            .thenComparingInt(Candidate::node);
+
+    private final int maxHubDegree;
+    private volatile Csr csr = new Csr(new int[1], new int[0]);
+    private final ConcurrentHashMap<Integer, int[]> overlay = new ConcurrentHashMap<>();
+    // オーバーレイに現れる最大のノード番号（CSR の範囲外の新しいユーザーを含む）
+    private volatile int maxOverlayNode = -1;
+
+    // 空いている作業領域（maxConcurrency 個）
+    private final BlockingQueue<Scratch> scratches;
+
+    public SuggestionGraph(int maxHubDegree, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency は1以上にしてください: " + maxConcurrency);
+        }
+        this.maxHubDegree = maxHubDegree;
+        this.scratches = new ArrayBlockingQueue<>(maxConcurrency);
+        for (int i = 0; i < maxConcurrency; i++) {
+            scratches.add(new Scratch());
+        }
+    }
+
+    // 全体を置き換える（オーバーレイも破棄する）
+    public synchronized void replaceAll(Builder builder) {
+        csr = builder.build();
+        overlay.clear();
+        maxOverlayNode = -1;
+    }
+
+    // ノードの隣接ノードをまとめて置き換える（無向グラフなので、辺の両端の行を置き換えること）
+    public void replaceRow(int node, int[] neighbors) {
+        int[] row = sortedUnique(neighbors, neighbors.length, node);
+        overlay.put(node, row);
+        int max = row.length > 0 ? Math.max(node, row[row.length - 1]) : node;
+        synchronized (this) {
+            if (max > maxOverlayNode) {
+                maxOverlayNode = max;
+            }
+        }
+    }
+
+    // オーバーレイを取り込んだ CSR を作り直す
+    public synchronized void compact() {
+        Csr base = csr;
+        Map<Integer, int[]> rows = new HashMap<>(overlay);
+        int nodeCount = Math.max(base.nodeCount(), maxOverlayNode + 1);
+        int[] offsets = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            int[] row = rows.get(node);
+            offsets[node + 1] = offsets[node] + (row != null ? row.length : baseDegree(base, node));
+        }
+        int[] targets = new int[offsets[nodeCount]];
+        for (int node = 0; node < nodeCount; node++) {
+            int[] row = rows.get(node);
+            if (row != null) {
+                System.arraycopy(row, 0, targets, offsets[node], row.length);
+            } else if (node < base.nodeCount()) {
+                System.arraycopy(base.targets, base.offsets[node], targets, offsets[node], baseDegree(base, node));
+            }
+        }
+        csr = new Csr(offsets, targets);
+        // 作り直しの間に置き換えられた行は残す
+        rows.forEach(overlay::remove);
+    }
+
+    public int degree(int node) {
+        int[] row = overlay.get(node);
+        return row != null ? row.length : baseDegree(csr, node);
+    }
+
+    // 辺の数（無向なので両方向で1本）
+    public long edgeCount() {
+        Csr base = csr;
+        long directed = base.targets.length;
+        for (Map.Entry<Integer, int[]> entry : overlay.entrySet()) {
+            directed += entry.getValue().length - baseDegree(base, entry.getKey());
+        }
+        return directed / 2;
+    }
+
+    public int overlaySize() {
+        return overlay.size();
+    }
+
+    // 指定ノードの友達候補を、共通のつながりの多い順に最大 limit 件返す
+    public List<Candidate> suggest(int node, int limit, Exclusion exclusion) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        Scratch s = acquireScratch();
+        Csr base = csr;
+        s.ensureCapacity(Math.max(Math.max(base.nodeCount(), maxOverlayNode + 1), node + 1));
+        try {
+            return rank(s, base, node, limit, exclusion);
+        } finally {
+            // 例外で中断した場合も、次の計算のために数えた分を 0 に戻す
+            for (int i = 0; i < s.touchedCount; i++) {
+                s.counts[s.touched[i]] = 0;
+            }
+            s.touchedCount = 0;
+            scratches.add(s);
+        }
+    }
+
+    private Scratch acquireScratch() {
+        try {
+            return scratches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("友達候補の計算を中断しました", e);
+        }
+    }
+
+    private List<Candidate> rank(Scratch s, Csr base, int node, int limit, Exclusion exclusion) {
+        int[] counts = s.counts;
+
+        // 自分と、すでにつながっているノードは数えない
+        s.touch(node);
+        counts[node] = EXCLUDED;
+        int degree = s.copyRow(this, base, node);
+        for (int i = 0; i < degree; i++) {
+            int neighbor = s.neighbors[i];
+            // 計算中に追加された新しいユーザーは作業領域の範囲外になり得るので数えない
+            if (neighbor >= counts.length) {
+                continue;
+            }
+            if (counts[neighbor] == 0) {
+                s.touch(neighbor);
+            }
+            counts[neighbor] = EXCLUDED;
+        }
+
+        // 2ホップ先のノードごとに、経由した隣接ノード（= 共通のつながり）の数を数える
+        for (int i = 0; i < degree; i++) {
+            int via = s.neighbors[i];
+            int[] row = overlay.get(via);
+            if (row != null) {
+                if (row.length <= maxHubDegree) {
+                    count(s, row, 0, row.length);
+                }
+            } else if (via < base.nodeCount()) {
+                int from = base.offsets[via];
+                int to = base.offsets[via + 1];
+                if (to - from <= maxHubDegree) {
+                    count(s, base.targets, from, to);
+                }
+            }
+        }
+
+        // 上位 limit 件だけを、最も悪い候補を先頭にしたヒープで残す
+        PriorityQueue<Candidate> top = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+        for (int i = 0; i < s.touchedCount; i++) {
+            int candidate = s.touched[i];
+            int mutual = counts[candidate];
+            if (mutual <= 0) {
+                continue;
+            }
+            if (top.size() == limit) {
+                Candidate worst = top.peek();
+                if (mutual < worst.mutualCount() || (mutual == worst.mutualCount() && candidate > worst.node())) {
+                    continue;
+                }
+            }
+            if (exclusion.test(node, candidate)) {
+                continue;
+            }
+            top.add(new Candidate(candidate, mutual));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+
+        List<Candidate> result = new ArrayList<>(top);
+        result.sort(BEST_FIRST);
+        return result;
+    }
+
+    // 複数ノードの友達候補を fork/join で並列に計算する（結果は nodes と同じ順）
+    public Candidate[][] suggestAll(int[] nodes, int limit, Exclusion exclusion, ForkJoinPool pool) {
+        Candidate[][] results = new Candidate[nodes.length][];
+        pool.invoke(new SuggestTask(nodes, 0, nodes.length, limit, exclusion, results));
+        return results;
+    }
+
+    private final class SuggestTask extends RecursiveAction {
+        private final int[] nodes;
+        private final int from;
+        private final int to;
+        private final int limit;
+        private final Exclusion exclusion;
+        private final Candidate[][] results;
+
+        SuggestTask(int[] nodes, int from, int to, int limit, Exclusion exclusion, Candidate[][] results) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+            this.exclusion = exclusion;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = suggest(nodes[i], limit, exclusion).toArray(Candidate[]::new);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SuggestTask(nodes, from, middle, limit, exclusion, results),
+                    new SuggestTask(nodes, middle, to, limit, exclusion, results));
+        }
+    }
+
+    private static void count(Scratch s, int[] targets, int from, int to) {
+        int[] counts = s.counts;
+        for (int i = from; i < to; i++) {
+            int candidate = targets[i];
+            if (candidate >= counts.length) {
+                continue;
+            }
+            int count = counts[candidate];
+            if (count == EXCLUDED) {
+                continue;
+            }
+            if (count == 0) {
+                s.touch(candidate);
+            }
+            counts[candidate] = count + 1;
+        }
+    }
+
+    private static int baseDegree(Csr base, int node) {
+        return node >= 0 && node < base.nodeCount() ? base.offsets[node + 1] - base.offsets[node] : 0;
+    }
+
+    // 昇順に並べて重複と自己ループを除いた配列を返す
+    private static int[] sortedUnique(int[] values, int length, int self) {
+        int[] sorted = Arrays.copyOf(values, length);
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] != self && (size == 0 || sorted[size - 1] != sorted[i])) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    // 作業領域（計算のたびに配列を確保しない。使い終わったら scratches に戻す）
+    private static final class Scratch {
+        // ノード番号 -> 共通のつながりの数（計算後に touched の分だけ 0 に戻す）
+        int[] counts = new int[0];
+        int[] touched = new int[256];
+        int touchedCount;
+        int[] neighbors = new int[256];
+
+        void ensureCapacity(int nodeCount) {
+            if (counts.length < nodeCount) {
+                counts = new int[Math.max(nodeCount, counts.length + (counts.length >> 1))];
+            }
+        }
+
+        void touch(int node) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[touchedCount++] = node;
+        }
+
+        // 指定ノードの隣接ノードを neighbors に写し、件数を返す
+        int copyRow(SuggestionGraph graph, Csr base, int node) {
+            int[] row = graph.overlay.get(node);
+            int from = 0;
+            int length;
+            int[] source;
+            if (row != null) {
+                source = row;
+                length = row.length;
+            } else {
+                source = base.targets;
+                length = baseDegree(base, node);
+                from = length > 0 ? base.offsets[node] : 0;
+            }
+            if (neighbors.length < length) {
+                neighbors = new int[Math.max(length, neighbors.length * 2)];
+            }
+            System.arraycopy(source, from, neighbors, 0, length);
+            return length;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 辺を追加して CSR を作るビルダーです。同じ辺を何度追加しても（友達関係の両方向の行、紹介と友達の重複など）1本になります。
+     */
+    public static final class Builder implements EdgeConsumer {
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private int size;
+        private int maxNode = -1;
+
+        // 無向の辺を追加する（自己ループは無視する）
+        @Override
+        public void accept(long a, long b) {
+            int x = Math.toIntExact(a);
+            int y = Math.toIntExact(b);
+            if (x == y) {
+                return;
+            }
+            if (size + 2 > from.length) {
+                from = Arrays.copyOf(from, from.length * 2);
+                to = Arrays.copyOf(to, to.length * 2);
+            }
+            from[size] = x;
+            to[size++] = y;
+            from[size] = y;
+            to[size++] = x;
+            maxNode = Math.max(maxNode, Math.max(x, y));
+        }
+
+        private Csr build() {
+            int nodeCount = maxNode + 1;
+            // 出次数を数えて行の開始位置を決め、行ごとに振り分ける（計数ソート）
+            int[] offsets = new int[nodeCount + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                offsets[node + 1] += offsets[node];
+            }
+            int[] targets = new int[size];
+            int[] cursor = Arrays.copyOf(offsets, nodeCount);
+            for (int i = 0; i < size; i++) {
+                targets[cursor[from[i]]++] = to[i];
+            }
+            // 行ごとに並べて重複を詰める
+            int[] compactOffsets = new int[nodeCount + 1];
+            int write = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                int start = offsets[node];
+                int end = offsets[node + 1];
+                Arrays.sort(targets, start, end);
+                for (int i = start; i < end; i++) {
+                    if (i == start || targets[i] != targets[i - 1]) {
+                        targets[write++] = targets[i];
+                    }
+                }
+                compactOffsets[node + 1] = write;
+            }
+            return new Csr(compactOffsets, Arrays.copyOf(targets, write));
+        }
+    }
+}
@@ -1,27 +1,141 @@
 package com.example.p2pchat.web;
 
-import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.AdminMetricsDto;
+import com.example.p2pchat.dto.ReferralOverviewDto;
+import com.example.p2pchat.dto.ReferralUserStatsDto;
+import com.example.p2pchat.dto.RelayStatusDto;
+import com.example.p2pchat.dto.UserFilter;
+import com.example.p2pchat.dto.UserSummaryDto;
+import com.example.p2pchat.service.AdminMetricsService;
+import com.example.p2pchat.service.AdminUserQueryService;
+import com.example.p2pchat.service.AdminUserQueryService.ExportFormat;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.ReferralAnalyticsService;
+import com.example.p2pchat.service.RelayRegistry;
+import com.example.p2pchat.service.UserLookupCache;
 import com.example.p2pchat.service.UserService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @Controller
 public class AdminController {
     private final UserService userService;
+    private final UserLookupCache userLookupCache;
+    private final AdminMetricsService adminMetricsService;
+    private final AdminUserQueryService adminUserQueryService;
+    private final RelayRegistry relayRegistry;
+    private final ReferralAnalyticsService referralAnalyticsService;
 
-    public AdminController(UserService userService) {
+    public AdminController(UserService userService, UserLookupCache userLookupCache,
+                           AdminMetricsService adminMetricsService, AdminUserQueryService adminUserQueryService,
+                           RelayRegistry relayRegistry, ReferralAnalyticsService referralAnalyticsService) {
         this.userService = userService;
+        this.userLookupCache = userLookupCache;
+        this.adminMetricsService = adminMetricsService;
+        this.adminUserQueryService = adminUserQueryService;
+        this.relayRegistry = relayRegistry;
+        this.referralAnalyticsService = referralAnalyticsService;
     }
     @GetMapping("/admin/dashboard")
-    public String listUsers(Model model, @AuthenticationPrincipal UserDetails userDetails) {
-        User user = userService.findByNickName(userDetails.getUsername())
+    public String listUsers(Model model, @AuthenticationPrincipal ChatUserDetails userDetails) {
+        UserSummaryDto user = userLookupCache.findSummary(userDetails.getId())
                 .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
         model.addAttribute("user", user);
-        model.addAttribute("users", userService.findAll());
         return "admin/dashboard";
     }
+
+    // ユーザー一覧（キーセット方式のページング。after には前のページの nextCursor を渡す）
+    @GetMapping("/admin/users")
+    public String users(@ModelAttribute("filter") UserFilter filter,
+                        @RequestParam(required = false) Long after,
+                        @RequestParam(defaultValue = "" + AdminUserQueryService.DEFAULT_PAGE_SIZE) int size,
+                        Model model) {
+        model.addAttribute("page", adminUserQueryService.page(filter, after, size));
+        model.addAttribute("size", size);
+        return "admin/users";
+    }
+
+    // 絞り込み条件に合うユーザーを CSV または NDJSON で書き出す（件数に関わらず1行ずつ送信する）
+    @GetMapping("/admin/users/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@ModelAttribute UserFilter filter,
+                                                             @RequestParam(defaultValue = "csv") String format) {
+        ExportFormat exportFormat;
+        try {
+            exportFormat = ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        MediaType mediaType = exportFormat == ExportFormat.CSV
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : new MediaType("application", "x-ndjson");
+        String fileName = "users." + (exportFormat == ExportFormat.CSV ? "csv" : "ndjson");
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .body(outputStream -> adminUserQueryService.export(filter, exportFormat, outputStream));
+    }
+
+    // 管理画面のリアルタイム指標（admin_metrics.js が定期的に取得する）
+    @GetMapping("/admin/metrics")
+    @ResponseBody
+    public AdminMetricsDto metrics() {
+        return adminMetricsService.snapshot();
+    }
+
+    // リレーごとの疎通・遅延・負荷の状態
+    @GetMapping("/admin/relays")
+    @ResponseBody
+    public List<RelayStatusDto> relays() {
+        return relayRegistry.statuses();
+    }
+
+    // 紹介ツリーの分析（最大の深さ・紹介の多いユーザー。nickName を指定するとそのユーザーの集計と紹介者の経路も表示する）
+    @GetMapping("/admin/referrals")
+    public String referrals(@RequestParam(required = false) String nickName,
+                            @RequestParam(defaultValue = "" + ReferralAnalyticsService.DEFAULT_TOP_LIMIT) int limit,
+                            Model model) {
+        model.addAttribute("overview", referralAnalyticsService.overview(limit));
+        model.addAttribute("nickName", nickName);
+        if (nickName != null && !nickName.isBlank()) {
+            model.addAttribute("selected", referralAnalyticsService.findUserStatsByNickName(nickName.trim()).orElse(null));
+        }
+        return "admin/referrals";
+    }
+
+    // 紹介ツリー全体の概要
+    @GetMapping("/admin/referrals/overview")
+    @ResponseBody
+    public ReferralOverviewDto referralOverview(
+            @RequestParam(defaultValue = "" + ReferralAnalyticsService.DEFAULT_TOP_LIMIT) int limit) {
+        return referralAnalyticsService.overview(limit);
+    }
+
+    // 指定ユーザーの紹介ツリーでの集計と、根から紹介者までの経路
+    @GetMapping("/admin/referrals/users/{userId}")
+    @ResponseBody
+    public ResponseEntity<ReferralUserStatsDto> referralUserStats(@PathVariable Long userId) {
+        return ResponseEntity.of(referralAnalyticsService.findUserStats(userId));
+    }
+
+    // 集計を全件から計算し直す（集計がずれた場合の修復用）
+    @PostMapping("/admin/referrals/recompute")
+    public String recomputeReferrals() {
+        referralAnalyticsService.recomputeAll();
+        return "redirect:/admin/referrals";
+    }
 }
@@ -1,23 +1,36 @@
 package com.example.p2pchat.web;
 
-import org.springframework.beans.factory.annotation.Value;
+import com.example.p2pchat.dto.FriendSummaryDto;
+import com.example.p2pchat.repository.FriendRepository;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.RelayRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 
+import java.util.List;
+
 @Controller
 public class ChatController {
 
-    @Value("${relay.multiaddr}")
-    private String relayMultiaddr;
+    @Autowired
+    private RelayRegistry relayRegistry;
+
+    @Autowired
+    private FriendRepository friendRepository;
 
     @GetMapping("/chat")
-    public String chat(Model model, @AuthenticationPrincipal UserDetails userDetails) {
+    public String chat(Model model, @AuthenticationPrincipal ChatUserDetails userDetails) {
         model.addAttribute("nickName", userDetails.getUsername());
-        model.addAttribute("relayMultiaddr", relayMultiaddr);
+        // 画面を開くたびに、その時点で負荷の最も低い正常なリレーを割り当てる
+        model.addAttribute("relayMultiaddr", relayRegistry.assign());
+        // オフラインの友達へメッセージを預ける際の宛先（ユーザーID）に使う
+        List<FriendSummaryDto> friends = friendRepository.findSummariesByUserId(userDetails.getId()).stream()
+                .filter(FriendSummaryDto::active)
+                .toList();
+        model.addAttribute("friends", friends);
         return "chat";
     }
 }
-
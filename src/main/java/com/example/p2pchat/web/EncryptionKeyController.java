@@ -0,0 +1,42 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.EncryptionKeyService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * エンドツーエンド暗号化の公開鍵（Base64）を登録・取得するコントローラーです。
+ * ブラウザは起動時に自分の公開鍵を PUT し、メッセージやファイルを預ける前に相手の公開鍵を GET します。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/keys")
+public class EncryptionKeyController {
+
+    private final EncryptionKeyService encryptionKeyService;
+
+    // 自分の公開鍵を登録する
+    @PutMapping(consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Void> register(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                         @RequestBody String publicKey) {
+        encryptionKeyService.register(userDetails.getId(), publicKey);
+        return ResponseEntity.noContent().build();
+    }
+
+    // 友達の公開鍵を返す（未登録の場合は 404）
+    @GetMapping(path = "/{userId}", produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> find(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                       @PathVariable Long userId) {
+        return ResponseEntity.of(encryptionKeyService.findFriendKey(userDetails.getId(), userId));
+    }
+
+    // 公開鍵の形式が不正な場合は 400 を返す
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidKey(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+}
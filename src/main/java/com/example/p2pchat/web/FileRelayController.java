@@ -0,0 +1,146 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.dto.FileTransferDto;
+import com.example.p2pchat.dto.FileUploadRequest;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.FileRelayService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * P2P で接続できない友達同士のファイルをサーバー経由で中継するコントローラーです。
+ * 送信側は POST で中継を始め、PUT でチャンクを送ります（X-Chunk-Sha256 ヘッダーにチャンクの SHA-256）。
+ * 受信側は GET /api/files で受け取り済みのファイルを確認し、/content からダウンロードします（Range 指定で再開可能）。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/files")
+public class FileRelayController {
+
+    private final FileRelayService fileRelayService;
+
+    // 友達宛てのファイルの中継を始める
+    @PostMapping
+    public FileTransferDto start(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                 @RequestBody FileUploadRequest request) throws IOException {
+        return fileRelayService.start(userDetails.getId(), request);
+    }
+
+    // 自分宛てで受け取り済みのファイルの一覧
+    @GetMapping
+    public List<FileTransferDto> incoming(@AuthenticationPrincipal ChatUserDetails userDetails) {
+        return fileRelayService.incoming(userDetails.getId());
+    }
+
+    // 中継の状態（足りないチャンク）を返す。送信を再開するときに使う
+    @GetMapping("/{id}")
+    public ResponseEntity<FileTransferDto> status(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                                  @PathVariable String id) {
+        return ResponseEntity.of(fileRelayService.find(id, userDetails.getId()));
+    }
+
+    // チャンクを受け取る。本文はヒープに溜めずにファイルへ書き込む
+    @PutMapping(path = "/{id}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<FileTransferDto> uploadChunk(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                                       @PathVariable String id,
+                                                       @PathVariable int index,
+                                                       @RequestHeader("X-Chunk-Sha256") String sha256,
+                                                       HttpServletRequest request) throws IOException {
+        return ResponseEntity.of(fileRelayService.writeChunk(id, userDetails.getId(), index, sha256,
+                request.getContentLengthLong(), request.getInputStream()));
+    }
+
+    // 受け取り済みのファイルを送る。Range（bytes=start-end の1つ）を指定した場合はその部分だけを 206 で返す
+    @GetMapping("/{id}/content")
+    public void download(@AuthenticationPrincipal ChatUserDetails userDetails,
+                         @PathVariable String id,
+                         @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+                         HttpServletResponse response) throws IOException {
+        Optional<FileRelayService.RelayedFile> found = fileRelayService.findDownload(id, userDetails.getId());
+        if (found.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        FileRelayService.RelayedFile file = found.get();
+
+        long start = 0;
+        long length = file.size();
+        HttpRange range = null;
+        if (rangeHeader != null) {
+            range = parseRange(rangeHeader, file.size());
+            if (range == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.size());
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            start = range.getRangeStart(file.size());
+            length = range.getRangeEnd(file.size()) - start + 1;
+        }
+
+        // 枠を確保できた場合だけ 206 と Content-Range を設定する（429 の応答に範囲のヘッダーを残さない）
+        try (FileRelayService.Permit ignored = fileRelayService.acquireDownload(userDetails.getId())) {
+            if (range != null) {
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE,
+                        "bytes " + start + "-" + (start + length - 1) + "/" + file.size());
+            }
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setContentLengthLong(length);
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                    .filename(file.fileName(), StandardCharsets.UTF_8).build().toString());
+            fileRelayService.transfer(file, start, length, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    // 送信者・受信者が中継を取り消す（受信者は受け取った後に削除する）
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                       @PathVariable String id) throws IOException {
+        return fileRelayService.delete(id, userDetails.getId())
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    // 長さ・チェックサム・チャンク番号が不正な場合は 400 を返す
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidChunk(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    // 書き込み中のチャンクを重ねて送った場合や、受け取り済みのファイルに送った場合は 409 を返す
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<String> handleConflict(IllegalStateException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+    // 1つだけ指定された、ファイルの範囲内の Range を返す（それ以外は null）
+    private static HttpRange parseRange(String header, long size) {
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            if (ranges.size() != 1) {
+                return null;
+            }
+            // ファイルの範囲外であれば IllegalArgumentException になる
+            ranges.get(0).getRangeStart(size);
+            return ranges.get(0);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
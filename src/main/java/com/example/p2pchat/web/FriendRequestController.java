@@ -1,14 +1,14 @@
 package com.example.p2pchat.web;
 
 import com.example.p2pchat.Entity.FriendRequest;
-import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.DashboardView;
 import com.example.p2pchat.repository.FriendRequestRepository;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.DashboardQueryService;
 import com.example.p2pchat.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -27,11 +27,12 @@ public class FriendRequestController {
 
     private final UserService userService;
     private final FriendRequestRepository friendRequestRepository;
+    private final DashboardQueryService dashboardQueryService;
 
 
     // ニックネームを指定してフレンド申請を送信する
     @PostMapping("/request")
-    public String sendFriendRequest(@AuthenticationPrincipal UserDetails userDetails,
+    public String sendFriendRequest(@AuthenticationPrincipal ChatUserDetails userDetails,
                                     @RequestParam("to") String toNickName,
                                     HttpServletRequest request) {
         userService.sendFriendRequest(userDetails.getUsername(), toNickName);
@@ -48,7 +49,7 @@ public class FriendRequestController {
     // フレンド申請コードを指定して申請を送信する
     @PostMapping("/requestByCode")
     public String sendFriendRequestByFriendRequestCode(
-            @AuthenticationPrincipal UserDetails userDetails,
+            @AuthenticationPrincipal ChatUserDetails userDetails,
             @RequestParam("toFriendRequestCode") String toFriendRequestCode,
             HttpServletRequest request) {
 
@@ -80,12 +81,11 @@ public class FriendRequestController {
 
     // 自分から見た友達関係を解除（非アクティブ化）する
     @PostMapping("/remove")
-    public String removeFriend(@AuthenticationPrincipal UserDetails userDetails,
+    public String removeFriend(@AuthenticationPrincipal ChatUserDetails userDetails,
                                @RequestParam("friendId") Long friendId,
                                HttpServletRequest request) {
         userService.removeFriend(
-                userService.findByNickName(userDetails.getUsername())
-                        .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません")),
+                userService.getReference(userDetails.getId()),
                 friendId
         );
         return "redirect:" + request.getHeader("Referer");
@@ -93,12 +93,11 @@ public class FriendRequestController {
 
     // 解除された友達関係を復元する
     @PostMapping("/restore")
-    public String restoreFriend(@AuthenticationPrincipal UserDetails userDetails,
+    public String restoreFriend(@AuthenticationPrincipal ChatUserDetails userDetails,
                                 @RequestParam("friendId") Long friendId,
                                 HttpServletRequest request) {
         userService.restoreFriend(
-                userService.findByNickName(userDetails.getUsername())
-                        .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません")),
+                userService.getReference(userDetails.getId()),
                 friendId
         );
         return "redirect:" + request.getHeader("Referer");
@@ -106,12 +105,12 @@ public class FriendRequestController {
 
     // ダッシュボードを表示し、送受信した申請や友達情報を画面に渡す
     @GetMapping("/dashboard")
-    public String showDashboard(@AuthenticationPrincipal UserDetails userDetails, Model model) {
-        var currentUser = userService.findByNickName(userDetails.getUsername())
-                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
+    public String showDashboard(@AuthenticationPrincipal ChatUserDetails userDetails, Model model) {
+        DashboardView view = dashboardQueryService.load(userDetails.getUsername());
 
-        model.addAttribute("sentRequests", userService.findSentVisibleRequests(currentUser));
-        model.addAttribute("pendingRequests", userService.findIncomingVisibleRequests(currentUser));
+        model.addAttribute("sentRequests", view.sentRequests());
+        // 受信した申請はキャンセルされたものを除く（拒否したものは表示する）
+        model.addAttribute("pendingRequests", view.incomingRequests());
 
         return "dashboard";
     }
@@ -119,14 +118,11 @@ public class FriendRequestController {
     // 自分が送信したフレンド申請をキャンセル状態にする
     @PostMapping("/cancel")
     public String cancelFriendRequest(@RequestParam Long requestId,
-                                      @AuthenticationPrincipal UserDetails userDetails) {
-        User sender = userService.findByNickName(userDetails.getUsername())
-                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
-
+                                      @AuthenticationPrincipal ChatUserDetails userDetails) {
         FriendRequest request = friendRequestRepository.findById(requestId)
                 .orElseThrow(() -> new IllegalArgumentException("リクエストが見つかりません"));
 
-        if (!request.getSender().equals(sender)) {
+        if (!request.getSender().getId().equals(userDetails.getId())) {
             throw new AccessDeniedException("このリクエストをキャンセルする権限がありません");
         }
 
@@ -139,14 +135,11 @@ public class FriendRequestController {
     // キャンセル状態の申請を再申請する（キャンセルフラグを解除）
     @PostMapping("/resubmit")
     public String resubmitFriendRequest(@RequestParam Long requestId,
-                                        @AuthenticationPrincipal UserDetails userDetails) {
-        User sender = userService.findByNickName(userDetails.getUsername())
-                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
-
+                                        @AuthenticationPrincipal ChatUserDetails userDetails) {
         FriendRequest request = friendRequestRepository.findById(requestId)
                 .orElseThrow(() -> new IllegalArgumentException("リクエストが見つかりません"));
 
-        if (!request.getSender().equals(sender)) {
+        if (!request.getSender().getId().equals(userDetails.getId())) {
             throw new AccessDeniedException("このリクエストを再申請する権限がありません");
         }
 
@@ -159,14 +152,11 @@ public class FriendRequestController {
     // フレンド申請を完全に削除する
     @PostMapping("/delete")
     public String deleteFriendRequest(@RequestParam Long requestId,
-                                      @AuthenticationPrincipal UserDetails userDetails) {
-        User sender = userService.findByNickName(userDetails.getUsername())
-                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
-
+                                      @AuthenticationPrincipal ChatUserDetails userDetails) {
         FriendRequest request = friendRequestRepository.findById(requestId)
                 .orElseThrow(() -> new IllegalArgumentException("リクエストが見つかりません"));
 
-        if (!request.getSender().equals(sender)) {
+        if (!request.getSender().getId().equals(userDetails.getId())) {
             throw new AccessDeniedException("このリクエストを削除する権限がありません");
         }
 
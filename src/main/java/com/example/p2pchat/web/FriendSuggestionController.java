@@ -0,0 +1,40 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.dto.FriendSuggestionDto;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.FriendSuggestionService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * 友達候補（友達の友達・同じ紹介者から紹介されたユーザー）を返すコントローラーです。
+ * ダッシュボードが表示後に読み込み、候補ごとにニックネームでのフレンド申請フォームを表示します。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/friends/suggestions")
+public class FriendSuggestionController {
+
+    private static final int MAX_LIMIT = 50;
+
+    private final FriendSuggestionService friendSuggestionService;
+
+    // ログイン中ユーザーの友達候補を、共通のつながりの多い順に返す
+    @GetMapping
+    public List<FriendSuggestionDto> suggestions(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                                 @RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit は1〜" + MAX_LIMIT + "で指定してください");
+        }
+        return friendSuggestionService.suggest(userDetails.getId(), limit);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidLimit(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+}
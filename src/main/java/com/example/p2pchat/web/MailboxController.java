@@ -0,0 +1,56 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.dto.MailboxReceiptDto;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.MailboxService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * オフラインの友達宛てのメッセージ（暗号化済みのバイト列）を預かり、受信者へ配信するコントローラーです。
+ * 受信者は GET で未確認のメッセージを受け取り、最後に処理したオフセットを POST /ack で確認します。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/mailbox")
+public class MailboxController {
+
+    private final MailboxService mailboxService;
+
+    // 受信者（ユーザーID）宛てのメッセージを預ける
+    @PostMapping(path = "/{recipientId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public MailboxReceiptDto deposit(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                     @PathVariable Long recipientId,
+                                     @RequestBody byte[] payload) {
+        return new MailboxReceiptDto(mailboxService.deposit(userDetails.getId(), recipientId, payload));
+    }
+
+    // 自分宛ての未確認メッセージを、オフセット順にフレーム（MailboxService.FRAME_HEADER_BYTES + 本文）で返す
+    @GetMapping(produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> deliver(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                                         @RequestParam(defaultValue = "0") long after) {
+        Long recipientId = userDetails.getId();
+        StreamingResponseBody body = out -> mailboxService.deliver(recipientId, after, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
+    }
+
+    // upto までのメッセージを受け取ったことを確認する（確認済みのメッセージは再送しない）
+    @PostMapping("/ack")
+    public ResponseEntity<Void> acknowledge(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                            @RequestParam long upto) {
+        mailboxService.acknowledge(userDetails.getId(), upto);
+        return ResponseEntity.noContent().build();
+    }
+
+    // メッセージの長さが不正な場合は 400 を返す（受信箱がいっぱいの場合は MailboxFullException により 429）
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidMessage(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+}
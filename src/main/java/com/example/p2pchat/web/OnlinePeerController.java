@@ -1,80 +1,67 @@
 package com.example.p2pchat.web;
 
-import com.example.p2pchat.Entity.Friend;
-import com.example.p2pchat.Entity.OnlinePeer;
-import com.example.p2pchat.Entity.User;
-import com.example.p2pchat.repository.FriendRepository;
-import com.example.p2pchat.repository.OnlinePeerRepository;
-import com.example.p2pchat.repository.UserRepository;
-import jakarta.transaction.Transactional;
+import com.example.p2pchat.dto.OnlinePeerDto;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.OnlinePeerService;
+import com.example.p2pchat.service.PresenceStreamService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.time.LocalDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
+// ユーザーIDはログイン時に ChatUserDetails に保持しているため、各エンドポイントでユーザーを検索しない
 @RestController
 @RequestMapping("/api/online")
 public class OnlinePeerController {
 
     @Autowired
-    private OnlinePeerRepository onlinePeerRepository;
+    private OnlinePeerService onlinePeerService;
 
     @Autowired
-    private UserRepository userRepository;
-
-    @Autowired
-    private FriendRepository friendRepository;
+    private PresenceStreamService presenceStreamService;
 
     @PostMapping
-    @Transactional
-    public void updateOnlinePeer(@AuthenticationPrincipal UserDetails userDetails,
+    public void updateOnlinePeer(@AuthenticationPrincipal ChatUserDetails userDetails,
                                  @RequestBody String multiaddr) {
-        User user = userRepository.findByNickName(userDetails.getUsername())
-            .orElseThrow(() -> new IllegalArgumentException("User not found"));
-        onlinePeerRepository.deleteByUser(user);
-
-        OnlinePeer peer = new OnlinePeer();
-        peer.setUser(user);
-        peer.setMultiaddr(multiaddr);
-        peer.setLastSeenAt(LocalDateTime.now());
-        onlinePeerRepository.save(peer);
+        onlinePeerService.goOnline(userDetails.getId(), userDetails.getUsername(), multiaddr);
     }
 
     @DeleteMapping
-    @Transactional
-    public void removeOnlinePeer(@AuthenticationPrincipal UserDetails userDetails) {
-        User user = userRepository.findByNickName(userDetails.getUsername())
-            .orElseThrow(() -> new IllegalArgumentException("User not found"));
-        onlinePeerRepository.deleteByUser(user);
+    public void removeOnlinePeer(@AuthenticationPrincipal ChatUserDetails userDetails) {
+        onlinePeerService.goOffline(userDetails.getId());
     }
 
-    @GetMapping
-    public List<OnlinePeerDto> getFriendsOnline(@AuthenticationPrincipal UserDetails userDetails) {
-        User me = userRepository.findByNickName(userDetails.getUsername())
-            .orElseThrow(() -> new IllegalArgumentException("User not found"));
-
-        List<User> myFriends = friendRepository.findAllByUser(me)
-            .stream()
-            .map(Friend::getFriend)
-            .toList();
-
-        return onlinePeerRepository.findAll().stream()
-            .filter(peer -> !peer.getUser().equals(me) && myFriends.contains(peer.getUser()))
-            .map(peer -> new OnlinePeerDto(peer.getUser().getNickName(), peer.getMultiaddr()))
-            .collect(Collectors.toList());
+    // オンライン状態を延長する（ハートビート）。期限切れ後は 404 を返すので、クライアントは POST で登録し直す
+    @PostMapping("/heartbeat")
+    public ResponseEntity<Void> heartbeat(@AuthenticationPrincipal ChatUserDetails userDetails) {
+        return onlinePeerService.heartbeat(userDetails.getId())
+            ? ResponseEntity.noContent().build()
+            : ResponseEntity.notFound().build();
     }
 
-    public static class OnlinePeerDto {
-        public String name;
-        public String multiaddr;
-
-        public OnlinePeerDto(String name, String multiaddr) {
-            this.name = name;
-            this.multiaddr = multiaddr;
+    // 一覧のバージョンを ETag として返し、If-None-Match が一致すれば一覧を組み立てずに 304 を返す
+    @GetMapping
+    public ResponseEntity<List<OnlinePeerDto>> getFriendsOnline(@AuthenticationPrincipal ChatUserDetails userDetails,
+                                                                WebRequest webRequest) {
+        Optional<String> etag = onlinePeerService.onlineFriendsTag(userDetails.getId());
+        if (etag.isPresent() && webRequest.checkNotModified(etag.get())) {
+            return null;
         }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+        etag.ifPresent(response::eTag);
+        return response.body(onlinePeerService.findOnlineFriendsOf(userDetails.getId()));
+    }
+
+    // オンライン中の友達を SSE でプッシュ配信する（最初にスナップショット、その後は差分のみ）
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFriendsOnline(@AuthenticationPrincipal ChatUserDetails userDetails) {
+        return presenceStreamService.subscribe(userDetails.getId());
     }
 }
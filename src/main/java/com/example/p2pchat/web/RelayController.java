@@ -0,0 +1,36 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.dto.RelayLoadReport;
+import com.example.p2pchat.service.RelayRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * relay.js からの負荷報告を受け取るコントローラーです。
+ * リレーはログインしないため、共有トークン（relay.report-token）を X-Relay-Token ヘッダーで送ります。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/relays")
+public class RelayController {
+
+    private final RelayRegistry relayRegistry;
+
+    @PostMapping("/load")
+    public ResponseEntity<Void> reportLoad(@RequestHeader(value = "X-Relay-Token", required = false) String token,
+                                           @RequestBody RelayLoadReport report) {
+        if (!relayRegistry.acceptsReportToken(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return relayRegistry.report(report)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidReport(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.dto.SignalingMessage;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.SignalingService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+
+/**
+ * WebRTC のシグナリング用 WebSocket（/ws/signaling）のハンドラーです。
+ * ハンドシェイクは通常の HTTP リクエストとして Spring Security で認証済みのため、
+ * 送信者はセッションのログインユーザーとし、メッセージ中の from は信用しません。
+ */
+@Component
+@RequiredArgsConstructor
+public class SignalingWebSocketHandler extends TextWebSocketHandler {
+
+    // WebSocketSession の属性に保存する値のキー
+    private static final String USER_ID = "signaling.userId";
+    private static final String CONCURRENT_SESSION = "signaling.session";
+
+    private final SignalingService signalingService;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        if (!(session.getPrincipal() instanceof Authentication authentication)
+                || !(authentication.getPrincipal() instanceof ChatUserDetails userDetails)) {
+            session.close(CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+        session.getAttributes().put(USER_ID, userDetails.getId());
+        session.getAttributes().put(CONCURRENT_SESSION, signalingService.register(userDetails.getId(), session));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        Long userId = (Long) session.getAttributes().get(USER_ID);
+        WebSocketSession concurrent = (WebSocketSession) session.getAttributes().get(CONCURRENT_SESSION);
+        if (userId == null || concurrent == null) {
+            return;
+        }
+        SignalingMessage signalingMessage;
+        try {
+            signalingMessage = objectMapper.readValue(message.getPayload(), SignalingMessage.class);
+        } catch (JsonProcessingException e) {
+            signalingMessage = new SignalingMessage(null, null, null, null, null);
+        }
+        signalingService.handle(userId, concurrent, signalingMessage);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Long userId = (Long) session.getAttributes().get(USER_ID);
+        WebSocketSession concurrent = (WebSocketSession) session.getAttributes().get(CONCURRENT_SESSION);
+        if (userId != null && concurrent != null) {
+            signalingService.unregister(userId, concurrent);
+        }
+    }
+}
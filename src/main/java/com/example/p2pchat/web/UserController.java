@@ -1,14 +1,13 @@
 package com.example.p2pchat.web;
 
-import com.example.p2pchat.Entity.User;
-import com.example.p2pchat.Entity.Friend;
+import com.example.p2pchat.dto.DashboardView;
 import com.example.p2pchat.form.UserForm;
+import com.example.p2pchat.service.DashboardQueryService;
 import com.example.p2pchat.service.UserService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -19,7 +18,6 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.security.Principal;
-import java.util.List;
 
 /**
  * ユーザー登録やログイン後のダッシュボード表示など、
@@ -30,6 +28,7 @@ import java.util.List;
 public class UserController {
 
     private final UserService userService;
+    private final DashboardQueryService dashboardQueryService;
 
     // trail解除用
     @PostMapping("/trial/upgrade")
@@ -73,29 +72,22 @@ public class UserController {
     // ログイン後のユーザーダッシュボード画面を表示する
     // ユーザー情報、紹介者情報、友達関係、申請状況などを画面に渡す
     @GetMapping("/dashboard")
+    // 表示内容は DashboardQueryService が DTO 射影のクエリだけで組み立てる
     public String dashboard(Model model, Principal principal) {
-        User user = userService.findByNickName(principal.getName())
-                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりません"));
-        model.addAttribute("user", user);
-        model.addAttribute("referralCodes", userService.getAvailableReferralCodes(user));
-        model.addAttribute("nickname", user.getNickName());
-        model.addAttribute("friendRequestCode", user.getFriendRequestCode());
-        model.addAttribute("referredUsers", userService.findAllByUsedReferralCodes(user));
-        model.addAttribute("referredFriends", user.getReferredFriends());
-        model.addAttribute("trialExpired", userService.isTrialExpired(user));
-        userService.findReferrer(user).ifPresent(referrer -> {
-            //            model.addAttribute("referrer", referrer.getNickName());
-            model.addAttribute("referrer", userService.findReferrer(user)
-                    .map(User::getNickName)
-                    .orElse(null));
-        });
-        List<Friend> friends = userService.findFriends(user);
-        model.addAttribute("friends", friends);
-        List<Friend> inactiveFriends = userService.findInactiveFriends(user);
-        model.addAttribute("inactiveFriends", inactiveFriends);
-        model.addAttribute("pendingRequests", userService.findPendingFriendRequests(user));
-        model.addAttribute("rejectedRequests", userService.findRejectedFriendRequests(user));
-        model.addAttribute("sentRequests", userService.findSentVisibleRequests(user));
+        DashboardView view = dashboardQueryService.load(principal.getName());
+        model.addAttribute("user", view.user());
+        model.addAttribute("referralCodes", view.availableReferralCodes());
+        model.addAttribute("nickname", view.user().nickName());
+        model.addAttribute("friendRequestCode", view.user().friendRequestCode());
+        model.addAttribute("referredUsers", view.referredUsers());
+        model.addAttribute("referredFriends", view.referredFriends());
+        model.addAttribute("trialExpired", view.trialExpired());
+        model.addAttribute("referrer", view.user().referrerNickName());
+        model.addAttribute("friends", view.friends());
+        model.addAttribute("inactiveFriends", view.inactiveFriends());
+        model.addAttribute("pendingRequests", view.pendingRequests());
+        model.addAttribute("rejectedRequests", view.rejectedRequests());
+        model.addAttribute("sentRequests", view.sentRequests());
         return "dashboard";
     }
 }
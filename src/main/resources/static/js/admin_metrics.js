@@ -0,0 +1,53 @@
+// 管理画面のリアルタイム指標を /admin/metrics から定期的に取得して表示する
+const METRICS_INTERVAL_MS = 3000
+
+function formatMetric(name, value) {
+  if (name.endsWith('HitRatio')) {
+    return `${(value * 100).toFixed(1)}%`
+  }
+  if (typeof value === 'number') {
+    return value.toLocaleString()
+  }
+  return value ?? ''
+}
+
+function renderTimers(tbodyId, timers) {
+  const tbody = document.getElementById(tbodyId)
+  tbody.replaceChildren(...timers.map((timer) => {
+    const row = document.createElement('tr')
+    const cells = [
+      timer.name,
+      timer.count.toLocaleString(),
+      timer.meanMillis.toFixed(2),
+      timer.maxMillis.toFixed(2),
+      timer.totalSeconds.toFixed(2),
+    ]
+    cells.forEach((text) => {
+      const cell = document.createElement('td')
+      cell.textContent = text
+      row.appendChild(cell)
+    })
+    return row
+  }))
+}
+
+async function refreshMetrics() {
+  try {
+    const response = await fetch('/admin/metrics', { headers: { Accept: 'application/json' } })
+    if (!response.ok) {
+      return
+    }
+    const metrics = await response.json()
+    document.querySelectorAll('[data-metric]').forEach((element) => {
+      const name = element.dataset.metric
+      element.textContent = formatMetric(name, metrics[name])
+    })
+    renderTimers('metrics-endpoints', metrics.endpoints)
+    renderTimers('metrics-service-methods', metrics.serviceMethods)
+  } catch (e) {
+    console.warn('指標の取得に失敗しました', e)
+  }
+}
+
+refreshMetrics()
+setInterval(refreshMetrics, METRICS_INTERVAL_MS)
@@ -0,0 +1,218 @@
+// @ts-check
+// エンドツーエンド暗号化（WebCrypto）
+// ユーザーごとに ECDH P-256 の鍵の組をブラウザで作り、秘密鍵は取り出せない CryptoKey のまま IndexedDB に保存する。
+// サーバーには公開鍵だけを登録し（/api/keys）、メールボックスやファイル中継には相手の公開鍵で暗号化したものだけを預ける。
+//
+// 封をしたバイト列の形式: 版(1) 一時公開鍵(65) IV(12) AES-GCM の暗号文とタグ
+// 一時鍵の組と相手の公開鍵の ECDH から HKDF-SHA-256 で AES-GCM の鍵を導く（メッセージごとに一時鍵を作り直す）
+
+const SEALED_VERSION = 1;
+const PUBLIC_KEY_BYTES = 65;
+const IV_BYTES = 12;
+const SEALED_HEADER_BYTES = 1 + PUBLIC_KEY_BYTES + IV_BYTES;
+const HKDF_INFO = new TextEncoder().encode('p2pchat-e2ee-v1');
+const ECDH = { name: 'ECDH', namedCurve: 'P-256' };
+
+// ファイルは平文 RECORD_BYTES ごとのレコードに分けて暗号化する（レコードごとに TAG_BYTES 増える）
+export const RECORD_BYTES = 64 * 1024;
+export const TAG_BYTES = 16;
+const FILE_NONCE_BYTES = 8;
+const FILE_KEY_BYTES = 32;
+
+const DB_NAME = 'p2pchat-e2ee';
+const STORE_NAME = 'keys';
+
+function openDatabase() {
+  return new Promise((resolve, reject) => {
+    const request = indexedDB.open(DB_NAME, 1);
+    request.onupgradeneeded = () => request.result.createObjectStore(STORE_NAME);
+    request.onsuccess = () => resolve(request.result);
+    request.onerror = () => reject(request.error);
+  });
+}
+
+async function withStore(mode, action) {
+  const db = await openDatabase();
+  try {
+    return await new Promise((resolve, reject) => {
+      const request = action(db.transaction(STORE_NAME, mode).objectStore(STORE_NAME));
+      request.onsuccess = () => resolve(request.result);
+      request.onerror = () => reject(request.error);
+    });
+  } finally {
+    db.close();
+  }
+}
+
+function toBase64(bytes) {
+  let binary = '';
+  for (const b of bytes) binary += String.fromCharCode(b);
+  return btoa(binary);
+}
+
+function fromBase64(text) {
+  return Uint8Array.from(atob(text), c => c.charCodeAt(0));
+}
+
+function concat(...parts) {
+  const out = new Uint8Array(parts.reduce((sum, part) => sum + part.length, 0));
+  let position = 0;
+  for (const part of parts) {
+    out.set(part, position);
+    position += part.length;
+  }
+  return out;
+}
+
+// 自分の鍵の組（ユーザーごと。秘密鍵は取り出せない）
+let ownKeyPair = null;
+
+// 自分の鍵の組を読み込み（無ければ作り）、公開鍵をサーバーに登録する
+// 別のブラウザで作り直すと公開鍵が置き換わり、以前の鍵宛てに預けられたものはそのブラウザでしか読めない
+export async function ensureKeyPair(owner, headers) {
+  let keyPair = await withStore('readonly', store => store.get(owner));
+  if (!keyPair) {
+    keyPair = await crypto.subtle.generateKey(ECDH, false, ['deriveBits']);
+    await withStore('readwrite', store => store.put(keyPair, owner));
+  }
+  const publicKey = new Uint8Array(await crypto.subtle.exportKey('raw', keyPair.publicKey));
+  const response = await fetch('/api/keys', {
+    method: 'PUT',
+    headers: { 'Content-Type': 'text/plain', ...headers },
+    body: toBase64(publicKey),
+  });
+  if (!response.ok) throw new Error(`Failed to register public key: ${response.status}`);
+  ownKeyPair = keyPair;
+  return keyPair;
+}
+
+// userId -> 公開鍵（CryptoKey）
+const friendKeys = new Map();
+
+// 友達の公開鍵。未登録（相手がまだ暗号化に対応したページを開いていない）の場合は null
+export async function friendPublicKey(userId) {
+  if (friendKeys.has(userId)) return friendKeys.get(userId);
+  const response = await fetch(`/api/keys/${userId}`, { cache: 'no-store' });
+  if (response.status === 404) return null;
+  if (!response.ok) throw new Error(`Failed to load public key: ${response.status}`);
+  const key = await crypto.subtle.importKey('raw', fromBase64((await response.text()).trim()), ECDH, false, []);
+  friendKeys.set(userId, key);
+  return key;
+}
+
+async function deriveAesKey(privateKey, publicKey, salt, usage) {
+  const shared = await crypto.subtle.deriveBits({ name: 'ECDH', public: publicKey }, privateKey, 256);
+  const hkdfKey = await crypto.subtle.importKey('raw', shared, 'HKDF', false, ['deriveKey']);
+  return crypto.subtle.deriveKey(
+    { name: 'HKDF', hash: 'SHA-256', salt, info: HKDF_INFO },
+    hkdfKey, { name: 'AES-GCM', length: 256 }, false, [usage]);
+}
+
+// 相手の公開鍵で plaintext に封をする（相手の秘密鍵でしか開けない）
+export async function seal(recipientPublicKey, plaintext) {
+  const ephemeral = await crypto.subtle.generateKey(ECDH, true, ['deriveBits']);
+  const ephemeralPublic = new Uint8Array(await crypto.subtle.exportKey('raw', ephemeral.publicKey));
+  const key = await deriveAesKey(ephemeral.privateKey, recipientPublicKey, ephemeralPublic, 'encrypt');
+  const iv = crypto.getRandomValues(new Uint8Array(IV_BYTES));
+  const header = concat(Uint8Array.of(SEALED_VERSION), ephemeralPublic, iv);
+  const ciphertext = await crypto.subtle.encrypt({ name: 'AES-GCM', iv, additionalData: header }, key, plaintext);
+  return concat(header, new Uint8Array(ciphertext));
+}
+
+// 自分宛てに封をしたバイト列を開く（改ざんされている・別の鍵宛ての場合は例外）
+export async function open(sealed) {
+  if (!ownKeyPair) throw new Error('key pair is not loaded');
+  if (sealed.length < SEALED_HEADER_BYTES + TAG_BYTES || sealed[0] !== SEALED_VERSION) {
+    throw new Error('unsupported sealed message');
+  }
+  const header = sealed.subarray(0, SEALED_HEADER_BYTES);
+  const ephemeralPublic = sealed.subarray(1, 1 + PUBLIC_KEY_BYTES);
+  const iv = sealed.subarray(1 + PUBLIC_KEY_BYTES, SEALED_HEADER_BYTES);
+  const publicKey = await crypto.subtle.importKey('raw', ephemeralPublic, ECDH, false, []);
+  const key = await deriveAesKey(ownKeyPair.privateKey, publicKey, ephemeralPublic, 'decrypt');
+  const plaintext = await crypto.subtle.decrypt(
+    { name: 'AES-GCM', iv, additionalData: header }, key, sealed.subarray(SEALED_HEADER_BYTES));
+  return new Uint8Array(plaintext);
+}
+
+// --- ファイル ---
+// ファイルごとに AES-GCM の鍵と IV の前半（8バイト）を作り、レコード番号（4バイト）を IV の後半にする。
+// 鍵と IV の前半は相手の公開鍵で封をして中継の開始時に渡す（送り直しに備えて送信側のブラウザにも残す）
+
+// 平文 plainSize バイトのファイルを暗号化した後の大きさ
+export function encryptedSize(plainSize) {
+  return plainSize + Math.ceil(plainSize / RECORD_BYTES) * TAG_BYTES;
+}
+
+// ファイルの鍵を作る（戻り値の secret は鍵と IV の前半をつなげたもの）
+export function createFileSecret() {
+  return crypto.getRandomValues(new Uint8Array(FILE_KEY_BYTES + FILE_NONCE_BYTES));
+}
+
+export function encodeSecret(secret) {
+  return toBase64(secret);
+}
+
+export function decodeSecret(text) {
+  return fromBase64(text);
+}
+
+async function fileCipher(secret, usage) {
+  const key = await crypto.subtle.importKey('raw', secret.subarray(0, FILE_KEY_BYTES), 'AES-GCM', false, [usage]);
+  const nonce = secret.subarray(FILE_KEY_BYTES);
+  const ivOf = record => {
+    const iv = new Uint8Array(IV_BYTES);
+    iv.set(nonce);
+    new DataView(iv.buffer).setUint32(FILE_NONCE_BYTES, record);
+    return iv;
+  };
+  return { key, ivOf };
+}
+
+// 暗号化後のファイルの [start, end) の範囲を作る（範囲にかかるレコードだけを暗号化する）
+// 同じレコードは何度暗号化しても同じバイト列になるため、チャンクの境目をまたぐレコードも食い違わない
+export async function encryptRange(secret, file, start, end) {
+  const { key, ivOf } = await fileCipher(secret, 'encrypt');
+  const sealedRecord = RECORD_BYTES + TAG_BYTES;
+  const first = Math.floor(start / sealedRecord);
+  const last = Math.floor((end - 1) / sealedRecord);
+  const parts = [];
+  for (let record = first; record <= last; record++) {
+    const plain = await file.slice(record * RECORD_BYTES, Math.min(file.size, (record + 1) * RECORD_BYTES)).arrayBuffer();
+    // ファイルの最後のレコードには印を付ける（末尾を切り詰めたものを完全なファイルとして復号させない）
+    const isLast = (record + 1) * RECORD_BYTES >= file.size;
+    parts.push(new Uint8Array(await crypto.subtle.encrypt(
+      { name: 'AES-GCM', iv: ivOf(record), additionalData: Uint8Array.of(isLast ? 1 : 0) }, key, plain)));
+  }
+  const joined = concat(...parts);
+  const offset = start - first * sealedRecord;
+  return joined.subarray(offset, offset + (end - start));
+}
+
+// 暗号化されたファイルをストリームのまま読みながら復号し、平文の Blob を返す
+export async function decryptStream(secret, stream, type) {
+  const { key, ivOf } = await fileCipher(secret, 'decrypt');
+  const sealedRecord = RECORD_BYTES + TAG_BYTES;
+  const reader = stream.getReader();
+  const parts = [];
+  let buffer = new Uint8Array(0);
+  let record = 0;
+  let finished = false;
+  while (!finished) {
+    const { value, done } = await reader.read();
+    if (value) buffer = concat(buffer, value);
+    finished = done;
+    // 最後のレコードかどうかが分かるよう、ストリームの終わりまでは1レコード分を残しておく
+    while (buffer.length > sealedRecord || (finished && buffer.length > 0)) {
+      const length = Math.min(sealedRecord, buffer.length);
+      const isLast = finished && length === buffer.length;
+      const plain = await crypto.subtle.decrypt(
+        { name: 'AES-GCM', iv: ivOf(record), additionalData: Uint8Array.of(isLast ? 1 : 0) },
+        key, buffer.subarray(0, length));
+      parts.push(new Uint8Array(plain));
+      buffer = buffer.slice(length);
+      record++;
+    }
+  }
+  return new Blob(parts, { type: type ?? 'application/octet-stream' });
+}
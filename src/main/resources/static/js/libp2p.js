@@ -11,6 +11,7 @@ import { webRTC, webRTCDirect } from '@libp2p/webrtc'
 import { circuitRelayTransport, circuitRelayServer } from '@libp2p/circuit-relay-v2'
 import { enable, disable } from '@libp2p/logger'
 import { update, getPeerTypes, getAddresses, collectPeerDetails } from './utils'
+import * as e2ee from './e2ee'
 import * as filters from '@libp2p/websockets/filters'
 import { bootstrap } from '@libp2p/bootstrap'
 import { pipe } from 'it-pipe'
@@ -278,6 +279,338 @@ async function sendMessageToPeer(conn, message) {
 }
 
 
+  // --- オフラインの友達宛てのメッセージ（サーバーのメールボックスに預ける） ---
+  // 配信フレームの形式: オフセット(8) 送信者ID(8) 作成時刻(8) 本文の長さ(4) 本文
+  const MAILBOX_FRAME_HEADER_BYTES = 28;
+  const friendNamesById = new Map(
+    (typeof FRIENDS !== 'undefined' && FRIENDS ? FRIENDS : []).map(f => [String(f.friendId), f.nickName])
+  );
+
+  function csrfHeaders() {
+    const token = document.querySelector('meta[name="_csrf"]')?.content;
+    const header = document.querySelector('meta[name="_csrf_header"]')?.content;
+    return token && header ? { [header]: token } : {};
+  }
+
+  // 自分の鍵の組を読み込み、公開鍵をサーバーに登録する（メールボックスの受け取りはこれを待ってから行う）
+  const keysReady = e2ee.ensureKeyPair(typeof NICK_NAME !== 'undefined' ? NICK_NAME : 'default', csrfHeaders())
+    .catch(error => {
+      console.error('Error loading encryption keys:', error);
+      throw error;
+    });
+
+  // 相手の公開鍵で暗号化してから預ける（サーバーは復号できない不透明なバイト列として預かる）
+  // 相手がまだ公開鍵を登録していない場合は平文で預けず、null を返す
+  async function depositToMailbox(recipientId, message) {
+    const publicKey = await e2ee.friendPublicKey(recipientId);
+    if (!publicKey) return null;
+    const response = await fetch(`/api/mailbox/${recipientId}`, {
+      method: 'POST',
+      headers: { 'Content-Type': 'application/octet-stream', ...csrfHeaders() },
+      body: await e2ee.seal(publicKey, encoder.encode(message)),
+    });
+    if (!response.ok) throw new Error(`Failed to deposit message: ${response.status}`);
+    return (await response.json()).offset;
+  }
+
+  // 自分宛てに預けられたメッセージを受け取って表示し、最後のオフセットまで確認する
+  // 確認前に失敗した場合は次回もう一度届く
+  async function drainMailbox() {
+    try {
+      await keysReady;
+      const response = await fetch('/api/mailbox', { cache: 'no-store' });
+      if (!response.ok) throw new Error(`Failed to load mailbox: ${response.status}`);
+      const bytes = new Uint8Array(await response.arrayBuffer());
+      const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+      const box = document.getElementById('chat-box');
+
+      let position = 0;
+      let lastOffset = 0n;
+      while (position + MAILBOX_FRAME_HEADER_BYTES <= bytes.length) {
+        const offset = view.getBigInt64(position);
+        const senderId = String(view.getBigInt64(position + 8));
+        const createdAt = new Date(Number(view.getBigInt64(position + 16)));
+        const length = view.getInt32(position + 24);
+        const start = position + MAILBOX_FRAME_HEADER_BYTES;
+        const message = await e2ee.open(bytes.subarray(start, start + length))
+          .then(plaintext => decoder.decode(plaintext))
+          .catch(() => '[復号できないメッセージ]');
+        position = start + length;
+        lastOffset = offset;
+
+        if (box) {
+          const p = document.createElement('p');
+          const sender = friendNamesById.get(senderId) ?? senderId;
+          p.textContent = `[${sender} ${createdAt.toLocaleString()}] ${message}`;
+          box.appendChild(p);
+        }
+      }
+
+      if (lastOffset > 0n) {
+        await fetch(`/api/mailbox/ack?upto=${lastOffset}`, { method: 'POST', headers: csrfHeaders() });
+      }
+    } catch (error) {
+      console.error('Error draining mailbox:', error);
+    }
+  }
+
+  drainMailbox();
+
+  // --- P2P で接続できない場合のファイル中継（チャンクごとに SHA-256 を付けて送り、途中から再開できる） ---
+  // 本文はファイルごとの鍵でブラウザで暗号化してから送り、鍵は相手の公開鍵で暗号化して渡す
+  async function sha256Hex(buffer) {
+    const digest = new Uint8Array(await crypto.subtle.digest('SHA-256', buffer));
+    return Array.from(digest, b => b.toString(16).padStart(2, '0')).join('');
+  }
+
+  // 同じファイルを送り直した場合は、前回の中継の足りないチャンクだけを前回と同じ鍵で送る
+  async function startOrResumeRelay(recipientId, file) {
+    const key = `file-relay:${recipientId}:${file.name}:${file.size}:${file.lastModified}`;
+    const previous = JSON.parse(localStorage.getItem(key) ?? 'null');
+    if (previous?.id && previous?.secret) {
+      const response = await fetch(`/api/files/${previous.id}`);
+      if (response.ok) return { key, transfer: await response.json(), secret: e2ee.decodeSecret(previous.secret) };
+    }
+    const publicKey = await e2ee.friendPublicKey(recipientId);
+    if (!publicKey) throw new Error('Recipient has not registered an encryption key');
+    const secret = e2ee.createFileSecret();
+    const response = await fetch('/api/files', {
+      method: 'POST',
+      headers: { 'Content-Type': 'application/json', ...csrfHeaders() },
+      body: JSON.stringify({
+        recipientId: Number(recipientId),
+        fileName: file.name,
+        size: e2ee.encryptedSize(file.size),
+        encryptedKey: e2ee.encodeSecret(await e2ee.seal(publicKey, secret)),
+      }),
+    });
+    if (!response.ok) throw new Error(`Failed to start file relay: ${response.status}`);
+    const transfer = await response.json();
+    localStorage.setItem(key, JSON.stringify({ id: transfer.id, secret: e2ee.encodeSecret(secret) }));
+    return { key, transfer, secret };
+  }
+
+  async function sendFileViaRelay(recipientId, file, onProgress) {
+    const { key, transfer, secret } = await startOrResumeRelay(recipientId, file);
+    let done = transfer.chunkCount - transfer.missingChunks.length;
+    for (const index of transfer.missingChunks) {
+      const start = index * transfer.chunkSize;
+      const body = await e2ee.encryptRange(secret, file, start, Math.min(transfer.size, start + transfer.chunkSize));
+      const checksum = await sha256Hex(body);
+      for (let attempt = 1; ; attempt++) {
+        const response = await fetch(`/api/files/${transfer.id}/chunks/${index}`, {
+          method: 'PUT',
+          headers: { 'Content-Type': 'application/octet-stream', 'X-Chunk-Sha256': checksum, ...csrfHeaders() },
+          body,
+        });
+        if (response.ok) break;
+        if (attempt >= 3) throw new Error(`Failed to upload chunk ${index}: ${response.status}`);
+        await new Promise(resolve => setTimeout(resolve, 1000 * attempt));
+      }
+      onProgress(++done, transfer.chunkCount);
+    }
+    localStorage.removeItem(key);
+  }
+
+  // 中継されたファイルをダウンロードしながら復号し、ブラウザに保存させる
+  async function downloadRelayedFile(transfer) {
+    await keysReady;
+    const secret = await e2ee.open(e2ee.decodeSecret(transfer.encryptedKey));
+    const response = await fetch(`/api/files/${transfer.id}/content`, { cache: 'no-store' });
+    if (!response.ok || !response.body) throw new Error(`Failed to download file: ${response.status}`);
+    const blob = await e2ee.decryptStream(secret, response.body);
+    const url = URL.createObjectURL(blob);
+    const link = document.createElement('a');
+    link.href = url;
+    link.download = transfer.fileName;
+    link.click();
+    setTimeout(() => URL.revokeObjectURL(url), 60000);
+  }
+
+  // 自分宛てに中継されたファイルをダウンロードリンクとして表示する
+  async function loadIncomingFiles() {
+    try {
+      const response = await fetch('/api/files', { cache: 'no-store' });
+      if (!response.ok) throw new Error(`Failed to load incoming files: ${response.status}`);
+      const list = document.getElementById('relay-incoming-files');
+      if (!list) return;
+      list.innerHTML = '';
+      for (const transfer of await response.json()) {
+        const li = document.createElement('li');
+        const link = document.createElement('a');
+        link.href = '#';
+        link.className = 'text-blue-600 underline';
+        link.textContent = `${transfer.fileName} (${friendNamesById.get(String(transfer.senderId)) ?? transfer.senderId})`;
+        link.addEventListener('click', async event => {
+          event.preventDefault();
+          try {
+            await downloadRelayedFile(transfer);
+          } catch (error) {
+            console.error('Error decrypting relayed file:', error);
+            link.textContent = `${transfer.fileName}（復号できませんでした）`;
+          }
+        });
+        li.appendChild(link);
+        list.appendChild(li);
+      }
+    } catch (error) {
+      console.error('Error loading incoming files:', error);
+    }
+  }
+
+  function setupFileRelay() {
+    const button = document.getElementById('relay-file-send');
+    if (!button) return;
+    const progress = document.getElementById('relay-file-progress');
+    button.addEventListener('click', async () => {
+      const file = document.getElementById('relay-file-input').files[0];
+      const recipientId = document.getElementById('mailbox-recipient')?.value;
+      if (!file || !recipientId) {
+        progress.textContent = 'ファイルと宛先を選んでください';
+        return;
+      }
+      button.disabled = true;
+      try {
+        await sendFileViaRelay(recipientId, file, (done, total) => {
+          progress.textContent = `${done} / ${total}`;
+        });
+        progress.textContent = '送信しました';
+      } catch (error) {
+        console.error('File relay error:', error);
+        progress.textContent = '送信に失敗しました。もう一度送ると続きから再開します';
+      } finally {
+        button.disabled = false;
+      }
+    });
+    loadIncomingFiles();
+  }
+
+  setupFileRelay();
+
+  // --- WebRTC のシグナリング（サーバーの WebSocket で友達と SDP・ICE candidate を直接交換する） ---
+  // circuit relay を経由せずに友達と WebRTC のデータチャネルを張り、チャットを送る
+  const friendIdsByName = new Map(
+    (typeof FRIENDS !== 'undefined' && FRIENDS ? FRIENDS : []).map(f => [f.nickName, f.friendId])
+  );
+  // friendId -> 開いているデータチャネル
+  const directChannels = new Map();
+  // callId -> { peer, friendId, pendingCandidates }
+  const directCalls = new Map();
+  // 直近で選んだ友達（データチャネルが開いていればこちらで送る）
+  let directTargetFriendId = null;
+  let signalingSocket = null;
+
+  function connectSignaling() {
+    const scheme = location.protocol === 'https:' ? 'wss' : 'ws';
+    const socket = new WebSocket(`${scheme}://${location.host}/ws/signaling`);
+    socket.onmessage = e => handleSignal(JSON.parse(e.data)).catch(err => console.error('シグナリングのエラー:', err));
+    socket.onclose = () => {
+      if (signalingSocket === socket) signalingSocket = null;
+      setTimeout(connectSignaling, 3000);
+    };
+    signalingSocket = socket;
+  }
+
+  function sendSignal(type, to, callId, data) {
+    if (signalingSocket?.readyState !== WebSocket.OPEN) return false;
+    signalingSocket.send(JSON.stringify({ type, to, callId, data }));
+    return true;
+  }
+
+  function closeDirectCall(callId) {
+    const call = directCalls.get(callId);
+    if (!call) return;
+    directCalls.delete(callId);
+    call.peer.close();
+  }
+
+  function createDirectPeer(friendId, callId) {
+    const peer = new RTCPeerConnection({ iceServers: [{ urls: 'stun:stun.l.google.com:19302' }] });
+    peer.onicecandidate = e => {
+      if (e.candidate) sendSignal('candidate', friendId, callId, e.candidate.toJSON());
+    };
+    peer.onconnectionstatechange = () => {
+      if (peer.connectionState === 'failed' || peer.connectionState === 'closed') closeDirectCall(callId);
+    };
+    directCalls.set(callId, { peer, friendId, pendingCandidates: [] });
+    return peer;
+  }
+
+  function attachDirectChannel(friendId, channel) {
+    const box = document.getElementById('chat-box');
+    channel.onopen = () => {
+      directChannels.set(friendId, channel);
+      const p = document.createElement('p');
+      p.textContent = '[接続] ' + (friendNamesById.get(String(friendId)) ?? friendId) + ' と直接接続しました。';
+      box.appendChild(p);
+    };
+    channel.onmessage = e => {
+      const p = document.createElement('p');
+      p.textContent = '[相手] ' + e.data;
+      box.appendChild(p);
+    };
+    channel.onclose = () => {
+      if (directChannels.get(friendId) === channel) directChannels.delete(friendId);
+    };
+  }
+
+  // remote description を設定する前に届いた candidate は、設定後にまとめて追加する
+  async function applyRemoteDescription(call, description) {
+    await call.peer.setRemoteDescription(description);
+    for (const candidate of call.pendingCandidates.splice(0)) {
+      await call.peer.addIceCandidate(candidate);
+    }
+  }
+
+  async function startDirectCall(friendId) {
+    if (friendId == null || directChannels.has(friendId)) return;
+    const callId = crypto.randomUUID();
+    const peer = createDirectPeer(friendId, callId);
+    attachDirectChannel(friendId, peer.createDataChannel('chat'));
+    const offer = await peer.createOffer();
+    await peer.setLocalDescription(offer);
+    if (!sendSignal('offer', friendId, callId, { type: offer.type, sdp: offer.sdp })) {
+      closeDirectCall(callId);
+    }
+  }
+
+  async function handleSignal(message) {
+    const call = directCalls.get(message.callId);
+    switch (message.type) {
+      case 'offer': {
+        const peer = createDirectPeer(message.from, message.callId);
+        peer.ondatachannel = e => attachDirectChannel(message.from, e.channel);
+        await applyRemoteDescription(directCalls.get(message.callId), message.data);
+        const answer = await peer.createAnswer();
+        await peer.setLocalDescription(answer);
+        sendSignal('answer', message.from, message.callId, { type: answer.type, sdp: answer.sdp });
+        if (directTargetFriendId == null) directTargetFriendId = message.from;
+        break;
+      }
+      case 'answer':
+        if (call) await applyRemoteDescription(call, message.data);
+        break;
+      case 'candidate':
+        if (!call) break;
+        if (call.peer.remoteDescription) {
+          await call.peer.addIceCandidate(message.data);
+        } else {
+          call.pendingCandidates.push(message.data);
+        }
+        break;
+      case 'bye':
+        closeDirectCall(message.callId);
+        break;
+      case 'error':
+        // 相手が未接続・友達ではない場合など。従来どおり relay 経由の接続を使う
+        console.warn('シグナリングを転送できませんでした:', message.data);
+        closeDirectCall(message.callId);
+        break;
+    }
+  }
+
+  connectSignaling();
+
   // chat-form の送信イベントを処理
   function setupChatForm() {
     const form = document.getElementById("chat-form");
@@ -293,6 +626,13 @@ async function sendMessageToPeer(conn, message) {
         box.appendChild(p);
         input.value = "";
 
+        // 0) 選んだ友達とデータチャネルが開いていれば、そちらで直接送る
+        const directChannel = directChannels.get(directTargetFriendId);
+        if (directChannel?.readyState === 'open') {
+          directChannel.send(message);
+          return;
+        }
+
         // --- 送信先 Connection を決定 (双方が connect 済み前提) ---
         const connections = libp2p.getConnections();
         let conn = null;
@@ -314,9 +654,23 @@ async function sendMessageToPeer(conn, message) {
           }
         }
 
-        // 3) 見つからなければ諦める（自動ダイヤルは行わない）
+        // 3) 見つからなければ、宛先に選んだ友達の受信箱に預ける（自動ダイヤルは行わない）
         if (!conn) {
-          console.warn('送信可能な接続が見つかりません');
+          const recipientId = document.getElementById("mailbox-recipient")?.value;
+          if (!recipientId) {
+            console.warn('送信可能な接続が見つかりません');
+            return;
+          }
+          try {
+            const offset = await depositToMailbox(recipientId, message);
+            const note = document.createElement("p");
+            note.textContent = offset === null
+              ? "[未送信] 相手が暗号化の鍵をまだ登録していないため、預けられません"
+              : "[保存] 相手がオンラインになったときに届きます";
+            box.appendChild(note);
+          } catch (err) {
+            console.error('受信箱への保存エラー:', err);
+          }
           return;
         }
 
@@ -333,40 +687,98 @@ async function sendMessageToPeer(conn, message) {
 
   // オンラインユーザー読み込みとオンライン・オフライン切り替え処理
   function setupOnlineStatus() {
+    // name -> multiaddr（サーバーから受け取ったオンライン中の友達）
+    const onlineFriends = new Map();
+
+    function renderOnlineFriends() {
+      const ul = document.getElementById("online-friends-list");
+      ul.innerHTML = "";
+
+      onlineFriends.forEach((multiaddr, name) => {
+        const li = document.createElement("li");
+        const button = document.createElement("button");
+        button.textContent = name;
+        button.onclick = () => {
+          // multiaddr を input にセットして Connect ボタンを押す
+          const input = document.getElementById("input-multiaddr");
+          input.value = multiaddr;
+          // Multiaddr から PeerId 部分を抜き出して保存
+          const idx = multiaddr.lastIndexOf("/p2p/");
+          if (idx !== -1) {
+            targetPeerIdStr = multiaddr.slice(idx + 5);
+            console.log("🎯 targetPeerId set to", targetPeerIdStr);
+          }
+          document.getElementById("button-connect").click();
+          // 並行してサーバーのシグナリングで WebRTC の直接接続を試みる（開けば relay より先に使う）
+          directTargetFriendId = friendIdsByName.get(name) ?? null;
+          startDirectCall(directTargetFriendId).catch(err => console.error('直接接続の開始に失敗しました:', err));
+        };
+        li.appendChild(button);
+        ul.appendChild(li);
+      });
+    }
+
+    function replaceOnlineFriends(friends) {
+      onlineFriends.clear();
+      friends.forEach(friend => onlineFriends.set(friend.name, friend.multiaddr));
+      renderOnlineFriends();
+    }
+
+    // 前回受け取った一覧の ETag。変化がなければサーバーは 304 を返すので再描画しない
+    let onlineFriendsETag = null;
+
     async function loadOnlineFriends() {
       try {
-        const response = await fetch("/api/online");
+        const headers = onlineFriendsETag ? { "If-None-Match": onlineFriendsETag } : {};
+        const response = await fetch("/api/online", { headers, cache: "no-store" });
+        if (response.status === 304) return;
         if (!response.ok) throw new Error("Failed to load online friends");
 
-        const friends = await response.json();
-        const ul = document.getElementById("online-friends-list");
-        ul.innerHTML = "";
-
-        friends.forEach(friend => {
-          const li = document.createElement("li");
-          const button = document.createElement("button");
-          button.textContent = friend.name;
-          button.onclick = () => {
-            // multiaddr を input にセットして Connect ボタンを押す
-            const input = document.getElementById("input-multiaddr");
-            input.value = friend.multiaddr;
-            // Multiaddr から PeerId 部分を抜き出して保存
-            const idx = friend.multiaddr.lastIndexOf("/p2p/");
-            if (idx !== -1) {
-              targetPeerIdStr = friend.multiaddr.slice(idx + 5);
-              console.log("🎯 targetPeerId set to", targetPeerIdStr);
-            }
-            document.getElementById("button-connect").click();
-          };
-          li.appendChild(button);
-          ul.appendChild(li);
-        });
+        onlineFriendsETag = response.headers.get("ETag");
+        replaceOnlineFriends(await response.json());
       } catch (error) {
         console.error("Error fetching online friends:", error);
       }
     }
 
+    // サーバーからのプッシュ配信（最初にスナップショット、以降は差分のみ）
+    function subscribeOnlineFriends() {
+      const source = new EventSource("/api/online/stream");
+      source.addEventListener("snapshot", e => replaceOnlineFriends(JSON.parse(e.data)));
+      const upsert = e => {
+        const friend = JSON.parse(e.data);
+        onlineFriends.set(friend.name, friend.multiaddr);
+        renderOnlineFriends();
+      };
+      source.addEventListener("online", upsert);
+      source.addEventListener("updated", upsert);
+      source.addEventListener("offline", e => {
+        onlineFriends.delete(JSON.parse(e.data).name);
+        renderOnlineFriends();
+      });
+      // 切断時は EventSource が自動で再接続し、再接続時に改めてスナップショットが届く
+      source.onerror = () => console.warn("オンライン通知の接続が切れました。再接続します");
+    }
+
     let isOnline = false;
+    // ハートビートの送信間隔（サーバー側の presence.ttl-seconds=90 の1/3）
+    const HEARTBEAT_INTERVAL_MS = 30_000;
+    let heartbeatTimer = null;
+
+    // オンライン状態を延長する。サーバー側で期限切れになっていた場合は登録し直す
+    async function sendHeartbeat() {
+      try {
+        const res = await fetch("/api/online/heartbeat", { method: "POST" });
+        if (res.status === 404) {
+          const addr = libp2p.getMultiaddrs()[0]?.toString();
+          if (addr) {
+            await setOnline(addr);
+          }
+        }
+      } catch (err) {
+        console.error("ハートビート送信失敗", err);
+      }
+    }
 
     async function setOnline(multiaddr) {
       try {
@@ -384,7 +796,13 @@ async function sendMessageToPeer(conn, message) {
         document.getElementById("status-text").textContent = "🟢オンライン";
         document.getElementById("status-text").classList.replace("text-red-600", "text-green-600");
         isOnline = true;
+        if (heartbeatTimer === null) {
+          heartbeatTimer = setInterval(sendHeartbeat, HEARTBEAT_INTERVAL_MS);
+        }
         console.log("🟢 オンライン登録完了:", multiaddr);
+        // オフライン中に預けられたメッセージ・ファイルを受け取る
+        drainMailbox();
+        loadIncomingFiles();
       } catch (err) {
         console.error("❌ オンライン登録失敗:", err);
       }
@@ -398,6 +816,8 @@ async function sendMessageToPeer(conn, message) {
         document.getElementById("status-text").textContent = "🔴オフライン";
         document.getElementById("status-text").classList.replace("text-green-600", "text-red-600");
         isOnline = false;
+        clearInterval(heartbeatTimer);
+        heartbeatTimer = null;
         console.log("🔴 オフライン登録完了");
       } catch (err) {
         console.error("オフライン登録失敗", err);
@@ -405,8 +825,13 @@ async function sendMessageToPeer(conn, message) {
     }
 
     const runOnlineSetup = () => {
-      loadOnlineFriends();
-      setInterval(loadOnlineFriends, 1000);
+      if (typeof EventSource !== "undefined") {
+        subscribeOnlineFriends();
+      } else {
+        // EventSource 非対応ブラウザのみポーリングする
+        loadOnlineFriends();
+        setInterval(loadOnlineFriends, 1000);
+      }
 
       document.getElementById("go-online").addEventListener("click", async () => {
         console.log("🕐 オンラインボタンが押されました");
@@ -0,0 +1,117 @@
+package com.example.p2pchat.config;
+
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.ReadYourWritesTracker;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 読み取り専用トランザクションの振り分けを、ローカルの H2 の3つのデータベース（primary とレプリカ2台）で確認します。
+ * どのデータベースに接続したかは H2 の DATABASE() 関数で判定します。
+ * アプリケーションと同じく LazyConnectionDataSourceProxy の readOnlyDataSource に ReplicaRoutingDataSource を設定します。
+ */
+class ReplicaRoutingDataSourceTests {
+
+    private static final long WINDOW_MILLIS = 200;
+
+    private HikariDataSource primary;
+    private ReplicaRoutingDataSource replicaDataSource;
+    private ReadYourWritesTracker readYourWritesTracker;
+    private DataSourceTransactionManager transactionManager;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        primary = new HikariDataSource();
+        primary.setJdbcUrl("jdbc:h2:mem:routing_primary;DB_CLOSE_DELAY=-1");
+        List<HikariDataSource> replicas = List.of(
+                ReplicaRoutingConfig.createReplica(0, replica("jdbc:h2:mem:routing_replica0;DB_CLOSE_DELAY=-1")),
+                ReplicaRoutingConfig.createReplica(1, replica("jdbc:h2:mem:routing_replica1;DB_CLOSE_DELAY=-1")));
+
+        readYourWritesTracker = new ReadYourWritesTracker(WINDOW_MILLIS);
+        replicaDataSource = new ReplicaRoutingDataSource(primary, replicas, readYourWritesTracker, new SimpleMeterRegistry());
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        transactionManager.addListener(readYourWritesTracker);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        replicaDataSource.close();
+        primary.close();
+    }
+
+    @Test
+    void readOnlyTransactionsAreSpreadAcrossReplicas() {
+        assertThat(Set.of(databaseIn(true), databaseIn(true)))
+                .containsExactlyInAnyOrder("ROUTING_REPLICA0", "ROUTING_REPLICA1");
+    }
+
+    @Test
+    void writeTransactionsAndNonTransactionalReadsUsePrimary() {
+        assertThat(databaseIn(false)).isEqualTo("ROUTING_PRIMARY");
+        assertThat(jdbcTemplate.queryForObject("SELECT DATABASE()", String.class)).isEqualTo("ROUTING_PRIMARY");
+    }
+
+    @Test
+    void userWhoJustWroteReadsFromPrimaryUntilTheWindowEnds() throws InterruptedException {
+        loginAs(1L);
+        databaseIn(false);
+        assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+
+        // 他のユーザーはレプリカから読む
+        loginAs(2L);
+        assertThat(databaseIn(true)).startsWith("ROUTING_REPLICA");
+
+        loginAs(1L);
+        Thread.sleep(WINDOW_MILLIS * 2);
+        assertThat(databaseIn(true)).startsWith("ROUTING_REPLICA");
+    }
+
+    @Test
+    void markedUsersAndPrimaryScopesReadFromPrimary() {
+        readYourWritesTracker.markWritten(2L);
+        loginAs(2L);
+        assertThat(databaseIn(true)).isEqualTo("ROUTING_PRIMARY");
+
+        SecurityContextHolder.clearContext();
+        assertThat(readYourWritesTracker.onPrimary(() -> databaseIn(true))).isEqualTo("ROUTING_PRIMARY");
+        assertThat(databaseIn(true)).startsWith("ROUTING_REPLICA");
+    }
+
+    private String databaseIn(boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+    }
+
+    private static void loginAs(Long userId) {
+        ChatUserDetails user = new ChatUserDetails(userId, "user" + userId, "", false, "ROLE_USER");
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+    }
+
+    private static ReplicaDataSourceProperties.Replica replica(String url) {
+        ReplicaDataSourceProperties.Replica replica = new ReplicaDataSourceProperties.Replica();
+        replica.setUrl(url);
+        return replica;
+    }
+}
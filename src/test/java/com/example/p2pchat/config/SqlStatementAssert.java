@@ -0,0 +1,59 @@
+package com.example.p2pchat.config;
+
+import org.assertj.core.api.AbstractAssert;
+
+import java.util.Map;
+
+/**
+ * SqlStatementCapture に対する AssertJ のアサーションです。エンドポイントごとの SQL 発行数をテストで固定するのに使います。
+ * <pre>
+ * try (SqlStatementCapture capture = sqlStatementCounter.start()) {
+ *     mockMvc.perform(get("/dashboard"));
+ *     assertThatSql(capture).hasStatementCount(5).hasNoRepeatedStatements();
+ * }
+ * </pre>
+ */
+public class SqlStatementAssert extends AbstractAssert<SqlStatementAssert, SqlStatementCapture> {
+
+    // 同じ形の SQL がこの回数以上発行されたら N+1 とみなす（SqlBudgetProperties の既定値と同じ）
+    private static final int DEFAULT_REPEAT_THRESHOLD = 3;
+
+    private SqlStatementAssert(SqlStatementCapture actual) {
+        super(actual, SqlStatementAssert.class);
+    }
+
+    public static SqlStatementAssert assertThatSql(SqlStatementCapture actual) {
+        return new SqlStatementAssert(actual);
+    }
+
+    public SqlStatementAssert hasStatementCount(int expected) {
+        isNotNull();
+        if (actual.getStatementCount() != expected) {
+            failWithMessage("SQL の発行数が %d 件ではなく %d 件でした: %s",
+                    expected, actual.getStatementCount(), actual.getShapeCounts());
+        }
+        return this;
+    }
+
+    public SqlStatementAssert hasAtMostStatements(int max) {
+        isNotNull();
+        if (actual.getStatementCount() > max) {
+            failWithMessage("SQL の発行数が上限 %d 件を超えて %d 件でした: %s",
+                    max, actual.getStatementCount(), actual.getShapeCounts());
+        }
+        return this;
+    }
+
+    public SqlStatementAssert hasNoRepeatedStatements() {
+        return hasNoRepeatedStatements(DEFAULT_REPEAT_THRESHOLD);
+    }
+
+    public SqlStatementAssert hasNoRepeatedStatements(int threshold) {
+        isNotNull();
+        Map<String, Integer> repeated = actual.getRepeatedShapes(threshold);
+        if (!repeated.isEmpty()) {
+            failWithMessage("同じ形の SQL が %d 回以上発行されました（N+1 の疑い）: %s", threshold, repeated);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.p2pchat.repository;
+
+import com.example.p2pchat.Entity.Friend;
+import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.OnlinePeerDto;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * /api/online の DB 経路について、旧実装（3クエリ + findAll + JVM 内フィルタ）と
+ * 新実装（Friend と OnlinePeer を結合する1クエリ）の所要時間を比較するベンチマークです。
+ * ./gradlew benchmark で実行します。
+ */
+@Tag("benchmark")
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+class OnlineFriendsQueryBenchmarkTests {
+
+    private static final int FRIENDS_PER_USER = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FriendRepository friendRepository;
+
+    @Autowired
+    private OnlinePeerRepository onlinePeerRepository;
+
+    @ParameterizedTest
+    @ValueSource(ints = {10_000, 100_000})
+    void compareOldAndNewPath(int rows) {
+        seed(rows);
+        String nickName = "user" + (rows / 2);
+        Long userId = userRepository.findByNickName(nickName).orElseThrow().getId();
+
+        Supplier<List<OnlinePeerDto>> oldPath = () -> {
+            User me = userRepository.findByNickName(nickName).orElseThrow();
+            List<User> myFriends = friendRepository.findAllByUser(me).stream()
+                    .map(Friend::getFriend)
+                    .toList();
+            return onlinePeerRepository.findAll().stream()
+                    .filter(peer -> !peer.getUser().equals(me) && myFriends.contains(peer.getUser()))
+                    .map(peer -> new OnlinePeerDto(peer.getUser().getNickName(), peer.getMultiaddr()))
+                    .collect(Collectors.toList());
+        };
+        Supplier<List<OnlinePeerDto>> newPath = () -> onlinePeerRepository.findOnlineFriends(userId);
+
+        assertThat(newPath.get()).containsExactlyInAnyOrderElementsOf(oldPath.get());
+        entityManager.clear();
+
+        double oldMillis = measure(oldPath, 3, 10);
+        double newMillis = measure(newPath, 50, 500);
+        System.out.printf("[online friends] rows=%,d old=%.3f ms/op new=%.3f ms/op (x%.1f)%n",
+                rows, oldMillis, newMillis, oldMillis / newMillis);
+    }
+
+    // 1回あたりの平均所要時間（ミリ秒）。毎回永続化コンテキストを空にして、キャッシュ済みエンティティの影響を除く
+    private double measure(Supplier<List<OnlinePeerDto>> path, int warmup, int iterations) {
+        for (int i = 0; i < warmup; i++) {
+            path.get();
+            entityManager.clear();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            path.get();
+            entityManager.clear();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / iterations;
+    }
+
+    // rows 人のユーザーを作り、全員をオンラインにし、各ユーザーに FRIENDS_PER_USER 人の友達を持たせる
+    private void seed(int rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        List<Object[]> users = new ArrayList<>(rows);
+        List<Object[]> peers = new ArrayList<>(rows);
+        List<Object[]> friends = new ArrayList<>(rows * FRIENDS_PER_USER);
+        long friendId = 1;
+        for (long id = 1; id <= rows; id++) {
+            users.add(new Object[]{id, "user" + id, "code" + id, "x", "ROLE_USER", true, "none", 3, false, now});
+            peers.add(new Object[]{id, id, "/ip4/127.0.0.1/tcp/9001/ws/p2p/peer" + id, now});
+            for (int k = 1; k <= FRIENDS_PER_USER; k++) {
+                long other = (id - 1 + k) % rows + 1;
+                friends.add(new Object[]{friendId++, id, other, now, true});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (id, nick_name, friend_request_code, password, authority, verified, "
+                + "used_referral_code, remaining_referral_slots, trial, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", users);
+        jdbcTemplate.batchUpdate("INSERT INTO online_peer (id, user_id, multiaddr, last_seen_at) VALUES (?, ?, ?, ?)", peers);
+        jdbcTemplate.batchUpdate("INSERT INTO friend (id, user_id, friend_id, created_at, active) VALUES (?, ?, ?, ?, ?)", friends);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.UserFilter;
+import com.example.p2pchat.dto.UserPage;
+import com.example.p2pchat.dto.UserSummaryDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 管理画面のユーザー一覧のキーセット方式のページングと、CSV・NDJSON のエクスポートのテストです。
+ * 体験ユーザーだけに絞り込み、ページの境目で行が重複・欠落しないことと、CSV の値が数式として実行されないことを確認します。
+ * 他のテストのユーザーが混ざらないよう、専用の H2 データベースを使います。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:admin-users"
+})
+class AdminUserQueryServiceTests {
+
+    private static final UserFilter TRIAL_USERS = new UserFilter(true, null, null, null);
+
+    // 登録順（ID 順）
+    private static final List<String> NICK_NAMES = List.of(
+            "au-plain", "=HYPERLINK(\"http://example.com\")", "+1", "-2", "@SUM(A1)", "au,comma");
+
+    @Autowired
+    private AdminUserQueryService adminUserQueryService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        if (userService.findByNickName(NICK_NAMES.get(0)).isEmpty()) {
+            NICK_NAMES.forEach(nickName -> userService.registerTrialUser(nickName, "password"));
+        }
+    }
+
+    @Test
+    void pagesFollowTheCursorWithoutRepeatingOrSkippingRows() {
+        UserPage first = adminUserQueryService.page(TRIAL_USERS, null, 4);
+        assertThat(first.users()).extracting(UserSummaryDto::nickName).isEqualTo(NICK_NAMES.subList(0, 4));
+        assertThat(first.nextCursor()).isEqualTo(first.users().get(3).id());
+
+        // カーソルの行は次のページに含まれない
+        UserPage second = adminUserQueryService.page(TRIAL_USERS, first.nextCursor(), 4);
+        assertThat(second.users()).extracting(UserSummaryDto::nickName).isEqualTo(NICK_NAMES.subList(4, 6));
+        assertThat(second.nextCursor()).isNull();
+
+        // 残りがちょうどページの大きさの場合も、次のページは無い
+        UserPage exact = adminUserQueryService.page(TRIAL_USERS, first.users().get(1).id(), 4);
+        assertThat(exact.users()).extracting(UserSummaryDto::nickName).isEqualTo(NICK_NAMES.subList(2, 6));
+        assertThat(exact.nextCursor()).isNull();
+
+        // 1件ずつたどっても全員を1回ずつ読む
+        List<String> walked = new ArrayList<>();
+        Long cursor = null;
+        do {
+            UserPage page = adminUserQueryService.page(TRIAL_USERS, cursor, 1);
+            page.users().forEach(user -> walked.add(user.nickName()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        assertThat(walked).isEqualTo(NICK_NAMES);
+    }
+
+    @Test
+    void csvExportQuotesSpecialCharactersAndNeutralizesFormulas() throws Exception {
+        List<String> lines = export(AdminUserQueryService.ExportFormat.CSV);
+
+        assertThat(lines).hasSize(NICK_NAMES.size() + 1);
+        assertThat(lines.get(0)).isEqualTo("id,nickName,authority,trial,createdAt");
+        assertThat(lines.subList(1, lines.size())).extracting(line -> line.split(",")[1]).containsExactly(
+                "au-plain",
+                "\"'=HYPERLINK(\"\"http://example.com\"\")\"",
+                "\"'+1\"",
+                "\"'-2\"",
+                "\"'@SUM(A1)\"",
+                "\"au");
+        assertThat(lines.get(6)).contains(",\"au,comma\",ROLE_USER,true,");
+    }
+
+    @Test
+    void ndjsonExportWritesOneObjectPerLine() throws Exception {
+        List<String> lines = export(AdminUserQueryService.ExportFormat.NDJSON);
+
+        List<UserSummaryDto> users = new ArrayList<>();
+        for (String line : lines) {
+            users.add(objectMapper.readValue(line, UserSummaryDto.class));
+        }
+        // JSON の文字列はそのまま（CSV のような数式対策はしない）
+        assertThat(users).extracting(UserSummaryDto::nickName).isEqualTo(NICK_NAMES);
+        assertThat(users).allSatisfy(user -> {
+            assertThat(user.trial()).isTrue();
+            assertThat(user.authority()).isEqualTo("ROLE_USER");
+            assertThat(user.createdAt()).isNotNull();
+        });
+        assertThat(users).extracting(UserSummaryDto::id).isSorted();
+    }
+
+    private List<String> export(AdminUserQueryService.ExportFormat format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        adminUserQueryService.export(TRIAL_USERS, format, out);
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertThat(text).endsWith("\n");
+        return List.of(text.split("\n"));
+    }
+}
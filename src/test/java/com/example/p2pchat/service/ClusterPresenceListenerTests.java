@@ -0,0 +1,153 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.Entity.OnlinePeer;
+import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.config.DatabasePlatform;
+import com.example.p2pchat.dto.PresenceDelta;
+import com.example.p2pchat.repository.OnlinePeerRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 複数台構成のオンライン状態の通知（ClusterPresenceBus の形式）と、受信側の ClusterPresenceListener の反映のテストです。
+ * PostgreSQL は使わず、通知の本文を直接 handle に渡します。
+ */
+class ClusterPresenceListenerTests {
+
+    private static final String SELF = "self";
+    private static final String OTHER = "other";
+    private static final String ADDRESS = "/ip4/127.0.0.1/tcp/9001/ws/p2p/alice";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OnlinePeerService onlinePeerService;
+    private OnlinePeerRepository onlinePeerRepository;
+    private ClusterPresenceListener listener;
+
+    @BeforeEach
+    void setUp() {
+        ClusterPresenceBus clusterPresenceBus = mock(ClusterPresenceBus.class);
+        when(clusterPresenceBus.getNodeId()).thenReturn(SELF);
+        onlinePeerService = mock(OnlinePeerService.class);
+        onlinePeerRepository = mock(OnlinePeerRepository.class);
+        listener = new ClusterPresenceListener(clusterPresenceBus, onlinePeerService, onlinePeerRepository,
+                new ReadYourWritesTracker(5000), new DataSourceProperties(), mock(DatabasePlatform.class), meterRegistry);
+        listener.init();
+    }
+
+    @Test
+    void largeBatchIsSplitIntoChainedNotificationsThatRoundTrip() {
+        List<PresenceDelta> deltas = LongStream.rangeClosed(1, 2000)
+                .mapToObj(id -> id % 2 == 0
+                        ? new PresenceDelta(id, true, PresenceDelta.hash(ADDRESS + id))
+                        : new PresenceDelta(id, false, 0))
+                .toList();
+
+        List<String> payloads = ClusterPresenceBus.encode(OTHER, 8, 5, deltas);
+
+        assertThat(payloads).hasSizeGreaterThan(1)
+                .allSatisfy(p -> assertThat(p.length()).isLessThanOrEqualTo(ClusterPresenceBus.MAX_PAYLOAD_CHARS));
+        List<PresenceDelta> decoded = new ArrayList<>();
+        long previousSeq = 5;
+        long seq = 8;
+        for (String payload : payloads) {
+            ClusterPresenceBus.Notification notification = ClusterPresenceBus.decode(payload);
+            assertThat(notification.nodeId()).isEqualTo(OTHER);
+            assertThat(notification.seq()).isEqualTo(seq);
+            assertThat(notification.previousSeq()).isEqualTo(previousSeq);
+            previousSeq = seq++;
+            decoded.addAll(notification.deltas());
+        }
+        assertThat(decoded).isEqualTo(deltas);
+    }
+
+    @Test
+    void ownNotificationsAreIgnored() {
+        listener.handle(payload(SELF, 1, 0, new PresenceDelta(1L, false, 0)));
+
+        verifyNoInteractions(onlinePeerService, onlinePeerRepository);
+    }
+
+    @Test
+    void sameAddressIsAppliedAsHeartbeatWithoutReadingTheTable() {
+        when(onlinePeerService.find(1L)).thenReturn(Optional.of(new OnlinePresence(1L, "alice", ADDRESS, LocalDateTime.now())));
+        when(onlinePeerService.applyRemoteHeartbeat(1L)).thenReturn(true);
+
+        listener.handle(payload(OTHER, 1, 0,
+                new PresenceDelta(1L, true, PresenceDelta.hash(ADDRESS)), new PresenceDelta(2L, false, 0)));
+
+        verify(onlinePeerService).applyRemoteHeartbeat(1L);
+        verify(onlinePeerService).applyRemoteOffline(2L);
+        verifyNoInteractions(onlinePeerRepository);
+    }
+
+    @Test
+    void changedAddressIsReadFromTheTableInOneQuery() {
+        when(onlinePeerService.find(any())).thenReturn(Optional.empty());
+        when(onlinePeerRepository.findAllWithUserByUserIds(List.of(1L, 3L))).thenReturn(List.of(row(1L, "alice", ADDRESS)));
+
+        listener.handle(payload(OTHER, 1, 0,
+                new PresenceDelta(1L, true, PresenceDelta.hash(ADDRESS)), new PresenceDelta(3L, true, 42)));
+
+        verify(onlinePeerRepository).findAllWithUserByUserIds(List.of(1L, 3L));
+        verify(onlinePeerService).applyRemoteOnline(argThat(p -> p.userId() == 1L && p.multiaddr().equals(ADDRESS)));
+        verify(onlinePeerService, never()).applyRemoteOnline(argThat(p -> p.userId() == 3L));
+    }
+
+    @Test
+    void skippedSequenceTriggersResyncInsteadOfApplying() {
+        List<OnlinePeer> snapshot = List.of(row(1L, "alice", ADDRESS));
+        when(onlinePeerRepository.findAllWithUser()).thenReturn(snapshot);
+
+        listener.handle(payload(OTHER, 1, 0, new PresenceDelta(1L, false, 0)));
+        // 2 が届いていない
+        listener.handle(payload(OTHER, 3, 2, new PresenceDelta(2L, false, 0)));
+
+        verify(onlinePeerService).applyRemoteOffline(1L);
+        verify(onlinePeerService, never()).applyRemoteOffline(2L);
+        verify(onlinePeerService).resyncRemote(eq(snapshot), any());
+        assertThat(meterRegistry.counter("presence.cluster.resyncs", "reason", "gap").count()).isEqualTo(1);
+
+        // ロールバックで使われなかった番号は「直前の番号」に含まれないので、続きとして受け取る
+        listener.handle(payload(OTHER, 5, 3, new PresenceDelta(4L, false, 0)));
+        verify(onlinePeerService).applyRemoteOffline(4L);
+        verify(onlinePeerService, times(1)).resyncRemote(any(), any());
+    }
+
+    @Test
+    void malformedPayloadIsCountedAndIgnored() {
+        listener.handle("broken");
+        listener.handle(OTHER + " 1 0|*1");
+
+        verifyNoInteractions(onlinePeerService);
+        assertThat(meterRegistry.counter("presence.cluster.malformed").count()).isEqualTo(2);
+    }
+
+    private static String payload(String nodeId, long seq, long previousSeq, PresenceDelta... deltas) {
+        List<String> payloads = ClusterPresenceBus.encode(nodeId, seq, previousSeq, List.of(deltas));
+        assertThat(payloads).hasSize(1);
+        return payloads.get(0);
+    }
+
+    private static OnlinePeer row(Long userId, String nickName, String multiaddr) {
+        User user = new User();
+        user.setId(userId);
+        user.setNickName(nickName);
+        OnlinePeer peer = new OnlinePeer();
+        peer.setUser(user);
+        peer.setMultiaddr(multiaddr);
+        peer.setLastSeenAt(LocalDateTime.now());
+        return peer;
+    }
+}
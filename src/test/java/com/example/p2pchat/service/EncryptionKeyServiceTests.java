@@ -0,0 +1,75 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.access.AccessDeniedException;
+
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * EncryptionKeyService の公開鍵の登録と、友達の公開鍵の取得のテストです。
+ * ECDH P-256 の非圧縮形式以外の鍵は登録できず、友達でないユーザーの公開鍵は取得できないことを確認します。
+ */
+class EncryptionKeyServiceTests {
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+    private static final long CAROL = 3L;
+
+    private UserRepository userRepository;
+    private EncryptionKeyService encryptionKeyService;
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        FriendService friendService = mock(FriendService.class);
+        when(friendService.canChat(ALICE, BOB)).thenReturn(true);
+        encryptionKeyService = new EncryptionKeyService(userRepository, friendService);
+    }
+
+    @Test
+    void registersUncompressedP256PublicKey() {
+        byte[] raw = new byte[65];
+        raw[0] = 0x04;
+        String publicKey = Base64.getEncoder().encodeToString(raw);
+
+        encryptionKeyService.register(ALICE, publicKey + "\n");
+
+        verify(userRepository).updateEncryptionPublicKey(ALICE, publicKey);
+    }
+
+    @Test
+    void rejectsMalformedPublicKeys() {
+        byte[] compressed = new byte[33];
+        compressed[0] = 0x02;
+
+        assertThatThrownBy(() -> encryptionKeyService.register(ALICE, "not base64!"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> encryptionKeyService.register(ALICE, Base64.getEncoder().encodeToString(compressed)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> encryptionKeyService.register(ALICE, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(userRepository, never()).updateEncryptionPublicKey(anyLong(), anyString());
+    }
+
+    @Test
+    void returnsPublicKeyOnlyForFriends() {
+        when(userRepository.findEncryptionPublicKeyById(BOB)).thenReturn(Optional.of("bob-key"));
+
+        assertThat(encryptionKeyService.findFriendKey(ALICE, BOB)).contains("bob-key");
+        assertThatThrownBy(() -> encryptionKeyService.findFriendKey(ALICE, CAROL))
+                .isInstanceOf(AccessDeniedException.class);
+        verify(userRepository, never()).findEncryptionPublicKeyById(CAROL);
+    }
+}
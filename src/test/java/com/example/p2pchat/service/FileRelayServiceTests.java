@@ -0,0 +1,237 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.FileTransferDto;
+import com.example.p2pchat.dto.FileUploadRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * FileRelayService のチャンク単位のアップロード（長さ・SHA-256 の確認、再送、番号の範囲）のテストです。
+ * チャンクを4バイトにし、10バイトのファイルを 4・4・2 バイトのチャンクで送ります。
+ */
+class FileRelayServiceTests {
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final String ENCRYPTED_KEY = "c2VhbGVkLWZpbGUta2V5";
+
+    @TempDir
+    private Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FileRelayService fileRelayService;
+    private String id;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FriendService friendService = mock(FriendService.class);
+        when(friendService.canChat(ALICE, BOB)).thenReturn(true);
+
+        fileRelayService = new FileRelayService(friendService, meterRegistry);
+        ReflectionTestUtils.setField(fileRelayService, "directory", directory.toString());
+        ReflectionTestUtils.setField(fileRelayService, "chunkBytes", 4);
+        ReflectionTestUtils.setField(fileRelayService, "maxFileBytes", 1024L);
+        ReflectionTestUtils.setField(fileRelayService, "maxConcurrentUploads", 2);
+        ReflectionTestUtils.setField(fileRelayService, "maxConcurrentDownloads", 2);
+        ReflectionTestUtils.setField(fileRelayService, "maxOpenTransfersPerSender", 2);
+        ReflectionTestUtils.setField(fileRelayService, "maxReservedBytesPerSender", 30L);
+        ReflectionTestUtils.setField(fileRelayService, "ttlHours", 24L);
+        fileRelayService.init();
+
+        id = fileRelayService.start(ALICE, new FileUploadRequest(BOB, "notes.bin", CONTENT.length, ENCRYPTED_KEY)).id();
+    }
+
+    @Test
+    void allChunksInAnyOrderCompleteTheFile() throws Exception {
+        upload(2);
+        upload(0);
+        FileTransferDto transfer = upload(1);
+
+        assertThat(transfer.complete()).isTrue();
+        FileRelayService.RelayedFile file = fileRelayService.findDownload(id, BOB).orElseThrow();
+        assertThat(file.path().getFileName().toString()).endsWith(".blob");
+        assertThat(Files.readAllBytes(file.path())).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void transferDeletedDuringAChunkWriteIsRemovedWhenTheWriteEnds() throws Exception {
+        upload(0);
+        upload(1);
+        byte[] chunk = chunk(2);
+        // 最後のチャンクを書き込んでいる途中で、受信者が中継を取り消す
+        InputStream body = new FilterInputStream(new ByteArrayInputStream(chunk)) {
+            private boolean deleted;
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (!deleted) {
+                    deleted = true;
+                    assertThat(fileRelayService.delete(id, BOB)).isTrue();
+                    // 書き込み中のファイルはまだ削除されない
+                    assertThat(directory.resolve(id + ".part")).exists();
+                }
+                return super.read(buffer, offset, length);
+            }
+        };
+
+        FileTransferDto transfer = fileRelayService.writeChunk(id, ALICE, 2, sha256(chunk), chunk.length, body).orElseThrow();
+
+        // 削除された中継は完了させず、書き込みが終わった時点でファイルを削除する
+        assertThat(transfer.complete()).isFalse();
+        assertThat(directory.resolve(id + ".part")).doesNotExist();
+        assertThat(directory.resolve(id + ".blob")).doesNotExist();
+        assertThat(fileRelayService.findDownload(id, BOB)).isEmpty();
+    }
+
+    @Test
+    void encryptedKeyIsPassedToTheRecipient() {
+        assertThat(fileRelayService.find(id, BOB).orElseThrow().encryptedKey()).isEqualTo(ENCRYPTED_KEY);
+
+        assertThatThrownBy(() -> fileRelayService.start(ALICE, new FileUploadRequest(BOB, "notes.bin", CONTENT.length, null)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> fileRelayService.start(ALICE, new FileUploadRequest(BOB, "notes.bin", CONTENT.length, "not base64!")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void openTransfersPerSenderAreCapped() throws Exception {
+        fileRelayService.start(ALICE, request(10));
+        assertThatThrownBy(() -> fileRelayService.start(ALICE, request(1)))
+                .isInstanceOf(FileTransferLimitException.class);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.filter(file -> file.toString().endsWith(".part"))).hasSize(2);
+        }
+
+        // 受け取りが終わった中継は数えない
+        upload(0);
+        upload(1);
+        upload(2);
+        fileRelayService.start(ALICE, request(10));
+    }
+
+    @Test
+    void reservedBytesPerSenderAreCapped() throws Exception {
+        assertThatThrownBy(() -> fileRelayService.start(ALICE, request(21)))
+                .isInstanceOf(FileTransferLimitException.class);
+        fileRelayService.start(ALICE, request(20));
+
+        // 受け取り済みのファイルも削除されるまでは数える
+        upload(0);
+        upload(1);
+        upload(2);
+        assertThatThrownBy(() -> fileRelayService.start(ALICE, request(1)))
+                .isInstanceOf(FileTransferLimitException.class);
+        assertThat(fileRelayService.delete(id, BOB)).isTrue();
+        fileRelayService.start(ALICE, request(10));
+    }
+
+    @Test
+    void checksumMismatchIsRejectedAndTheChunkStaysMissing() {
+        byte[] chunk = chunk(0);
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, 0, sha256("other".getBytes()), chunk.length,
+                new ByteArrayInputStream(chunk)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(fileRelayService.find(id, ALICE).orElseThrow().missingChunks()).containsExactly(0, 1, 2);
+        assertThat(meterRegistry.counter("file.relay.chunks", "result", "rejected").count()).isEqualTo(1);
+    }
+
+    @Test
+    void shortBodyIsRejectedAndTheChunkCanBeSentAgain() throws Exception {
+        byte[] chunk = chunk(0);
+        // Content-Length を付けずに、2バイトだけ送って切断した
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, 0, sha256(chunk), -1,
+                new ByteArrayInputStream(Arrays.copyOf(chunk, 2))))
+                .isInstanceOf(IllegalArgumentException.class);
+        // Content-Length がチャンクの長さと違う
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, 0, sha256(chunk), 2,
+                new ByteArrayInputStream(Arrays.copyOf(chunk, 2))))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(upload(0).missingChunks()).containsExactly(1, 2);
+    }
+
+    @Test
+    void receivedChunkCannotBeRewritten() throws Exception {
+        upload(0);
+        upload(1);
+        upload(2);
+
+        // 中身の違うチャンク（正しい SHA-256 付き）を送り直しても、受け取り済みのファイルは書き換わらない
+        byte[] other = "abcd".getBytes(StandardCharsets.US_ASCII);
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, 0, sha256(other), other.length,
+                new ByteArrayInputStream(other)))
+                .isInstanceOf(IllegalStateException.class);
+
+        FileRelayService.RelayedFile file = fileRelayService.findDownload(id, BOB).orElseThrow();
+        assertThat(Files.readAllBytes(file.path())).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void receivedChunkOfAnIncompleteFileCannotBeRewritten() throws Exception {
+        upload(0);
+
+        byte[] chunk = chunk(0);
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, 0, sha256(chunk), chunk.length,
+                new ByteArrayInputStream(chunk)))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(fileRelayService.find(id, ALICE).orElseThrow().missingChunks()).containsExactly(1, 2);
+    }
+
+    @Test
+    void indexOutsideTheFileIsRejected() {
+        byte[] chunk = chunk(0);
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, -1, sha256(chunk), chunk.length,
+                new ByteArrayInputStream(chunk)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> fileRelayService.writeChunk(id, ALICE, 3, sha256(chunk), chunk.length,
+                new ByteArrayInputStream(chunk)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void onlyTheSenderCanUpload() throws Exception {
+        byte[] chunk = chunk(0);
+        assertThat(fileRelayService.writeChunk(id, BOB, 0, sha256(chunk), chunk.length, new ByteArrayInputStream(chunk)))
+                .isEmpty();
+    }
+
+    private FileTransferDto upload(int index) throws Exception {
+        byte[] chunk = chunk(index);
+        return fileRelayService.writeChunk(id, ALICE, index, sha256(chunk), chunk.length, new ByteArrayInputStream(chunk))
+                .orElseThrow();
+    }
+
+    private static FileUploadRequest request(long size) {
+        return new FileUploadRequest(BOB, "other.bin", size, ENCRYPTED_KEY);
+    }
+
+    private static byte[] chunk(int index) {
+        return Arrays.copyOfRange(CONTENT, index * 4, Math.min(CONTENT.length, index * 4 + 4));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.Entity.FriendRequest;
+import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.repository.FriendRequestRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * フレンド申請の送信・承認が、読み書きのトランザクション内で primary だけを読むことのテストです。
+ * レプリカ（同じ H2 データベースを読み取り専用の接続で参照する）を1台設定し、
+ * ReplicaRoutingDataSource の振り分け回数（datasource.read.connections）がレプリカ宛てに増えないことを確認します。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:friend-request-routing;DB_CLOSE_DELAY=-1",
+        "replica.datasources[0].url=jdbc:h2:mem:friend-request-routing;DB_CLOSE_DELAY=-1"
+})
+class FriendRequestRoutingTests {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private FriendRequestRepository friendRequestRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void sendingAndAcceptingFriendRequestsNeverReadFromTheReplica() {
+        userService.registerTrialUser("rt-alice", "password");
+        userService.registerTrialUser("rt-bob", "password");
+        userService.registerTrialUser("rt-carol", "password");
+        User bob = userService.findByNickName("rt-bob").orElseThrow();
+        User carol = userService.findByNickName("rt-carol").orElseThrow();
+
+        // 読み取り専用トランザクションはレプリカに振り分けられる（設定が有効であることの確認）
+        double before = replicaReads();
+        userService.findAll();
+        assertThat(replicaReads()).isGreaterThan(before);
+
+        before = replicaReads();
+        userService.sendFriendRequest("rt-alice", "rt-bob");
+        userService.sendFriendRequestByFriendRequestCode("rt-alice", carol.getFriendRequestCode());
+        assertThat(replicaReads()).isEqualTo(before);
+
+        List<FriendRequest> requests = friendRequestRepository.findAllByReceiverAndAcceptedFalseAndRejectedFalse(bob);
+        assertThat(requests).hasSize(1);
+
+        before = replicaReads();
+        userService.acceptFriendRequest(requests.get(0).getId());
+        assertThat(replicaReads()).isEqualTo(before);
+    }
+
+    private double replicaReads() {
+        return meterRegistry.counter("datasource.read.connections", "target", "replica-0").count();
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.Entity.FriendRequest;
+import com.example.p2pchat.dto.FriendSuggestionDto;
+import com.example.p2pchat.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * 友達の友達と同じ紹介者から紹介されたユーザーが、共通のつながりの多い順に候補になり、
+ * 友達関係の変更が差分で反映されることを確認します。
+ * 紹介枠を他のテストと共有しないよう、専用の H2 データベースを使います。定期的な反映は止め、テストから applyChanges を呼び出します。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:suggestions",
+        "suggestion.update-interval-ms=3600000"
+})
+@Import(ReferralTestData.class)
+class FriendSuggestionServiceTests {
+
+    @Autowired
+    private FriendSuggestionService friendSuggestionService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ReferralTestData referrals;
+
+    @Test
+    void friendsOfFriendsAndReferralSiblingsAreRankedByMutualConnections() {
+        // admin が alice・bob・dave を紹介し、alice が carol を紹介する（紹介者とは友達になる）
+        userService.register("testtest", "password", "sg-alice");
+        userService.register("aaaabbbb", "password", "sg-bob");
+        userService.register(referrals.unusedCodeOf("sg-alice"), "password", "sg-carol");
+        userService.register("ccccdddd", "password", "sg-dave");
+        friendSuggestionService.applyChanges();
+
+        Long alice = idOf("sg-alice");
+        // 同じ紹介者の bob と dave は共通のつながり（admin）1人。同数なら先に登録したユーザーが先
+        assertThat(friendSuggestionService.suggest(alice, 10))
+                .extracting(FriendSuggestionDto::nickName, FriendSuggestionDto::mutualCount)
+                .containsExactly(tuple("sg-bob", 1), tuple("sg-dave", 1));
+        // carol から見ると、紹介者 alice の紹介者 admin が候補になる
+        assertThat(friendSuggestionService.suggest(idOf("sg-carol"), 10))
+                .extracting(FriendSuggestionDto::nickName)
+                .containsExactly("admin");
+
+        // carol と dave が友達になると、alice と dave の共通のつながりが2人（admin・carol）になる
+        userService.sendFriendRequest("sg-carol", "sg-dave");
+        FriendRequest request = userService.findPendingFriendRequests(userRepository.findByNickName("sg-dave").orElseThrow())
+                .get(0);
+        userService.acceptFriendRequest(request.getId());
+        friendSuggestionService.applyChanges();
+
+        List<FriendSuggestionDto> suggestions = friendSuggestionService.suggest(alice, 10);
+        assertThat(suggestions).extracting(FriendSuggestionDto::nickName).containsExactly("sg-dave", "sg-bob");
+        assertThat(suggestions.get(0).mutualCount()).isEqualTo(2);
+        assertThat(friendSuggestionService.suggest(alice, 1)).hasSize(1);
+
+        // 友達になった相手は候補から外れる
+        assertThat(friendSuggestionService.suggest(idOf("sg-carol"), 10))
+                .extracting(FriendSuggestionDto::nickName)
+                .doesNotContain("sg-dave", "sg-alice");
+
+        // 一括計算も1件ずつの計算と同じ結果になる
+        assertThat(friendSuggestionService.suggestAll(List.of(alice, idOf("sg-bob")), 10).get(alice))
+                .extracting(c -> (long) c.node())
+                .containsExactly(idOf("sg-dave"), idOf("sg-bob"));
+    }
+
+    private Long idOf(String nickName) {
+        return userRepository.findIdByNickName(nickName).orElseThrow();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.p2pchat.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * MailboxService の受信者ごとの未確認メッセージの上限（mailbox.max-pending-per-recipient）のテストです。
+ * 上限に達すると MailboxFullException（429）になり、並行に預けても上限を超えないことを確認します。
+ */
+class MailboxServiceTests {
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+    private static final byte[] PAYLOAD = "hello".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    private Path directory;
+
+    private MailboxService mailboxService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FriendGraphCache friendGraphCache = mock(FriendGraphCache.class);
+        when(friendGraphCache.areMutualFriends(anyLong(), anyLong())).thenReturn(true);
+
+        mailboxService = new MailboxService(friendGraphCache, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(mailboxService, "directory", directory.toString());
+        ReflectionTestUtils.setField(mailboxService, "segmentBytes", 1 << 20);
+        ReflectionTestUtils.setField(mailboxService, "maxMessageBytes", 1024);
+        ReflectionTestUtils.setField(mailboxService, "maxPendingPerRecipient", 3);
+        ReflectionTestUtils.setField(mailboxService, "minLiveRatio", 0.5);
+        mailboxService.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mailboxService.close();
+    }
+
+    @Test
+    void depositBeyondTheLimitIsRejectedUntilAcknowledged() {
+        mailboxService.deposit(ALICE, BOB, PAYLOAD);
+        mailboxService.deposit(ALICE, BOB, PAYLOAD);
+        long third = mailboxService.deposit(ALICE, BOB, PAYLOAD);
+
+        assertThatThrownBy(() -> mailboxService.deposit(ALICE, BOB, PAYLOAD))
+                .isInstanceOf(MailboxFullException.class);
+        assertThat(AnnotationUtils.findAnnotation(MailboxFullException.class, ResponseStatus.class).value())
+                .isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(mailboxService.pendingCount(BOB)).isEqualTo(3);
+
+        // 受け取って確認すると、再び預けられる
+        assertThat(mailboxService.acknowledge(BOB, third)).isEqualTo(3);
+        mailboxService.deposit(ALICE, BOB, PAYLOAD);
+        assertThat(mailboxService.pendingCount(BOB)).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentDepositsNeverExceedTheLimit() throws Exception {
+        ReflectionTestUtils.setField(mailboxService, "maxPendingPerRecipient", 100);
+        int threads = 8;
+        int depositsPerThread = 50;
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < depositsPerThread; i++) {
+                        try {
+                            mailboxService.deposit(ALICE, BOB, PAYLOAD);
+                            accepted.incrementAndGet();
+                        } catch (MailboxFullException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(accepted).hasValue(100);
+        assertThat(rejected).hasValue(threads * depositsPerThread - 100);
+        assertThat(mailboxService.pendingCount(BOB)).isEqualTo(100);
+    }
+}
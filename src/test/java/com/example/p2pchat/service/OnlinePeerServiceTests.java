@@ -0,0 +1,86 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.repository.OnlinePeerRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * OnlinePeerService の期限切れ（タイミングホイールと sweepExpired）のテストです。
+ * 期限を1秒・tick を100ミリ秒にし、テストから進める時計（Clock）で時間を経過させてから sweepExpired を呼び出します。
+ */
+class OnlinePeerServiceTests {
+
+    private static final long ALICE = 1L;
+    private static final String ADDRESS = "/ip4/127.0.0.1/tcp/9001/ws/p2p/alice";
+
+    private OnlinePeerService onlinePeerService;
+    private Clock clock;
+
+    @BeforeEach
+    void setUp() {
+        onlinePeerService = new OnlinePeerService(mock(OnlinePeerRepository.class), mock(PresenceWriteBuffer.class),
+                mock(FriendGraphCache.class), mock(PresenceVersionTracker.class), mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(onlinePeerService, "ttlSeconds", 1L);
+        ReflectionTestUtils.setField(onlinePeerService, "tickMillis", 100L);
+        clock = Clock.fixed(Instant.parse("2026-01-01T00:00:00Z"), ZoneId.systemDefault());
+        ReflectionTestUtils.setField(onlinePeerService, "clock", clock);
+        onlinePeerService.initExpiryWheel();
+    }
+
+    @Test
+    void remotePresenceFromTheFutureStillExpires() {
+        // 他のノードの時計が1時間進んでいる
+        onlinePeerService.applyRemoteOnline(new OnlinePresence(ALICE, "alice", ADDRESS, LocalDateTime.now(clock).plusHours(1)));
+        assertThat(onlinePeerService.find(ALICE)).hasValueSatisfying(
+                presence -> assertThat(presence.lastSeenAt()).isEqualTo(LocalDateTime.now(clock)));
+
+        // 期限の前はオンラインのまま
+        advance(900);
+        onlinePeerService.sweepExpired();
+        assertThat(onlinePeerService.isOnline(ALICE)).isTrue();
+
+        advance(400);
+        onlinePeerService.sweepExpired();
+        assertThat(onlinePeerService.isOnline(ALICE)).isFalse();
+    }
+
+    @Test
+    void presenceSeenAfterItWasScheduledIsRescheduledInsteadOfDropped() {
+        onlinePeerService.goOnline(ALICE, "alice", ADDRESS);
+
+        // 予約を変えずに最終確認時刻だけが進んだ（ホイールから取り出した直後にハートビートが届いた場合と同じ状態）
+        advance(600);
+        presences().put(ALICE, new OnlinePresence(ALICE, "alice", ADDRESS, LocalDateTime.now(clock)));
+
+        advance(500);
+        onlinePeerService.sweepExpired();
+        assertThat(onlinePeerService.isOnline(ALICE)).isTrue();
+
+        // 残り時間で予約し直されているので、最終確認から期限が過ぎればオフラインになる
+        advance(800);
+        onlinePeerService.sweepExpired();
+        assertThat(onlinePeerService.isOnline(ALICE)).isFalse();
+    }
+
+    private void advance(long millis) {
+        clock = Clock.offset(clock, Duration.ofMillis(millis));
+        ReflectionTestUtils.setField(onlinePeerService, "clock", clock);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, OnlinePresence> presences() {
+        return (Map<Long, OnlinePresence>) ReflectionTestUtils.getField(onlinePeerService, "onlinePeers");
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.p2pchat.service;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * RegistrationThroughputBenchmarkTests を PostgreSQL に対して実行します。
+ * ./gradlew benchmark -Dbenchmark.postgres.url=jdbc:postgresql://localhost:5432/p2pchat
+ *   -Dbenchmark.postgres.username=... -Dbenchmark.postgres.password=...
+ */
+@EnabledIfSystemProperty(named = "benchmark.postgres.url", matches = ".+")
+class PostgresRegistrationThroughputBenchmarkTests extends RegistrationThroughputBenchmarkTests {
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("benchmark.postgres.url"));
+        registry.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        registry.add("spring.datasource.username", () -> System.getProperty("benchmark.postgres.username", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getProperty("benchmark.postgres.password", ""));
+    }
+}
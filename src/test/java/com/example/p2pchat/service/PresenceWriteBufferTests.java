@@ -0,0 +1,94 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * オンライン状態のスナップショットの書き込みが、ユーザーごとに最後の1件へまとめられて反映されることを確認します。
+ * 定期的な反映は止め（間隔を1時間にし）、テストから flush を呼び出します。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "presence.snapshot.enabled=true",
+        "presence.write-behind.flush-interval-ms=3600000"
+})
+class PresenceWriteBufferTests {
+
+    @Autowired
+    private OnlinePeerService onlinePeerService;
+
+    @Autowired
+    private PresenceWriteBuffer presenceWriteBuffer;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Long adminId;
+
+    @BeforeEach
+    void setUp() {
+        adminId = userRepository.findIdByNickName("admin").orElseThrow();
+        presenceWriteBuffer.flush();
+    }
+
+    @AfterEach
+    void tearDown() {
+        onlinePeerService.goOffline(adminId);
+        presenceWriteBuffer.flush();
+    }
+
+    @Test
+    void repeatedGoOnlineIsWrittenAsOneUpsertOfTheLastAddress() {
+        onlinePeerService.goOnline(adminId, "admin", "/ip4/127.0.0.1/tcp/9001/ws/p2p/first");
+        onlinePeerService.goOnline(adminId, "admin", "/ip4/127.0.0.1/tcp/9001/ws/p2p/second");
+        onlinePeerService.goOnline(adminId, "admin", "/ip4/127.0.0.1/tcp/9001/ws/p2p/third");
+
+        // 反映前でもメモリ上の状態は最新
+        assertThat(presenceWriteBuffer.pendingCount()).isEqualTo(1);
+        assertThat(onlinePeerService.find(adminId)).hasValueSatisfying(
+                presence -> assertThat(presence.multiaddr()).endsWith("/third"));
+        assertThat(multiaddrsOf(adminId)).isEmpty();
+
+        presenceWriteBuffer.flush();
+
+        assertThat(presenceWriteBuffer.pendingCount()).isZero();
+        assertThat(multiaddrsOf(adminId)).containsExactly("/ip4/127.0.0.1/tcp/9001/ws/p2p/third");
+        assertThat(meterRegistry.get("presence.write.coalescing.ratio").gauge().value()).isPositive();
+
+        // 既にある行は更新する（行を増やさない）
+        onlinePeerService.goOnline(adminId, "admin", "/ip4/127.0.0.1/tcp/9001/ws/p2p/fourth");
+        presenceWriteBuffer.flush();
+        assertThat(multiaddrsOf(adminId)).containsExactly("/ip4/127.0.0.1/tcp/9001/ws/p2p/fourth");
+    }
+
+    @Test
+    void goOfflineAfterGoOnlineLeavesNoRow() {
+        onlinePeerService.goOnline(adminId, "admin", "/ip4/127.0.0.1/tcp/9001/ws/p2p/first");
+        onlinePeerService.goOffline(adminId);
+
+        presenceWriteBuffer.flush();
+
+        assertThat(multiaddrsOf(adminId)).isEmpty();
+    }
+
+    private List<String> multiaddrsOf(Long userId) {
+        return jdbcTemplate.queryForList("SELECT multiaddr FROM online_peer WHERE user_id = ?", String.class, userId);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.ReferralStatsDto;
+import com.example.p2pchat.dto.ReferralUserStatsDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 登録と紹介コードの使用で紹介ツリーの集計が差分で更新され、全件から計算し直した結果と一致することを確認します。
+ * 紹介枠を他のテストと共有しないよう、専用の H2 データベースを使います。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:referrals"
+})
+@Import(ReferralTestData.class)
+class ReferralAnalyticsServiceTests {
+
+    private static final List<String> NICK_NAMES = List.of("admin", "rt-alice", "rt-bob", "rt-carol", "rt-dave", "rt-frank", "rt-grace");
+
+    @Autowired
+    private ReferralAnalyticsService referralAnalyticsService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ReferralTestData referrals;
+
+    @Test
+    void countersFollowRegistrationsAndReferrerChanges() {
+        // admin → alice → bob → carol
+        userService.register("testtest", "password", "rt-alice");
+        userService.register(referrals.unusedCodeOf("rt-alice"), "password", "rt-bob");
+        userService.register(referrals.unusedCodeOf("rt-bob"), "password", "rt-carol");
+        // 使用済みのコードで登録した frank（体験中）と、frank が紹介した grace
+        userService.register("testtest", "password", "rt-frank");
+        userService.register(referrals.unusedCodeOf("rt-frank"), "password", "rt-grace");
+        // 紹介者のいない体験ユーザー
+        userService.registerTrialUser("rt-dave", "password");
+
+        assertThat(referrals.stats("admin")).extracting(ReferralStatsDto::depth, ReferralStatsDto::directCount,
+                ReferralStatsDto::descendantCount).containsExactly(0, 2, 5L);
+        assertThat(referrals.stats("rt-carol").depth()).isEqualTo(3);
+        assertThat(referrals.stats("rt-grace").depth()).isEqualTo(2);
+        assertThat(referrals.stats("rt-dave").depth()).isZero();
+
+        // frank が carol のコードで本登録すると、grace ごと carol の下に移る
+        userService.verifyReferralCodeAndUpgrade("rt-frank", referrals.unusedCodeOf("rt-carol"));
+        // dave が alice のコードで本登録すると、alice の下に入る
+        userService.verifyReferralCodeAndUpgrade("rt-dave", referrals.unusedCodeOf("rt-alice"));
+
+        assertThat(referrals.stats("admin")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(1, 6L);
+        assertThat(referrals.stats("rt-alice")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(2, 5L);
+        assertThat(referrals.stats("rt-carol")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(1, 2L);
+        assertThat(referrals.stats("rt-grace").depth()).isEqualTo(5);
+        assertThat(referrals.stats("rt-dave").depth()).isEqualTo(2);
+
+        // 自分の子孫のコードでは付け替えられず、集計も変わらない
+        assertThatThrownBy(() -> userService.verifyReferralCodeAndUpgrade("rt-alice", referrals.unusedCodeOf("rt-grace")))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        ReferralUserStatsDto grace = referralAnalyticsService.findUserStatsByNickName("rt-grace").orElseThrow();
+        assertThat(grace.path()).extracting(ReferralStatsDto::nickName)
+                .containsExactly("admin", "rt-alice", "rt-bob", "rt-carol", "rt-frank");
+        assertThat(referralAnalyticsService.overview(3).maxDepth()).isEqualTo(5);
+        assertThat(referralAnalyticsService.overview(3).topByDescendants()).extracting(ReferralStatsDto::nickName)
+                .containsExactly("admin", "rt-alice", "rt-bob");
+
+        // 差分で更新した集計は、全件から計算し直した結果と一致する
+        Map<String, ReferralStatsDto> incremental = allStats();
+        referralAnalyticsService.recomputeAll();
+        assertThat(allStats()).isEqualTo(incremental);
+    }
+
+    private Map<String, ReferralStatsDto> allStats() {
+        return NICK_NAMES.stream()
+                .map(referrals::stats)
+                .collect(Collectors.toMap(ReferralStatsDto::nickName, Function.identity()));
+    }
+}
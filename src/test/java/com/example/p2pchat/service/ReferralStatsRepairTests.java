@@ -0,0 +1,62 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.ReferralStatsDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 紹介者の集計の行が無い状態で登録・本登録した場合に、全件を計算し直して集計が正しくなることを確認します。
+ * 紹介枠と集計を他のテストと共有しないよう、専用の H2 データベースを使います。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:referral-repair"
+})
+@Import(ReferralTestData.class)
+class ReferralStatsRepairTests {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReferralTestData referrals;
+
+    @Test
+    void missingRowsAreRebuiltInsteadOfSkipped() {
+        // admin → alice
+        userService.register("testtest", "password", "rp-alice");
+        deleteStats("rp-alice");
+
+        // 紹介者 alice の行が無いまま bob が alice のコードで登録する
+        userService.register(referrals.unusedCodeOf("rp-alice"), "password", "rp-bob");
+
+        assertThat(referrals.stats("admin")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(1, 2L);
+        assertThat(referrals.stats("rp-alice")).extracting(ReferralStatsDto::depth, ReferralStatsDto::directCount,
+                ReferralStatsDto::descendantCount).containsExactly(1, 1, 1L);
+        assertThat(referrals.stats("rp-bob").depth()).isEqualTo(2);
+
+        // 体験ユーザー carol の行が無いまま、carol が bob のコードで本登録する
+        userService.registerTrialUser("rp-carol", "password");
+        deleteStats("rp-carol");
+        userService.verifyReferralCodeAndUpgrade("rp-carol", referrals.unusedCodeOf("rp-bob"));
+
+        assertThat(referrals.stats("admin").descendantCount()).isEqualTo(3L);
+        assertThat(referrals.stats("rp-bob")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(1, 1L);
+        assertThat(referrals.stats("rp-carol").depth()).isEqualTo(3);
+    }
+
+    private void deleteStats(String nickName) {
+        jdbcTemplate.update("DELETE FROM referral_stats WHERE user_id = (SELECT id FROM users WHERE nick_name = ?)", nickName);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.ReferralStatsDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * 紹介コードで登録するテストが共通で使う、紹介コードと紹介ツリーの集計の読み出しです。
+ * テストクラスに {@code @Import(ReferralTestData.class)} を付けて注入します。
+ */
+@RequiredArgsConstructor
+class ReferralTestData {
+
+    private static final String UNUSED_CODE = "SELECT rc.code FROM referral_code rc JOIN users u ON u.id = rc.user_id "
+            + "WHERE u.nick_name = ? AND rc.used = false ORDER BY rc.id LIMIT 1";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReferralAnalyticsService referralAnalyticsService;
+
+    // 指定ユーザーの未使用の紹介コードのうち、最初に発行されたもの
+    String unusedCodeOf(String nickName) {
+        return jdbcTemplate.queryForObject(UNUSED_CODE, String.class, nickName);
+    }
+
+    // 指定ユーザーの紹介ツリーの集計（行が無ければ失敗する）
+    ReferralStatsDto stats(String nickName) {
+        return referralAnalyticsService.findUserStatsByNickName(nickName).orElseThrow().user();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.ReferralStatsDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * 体験ユーザーの本登録（verifyReferralCodeAndUpgrade）が紹介ツリーの付け替えの後で失敗した場合に、
+ * 集計・紹介コード・ユーザーの変更がすべて元に戻ることを確認します。
+ * 紹介コードの発行（CodeAllocator.nextCodes）を1回だけ失敗させます。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:referral-rollback"
+})
+@Import(ReferralTestData.class)
+class ReferralUpgradeRollbackTests {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReferralTestData referrals;
+
+    @MockitoSpyBean
+    private CodeAllocator codeAllocator;
+
+    @Test
+    void failureAfterTheMoveRollsBackTheCounters() {
+        // admin → alice と、紹介者のいない体験ユーザー dave
+        userService.register("testtest", "password", "rb-alice");
+        userService.registerTrialUser("rb-dave", "password");
+        String code = referrals.unusedCodeOf("rb-alice");
+
+        doThrow(new IllegalStateException("コードを予約できません")).doCallRealMethod().when(codeAllocator).nextCodes(3);
+        assertThatThrownBy(() -> userService.verifyReferralCodeAndUpgrade("rb-dave", code))
+                .isInstanceOf(IllegalStateException.class);
+
+        // 付け替え前のまま（dave は根で、alice・admin の集計にも加わっていない）
+        assertThat(referrals.stats("rb-dave")).extracting(ReferralStatsDto::parentId, ReferralStatsDto::depth)
+                .containsExactly(null, 0);
+        assertThat(referrals.stats("rb-alice")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(0, 0L);
+        assertThat(referrals.stats("admin").descendantCount()).isEqualTo(1L);
+        assertThat(jdbcTemplate.queryForObject("SELECT used FROM referral_code WHERE code = ?", Boolean.class, code))
+                .isFalse();
+        assertThat(jdbcTemplate.queryForObject("SELECT trial FROM users WHERE nick_name = 'rb-dave'", Boolean.class))
+                .isTrue();
+
+        // 同じコードでやり直せる
+        userService.verifyReferralCodeAndUpgrade("rb-dave", code);
+        assertThat(referrals.stats("rb-dave")).extracting(ReferralStatsDto::parentId, ReferralStatsDto::depth)
+                .containsExactly(referrals.stats("rb-alice").userId(), 2);
+        assertThat(referrals.stats("rb-alice")).extracting(ReferralStatsDto::directCount, ReferralStatsDto::descendantCount)
+                .containsExactly(1, 1L);
+        assertThat(referrals.stats("admin").descendantCount()).isEqualTo(2L);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.p2pchat.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * UserService.register のスループット（登録数/秒）を、同時に登録するクライアント数ごとに計測するベンチマークです。
+ * 既定では組み込みの H2 に対して実行します。PostgreSQL に対して計測する場合は
+ * PostgresRegistrationThroughputBenchmarkTests を -Dbenchmark.postgres.url=... 付きで実行します。
+ * パスワードのハッシュ化（BCrypt）は登録処理の DB 部分を比べられるよう固定値に置き換えています。
+ * ./gradlew benchmark で実行します。
+ */
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false"
+})
+class RegistrationThroughputBenchmarkTests {
+
+    private static final int REGISTRATIONS_PER_CLIENT = 200;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockitoBean
+    private PasswordEncoder passwordEncoder;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 16})
+    void registrationsPerSecond(int clients) throws Exception {
+        when(passwordEncoder.encode(any())).thenReturn("$2a$10$benchmarkbenchmarkbenchmarkbenchmarkbenchmarkbenchma");
+        String run = "r" + System.nanoTime() + "c" + clients;
+
+        // クライアントごとに紹介者を用意し、紹介枠の行ロックの競合を避ける
+        List<String> referralCodes = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            referralCodes.add(seedReferrer(run + "-ref" + i));
+        }
+
+        // ウォームアップ
+        for (int i = 0; i < 20; i++) {
+            userService.register(referralCodes.get(0), "password", run + "-warm" + i);
+        }
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            List<Future<?>> results = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                String code = referralCodes.get(i);
+                String prefix = run + "-c" + i + "-";
+                results.add(executor.submit(() -> {
+                    for (int n = 0; n < REGISTRATIONS_PER_CLIENT; n++) {
+                        userService.register(code, "password", prefix + n);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        int total = clients * REGISTRATIONS_PER_CLIENT;
+
+        Integer registered = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM users WHERE nick_name LIKE ?", Integer.class, run + "-c%");
+        assertThat(registered).isEqualTo(total);
+        System.out.printf("[registration] db=%s clients=%d registrations=%,d %.1f reg/s%n",
+                databaseName(), clients, total, total / seconds);
+    }
+
+    // 紹介枠を十分に持つ紹介者を作り、その紹介コードを返す
+    private String seedReferrer(String nickName) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update("INSERT INTO users (nick_name, friend_request_code, password, authority, verified, "
+                        + "used_referral_code, remaining_referral_slots, trial, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                nickName, nickName, "x", "ROLE_USER", true, "none", 1_000_000, false, now);
+        Long id = jdbcTemplate.queryForObject("SELECT id FROM users WHERE nick_name = ?", Long.class, nickName);
+        jdbcTemplate.update("INSERT INTO referral_code (code, user_id, used, created_at) VALUES (?, ?, false, ?)",
+                nickName, id, now);
+        // 紹介ツリーの集計の根にする（登録のたびに紹介者の経路の集計も更新される）
+        jdbcTemplate.update("INSERT INTO referral_stats (user_id, parent_id, depth, direct_count, descendant_count) "
+                + "VALUES (?, NULL, 0, 0, 0)", id);
+        return nickName;
+    }
+
+    private String databaseName() {
+        return jdbcTemplate.execute((java.sql.Connection connection) -> connection.getMetaData().getDatabaseProductName());
+    }
+}
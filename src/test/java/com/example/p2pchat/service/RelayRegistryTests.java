@@ -0,0 +1,123 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.config.RelayProperties;
+import com.example.p2pchat.dto.RelayLoadReport;
+import com.example.p2pchat.dto.RelayStatusDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * RelayRegistry の疎通確認と割り当てのテストです。
+ * relay.js の代わりにローカルで待ち受ける ServerSocket をリレーとして使い、
+ * 閉じたソケットを停止したリレーとして扱います（疎通確認は TCP 接続のみのため）。
+ */
+class RelayRegistryTests {
+
+    private ServerSocket relayA;
+    private ServerSocket relayB;
+    private RelayRegistry relayRegistry;
+
+    @BeforeEach
+    void startRelays() throws IOException {
+        relayA = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        relayB = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        RelayProperties properties = new RelayProperties();
+        properties.setPool(List.of(multiaddr(relayA, "relayA"), multiaddr(relayB, "relayB")));
+        properties.setProbeTimeoutMs(500);
+        properties.setUnhealthyAfterFailures(2);
+        properties.setDefaultMaxReservations(10);
+        properties.setReportToken("secret");
+        relayRegistry = new RelayRegistry(properties, new SimpleMeterRegistry());
+        relayRegistry.init();
+    }
+
+    @AfterEach
+    void stopRelays() throws IOException {
+        relayRegistry.close();
+        relayA.close();
+        relayB.close();
+    }
+
+    @Test
+    void reachableRelaysAreHealthyWithLatency() {
+        relayRegistry.startProbes().join();
+
+        assertThat(relayRegistry.statuses())
+                .allSatisfy(status -> {
+                    assertThat(status.healthy()).isTrue();
+                    assertThat(status.latencyMillis()).isNotNull();
+                });
+    }
+
+    @Test
+    void sessionsAreSpreadAcrossRelaysByEstimatedLoad() {
+        relayRegistry.startProbes().join();
+
+        // 報告が無い間は割り当てた数を予約数とみなすため、交互に割り当てられる
+        List<String> assigned = List.of(relayRegistry.assign(), relayRegistry.assign(),
+                relayRegistry.assign(), relayRegistry.assign());
+
+        assertThat(assigned).filteredOn(a -> a.endsWith("relayA")).hasSize(2);
+        assertThat(assigned).filteredOn(a -> a.endsWith("relayB")).hasSize(2);
+    }
+
+    @Test
+    void leastLoadedRelayIsAssignedAfterLoadReports() {
+        relayRegistry.startProbes().join();
+        assertThat(relayRegistry.report(new RelayLoadReport("relayA", null, 8, 10))).isTrue();
+        assertThat(relayRegistry.report(new RelayLoadReport("relayB", null, 2, 10))).isTrue();
+
+        assertThat(relayRegistry.assign()).endsWith("relayB");
+        assertThat(relayRegistry.report(new RelayLoadReport("unknown", null, 0, 10))).isFalse();
+    }
+
+    @Test
+    void unreachableRelayIsSkippedAfterConsecutiveFailures() throws IOException {
+        relayRegistry.report(new RelayLoadReport("relayA", null, 0, 10));
+        relayRegistry.report(new RelayLoadReport("relayB", null, 9, 10));
+        relayA.close();
+
+        // 1回の失敗ではまだ外さない
+        relayRegistry.startProbes().join();
+        assertThat(relayRegistry.assign()).endsWith("relayA");
+
+        relayRegistry.startProbes().join();
+        assertThat(relayRegistry.statuses())
+                .filteredOn(status -> status.peerId().equals("relayA"))
+                .extracting(RelayStatusDto::healthy)
+                .containsExactly(false);
+        assertThat(relayRegistry.assign()).endsWith("relayB");
+    }
+
+    @Test
+    void fullRelayIsAssignedOnlyWhenNoOtherRelayIsAvailable() throws IOException {
+        relayRegistry.startProbes().join();
+        relayRegistry.report(new RelayLoadReport("relayA", null, 10, 10));
+        relayRegistry.report(new RelayLoadReport("relayB", null, 9, 10));
+
+        assertThat(relayRegistry.assign()).endsWith("relayB");
+        // relayB も上限に達したので、負荷の同じ relayA・relayB のどちらかを返す
+        assertThat(relayRegistry.assign()).containsAnyOf("relayA", "relayB");
+    }
+
+    @Test
+    void reportTokenMustMatch() {
+        assertThat(relayRegistry.acceptsReportToken("secret")).isTrue();
+        assertThat(relayRegistry.acceptsReportToken("wrong")).isFalse();
+        assertThat(relayRegistry.acceptsReportToken(null)).isFalse();
+    }
+
+    private static String multiaddr(ServerSocket socket, String peerId) {
+        return "/ip4/127.0.0.1/tcp/" + socket.getLocalPort() + "/ws/p2p/" + peerId;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.p2pchat.service;
+
+import com.example.p2pchat.dto.SignalingMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * SignalingService の転送・拒否と offer→answer の計測のテストです。
+ * WebSocket の接続はモックで置き換え、送られたメッセージを検証します。
+ */
+class SignalingServiceTests {
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+    private static final long CAROL = 3L;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FriendGraphCache friendGraphCache;
+    private SignalingService signalingService;
+
+    @BeforeEach
+    void setUp() {
+        friendGraphCache = mock(FriendGraphCache.class);
+        when(friendGraphCache.areMutualFriends(ALICE, BOB)).thenReturn(true);
+        when(friendGraphCache.areMutualFriends(BOB, ALICE)).thenReturn(true);
+
+        signalingService = new SignalingService(friendGraphCache, objectMapper, meterRegistry);
+        ReflectionTestUtils.setField(signalingService, "sendTimeLimitMs", 1000);
+        ReflectionTestUtils.setField(signalingService, "sendBufferBytes", 65536);
+        ReflectionTestUtils.setField(signalingService, "offerTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(signalingService, "maxPendingOffers", 100);
+        signalingService.init();
+    }
+
+    @Test
+    void offerAndAnswerAreForwardedBetweenFriendsAndTimed() throws Exception {
+        WebSocketSession alice = signalingService.register(ALICE, openSession());
+        WebSocketSession bob = signalingService.register(BOB, openSession());
+
+        // from は送信者のユーザーIDで上書きされる
+        signalingService.handle(ALICE, alice, message("offer", "call-1", 99L, BOB));
+        SignalingMessage offer = lastReceived(bob);
+        assertThat(offer.type()).isEqualTo("offer");
+        assertThat(offer.from()).isEqualTo(ALICE);
+
+        signalingService.handle(BOB, bob, message("answer", "call-1", null, ALICE));
+        SignalingMessage answer = lastReceived(alice);
+        assertThat(answer.type()).isEqualTo("answer");
+        assertThat(answer.from()).isEqualTo(BOB);
+
+        assertThat(meterRegistry.get("signaling.offer.answer").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("signaling.pending.offers").gauge().value()).isZero();
+    }
+
+    @Test
+    void messagesToNonFriendsAreRejected() throws Exception {
+        WebSocketSession alice = signalingService.register(ALICE, openSession());
+        WebSocketSession carol = signalingService.register(CAROL, openSession());
+
+        signalingService.handle(ALICE, alice, message("offer", "call-1", null, CAROL));
+
+        assertThat(lastReceived(alice).type()).isEqualTo("error");
+        assertThat(lastReceived(alice).data().asText()).isEqualTo("not-friends");
+        verify(delegateOf(carol), never()).sendMessage(any());
+    }
+
+    @Test
+    void messagesToDisconnectedFriendsAreRejected() throws Exception {
+        WebSocketSession alice = signalingService.register(ALICE, openSession());
+        WebSocketSession bob = signalingService.register(BOB, openSession());
+        signalingService.unregister(BOB, bob);
+
+        signalingService.handle(ALICE, alice, message("offer", "call-1", null, BOB));
+
+        assertThat(lastReceived(alice).data().asText()).isEqualTo("offline");
+        assertThat(signalingService.isConnected(BOB)).isFalse();
+    }
+
+    @Test
+    void answersWithoutMatchingOfferAreNotTimed() throws Exception {
+        WebSocketSession alice = signalingService.register(ALICE, openSession());
+        WebSocketSession bob = signalingService.register(BOB, openSession());
+
+        signalingService.handle(ALICE, alice, message("offer", "call-1", null, BOB));
+        // 別の callId への answer は計測しない
+        signalingService.handle(BOB, bob, message("answer", "call-2", null, ALICE));
+
+        assertThat(meterRegistry.get("signaling.offer.answer").timer().count()).isZero();
+    }
+
+    private static WebSocketSession openSession() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private SignalingMessage message(String type, String callId, Long from, Long to) {
+        JsonNode data = objectMapper.createObjectNode().put("sdp", "v=0");
+        return new SignalingMessage(type, callId, from, to, data);
+    }
+
+    private SignalingMessage lastReceived(WebSocketSession session) throws Exception {
+        WebSocketSession delegate = delegateOf(session);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(delegate, atLeastOnce()).sendMessage(captor.capture());
+        List<WebSocketMessage<?>> messages = captor.getAllValues();
+        TextMessage last = (TextMessage) messages.get(messages.size() - 1);
+        return objectMapper.readValue(last.getPayload(), SignalingMessage.class);
+    }
+
+    // register が返すのは送信をスレッドセーフにするデコレーターなので、モックの元の接続を取り出す
+    private static WebSocketSession delegateOf(WebSocketSession session) {
+        return ((ConcurrentWebSocketSessionDecorator) session).getDelegate();
+    }
+}
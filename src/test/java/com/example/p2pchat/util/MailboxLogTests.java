@@ -0,0 +1,203 @@
+package com.example.p2pchat.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * MailboxLog の追記・読み出し・確認、再起動時の復旧（途切れたレコード、古いチェックポイント）と compact のテストです。
+ * セグメントを 256 バイトにし、20 バイトの本文（レコード 60 バイト）を4件ごとに新しいセグメントへ書きます。
+ */
+class MailboxLogTests {
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+    private static final long CAROL = 3L;
+    private static final int SEGMENT_BYTES = 256;
+
+    @TempDir
+    private Path directory;
+
+    private MailboxLog mailboxLog;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (mailboxLog != null) {
+            mailboxLog.close();
+        }
+    }
+
+    @Test
+    void appendedMessagesAreReadInOrderUntilAcknowledged() throws Exception {
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+        long first = mailboxLog.append(BOB, ALICE, 100, payload("to bob 1"));
+        mailboxLog.append(CAROL, ALICE, 101, payload("to carol"));
+        long second = mailboxLog.append(BOB, ALICE, 102, payload("to bob 2"));
+        long third = mailboxLog.append(BOB, CAROL, 103, payload("to bob 3"));
+
+        assertThat(read(BOB, 0, 10)).containsExactly("to bob 1", "to bob 2", "to bob 3");
+        assertThat(read(BOB, first, 1)).containsExactly("to bob 2");
+        assertThat(mailboxLog.read(BOB, third, 10, (offset, senderId, createdAtMillis, payload) -> { })).isEqualTo(third);
+        assertThat(mailboxLog.pendingCount(BOB)).isEqualTo(3);
+        assertThat(mailboxLog.pendingCount()).isEqualTo(4);
+
+        assertThat(mailboxLog.acknowledge(BOB, second)).isEqualTo(2);
+        assertThat(read(BOB, 0, 10)).containsExactly("to bob 3");
+        assertThat(read(CAROL, 0, 10)).containsExactly("to carol");
+
+        // まだ追記されていないオフセットまで確認しても、その後に追記したメッセージは確認済みにならない
+        assertThat(mailboxLog.acknowledge(BOB, Long.MAX_VALUE)).isEqualTo(1);
+        mailboxLog.append(BOB, ALICE, 104, payload("to bob 4"));
+        assertThat(read(BOB, 0, 10)).containsExactly("to bob 4");
+
+        // 閉じると確認済みの位置がチェックポイントに残り、開き直しても未確認のものだけが読める
+        reopen();
+        assertThat(read(BOB, 0, 10)).containsExactly("to bob 4");
+        assertThat(read(CAROL, 0, 10)).containsExactly("to carol");
+        assertThat(mailboxLog.append(BOB, ALICE, 105, payload("to bob 5"))).isGreaterThan(third + 1);
+    }
+
+    @Test
+    void truncatedLastRecordIsDiscardedOnReopen() throws Exception {
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+        mailboxLog.append(BOB, ALICE, 100, payload("a"));
+        mailboxLog.append(BOB, ALICE, 101, payload("bb"));
+        long torn = mailboxLog.append(BOB, ALICE, 102, payload("ccc"));
+        mailboxLog.close();
+
+        // 3件目（位置 83〜126）の本文の途中で書き込みが途切れた
+        try (FileChannel channel = FileChannel.open(segment(1), WRITE)) {
+            channel.truncate(100);
+        }
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+
+        assertThat(mailboxLog.getCorruptedSegments()).isEqualTo(1);
+        assertThat(read(BOB, 0, 10)).containsExactly("a", "bb");
+
+        // 壊れたレコードの後ろには書かず、新しいセグメントに同じオフセットから書き始める
+        assertThat(mailboxLog.append(BOB, ALICE, 103, payload("dddd"))).isEqualTo(torn);
+        assertThat(mailboxLog.segmentCount()).isEqualTo(2);
+        assertThat(read(BOB, 0, 10)).containsExactly("a", "bb", "dddd");
+
+        reopen();
+        assertThat(read(BOB, 0, 10)).containsExactly("a", "bb", "dddd");
+    }
+
+    @Test
+    void staleCheckpointRedeliversMessagesAcknowledgedAfterIt() throws Exception {
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+        long first = mailboxLog.append(BOB, ALICE, 100, payload("one"));
+        long second = mailboxLog.append(BOB, ALICE, 101, payload("two"));
+        mailboxLog.append(BOB, ALICE, 102, payload("three"));
+
+        mailboxLog.acknowledge(BOB, first);
+        mailboxLog.compact(0.5);
+        Path stale = directory.resolve("acks.checkpoint.stale");
+        Files.copy(directory.resolve("acks.checkpoint"), stale);
+
+        mailboxLog.acknowledge(BOB, second);
+        mailboxLog.close();
+
+        // 2件目の確認をチェックポイントへ書き出す前に停止した
+        Files.move(stale, directory.resolve("acks.checkpoint"), REPLACE_EXISTING);
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+
+        // 書き出し済みの確認は失われず、書き出す前の確認は再度配信される（少なくとも1回の配信）
+        assertThat(mailboxLog.getCorruptedSegments()).isZero();
+        assertThat(read(BOB, 0, 10)).containsExactly("two", "three");
+        assertThat(mailboxLog.acknowledge(BOB, second)).isEqualTo(1);
+    }
+
+    @Test
+    void compactionKeepsOnlyUnacknowledgedRecords() throws Exception {
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+        // セグメント 1: BOB 宛て4件、セグメント 5: BOB と CAROL 宛てを交互に4件、セグメント 9（書き込み中）: CAROL 宛て2件
+        for (int i = 1; i <= 4; i++) {
+            mailboxLog.append(BOB, ALICE, i, message(i));
+        }
+        for (int i = 5; i <= 8; i++) {
+            mailboxLog.append(i % 2 == 1 ? BOB : CAROL, ALICE, i, message(i));
+        }
+        for (int i = 9; i <= 10; i++) {
+            mailboxLog.append(CAROL, ALICE, i, message(i));
+        }
+        assertThat(mailboxLog.segmentCount()).isEqualTo(3);
+
+        mailboxLog.acknowledge(BOB, 7);
+        MailboxLog.CompactionResult result = mailboxLog.compact(0.6);
+
+        // 全件確認済みのセグメントは削除し、半分が確認済みのセグメントは未確認の2件だけに書き直す
+        assertThat(result).isEqualTo(new MailboxLog.CompactionResult(1, 1, 240 + 120));
+        assertThat(mailboxLog.segmentCount()).isEqualTo(2);
+        assertThat(mailboxLog.sizeBytes()).isEqualTo(120 + 120);
+        assertThat(read(BOB, 0, 10)).isEmpty();
+        List<String> expected = List.of(text(6), text(8), text(9), text(10));
+        assertThat(read(CAROL, 0, 10)).isEqualTo(expected);
+
+        // 書き直したセグメントも開き直して読める
+        reopen();
+        assertThat(mailboxLog.getCorruptedSegments()).isZero();
+        assertThat(mailboxLog.segmentCount()).isEqualTo(2);
+        assertThat(read(CAROL, 0, 10)).isEqualTo(expected);
+        assertThat(read(BOB, 0, 10)).isEmpty();
+        assertThat(mailboxLog.append(BOB, ALICE, 11, message(11))).isEqualTo(11);
+    }
+
+    @Test
+    void appendWithLimitStopsAtMaxPendingUntilAcknowledged() throws Exception {
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+        assertThat(mailboxLog.append(BOB, ALICE, 100, payload("one"), 2)).isEqualTo(1);
+        assertThat(mailboxLog.append(BOB, ALICE, 101, payload("two"), 2)).isEqualTo(2);
+        assertThat(mailboxLog.append(BOB, ALICE, 102, payload("three"), 2)).isEqualTo(MailboxLog.FULL);
+        // 上限は受信者ごと
+        assertThat(mailboxLog.append(CAROL, ALICE, 103, payload("other"), 2)).isEqualTo(3);
+
+        mailboxLog.acknowledge(BOB, 1);
+        assertThat(mailboxLog.append(BOB, ALICE, 104, payload("three"), 2)).isEqualTo(4);
+        assertThat(read(BOB, 0, 10)).containsExactly("two", "three");
+    }
+
+    private void reopen() throws IOException {
+        mailboxLog.close();
+        mailboxLog = new MailboxLog(directory, SEGMENT_BYTES);
+    }
+
+    private Path segment(long baseOffset) {
+        return directory.resolve(String.format("%020d", baseOffset) + ".log");
+    }
+
+    private List<String> read(long recipientId, long afterOffset, int maxMessages) throws IOException {
+        List<String> messages = new ArrayList<>();
+        mailboxLog.read(recipientId, afterOffset, maxMessages, (offset, senderId, createdAtMillis, payload) -> {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            messages.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return messages;
+    }
+
+    private static byte[] payload(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 20 バイトの本文
+    private static byte[] message(int number) {
+        return payload(text(number));
+    }
+
+    private static String text(int number) {
+        return String.format("message-%012d", number);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.service.UserService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * ダッシュボード1回の表示で発行される SQL の数が、友達や申請の件数に関係なく一定であることを確認します。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureMockMvc
+class DashboardQueryCountTests {
+
+    // ユーザー・紹介コード・友達・申請・紹介で友達になったユーザーの5本
+    private static final long DASHBOARD_STATEMENTS = 5;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void dashboardStatementCountDoesNotGrowWithData() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        userService.register("testtest", "password", "alice");
+        userService.registerTrialUser("carol", "password");
+        userService.sendFriendRequest("carol", "admin");
+
+        statistics.clear();
+        mockMvc.perform(get("/dashboard"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("alice")))
+                .andExpect(content().string(containsString("carol")));
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(DASHBOARD_STATEMENTS);
+
+        // 友達と紹介済みユーザーが増えても同じ本数で表示できること
+        userService.register("aaaabbbb", "password", "bob");
+        userService.register("ccccdddd", "password", "dave");
+
+        statistics.clear();
+        mockMvc.perform(get("/dashboard"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("dave")));
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(DASHBOARD_STATEMENTS);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.config.SqlStatementCapture;
+import com.example.p2pchat.config.SqlStatementCounter;
+import com.example.p2pchat.repository.UserRepository;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.FriendGraphCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static com.example.p2pchat.config.SqlStatementAssert.assertThatSql;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 主要なエンドポイント1回あたりの SQL 発行数を固定し、N+1 が入り込んでいないことを確認します。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureMockMvc
+class EndpointSqlStatementTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private SqlStatementCounter sqlStatementCounter;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FriendGraphCache friendGraphCache;
+
+    @Test
+    void dashboardUsesFixedNumberOfStatements() throws Exception {
+        try (SqlStatementCapture capture = sqlStatementCounter.start()) {
+            mockMvc.perform(get("/dashboard").with(user(admin())))
+                    .andExpect(status().isOk());
+            assertThatSql(capture).hasStatementCount(5).hasNoRepeatedStatements();
+        }
+    }
+
+    @Test
+    void onlineFriendsAreServedWithoutRepeatedQueries() throws Exception {
+        ChatUserDetails admin = admin();
+        // 1回目は友達グラフのキャッシュを読み込む可能性がある
+        mockMvc.perform(get("/api/online").with(user(admin))).andExpect(status().isOk());
+
+        try (SqlStatementCapture capture = sqlStatementCounter.start()) {
+            mockMvc.perform(get("/api/online").with(user(admin)))
+                    .andExpect(status().isOk());
+            assertThatSql(capture).hasAtMostStatements(1).hasNoRepeatedStatements();
+        }
+    }
+
+    @Test
+    void unchangedOnlineFriendsAreAnsweredWithNotModified() throws Exception {
+        ChatUserDetails admin = admin();
+        String etag = mockMvc.perform(get("/api/online").with(user(admin)))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        try (SqlStatementCapture capture = sqlStatementCounter.start()) {
+            mockMvc.perform(get("/api/online").with(user(admin)).header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isNotModified());
+            assertThatSql(capture).hasStatementCount(0);
+        }
+
+        // 友達関係が変わると一覧のバージョンが進み、同じ ETag では 304 にならない
+        friendGraphCache.invalidate(admin.getId());
+        mockMvc.perform(get("/api/online").with(user(admin)).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+    }
+
+    private ChatUserDetails admin() {
+        Long id = userRepository.findIdByNickName("admin").orElseThrow();
+        return new ChatUserDetails(id, "admin", "", false, "ROLE_ADMIN");
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.p2pchat.web;
+
+import com.example.p2pchat.Entity.FriendRequest;
+import com.example.p2pchat.Entity.User;
+import com.example.p2pchat.dto.FriendRequestSummaryDto;
+import com.example.p2pchat.repository.FriendRequestRepository;
+import com.example.p2pchat.service.ChatUserDetails;
+import com.example.p2pchat.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * /friends/dashboard の受信した申請に、送信者がキャンセルした申請が含まれないことを確認します。
+ */
+@SpringBootTest(properties = {
+        "relay.multiaddr=/ip4/127.0.0.1/tcp/9001/ws",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureMockMvc
+class FriendDashboardTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private FriendRequestRepository friendRequestRepository;
+
+    @Test
+    void cancelledIncomingRequestsAreHidden() throws Exception {
+        userService.registerTrialUser("fd-bob", "password");
+        userService.registerTrialUser("fd-carol", "password");
+        userService.registerTrialUser("fd-dave", "password");
+        userService.sendFriendRequest("fd-carol", "fd-bob");
+        userService.sendFriendRequest("fd-dave", "fd-bob");
+
+        // carol が申請をキャンセルする
+        User carol = userService.findByNickName("fd-carol").orElseThrow();
+        FriendRequest cancelled = friendRequestRepository.findBySender(carol).get(0);
+        cancelled.setCancelled(true);
+        friendRequestRepository.save(cancelled);
+
+        User bob = userService.findByNickName("fd-bob").orElseThrow();
+        MvcResult result = mockMvc.perform(get("/friends/dashboard")
+                        .with(user(new ChatUserDetails(bob.getId(), "fd-bob", "", true, "ROLE_USER"))))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        @SuppressWarnings("unchecked")
+        List<FriendRequestSummaryDto> pending = (List<FriendRequestSummaryDto>) result.getModelAndView()
+                .getModel().get("pendingRequests");
+        assertThat(pending).extracting(FriendRequestSummaryDto::senderNickName).containsExactly("fd-dave");
+    }
+}